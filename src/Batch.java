@@ -0,0 +1,116 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import parser.Interpreter;
+import parser.Parser;
+
+/**
+ * Runs several script files at the same time, each in an interpreter of its own, writing
+ * what each prints to a file of its own
+ * Usage: Batch [-j workers] [-o dir] script...
+ */
+public class Batch {
+
+  /**
+   * How a script went
+   */
+  private static final class Result {
+    String status;
+    double ms;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int workers = Runtime.getRuntime().availableProcessors();
+    File dir = null;
+    List<String> scripts = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-j") && i + 1 < args.length) {
+        workers = Math.max(1, Integer.parseInt(args[++i]));
+      } else if (args[i].equals("-o") && i + 1 < args.length) {
+        dir = new File(args[++i]);
+      } else {
+        scripts.add(args[i]);
+      }
+    }
+    if (scripts.isEmpty()) {
+      System.err.println("Usage: Batch [-j workers] [-o dir] script...");
+      return;
+    }
+    if (dir != null) {
+      dir.mkdirs();
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable task) {
+        return new Thread(null, task, "batch", Parser.STACK);
+      }
+    });
+    List<Future<Result>> results = new ArrayList<>();
+    long start = System.nanoTime();
+    for (final String script : scripts) {
+      final File out = output(script, dir);
+      results.add(pool.submit(() -> run(script, out)));
+    }
+    pool.shutdown();
+
+    double summed = 0;
+    for (int i = 0; i < scripts.size(); i++) {
+      Result result;
+      try {
+        result = results.get(i).get();
+      } catch (ExecutionException e) {
+        result = new Result();
+        result.status = "crashed: " + e.getCause();
+      }
+      summed += result.ms;
+      System.out.printf("%-40s %10.1f ms  %s%n", scripts.get(i), result.ms, result.status);
+    }
+    double wall = (System.nanoTime() - start) / 1e6;
+    System.out.printf("%d scripts on %d workers: %.1f ms wall, %.1f ms summed (%.2fx)%n", scripts.size(),
+        workers, wall, summed, summed / wall);
+  }
+
+  /**
+   * @param script The path of a script
+   * @param dir    Where outputs go, or null for next to the script
+   * @return The file what it prints goes to
+   */
+  private static File output(String script, File dir) {
+    File file = new File(script);
+    return (dir == null) ? new File(script + ".out") : new File(dir, file.getName() + ".out");
+  }
+
+  /**
+   * Runs every statement of a script, stopping at the first error
+   * @param script The path of the script
+   * @param out    The file what it prints goes to
+   * @return How it went
+   */
+  private static Result run(String script, File out) {
+    Result result = new Result();
+    long start = System.nanoTime();
+    try (FileInputStream in = new FileInputStream(script);
+        PrintStream printed = new PrintStream(new FileOutputStream(out), false, "UTF-8")) {
+      try {
+        result.status = new Interpreter(in, printed).run() ? "ok" : "error";
+      } catch (RuntimeException | StackOverflowError e) {
+        result.status = "crashed: " + e;
+      }
+    } catch (IOException e) {
+      result.status = "cannot open: " + e.getMessage();
+    }
+    result.ms = (System.nanoTime() - start) / 1e6;
+    return result;
+  }
+}
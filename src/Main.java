@@ -1,11 +1,24 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+
 import io.Input;
 import io.Output;
 import parser.Parser;
 
 public class Main {
-
-  public static void main(String[] args) {
-    REPL();
+  public static void main(final String[] args) throws InterruptedException {
+    Thread interpreter = new Thread(null, new Runnable() {
+      @Override
+      public void run() {
+        if (args.length > 0) {
+          script(args[0]);
+        } else {
+          REPL();
+        }
+      }
+    }, "main", Parser.STACK);
+    interpreter.start();
+    interpreter.join();
   }
 
   public static void REPL() {
@@ -16,7 +29,7 @@ public class Main {
       Output.print(">>> ");
       inputLine = Input.readLine();
       // Program exit condition
-      if (inputLine.matches("^\\s*\\b(exit|quit)\\b\\s*$")) {
+      if (inputLine == null || inputLine.matches("^\\s*\\b(exit|quit)\\b\\s*$")) {
         break;
       }
 
@@ -25,4 +38,22 @@ public class Main {
 
     Input.close();
   }
+
+  /**
+   * Runs every statement of a script file, stopping at the first error
+   * @param path The path of the script
+   */
+  public static void script(String path) {
+    try (FileInputStream in = new FileInputStream(path)) {
+      Input.readFrom(in);
+      String inputLine;
+      while ((inputLine = Input.readLine()) != null) {
+        if (Parser.read(inputLine) == null) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      Output.customError("Cannot read %s: %s", path, e.getMessage());
+    }
+  }
 }
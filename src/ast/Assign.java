@@ -0,0 +1,25 @@
+package ast;
+
+/**
+ * name = expr
+ *
+ */
+public class Assign extends Stmt {
+  public final String name;
+  public final Expr value;
+  /**
+   * Whether the value may be written into the matrix the var holds, as nothing else in
+   * the statement being run can see it
+   */
+  public final boolean inPlace;
+
+  public Assign(String name, Expr value) {
+    this(name, value, false);
+  }
+
+  public Assign(String name, Expr value, boolean inPlace) {
+    this.name = name;
+    this.value = value;
+    this.inPlace = inPlace;
+  }
+}
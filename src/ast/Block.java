@@ -0,0 +1,21 @@
+package ast;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A list of statements run in their own scope, such as a loop body
+ *
+ */
+public class Block extends Stmt {
+  /**
+   * A block with nothing in it, such as a blank line
+   */
+  public static final Block EMPTY = new Block(Collections.<Stmt>emptyList());
+
+  public final List<Stmt> stmts;
+
+  public Block(List<Stmt> stmts) {
+    this.stmts = stmts;
+  }
+}
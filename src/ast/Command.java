@@ -0,0 +1,28 @@
+package ast;
+
+import tokens.Tk;
+
+/**
+ * A command such as mode, set, load or explain, with its arguments as written
+ *
+ */
+public class Command extends Stmt {
+  /**
+   * Which command
+   */
+  public final Tk kind;
+  /**
+   * The arguments that are names, numbers or paths
+   */
+  public final String[] args;
+  /**
+   * The argument that is an expression (can be null)
+   */
+  public final Expr expr;
+
+  public Command(Tk kind, String[] args, Expr expr) {
+    this.kind = kind;
+    this.args = args;
+    this.expr = expr;
+  }
+}
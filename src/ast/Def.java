@@ -0,0 +1,19 @@
+package ast;
+
+import java.util.List;
+
+/**
+ * def name(params): ... end
+ *
+ */
+public class Def extends Stmt {
+  public final String name;
+  public final List<String> params;
+  public final Block body;
+
+  public Def(String name, List<String> params, Block body) {
+    this.name = name;
+    this.params = params;
+    this.body = body;
+  }
+}
@@ -0,0 +1,23 @@
+package ast;
+
+import java.util.List;
+
+/**
+ * An expression in postfix form, with its literals already turned into values
+ *
+ */
+public class Expr {
+  /**
+   * The values, names and operators of the expression in evaluation order
+   */
+  public final List<Object> postfix;
+  /**
+   * How the expression was simplified when it was parsed, for explain
+   */
+  public final List<String> rewrites;
+
+  public Expr(List<Object> postfix, List<String> rewrites) {
+    this.postfix = postfix;
+    this.rewrites = rewrites;
+  }
+}
@@ -0,0 +1,13 @@
+package ast;
+
+/**
+ * An expression whose value is printed
+ *
+ */
+public class ExprStmt extends Stmt {
+  public final Expr expr;
+
+  public ExprStmt(Expr expr) {
+    this.expr = expr;
+  }
+}
@@ -0,0 +1,35 @@
+package ast;
+
+/**
+ * for name in start -> end [by step]: ... end, counting from start up to (but not
+ * including) end
+ * <p>
+ * parfor in place of for runs the passes at the same time, which their body must allow.
+ *
+ */
+public class For extends Stmt {
+  public final String name;
+  public final Expr start, end;
+  /**
+   * The step (can be null for a step of one)
+   */
+  public final Expr step;
+  public final Block body;
+  /**
+   * Whether this is a parfor
+   */
+  public final boolean parallel;
+
+  public For(String name, Expr start, Expr end, Expr step, Block body) {
+    this(name, start, end, step, body, false);
+  }
+
+  public For(String name, Expr start, Expr end, Expr step, Block body, boolean parallel) {
+    this.name = name;
+    this.start = start;
+    this.end = end;
+    this.step = step;
+    this.body = body;
+    this.parallel = parallel;
+  }
+}
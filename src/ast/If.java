@@ -0,0 +1,20 @@
+package ast;
+
+/**
+ * if cond: ... [else: ...] end
+ *
+ */
+public class If extends Stmt {
+  public final Expr cond;
+  public final Block then;
+  /**
+   * The else block (can be null)
+   */
+  public final Block otherwise;
+
+  public If(Expr cond, Block then, Block otherwise) {
+    this.cond = cond;
+    this.then = then;
+    this.otherwise = otherwise;
+  }
+}
@@ -0,0 +1,20 @@
+package ast;
+
+import java.util.List;
+
+/**
+ * name = followed by the rows of a matrix, one per line
+ *
+ */
+public class MtxAssign extends Stmt {
+  public final String name;
+  /**
+   * Each cell of each row
+   */
+  public final List<List<Expr>> rows;
+
+  public MtxAssign(String name, List<List<Expr>> rows) {
+    this.name = name;
+    this.rows = rows;
+  }
+}
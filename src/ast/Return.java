@@ -0,0 +1,16 @@
+package ast;
+
+/**
+ * return [expr], which also closes the block it is in
+ *
+ */
+public class Return extends Stmt {
+  /**
+   * The value returned (can be null)
+   */
+  public final Expr value;
+
+  public Return(Expr value) {
+    this.value = value;
+  }
+}
@@ -0,0 +1,8 @@
+package ast;
+
+/**
+ * A statement parsed once and executed any number of times
+ *
+ */
+public abstract class Stmt {
+}
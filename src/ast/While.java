@@ -0,0 +1,15 @@
+package ast;
+
+/**
+ * while cond: ... end
+ *
+ */
+public class While extends Stmt {
+  public final Expr cond;
+  public final Block body;
+
+  public While(Expr cond, Block body) {
+    this.cond = cond;
+    this.body = body;
+  }
+}
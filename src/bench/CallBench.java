@@ -0,0 +1,77 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import io.Input;
+import parser.Parser;
+
+/**
+ * Times calls to functions defined with def: a doubly recursive fib with memo on and
+ * off, and a loop calling a small function with a new argument every pass
+ * Usage: CallBench [n] [passes]
+ */
+public class CallBench {
+  /**
+   * Untimed runs of every script first, so the JIT has compiled the interpreter
+   */
+  private static final int WARMUP = 3;
+
+  public static void main(String[] args) {
+    int n = (args.length > 0) ? Integer.parseInt(args[0]) : 22;
+    int passes = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+    String fib = "def fib(n):\n  if n < 2:\n    return n\n  return fib(n - 1) + fib(n - 2)\n";
+    String loop = "def f(x):\n  y = x*x\n  return y + 1\ns = 0\nfor i in 0 -> " + passes
+        + ":\n  s = s + f(i)\nend\n";
+    String[][] runs = { { "fib " + n, fib + "r = fib(" + n + ")\n" }, { "loop of calls", loop } };
+
+    for (String[] run : runs) {
+      for (int pass = 0; pass < WARMUP; pass++) {
+        run("set memo on\n" + run[1]);
+        run("set memo off\n" + run[1]);
+      }
+    }
+    System.out.printf("%-14s %10s %10s %8s%n", "script", "memo ms", "no memo ms", "speedup");
+    for (String[] run : runs) {
+      double on = time("set memo on\n" + run[1]);
+      double off = time("set memo off\n" + run[1]);
+      System.out.printf("%-14s %10.1f %10.1f %8.2f%n", run[0], on, off, off / on);
+    }
+  }
+
+  /**
+   * Best of three runs of a script in milliseconds
+   */
+  private static double time(String script) {
+    double best = Double.MAX_VALUE;
+    for (int run = 0; run < 3; run++) {
+      long start = System.nanoTime();
+      run(script);
+      best = Math.min(best, (System.nanoTime() - start) / 1e6);
+    }
+    return best;
+  }
+
+  /**
+   * Runs every statement of a script, discarding what it prints
+   */
+  private static void run(String script) {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    }));
+    try {
+      Input.readFrom(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)));
+      String line;
+      while ((line = Input.readLine()) != null) {
+        Parser.read(line);
+      }
+    } finally {
+      System.setOut(out);
+    }
+  }
+}
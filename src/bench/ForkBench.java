@@ -0,0 +1,95 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import io.Input;
+import parser.Parser;
+
+/**
+ * Times expressions with independent products and factorisations with their operands
+ * evaluated in order and at the same time
+ * Usage: ForkBench [size] [passes]
+ */
+public class ForkBench {
+
+  public static void main(String[] args) {
+    int n = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+    int passes = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+    Random random = new Random(11);
+    String setup = matrix("A", n, random) + matrix("B", n, random) + matrix("C", n, random)
+        + matrix("D", n, random);
+    String small = matrix("A", n / 5, random) + matrix("B", n / 5, random) + matrix("C", n / 5, random)
+        + matrix("D", n / 5, random);
+    // Each pass scales the matrices by i, so nothing is hoisted out of the loop
+    String[][] runs = {
+        { "float 2 products", "mode float\n" + setup, loop(passes, "P = (i*A)*B + (i*C)*D") },
+        { "float 4 products", "mode float\n" + setup, loop(passes, "P = (i*A)*B + (i*C)*D + (i*A)*D + (i*C)*B") },
+        { "float 2 solves", "mode float\n" + setup, loop(passes, "P = solve(A, i*B) + solve(C, i*D)") },
+        { "exact 2 products", "mode exact\n" + small, loop(passes, "P = (i*A)*B + (i*C)*D") },
+        { "exact 2 dets", "mode exact\n" + small, loop(passes, "d = det(i*A) + det(i*B)") } };
+
+    System.out.printf("%-18s %10s %10s %8s%n", "expression", "order ms", "fork ms", "speedup");
+    for (String[] run : runs) {
+      run(run[1]);
+      // Untimed, so both are timed with the interpreter compiled
+      run("set fork off\n" + run[2]);
+      run("set fork on\n" + run[2]);
+      double off = time("set fork off\n" + run[2]);
+      double on = time("set fork on\n" + run[2]);
+      System.out.printf("%-18s %10.1f %10.1f %8.2f%n", run[0], off, on, off / on);
+    }
+  }
+
+  private static String loop(int passes, String body) {
+    return "for i in 0 -> " + passes + ":\n  " + body + "\nend\n";
+  }
+
+  private static String matrix(String name, int n, Random random) {
+    StringBuilder script = new StringBuilder(name).append(" =\n");
+    for (int r = 0; r < n; r++) {
+      for (int c = 0; c < n; c++) {
+        script.append(c == 0 ? "" : ", ").append(random.nextInt(9) + 1);
+      }
+      script.append('\n');
+    }
+    return script.append('\n').toString();
+  }
+
+  /**
+   * Best of three runs of a script in milliseconds
+   */
+  private static double time(String script) {
+    double best = Double.MAX_VALUE;
+    for (int run = 0; run < 3; run++) {
+      long start = System.nanoTime();
+      run(script);
+      best = Math.min(best, (System.nanoTime() - start) / 1e6);
+    }
+    return best;
+  }
+
+  /**
+   * Runs every statement of a script, discarding what it prints
+   */
+  private static void run(String script) {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    }));
+    try {
+      Input.readFrom(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)));
+      String line;
+      while ((line = Input.readLine()) != null) {
+        Parser.read(line);
+      }
+    } finally {
+      System.setOut(out);
+    }
+  }
+}
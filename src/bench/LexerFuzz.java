@@ -0,0 +1,92 @@
+package bench;
+
+import java.util.List;
+import java.util.Random;
+
+import tokens.Lexer;
+import tokens.ReadToken;
+
+/**
+ * Checks the hand-written lexer against the regex one on random lines, then times both
+ * on matrix rows of growing length
+ * Usage: LexerFuzz [lines] [seed]
+ */
+public class LexerFuzz {
+  /**
+   * Pieces random lines are made of, weighted towards the places the two could differ:
+   * word boundaries, numbers with fractions and exponents, two-character operators and
+   * characters no token starts with
+   */
+  private static final String[] PIECES = { " ", " ", "  ", "\t", "(", ")", "[", "]", ",", ":", "=", "'", "^", "*",
+      "/", "+", "-", "->", "<", "<=", ">", ">=", "&", "&&", "|", "||", "!", ".", "0", "7", "12", "3.5", ".25", "1e5",
+      "2E-3", "4e", "6.", "e", "E", "x", "A", "_t", "x1", "abc", "if", "for", "in", "by", "while", "def", "return",
+      "else", "end", "mode", "set", "load", "explain", "True", "False", "iff", "end_", "det(", "id(", "\u00e9",
+      "\u0661", "@", "#", "$", "\"", ";" };
+
+  public static void main(String[] args) {
+    int count = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+    long seed = (args.length > 1) ? Long.parseLong(args[1]) : 42;
+    Random random = new Random(seed);
+
+    int mismatches = 0;
+    for (int i = 0; i < count; i++) {
+      String line = randomLine(random);
+      String expected = describe(Lexer.tokenize(line, true));
+      String actual = describe(Lexer.tokenize(line, false));
+      if (!expected.equals(actual)) {
+        if (++mismatches <= 10) {
+          System.out.printf("MISMATCH on \"%s\"%n  regex: %s%n  lexer: %s%n", line, expected, actual);
+        }
+      }
+    }
+    System.out.printf("%d lines, %d mismatches%n", count, mismatches);
+
+    System.out.printf("%8s %12s %12s %10s%n", "cells", "regex ms", "lexer ms", "speedup");
+    for (int cells = 50; cells <= 800; cells *= 2) {
+      StringBuilder row = new StringBuilder();
+      for (int c = 0; c < cells; c++) {
+        row.append(c == 0 ? "" : ", ").append(random.nextInt(100000)).append('.').append(random.nextInt(100));
+      }
+      String line = row.toString();
+      double regex = time(line, true);
+      double lexer = time(line, false);
+      System.out.printf("%8d %12.2f %12.2f %10.1f%n", cells, regex, lexer, regex / lexer);
+    }
+    if (mismatches > 0) {
+      System.exit(1);
+    }
+  }
+
+  private static String randomLine(Random random) {
+    StringBuilder line = new StringBuilder();
+    int pieces = random.nextInt(12);
+    for (int p = 0; p < pieces; p++) {
+      line.append(PIECES[random.nextInt(PIECES.length)]);
+    }
+    return line.toString();
+  }
+
+  /**
+   * Each token and its text, which together pin down where every token starts and stops
+   */
+  private static String describe(List<ReadToken> tokens) {
+    StringBuilder out = new StringBuilder();
+    for (ReadToken token : tokens) {
+      out.append(token.token.name()).append('"').append(token.tokenStr()).append("\" ");
+    }
+    return out.toString();
+  }
+
+  /**
+   * Best of three tokenisations of a line in milliseconds
+   */
+  private static double time(String line, boolean useRegex) {
+    double best = Double.MAX_VALUE;
+    for (int run = 0; run < 3; run++) {
+      long start = System.nanoTime();
+      Lexer.tokenize(line, useRegex);
+      best = Math.min(best, (System.nanoTime() - start) / 1e6);
+    }
+    return best;
+  }
+}
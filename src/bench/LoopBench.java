@@ -0,0 +1,43 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import io.Input;
+import parser.Parser;
+
+/**
+ * Times a scalar for loop run through the interpreter, from parsing the script to the
+ * last iteration
+ * Usage: LoopBench [iterations]
+ */
+public class LoopBench {
+
+  public static void main(String[] args) {
+    int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+    String script = "s = 0\n"
+        + "for i in 0 -> " + iterations + ":\n"
+        + "  s = s + i*2\n"
+        + "end\n"
+        + "s\n";
+
+    System.out.printf("%12s %12s %12s%n", "iterations", "ms", "ns/iter");
+    for (int run = 0; run < 3; run++) {
+      long start = System.nanoTime();
+      run(script);
+      double ms = (System.nanoTime() - start) / 1e6;
+      System.out.printf("%12d %12.1f %12.1f%n", iterations, ms, ms * 1e6 / iterations);
+    }
+  }
+
+  /**
+   * Runs every statement of a script
+   */
+  private static void run(String script) {
+    Input.readFrom(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)));
+    String line;
+    while ((line = Input.readLine()) != null) {
+      Parser.read(line);
+    }
+  }
+}
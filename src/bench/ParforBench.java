@@ -0,0 +1,70 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import io.Input;
+import parser.Parser;
+
+/**
+ * Times loops whose passes are independent as a for loop and as a parfor loop, on one
+ * worker and on as many as there are processors
+ * Usage: ParforBench [passes] [workers]
+ */
+public class ParforBench {
+
+  public static void main(String[] args) {
+    int n = (args.length > 0) ? Integer.parseInt(args[0]) : 2000;
+    int workers = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    String[][] scripts = {
+        { "inner loops", "s = 0\nLOOP i in 0 -> " + n + ":\n  t = 0\n  for j in 0 -> 100:\n    t = t + i*j\n  end\n"
+            + "  s = s + t\nend\n" },
+        { "dets", "A = id(12) + zero(12, 12)\nd = 0\nLOOP i in 0 -> " + (n / 10) + ":\n  d = d + det(i*A + A)\nend\n" },
+        { "calls", "def f(x):\n  y = 0\n  for k in 0 -> 50:\n    y = y + x*k\n  end\n  return y\ns = 0\nLOOP i in 0 -> " + n
+            + ":\n  s = s + f(i)\nend\n" } };
+
+    System.out.printf("%-12s %10s %10s %10s %8s%n", "script", "for ms", "1 ms", workers + " ms", "speedup");
+    for (String[] script : scripts) {
+      double serial = time(script[1].replace("LOOP", "for"));
+      double one = time("set parfor_workers 1\n" + script[1].replace("LOOP", "parfor"));
+      double many = time("set parfor_workers " + workers + "\n" + script[1].replace("LOOP", "parfor"));
+      System.out.printf("%-12s %10.1f %10.1f %10.1f %8.2f%n", script[0], serial, one, many, serial / many);
+    }
+  }
+
+  /**
+   * Best of three runs of a script in milliseconds
+   */
+  private static double time(String script) {
+    double best = Double.MAX_VALUE;
+    for (int run = 0; run < 3; run++) {
+      long start = System.nanoTime();
+      run(script);
+      best = Math.min(best, (System.nanoTime() - start) / 1e6);
+    }
+    return best;
+  }
+
+  /**
+   * Runs every statement of a script, discarding what it prints
+   */
+  private static void run(String script) {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    }));
+    try {
+      Input.readFrom(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)));
+      String line;
+      while ((line = Input.readLine()) != null) {
+        Parser.read(line);
+      }
+    } finally {
+      System.setOut(out);
+    }
+  }
+}
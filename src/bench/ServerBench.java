@@ -0,0 +1,150 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import server.Server;
+
+/**
+ * Runs the same statements in one session of a server and in many at once, timing how
+ * long each statement takes to be answered
+ * Usage: ServerBench [sessions] [rounds]
+ */
+public class ServerBench {
+
+  public static void main(String[] args) throws Exception {
+    int sessions = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+    int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+    List<String> statements = statements(rounds);
+
+    try (Server server = new Server(0, 600, sessions)) {
+      server.start();
+      // Untimed, so every run is timed with the interpreter compiled
+      load(server.port(), 1, statements);
+      System.out.printf("%-9s %10s %10s %12s %8s %8s%n", "sessions", "statements", "wall ms", "statements/s", "p50 ms",
+          "p99 ms");
+      for (int n : new int[] { 1, sessions }) {
+        long start = System.nanoTime();
+        List<Double> latencies = load(server.port(), n, statements);
+        double wall = (System.nanoTime() - start) / 1e6;
+        Collections.sort(latencies);
+        System.out.printf("%-9d %10d %10.1f %12.0f %8.2f %8.2f%n", n, latencies.size(), wall,
+            latencies.size() / (wall / 1000), percentile(latencies, 0.5), percentile(latencies, 0.99));
+      }
+    }
+  }
+
+  /**
+   * What each session runs: a matrix workspace built up and worked on, and scalar loops
+   */
+  private static List<String> statements(int rounds) {
+    Random random = new Random(7);
+    List<String> statements = new ArrayList<>();
+    statements.add("mode float");
+    statements.add(matrix("A", 40, random));
+    statements.add(matrix("B", 40, random));
+    for (int round = 0; round < rounds; round++) {
+      statements.add("P = A*B + B*A");
+      statements.add("d = det(P)");
+      statements.add("s = 0");
+      statements.add("for i in 0 -> 2000:\n  s = s + i*" + round + "\nend");
+      statements.add("x = solve(A, B)");
+      statements.add("s");
+    }
+    return statements;
+  }
+
+  private static String matrix(String name, int n, Random random) {
+    StringBuilder lines = new StringBuilder(name).append(" =\n");
+    for (int r = 0; r < n; r++) {
+      for (int c = 0; c < n; c++) {
+        lines.append(c == 0 ? "" : ", ").append(random.nextInt(9) + 1);
+      }
+      lines.append('\n');
+    }
+    return lines.toString();
+  }
+
+  /**
+   * Runs the statements in sessions all open at once
+   * @return How long each statement took to be answered, in milliseconds
+   */
+  private static List<Double> load(final int port, int n, final List<String> statements) throws Exception {
+    final List<Double> latencies = Collections.synchronizedList(new ArrayList<Double>());
+    final List<Exception> failures = Collections.synchronizedList(new ArrayList<Exception>());
+    List<Thread> clients = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      Thread client = new Thread(() -> {
+        try {
+          latencies.addAll(session(port, statements));
+        } catch (IOException e) {
+          failures.add(e);
+        }
+      });
+      clients.add(client);
+      client.start();
+    }
+    for (Thread client : clients) {
+      client.join();
+    }
+    if (!failures.isEmpty())
+      throw failures.get(0);
+    return latencies;
+  }
+
+  /**
+   * Sends each statement in a session of its own, waiting for its status line before
+   * sending the next
+   */
+  private static List<Double> session(int port, List<String> statements) throws IOException {
+    List<Double> latencies = new ArrayList<>();
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      socket.setTcpNoDelay(true);
+      BufferedReader replies = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      PrintWriter to = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+      status(replies);
+      for (String statement : statements) {
+        long start = System.nanoTime();
+        // A matrix's rows end with a newline, so this ends it with a blank line
+        to.print(statement + "\n");
+        to.flush();
+        String status = status(replies);
+        if (!status.equals("ok"))
+          throw new IOException("Statement failed (" + status + "): " + statement.split("\n")[0]);
+        latencies.add((System.nanoTime() - start) / 1e6);
+      }
+      to.print("exit\n");
+      to.flush();
+      status(replies);
+    }
+    return latencies;
+  }
+
+  /**
+   * Reads a reply up to its status line
+   * @return The status
+   */
+  private static String status(BufferedReader replies) throws IOException {
+    String line;
+    while ((line = replies.readLine()) != null) {
+      if (line.startsWith("# "))
+        return line.substring(2);
+    }
+    throw new IOException("Session closed");
+  }
+
+  private static double percentile(List<Double> sorted, double p) {
+    return sorted.isEmpty() ? 0 : sorted.get((int) Math.min(sorted.size() - 1, Math.floor(p * sorted.size())));
+  }
+}
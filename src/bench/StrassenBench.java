@@ -0,0 +1,71 @@
+package bench;
+
+import java.util.Random;
+
+import vars.mtx.FullMtx;
+import vars.mtx.Gemm;
+import vars.mtx.Mtx;
+import vars.mtx.Strassen;
+import vars.scl.Scl;
+
+/**
+ * Times exact matrix products with the naive loop against Strassen-Winograd to find
+ * where the crossover falls
+ * Usage: StrassenBench [max size]
+ */
+public class StrassenBench {
+
+  public static void main(String[] args) {
+    int maxSize = (args.length > 0) ? Integer.parseInt(args[0]) : 512;
+    Random random = new Random(42);
+    // Keep the blocked kernel out of the comparison, with a threshold past any size here
+    Gemm.threshold = 1 << 20;
+
+    // Untimed, so the first size isn't timed while the naive loop is still being compiled
+    Mtx warm = randomMtx(64, new Random(7));
+    Strassen.crossover = Integer.MAX_VALUE;
+    time(warm, warm);
+    Strassen.crossover = 32;
+    time(warm, warm);
+
+    System.out.printf("%6s %12s %12s %12s%n", "n", "naive ms", "strassen ms", "speedup");
+    for (int n = 32; n <= maxSize; n *= 2) {
+      Mtx a = randomMtx(n, random);
+      Mtx b = randomMtx(n, random);
+
+      Strassen.crossover = Integer.MAX_VALUE;
+      double naive = time(a, b);
+      // Recurse once, the smallest split that can pay off
+      Strassen.crossover = n / 2;
+      double strassen = time(a, b);
+
+      System.out.printf("%6d %12.1f %12.1f %12.2f%n", n, naive, strassen, naive / strassen);
+    }
+  }
+
+  /**
+   * Best of three runs of a * b in milliseconds
+   */
+  private static double time(Mtx a, Mtx b) {
+    double best = Double.MAX_VALUE;
+    for (int run = 0; run < 3; run++) {
+      long start = System.nanoTime();
+      Mtx.MULT(a, b);
+      best = Math.min(best, (System.nanoTime() - start) / 1e6);
+    }
+    return best;
+  }
+
+  /**
+   * A matrix of random five digit integers
+   */
+  private static Mtx randomMtx(int n, Random random) {
+    Scl[][] rows = new Scl[n][n];
+    for (int r = 0; r < n; r++) {
+      for (int c = 0; c < n; c++) {
+        rows[r][c] = new Scl(Integer.toString(random.nextInt(199999) - 99999));
+      }
+    }
+    return new FullMtx(rows);
+  }
+}
@@ -0,0 +1,108 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import io.Input;
+import parser.Parser;
+
+/**
+ * Times loops that update a matrix var with in-place updates on and off, and a loop of
+ * products with the buffer pool on and off, along with the garbage collections each run
+ * caused
+ * Usage: UpdateBench [size] [passes]
+ */
+public class UpdateBench {
+
+  public static void main(String[] args) {
+    int n = (args.length > 0) ? Integer.parseInt(args[0]) : 200;
+    int passes = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+    Random random = new Random(7);
+    String setup = matrix("A", n, random) + matrix("B", n, random);
+    String update = "P = A\nfor i in 0 -> " + passes + ":\n  P = P + B\n  P = 2*P - A\nend\n";
+    String product = "P = A\nfor i in 0 -> " + (passes / 10) + ":\n  P = A*P + B\nend\n";
+    String[][] runs = {
+        { "float update", "mode float\n" + setup, update, "set in_place on\n", "set in_place off\n" },
+        { "exact update", "mode exact\n" + setup, exact(update, passes), "set in_place on\n", "set in_place off\n" },
+        { "float product", "mode float\n" + setup, product, "set pool_capacity 4194304\n", "set pool_capacity 1\n" } };
+
+    System.out.printf("%-14s %10s %6s %10s %6s %8s%n", "loop", "on ms", "gcs", "off ms", "gcs", "speedup");
+    for (String[] run : runs) {
+      run(run[1]);
+      long[] on = time(run[3] + run[2]);
+      long[] off = time(run[4] + run[2]);
+      System.out.printf("%-14s %10.1f %6d %10.1f %6d %8.2f%n", run[0], on[0] / 1e6, on[1], off[0] / 1e6, off[1],
+          (double) off[0] / on[0]);
+    }
+  }
+
+  /**
+   * Fewer passes for exact scalars, which are much slower to add
+   */
+  private static String exact(String loop, int passes) {
+    return loop.replace("-> " + passes + ":", "-> " + Math.max(1, passes / 10) + ":");
+  }
+
+  private static String matrix(String name, int n, Random random) {
+    StringBuilder script = new StringBuilder(name).append(" =\n");
+    for (int r = 0; r < n; r++) {
+      for (int c = 0; c < n; c++) {
+        script.append(c == 0 ? "" : ", ").append(random.nextInt(9) + 1);
+      }
+      script.append('\n');
+    }
+    return script.append('\n').toString();
+  }
+
+  /**
+   * Best of three runs of a script: its time in nanoseconds and the collections it caused
+   */
+  private static long[] time(String script) {
+    long[] best = { Long.MAX_VALUE, 0 };
+    for (int i = 0; i < 3; i++) {
+      long gcs = collections();
+      long start = System.nanoTime();
+      run(script);
+      long took = System.nanoTime() - start;
+      if (took < best[0]) {
+        best[0] = took;
+        best[1] = collections() - gcs;
+      }
+    }
+    return best;
+  }
+
+  private static long collections() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += Math.max(0, gc.getCollectionCount());
+    }
+    return count;
+  }
+
+  /**
+   * Runs every statement of a script, discarding what it prints
+   */
+  private static void run(String script) {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    }));
+    try {
+      Input.readFrom(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)));
+      String line;
+      while ((line = Input.readLine()) != null) {
+        Parser.read(line);
+      }
+    } finally {
+      System.setOut(out);
+    }
+  }
+}
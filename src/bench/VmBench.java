@@ -0,0 +1,70 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import io.Input;
+import parser.Parser;
+
+/**
+ * Times loop-heavy scripts on the tree-walking evaluator, on the bytecode VM, and on the
+ * VM with hot loops compiled
+ * Usage: VmBench [iterations]
+ */
+public class VmBench {
+
+  public static void main(String[] args) {
+    int n = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+    String[][] scripts = {
+        { "for sum", "s = 0\nfor i in 0 -> " + n + ":\n  s = s + i*2\nend\n" },
+        { "for count", "s = 0\nfor i in 0 -> " + n + ":\n  s = s + 3\nend\n" },
+        { "while if", "i = 0\nodd = 0\nwhile i < " + n + ":\n  if i - 2*(i/2) = 1:\n    odd = odd + 1\n  end\n"
+            + "  i = i + 1\nend\n" },
+        { "nested for", "s = 0\nfor i in 0 -> " + (n / 100) + ":\n  for j in 0 -> 100:\n    s = s + j\n  end\nend\n" },
+        { "matrix loop", "A =\n1, 2\n3, 4\n\nB = A\nfor i in 0 -> " + (n / 10) + ":\n  B = A*B - B*A + B\nend\n" } };
+
+    System.out.printf("%-12s %10s %10s %10s %8s %8s%n", "script", "tree ms", "vm ms", "jit ms", "vm x", "jit x");
+    for (String[] script : scripts) {
+      double tree = time("set vm off\n" + script[1]);
+      double vm = time("set vm on\nset jit off\n" + script[1]);
+      double jit = time("set jit on\n" + script[1]);
+      System.out.printf("%-12s %10.1f %10.1f %10.1f %8.2f %8.2f%n", script[0], tree, vm, jit, tree / vm, tree / jit);
+    }
+  }
+
+  /**
+   * Best of three runs of a script in milliseconds
+   */
+  private static double time(String script) {
+    double best = Double.MAX_VALUE;
+    for (int run = 0; run < 3; run++) {
+      long start = System.nanoTime();
+      run(script);
+      best = Math.min(best, (System.nanoTime() - start) / 1e6);
+    }
+    return best;
+  }
+
+  /**
+   * Runs every statement of a script, discarding what it prints
+   */
+  private static void run(String script) {
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+      }
+    }));
+    try {
+      Input.readFrom(new ByteArrayInputStream(script.getBytes(StandardCharsets.UTF_8)));
+      String line;
+      while ((line = Input.readLine()) != null) {
+        Parser.read(line);
+      }
+    } finally {
+      System.setOut(out);
+    }
+  }
+}
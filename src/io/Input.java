@@ -1,18 +1,94 @@
 package io;
 
+import java.io.InputStream;
 import java.util.Scanner;
 
-public abstract class Input {
+/**
+ * Where statements, and the lines of the blocks and matrices they open, are read from
+ * <p>
+ * Each interpreter can read from its own input, which its thread reads while it runs (see
+ * use); otherwise threads read the terminal.
+ */
+public final class Input {
+  /**
+   * The terminal
+   */
+  private static final Input STANDARD = new Input(System.in);
+  /**
+   * The input this thread reads, if not the terminal
+   */
+  private static final ThreadLocal<Input> bound = new ThreadLocal<>();
+
   /**
    * Reads input using a scanner
    */
-  private static Scanner reader = new Scanner(System.in);
+  private Scanner reader;
+  /**
+   * A line that was read and handed back, to be read again next (can be null)
+   */
+  private String pending;
 
+  /**
+   * Makes an input that reads a source
+   * @param in The source
+   */
+  public Input(InputStream in) {
+    reader = new Scanner(in);
+  }
+
+  /**
+   * Makes this thread read an input   
+   * @param input The input, or null for the terminal
+   * @return The input this thread read before, or null
+   */
+  public static Input use(Input input) {
+    Input before = bound.get();
+    if (input == null) {
+      bound.remove();
+    } else {
+      bound.set(input);
+    }
+    return before;
+  }
+
+  private static Input current() {
+    Input input = bound.get();
+    return (input == null) ? STANDARD : input;
+  }
+
+  /**
+   * Reads from a different source, such as a script file, instead of the terminal
+   * @param in The source
+   */
+  public static void readFrom(InputStream in) {
+    Input input = current();
+    input.reader = new Scanner(in);
+    input.pending = null;
+  }
+
+  /**
+   * Reads the next line
+   * @return The line, or null once the input has run out
+   */
   public static String readLine() {
-    return reader.nextLine();
+    Input input = current();
+    if (input.pending != null) {
+      String line = input.pending;
+      input.pending = null;
+      return line;
+    }
+    return input.reader.hasNextLine() ? input.reader.nextLine() : null;
+  }
+
+  /**
+   * Hands a line back so the next readLine returns it again
+   * @param line The line
+   */
+  public static void unreadLine(String line) {
+    current().pending = line;
   }
 
   public static void close() {
-    reader.close();
+    current().reader.close();
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,105 @@
+package io;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.StringTokenizer;
+
+import vars.mtx.SparseMtx;
+import vars.scl.Scl;
+
+/**
+ * Reads sparse matrices from Matrix Market coordinate (.mtx) files 
+ *
+ */
+public abstract class MatrixMarket {
+  /**
+   * Streams a coordinate file into a sparse matrix, one entry at a time   
+   * @param path The path of the file
+   * @return The matrix, or null if the file couldn't be read
+   */
+  public static SparseMtx read(String path) {
+    try (BufferedReader in = new BufferedReader(new FileReader(path))) {
+      // %%MatrixMarket matrix coordinate <field> <symmetry>
+      String line = in.readLine();
+      String[] header = (line == null) ? new String[0] : line.trim().toLowerCase().split("\\s+");
+      if (header.length != 5 || !header[0].equals("%%matrixmarket") || !header[1].equals("matrix")) {
+        Output.customError("%s is not a Matrix Market file", path);
+        return null;
+      }
+      if (!header[2].equals("coordinate")) {
+        Output.customError("Only coordinate Matrix Market files can be read, not %s", header[2]);
+        return null;
+      }
+      String field = header[3], symmetry = header[4];
+      if (!field.equals("real") && !field.equals("integer") && !field.equals("pattern")) {
+        Output.customError("Matrix Market field %s is not supported", field);
+        return null;
+      }
+      if (!symmetry.equals("general") && !symmetry.equals("symmetric") && !symmetry.equals("skew-symmetric")) {
+        Output.customError("Matrix Market symmetry %s is not supported", symmetry);
+        return null;
+      }
+      boolean mirror = !symmetry.equals("general");
+      boolean skew = symmetry.equals("skew-symmetric");
+
+      // Skip comments until the size line: rows cols entries
+      int lineNum = 1;
+      do {
+        line = in.readLine();
+        lineNum++;
+      } while (line != null && (line.startsWith("%") || line.trim().isEmpty()));
+      if (line == null) {
+        Output.customError("%s has no size line", path);
+        return null;
+      }
+      StringTokenizer size = new StringTokenizer(line);
+      int rCount = Integer.parseInt(size.nextToken());
+      int cCount = Integer.parseInt(size.nextToken());
+      int entries = Integer.parseInt(size.nextToken());
+
+      // Symmetric files store one triangle, so the other may double the count
+      int capacity = mirror ? entries * 2 : entries;
+      int[] rows = new int[capacity];
+      int[] cols = new int[capacity];
+      Scl[] vals = new Scl[capacity];
+      int count = 0;
+      for (int read = 0; read < entries; read++) {
+        line = in.readLine();
+        lineNum++;
+        if (line == null) {
+          Output.customError("%s ended after %d of %d entries", path, read, entries);
+          return null;
+        }
+        StringTokenizer entry = new StringTokenizer(line);
+        if (!entry.hasMoreTokens()) {
+          read--;
+          continue;
+        }
+        int r = Integer.parseInt(entry.nextToken()) - 1;
+        int c = Integer.parseInt(entry.nextToken()) - 1;
+        Scl val = field.equals("pattern") ? Scl.ONE : new Scl(entry.nextToken());
+        if (r < 0 || r >= rCount || c < 0 || c >= cCount) {
+          Output.customError("Entry on line %d of %s is outside the %dx%d matrix", lineNum, path, rCount, cCount);
+          return null;
+        }
+        rows[count] = r;
+        cols[count] = c;
+        vals[count++] = val;
+        if (mirror && r != c) {
+          rows[count] = c;
+          cols[count] = r;
+          vals[count++] = skew ? Scl.neg(val) : val;
+        }
+      }
+      return SparseMtx.fromTriplets(rCount, cCount, rows, cols, vals, count);
+    } catch (IOException e) {
+      Output.customError("Could not read %s: %s", path, e.getMessage());
+      return null;
+    } catch (RuntimeException e) {
+      // Malformed numbers or missing columns
+      Output.customError("%s is not a valid Matrix Market file: %s", path, e);
+      return null;
+    }
+  }
+}
@@ -1,6 +1,47 @@
 package io;
 
+import java.io.PrintStream;
+
 public class Output {
+  /**
+   * What this thread prints into instead of the screen, if anything
+   */
+  private static final ThreadLocal<StringBuilder> held = new ThreadLocal<>();
+  /**
+   * Where this thread prints to, if not the screen
+   */
+  private static final ThreadLocal<PrintStream> stream = new ThreadLocal<>();
+
+  /**
+   * Makes what this thread prints, when it isn't held, go to a stream such as a file   
+   * @param out The stream, or null to print to the screen again
+   * @return The stream this thread printed to before, or null
+   */
+  public static PrintStream use(PrintStream out) {
+    PrintStream before = stream.get();
+    if (out == null) {
+      stream.remove();
+    } else {
+      stream.set(out);
+    }
+    return before;
+  }
+
+  /**
+   * Makes what this thread prints go into a buffer instead of to the screen   
+   * @param into The buffer, or null to print to the screen again
+   * @return The buffer this thread printed into before, or null
+   */
+  public static StringBuilder hold(StringBuilder into) {
+    StringBuilder before = held.get();
+    if (into == null) {
+      held.remove();
+    } else {
+      held.set(into);
+    }
+    return before;
+  }
+
   /**
    * Prints a message plus a newline   
    * @param msg The message
@@ -23,7 +64,13 @@ public class Output {
    * @param msg The message
    */
   public static void print(Object msg) {
-    System.out.print(msg);
+    StringBuilder into = held.get();
+    if (into != null) {
+      into.append(msg);
+      return;
+    }
+    PrintStream out = stream.get();
+    (out == null ? System.out : out).print(msg);
   }
 
   /**
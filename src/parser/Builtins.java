@@ -0,0 +1,201 @@
+package parser;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import io.Output;
+import vars.Var;
+import vars.mtx.DiagMtx;
+import vars.mtx.Mtx;
+import vars.mtx.PermMtx;
+import vars.mtx.StructMtx;
+import vars.scl.Scl;
+
+/**
+ * The built-in functions that can be called from expressions
+ *
+ */
+abstract class Builtins {
+  private static final Set<String> NAMES = new HashSet<>(
+      Arrays.asList("id", "zero", "diag", "triu", "tril", "band", "perm", "lu", "det", "inv", "solve"));
+
+  /**
+   * @param name A name
+   * @return Whether it is the name of a built-in function
+   */
+  static boolean has(String name) {
+    return NAMES.contains(name);
+  }
+
+  /**
+   * Calls a built-in function   
+   * @param name The name of the function
+   * @param args The evaluated arguments
+   * @return The result, or null if the call failed
+   */
+  static Var call(String name, List<Var> args) {
+    switch (name) {
+    case "id":
+    case "zero":
+      if (!arity(name, args, 1, 2))
+        return null;
+      Integer rows = size(name, args.get(0));
+      Integer cols = (args.size() > 1) ? size(name, args.get(1)) : rows;
+      if (rows == null || cols == null)
+        return null;
+      return name.equals("id") ? Mtx.identity(rows, cols) : Mtx.zero(rows, cols);
+    case "diag":
+      if (!arity(name, args, 1, 1))
+        return null;
+      return diag(args.get(0));
+    case "triu":
+    case "tril":
+      if (!arity(name, args, 1, 1))
+        return null;
+      Mtx tri = square(name, args.get(0));
+      if (tri == null)
+        return null;
+      return name.equals("triu") ? StructMtx.of(tri, 0, tri.rCount - 1) : StructMtx.of(tri, tri.rCount - 1, 0);
+    case "band":
+      if (!arity(name, args, 3, 3))
+        return null;
+      Mtx band = square(name, args.get(0));
+      Integer kl = count(name, args.get(1)), ku = count(name, args.get(2));
+      if (band == null || kl == null || ku == null)
+        return null;
+      return StructMtx.of(band, kl, ku);
+    case "perm":
+      if (!arity(name, args, 1, 1))
+        return null;
+      return perm(args.get(0));
+    case "lu":
+      if (!arity(name, args, 1, 1))
+        return null;
+      Mtx a = matrix(name, args.get(0));
+      return (a == null) ? null : Mtx.LU(a);
+    case "det":
+      if (!arity(name, args, 1, 1))
+        return null;
+      if (args.get(0) instanceof Scl)
+        return args.get(0);
+      Mtx m = matrix(name, args.get(0));
+      return (m == null) ? null : Mtx.DET(m);
+    case "inv":
+      if (!arity(name, args, 1, 1))
+        return null;
+      Mtx i = matrix(name, args.get(0));
+      return (i == null) ? null : Mtx.INV(i);
+    case "solve":
+      if (!arity(name, args, 2, 2))
+        return null;
+      Mtx lhs = matrix(name, args.get(0)), rhs = matrix(name, args.get(1));
+      return (lhs == null || rhs == null) ? null : Mtx.SOLVE(lhs, rhs);
+    default:
+      Output.customError("Unknown function %s", name);
+      return null;
+    }
+  }
+
+  /**
+   * A diagonal matrix from a vector, or the diagonal of a square matrix
+   */
+  private static Var diag(Var arg) {
+    Mtx m = matrix("diag", arg);
+    if (m == null)
+      return null;
+    boolean vector = m.rCount == 1 || m.cCount == 1;
+    if (!vector && m.rCount != m.cCount) {
+      Output.customError("diag needs a vector or a square matrix, got %dx%d", m.rCount, m.cCount);
+      return null;
+    }
+    int n = vector ? m.rCount * m.cCount : m.rCount;
+    Scl[] d = new Scl[n];
+    for (int i = 0; i < n; i++) {
+      d[i] = !vector ? m.get(i, i) : (m.cCount == 1) ? m.get(i, 0) : m.get(0, i);
+    }
+    return new DiagMtx(d);
+  }
+
+  /**
+   * A permutation matrix from a vector giving the column of the one in each row
+   */
+  private static Var perm(Var arg) {
+    Mtx m = matrix("perm", arg);
+    if (m == null)
+      return null;
+    if (m.rCount != 1 && m.cCount != 1) {
+      Output.customError("perm needs a vector, got %dx%d", m.rCount, m.cCount);
+      return null;
+    }
+    int n = m.rCount * m.cCount;
+    int[] perm = new int[n];
+    boolean[] used = new boolean[n];
+    for (int i = 0; i < n; i++) {
+      Scl s = (m.cCount == 1) ? m.get(i, 0) : m.get(0, i);
+      // Positions start at 1, like indices
+      int col = s.isInt() ? s.intValue() - 1 : -1;
+      if (col < 0 || col >= n || used[col]) {
+        Output.customError("perm needs each of 1 to %d exactly once, got %s", n, s);
+        return null;
+      }
+      used[col] = true;
+      perm[i] = col;
+    }
+    return new PermMtx(perm);
+  }
+
+  /**
+   * Checks the number of arguments
+   */
+  private static boolean arity(String name, List<Var> args, int min, int max) {
+    if (args.size() < min || args.size() > max) {
+      if (min == max) {
+        Output.customError("%s takes %d argument%s, got %d", name, min, (min == 1) ? "" : "s", args.size());
+      } else {
+        Output.customError("%s takes %d to %d arguments, got %d", name, min, max, args.size());
+      }
+      return false;
+    }
+    return true;
+  }
+
+  private static Mtx matrix(String name, Var arg) {
+    if (arg instanceof Mtx)
+      return (Mtx) arg;
+    Output.customError("%s needs a matrix, got %s", name, arg);
+    return null;
+  }
+
+  private static Mtx square(String name, Var arg) {
+    Mtx m = matrix(name, arg);
+    if (m != null && m.rCount != m.cCount) {
+      Output.customError("%s needs a square matrix, got %dx%d", name, m.rCount, m.cCount);
+      return null;
+    }
+    return m;
+  }
+
+  /**
+   * A whole number of at least one, such as a dimension
+   */
+  private static Integer size(String name, Var arg) {
+    Integer n = count(name, arg);
+    if (n != null && n == 0) {
+      Output.customError("%s needs a positive size, got 0", name);
+      return null;
+    }
+    return n;
+  }
+
+  /**
+   * A whole number of at least zero
+   */
+  private static Integer count(String name, Var arg) {
+    if (arg instanceof Scl && ((Scl) arg).isInt() && ((Scl) arg).intValue() >= 0)
+      return ((Scl) arg).intValue();
+    Output.customError("%s needs a whole number, got %s", name, arg);
+    return null;
+  }
+}
@@ -0,0 +1,79 @@
+package parser;
+
+import java.util.List;
+
+import vars.Var;
+
+/**
+ * A subexpression that is evaluated once and then reused for as long as the vars it
+ * reads hold what they held when it was evaluated
+ * <p>
+ * Values are never changed once made, so if each var still holds the very same value
+ * the subexpression would come out the same again. Checking that is a lookup per var,
+ * which is far cheaper than the products and calls Hoist picks out to be cached. A
+ * failed evaluation isn't kept, so it fails again, with the same error, the next time.
+ * Each chunk of a parfor loop keeps values in a copy of its own.
+ */
+class Cached {
+  /**
+   * The subexpression in postfix form
+   */
+  final List<Object> postfix;
+  /**
+   * The subexpression written out, which is the same for every copy of it
+   */
+  final String key;
+  /**
+   * The vars the subexpression reads
+   */
+  final String[] names;
+  /**
+   * What each var held when the value was evaluated
+   */
+  private final Var[] operands;
+  private Var value;
+
+  Cached(List<Object> postfix, String key, String[] names) {
+    this.postfix = postfix;
+    this.key = key;
+    this.names = names;
+    this.operands = new Var[names.length];
+  }
+
+  /**
+   * Reuses the value if the vars it was evaluated from haven't changed, else evaluates it
+   * @return The value, or null on an error
+   */
+  Var value() {
+    Cached own = Parfor.own(this);
+    if (own != this)
+      return own.value();
+    if (value != null && current())
+      return value;
+    for (int i = 0; i < names.length; i++) {
+      operands[i] = Parser.getVar(names[i]);
+    }
+    value = ExprReader.evaluateExpr(postfix);
+    return value;
+  }
+
+  /**
+   * @return The value last evaluated, or null if there is none
+   */
+  Var last() {
+    return value;
+  }
+
+  private boolean current() {
+    for (int i = 0; i < names.length; i++) {
+      if (Parser.getVar(names[i]) != operands[i])
+        return false;
+    }
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return key;
+  }
+}
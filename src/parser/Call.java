@@ -0,0 +1,113 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.Output;
+import tokens.Tk;
+import tokens.TokenReader;
+import vars.Var;
+
+/**
+ * A call to a built-in function, such as det(A) or solve(A, b), or to one defined with
+ * def, with its arguments kept in postfix form until the call is evaluated
+ */
+class Call {
+  /**
+   * The name of the function
+   */
+  final String name;
+  /**
+   * Each argument in postfix form
+   */
+  final List<List<Object>> args;
+
+  private Call(String name, List<List<Object>> args) {
+    this.name = name;
+    this.args = args;
+  }
+
+  /**
+   * Reads a call after its name has been read   
+   * @return The call, or null if it is malformed
+   */
+  static Call read() {
+    // CALL_NAME token flagged
+    String name = TokenReader.tokenStr();
+    List<List<Object>> args = new ArrayList<>();
+    TokenReader.nextToken();
+    if (!Output.hardCheck(Tk.LPAREN, TokenReader.tk()))
+      return null;
+    if (TokenReader.peekNextToken() == Tk.RPAREN) {
+      TokenReader.nextToken();
+      return new Call(name, args);
+    }
+    do {
+      List<Object> infix = ExprReader.readExpr();
+      if (infix == null)
+        return null;
+      List<Object> postfix = ExprReader.convertExpr(infix);
+      if (postfix == null)
+        return null;
+      args.add(MultChain.optimize(Simplify.simplify(postfix)));
+      TokenReader.nextToken();
+    } while (TokenReader.tk() == Tk.COMMA);
+    // HARD check for RPAREN
+    if (Output.hardCheck(Tk.RPAREN, TokenReader.tk())) {
+      return new Call(name, args);
+    }
+    return null;
+  }
+
+  /**
+   * Evaluates the arguments and calls the function   
+   * @return The result, or null if the call failed
+   */
+  Var evaluate() {
+    List<Var> values = new ArrayList<>();
+    for (List<Object> arg : args) {
+      Var value = ExprReader.evaluateExpr(arg);
+      if (value == null)
+        return null;
+      values.add(value);
+    }
+    return call(values);
+  }
+
+  /**
+   * Calls the function with arguments already evaluated
+   * @param values The arguments
+   * @return The result, or null if the call failed
+   */
+  Var call(List<Var> values) {
+    if (Builtins.has(name))
+      return Builtins.call(name, values);
+    Function function = Interpreter.current().functions.get(name);
+    if (function == null) {
+      Output.customError("Unknown function %s", name);
+      return null;
+    }
+    return function.call(values);
+  }
+
+  /**
+   * @param args Other arguments, in postfix form
+   * @return A call to the same function with those arguments
+   */
+  Call with(List<List<Object>> args) {
+    return new Call(name, args);
+  }
+
+  /**
+   * @return Whether it calls a built-in function, whose value depends on nothing but its
+   *         arguments
+   */
+  boolean isBuiltin() {
+    return Builtins.has(name);
+  }
+
+  @Override
+  public String toString() {
+    return name + "()";
+  }
+}
@@ -0,0 +1,98 @@
+package parser;
+
+/**
+ * A statement compiled for the VM: an array of opcodes and their operands, plus the
+ * constants and variable names the operands refer to by index
+ * <p>
+ * Values are passed on an operand stack. For loops keep their counter, end and step in
+ * registers so the stack only ever holds the expression being evaluated. Variables are
+ * resolved by Scopes to the slot they will be in, so loads and stores don't look names up.
+ * Operators whose operands Types knows the kind of get ops that apply them directly.
+ */
+class Code {
+  // Expressions
+  /** CONST k: push constant k */
+  static final int CONST = 0;
+  /** LOAD d s n: push the var in slot s of the scope d out, named by name n for errors */
+  static final int LOAD = 1;
+  /** STORE d s: pop a value into slot s of the scope d out */
+  static final int STORE = 2;
+  /** BINOP tk: pop b and a, push a tk b */
+  static final int BINOP = 3;
+  /** UNOP tk: pop b, push tk b */
+  static final int UNOP = 4;
+  /** TRANSPOSE: pop a value, push its transpose */
+  static final int TRANSPOSE = 5;
+  /** APPLY k: pop a value, push the ValueOp constant k applied to it */
+  static final int APPLY = 6;
+  /** CALL k argc: pop argc arguments, push the result of calling the Call constant k */
+  static final int CALL = 7;
+  /** CHAIN k: pop the factors of the MultChain constant k, push their product */
+  static final int CHAIN = 8;
+  /** MTX r c: pop r*c scalars, push them as a matrix in the current mode */
+  static final int MTX = 9;
+  /** VALUE: evaluate the fused chain on top of the stack, if it is one */
+  static final int VALUE = 10;
+  // Statements
+  /** PRINT: pop a value and print it */
+  static final int PRINT = 11;
+  /** JUMP a: continue at a */
+  static final int JUMP = 12;
+  /** JUMP_FALSE a: pop a condition, continue at a if it is false */
+  static final int JUMP_FALSE = 13;
+  /** ENTER k: open a block scope with the slots named by the constant k */
+  static final int ENTER = 14;
+  /** LEAVE: close a block scope */
+  static final int LEAVE = 15;
+  /** RETURN: pop a value and stop, returning it */
+  static final int RETURN = 16;
+  /** FOR_PREP r w: pop step, end and start into registers r to r+2, or into a Counter in register r if they are whole; w is 1 if the var can be stored only when the loop stops */
+  static final int FOR_PREP = 17;
+  /** FOR_TEST r d s a: store the counter in register r in slot s of the scope d out, and continue at a once it passes the end */
+  static final int FOR_TEST = 18;
+  /** FOR_STEP r a: add the step to the counter in register r and continue at a */
+  static final int FOR_STEP = 19;
+  /** RUN k: run the command, definition or parfor constant k */
+  static final int RUN = 20;
+  /** FAIL k: report the message constant k as an error */
+  static final int FAIL = 21;
+  /** HOT k a: count a pass of the loop at Jit.Site k; once it is hot, run the rest of the loop compiled and continue at a */
+  static final int HOT = 22;
+  /** LOAD_NAME n: push the var named by name n, for names that can't be resolved to a slot */
+  static final int LOAD_NAME = 23;
+  /** CACHED k: push the value of the Cached constant k */
+  static final int CACHED = 24;
+  /** UPDATE d s: evaluate the fused chain on top of the stack, into the matrix in slot s of the scope d out if InPlace allows */
+  static final int UPDATE = 25;
+  /** SCL_BINOP tk: as BINOP, for operands Types expects to be scalars */
+  static final int SCL_BINOP = 26;
+  /** BOOL_BINOP tk: as BINOP, for operands Types expects to be true/false values */
+  static final int BOOL_BINOP = 27;
+  /** FORK g a: push the values of the operands of the Fork.Group constant g and continue at a, if they are worth evaluating at the same time */
+  static final int FORK = 28;
+
+  /**
+   * The opcodes and their operands
+   */
+  final int[] ops;
+  /**
+   * The values and objects operands refer to
+   */
+  final Object[] consts;
+  /**
+   * The variable names operands refer to, for loads by name and for errors
+   */
+  final String[] names;
+  /**
+   * The deepest the operand stack gets and how many registers are used
+   */
+  final int maxStack, regCount;
+
+  Code(int[] ops, Object[] consts, String[] names, int maxStack, int regCount) {
+    this.ops = ops;
+    this.consts = consts;
+    this.names = names;
+    this.maxStack = maxStack;
+    this.regCount = regCount;
+  }
+}
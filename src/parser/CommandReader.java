@@ -0,0 +1,346 @@
+package parser;
+
+import java.util.List;
+
+import ast.Command;
+import ast.Expr;
+import io.MatrixMarket;
+import io.Output;
+import tokens.Tk;
+import tokens.TokenReader;
+import vars.Var;
+import vars.mtx.Buffers;
+import vars.mtx.Gemm;
+import vars.mtx.Mtx;
+import vars.mtx.NumMode;
+import vars.mtx.SparseMtx;
+import vars.mtx.Strassen;
+
+abstract class CommandReader {
+  /**
+   * Reads a command that prints or changes the numeric mode in the form of
+   * mode [exact | float]   
+   * @return The command, or null if it is malformed
+   */
+  public static Command mode() {
+    // MODE token flagged
+    TokenReader.nextToken();
+    // No argument prints the current mode
+    if (TokenReader.tk() == Tk.EOL) {
+      return new Command(Tk.MODE, new String[0], null);
+    }
+    // HARD check for the mode name
+    if (Output.hardCheck(Tk.VAR_NAME, TokenReader.tk())) {
+      String name = TokenReader.tokenStr();
+      TokenReader.nextToken();
+      if (Output.hardCheck(Tk.EOL, TokenReader.tk())) {
+        return new Command(Tk.MODE, new String[] { name }, null);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Reads a command that loads a sparse matrix from a Matrix Market file in the form of
+   * load {mtx} {path}   
+   * @return The command, or null if it is malformed
+   */
+  public static Command load() {
+    // LOAD token flagged
+    TokenReader.nextToken();
+    // HARD check for the matrix name
+    if (Output.hardCheck(Tk.VAR_NAME, TokenReader.tk())) {
+      String name = TokenReader.tokenStr();
+      String path = TokenReader.restOfLine();
+      if (path.isEmpty()) {
+        Output.expectedError("file path", Tk.EOL);
+        return null;
+      }
+      return new Command(Tk.LOAD, new String[] { name, path }, null);
+    }
+    return null;
+  }
+
+  /**
+   * Reads a command that evaluates an expression and prints how its products were
+   * ordered, in the form of explain {expr}   
+   * @return The command, or null if it is malformed
+   */
+  public static Command explain() {
+    // EXPLAIN token flagged
+    Expr expr = ExprReader.parse();
+    if (expr == null || !Parser.endOfStmt())
+      return null;
+    return new Command(Tk.EXPLAIN, new String[0], expr);
+  }
+
+  /**
+   * Reads a command that prints all options or changes one in the form of
+   * set [name value]   
+   * @return The command, or null if it is malformed
+   */
+  public static Command set() {
+    // SET token flagged
+    TokenReader.nextToken();
+    // No argument prints every option
+    if (TokenReader.tk() == Tk.EOL) {
+      return new Command(Tk.SET, new String[0], null);
+    }
+    // HARD check for the option name
+    if (Output.hardCheck(Tk.VAR_NAME, TokenReader.tk())) {
+      String name = TokenReader.tokenStr();
+      TokenReader.nextToken();
+      if (TokenReader.tk() != Tk.NUM_LIT && TokenReader.tk() != Tk.VAR_NAME && TokenReader.tk() != Tk.TRUE
+          && TokenReader.tk() != Tk.FALSE) {
+        Output.expectedError("option value", TokenReader.tk());
+        return null;
+      }
+      String value = TokenReader.tokenStr();
+      TokenReader.nextToken();
+      if (Output.hardCheck(Tk.EOL, TokenReader.tk())) {
+        return new Command(Tk.SET, new String[] { name, value }, null);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Runs a command read by one of the methods above   
+   * @param cmd The command
+   * @return Var.Null if successful
+   */
+  static Var run(Command cmd) {
+    switch (cmd.kind) {
+    case MODE:
+      if (cmd.args.length == 0) {
+        Output.println(Parser.mode());
+        return Var.Null;
+      }
+      NumMode mode = NumMode.named(cmd.args[0]);
+      if (mode == null) {
+        Output.expectedError("exact or float", cmd.args[0]);
+        return null;
+      }
+      Interpreter.current().mode = mode;
+      return Var.Null;
+    case SET:
+      if (cmd.args.length == 0) {
+        printOptions();
+        return Var.Null;
+      }
+      return setOption(cmd.args[0], cmd.args[1]) ? Var.Null : null;
+    case LOAD:
+      SparseMtx mtx = MatrixMarket.read(cmd.args[1]);
+      if (mtx == null)
+        return null;
+      Parser.setVar(cmd.args[0], mtx);
+      Output.printf("%s: %dx%d, %d nonzeros\n", cmd.args[0], mtx.rCount, mtx.cCount, mtx.nnz());
+      return Var.Null;
+    case EXPLAIN:
+      return explain(cmd.expr);
+    default:
+      Output.internalError("%s is not a command", cmd.kind);
+      return null;
+    }
+  }
+
+  /**
+   * Evaluates an expression and prints how it was simplified and how its products were
+   * ordered   
+   * @param expr The expression
+   * @return Var.Null if successful
+   */
+  private static Var explain(Expr expr) {
+    for (String rewrite : expr.rewrites) {
+      Output.println(rewrite);
+    }
+    Explain.start();
+    Var res;
+    try {
+      res = ExprReader.evaluateExpr(expr.postfix);
+    } finally {
+      List<String> notes = Explain.stop();
+      if (notes.isEmpty()) {
+        notes.add("no products to reorder");
+      }
+      for (String note : notes) {
+        Output.println(note);
+      }
+    }
+    return (res == null) ? null : Var.Null;
+  }
+
+  /**
+   * Prints the current value of every option
+   */
+  private static void printOptions() {
+    Output.printf("debug = %s\n", Mtx.debug ? "on" : "off");
+    Output.printf("gemm_threshold = %d\n", Gemm.threshold);
+    Output.printf("gemm_tile = %d\n", Gemm.tile);
+    Output.printf("strassen_crossover = %d\n", Strassen.crossover);
+    Output.printf("vm = %s\n", VM.enabled ? "on" : "off");
+    Output.printf("jit = %s\n", Jit.enabled ? "on" : "off");
+    Output.printf("jit_threshold = %d\n", Jit.threshold);
+    Output.printf("cache_capacity = %d\n", LineCache.capacity);
+    Output.printf("  statements: %s\n", Interpreter.current().lines);
+    Output.printf("  matrix rows: %s\n", Interpreter.current().rows);
+    Output.printf("in_place = %s\n", InPlace.enabled ? "on" : "off");
+    Output.printf("  updates: %s\n", InPlace.stats());
+    Output.printf("pool_capacity = %d\n", Buffers.capacity);
+    Output.printf("  buffers: %s\n", Buffers.stats());
+    Output.printf("memo = %s\n", Function.memo ? "on" : "off");
+    Output.printf("memo_capacity = %d\n", Function.capacity);
+    Output.printf("  functions: %s\n", Function.stats());
+    Output.printf("parfor_workers = %d\n", Parfor.workers);
+    Output.printf("  parfor: %s\n", Parfor.stats());
+    Output.printf("fork = %s\n", Fork.enabled ? "on" : "off");
+    Output.printf("fork_threshold = %d\n", Fork.threshold);
+    Output.printf("  forks: %s\n", Fork.stats());
+  }
+
+  /**
+   * Changes an option   
+   * @param name  The name of the option
+   * @param value The new value as written
+   * @return Whether the option was changed
+   */
+  private static boolean setOption(String name, String value) {
+    switch (name) {
+    case "debug":
+      Boolean on = parseFlag(value);
+      if (on == null)
+        return false;
+      Mtx.debug = on;
+      return true;
+    case "gemm_threshold":
+      Integer threshold = parseSize(value);
+      if (threshold == null)
+        return false;
+      Gemm.threshold = threshold;
+      return true;
+    case "gemm_tile":
+      Integer tile = parseSize(value);
+      if (tile == null)
+        return false;
+      // The float kernel works on four rows at a time
+      Gemm.tile = (Math.max(tile, 4) + 3) & ~3;
+      return true;
+    case "strassen_crossover":
+      Integer crossover = parseSize(value);
+      if (crossover == null)
+        return false;
+      Strassen.crossover = crossover;
+      return true;
+    case "vm":
+      Boolean vm = parseFlag(value);
+      if (vm == null)
+        return false;
+      VM.enabled = vm;
+      return true;
+    case "jit":
+      Boolean jit = parseFlag(value);
+      if (jit == null)
+        return false;
+      Jit.enabled = jit;
+      return true;
+    case "jit_threshold":
+      Integer passes = parseSize(value);
+      if (passes == null)
+        return false;
+      Jit.threshold = passes;
+      return true;
+    case "cache_capacity":
+      Integer lines = parseSize(value);
+      if (lines == null)
+        return false;
+      LineCache.capacity = lines;
+      Interpreter.current().lines.trim();
+      Interpreter.current().rows.trim();
+      return true;
+    case "in_place":
+      Boolean inPlace = parseFlag(value);
+      if (inPlace == null)
+        return false;
+      InPlace.enabled = inPlace;
+      return true;
+    case "pool_capacity":
+      Integer doubles = parseSize(value);
+      if (doubles == null)
+        return false;
+      Buffers.capacity = doubles;
+      Buffers.clear();
+      return true;
+    case "memo":
+      Boolean memo = parseFlag(value);
+      if (memo == null)
+        return false;
+      Function.memo = memo;
+      return true;
+    case "memo_capacity":
+      Integer values = parseSize(value);
+      if (values == null)
+        return false;
+      Function.capacity = values;
+      Function.clear();
+      return true;
+    case "parfor_workers":
+      Integer workers = parseSize(value);
+      if (workers == null)
+        return false;
+      Parfor.workers = workers;
+      return true;
+    case "fork":
+      Boolean fork = parseFlag(value);
+      if (fork == null)
+        return false;
+      Fork.enabled = fork;
+      return true;
+    case "fork_threshold":
+      Integer work = parseSize(value);
+      if (work == null)
+        return false;
+      Fork.threshold = work;
+      return true;
+    default:
+      Output.customError("Unknown option %s", name);
+      return false;
+    }
+  }
+
+  /**
+   * Parses an on/off value   
+   * @param value The value as written
+   * @return True, false, or null if invalid
+   */
+  private static Boolean parseFlag(String value) {
+    switch (value) {
+    case "on":
+    case "True":
+      return true;
+    case "off":
+    case "False":
+      return false;
+    default:
+      Output.expectedError("on or off", value);
+      return null;
+    }
+  }
+
+  /**
+   * Parses a positive whole number   
+   * @param value The value as written
+   * @return The number, or null if invalid
+   */
+  private static Integer parseSize(String value) {
+    try {
+      int size = Integer.parseInt(value);
+      if (size > 0) {
+        return size;
+      }
+    } catch (NumberFormatException e) {
+      // Falls through to the error below
+    }
+    Output.expectedError("positive whole number", value);
+    return null;
+  }
+}
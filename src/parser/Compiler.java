@@ -0,0 +1,403 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ast.Assign;
+import ast.Block;
+import ast.Command;
+import ast.Def;
+import ast.Expr;
+import ast.ExprStmt;
+import ast.For;
+import ast.If;
+import ast.MtxAssign;
+import ast.Return;
+import ast.Stmt;
+import ast.While;
+import tokens.Tk;
+import vars.Var;
+import vars.scl.Scl;
+
+/**
+ * Compiles a parsed statement into Code for the VM
+ * <p>
+ * Whether each operator is unary or binary is worked out here from the depth of the
+ * stack, the same way evaluateExpr decides it at runtime, so the VM never has to.
+ * Expressions that would fail evaluateExpr's stack checks compile to a FAIL at the
+ * point evaluateExpr would have failed. Types works out the kinds of values beforehand,
+ * and scalar and true/false operators get ops of their own. Operands Fork could
+ * evaluate at the same time are preceded by a FORK that skips them when it does.
+ */
+class Compiler {
+  private final List<Integer> ops = new ArrayList<>();
+  private final List<Object> consts = new ArrayList<>();
+  private final Map<Object, Integer> constIdx = new IdentityHashMap<>();
+  private final List<String> names = new ArrayList<>();
+  private final Scopes scopes;
+  private final Types types;
+  /**
+   * The kind of each value on the stack
+   */
+  private final List<Types.Kind> kinds = new ArrayList<>();
+  /**
+   * The current and deepest stack depth and the number of registers handed out
+   */
+  private int depth, maxStack, regCount;
+
+  private Compiler(VarContainer outer, Types types) {
+    this.scopes = new Scopes(outer);
+    this.types = types;
+  }
+
+  /**
+   * Compiles a statement to run in the current scope
+   * @param stmt The statement
+   * @return The code
+   */
+  static Code compile(Stmt stmt) {
+    Compiler c = new Compiler(Parser.getVars(), Types.of(stmt));
+    c.stmt(stmt);
+    int[] ops = new int[c.ops.size()];
+    for (int i = 0; i < ops.length; i++) {
+      ops[i] = c.ops.get(i);
+    }
+    return new Code(ops, c.consts.toArray(), c.names.toArray(new String[0]), Math.max(c.maxStack, 1),
+        c.regCount);
+  }
+
+  private void stmt(Stmt stmt) {
+    if (stmt instanceof Assign) {
+      Assign assign = (Assign) stmt;
+      int[] at = assign.inPlace ? scopes.load(assign.name) : null;
+      if (at != null) {
+        // The var already exists, so it is stored back to the slot it is read from
+        expr(assign.value.postfix, Code.UPDATE, at[0], at[1]);
+        emit(Code.STORE, at[0], at[1]);
+      } else {
+        expr(assign.value.postfix);
+        store(assign.name);
+      }
+      pop(1);
+    } else if (stmt instanceof ExprStmt) {
+      expr(((ExprStmt) stmt).expr.postfix);
+      emit(Code.PRINT);
+      pop(1);
+    } else if (stmt instanceof If) {
+      If ifStmt = (If) stmt;
+      expr(ifStmt.cond.postfix);
+      int toElse = jump(Code.JUMP_FALSE);
+      pop(1);
+      block(ifStmt.then);
+      if (ifStmt.otherwise != null) {
+        int toEnd = jump(Code.JUMP);
+        land(toElse);
+        block(ifStmt.otherwise);
+        land(toEnd);
+      } else {
+        land(toElse);
+      }
+    } else if (stmt instanceof While) {
+      While loop = (While) stmt;
+      int top = ops.size();
+      int hotEnd = hot(loop, -1);
+      expr(loop.cond.postfix);
+      int toEnd = jump(Code.JUMP_FALSE);
+      pop(1);
+      block(loop.body);
+      emit(Code.JUMP, top);
+      land(toEnd);
+      land(hotEnd);
+    } else if (stmt instanceof For && ((For) stmt).parallel) {
+      // Its passes run on the Executor in threads of their own, and it sets the var last
+      scopes.store(((For) stmt).name);
+      emit(Code.RUN, constIdx(stmt));
+    } else if (stmt instanceof For) {
+      For loop = (For) stmt;
+      expr(loop.start.postfix);
+      expr(loop.end.postfix);
+      if (loop.step != null) {
+        expr(loop.step.postfix);
+      } else {
+        constant(Scl.ONE);
+      }
+      // Counter, end, step and direction
+      int reg = regCount;
+      regCount += 4;
+      // Nothing can see the var before the loop stops unless the body uses it
+      emit(Code.FOR_PREP, reg, Types.uses(loop.body, loop.name) ? 0 : 1);
+      pop(3);
+      int top = ops.size();
+      int hotEnd = hot(loop, reg);
+      int[] at = scopes.store(loop.name);
+      emit(Code.FOR_TEST, reg, at[0], at[1]);
+      int toEnd = ops.size();
+      ops.add(-1);
+      block(loop.body);
+      emit(Code.FOR_STEP, reg, top);
+      land(toEnd);
+      land(hotEnd);
+    } else if (stmt instanceof Block) {
+      block((Block) stmt);
+    } else if (stmt instanceof Return) {
+      Expr value = ((Return) stmt).value;
+      if (value != null) {
+        expr(value.postfix);
+      } else {
+        constant(Var.Null);
+      }
+      emit(Code.RETURN);
+      pop(1);
+    } else if (stmt instanceof MtxAssign) {
+      MtxAssign assign = (MtxAssign) stmt;
+      for (List<Expr> row : assign.rows) {
+        for (Expr cell : row) {
+          expr(cell.postfix);
+        }
+      }
+      int rCount = assign.rows.size(), cCount = assign.rows.get(0).size();
+      emit(Code.MTX, rCount, cCount);
+      pop(rCount * cCount - 1);
+      store(assign.name);
+      pop(1);
+    } else if (stmt instanceof Command || stmt instanceof Def) {
+      // A loaded matrix is set by name, in the slot resolved for it here
+      if (stmt instanceof Command && ((Command) stmt).kind == Tk.LOAD) {
+        scopes.store(((Command) stmt).args[0]);
+      }
+      emit(Code.RUN, constIdx(stmt));
+    } else {
+      fail("Cannot compile " + stmt);
+    }
+  }
+
+  /**
+   * Compiles a block, in its own scope unless it is empty
+   */
+  private void block(Block block) {
+    if (block.stmts.isEmpty())
+      return;
+    // The slots of the scope are known once the whole block is resolved
+    int enter = ops.size();
+    emit(Code.ENTER, -1);
+    scopes.enter();
+    for (Stmt stmt : block.stmts) {
+      stmt(stmt);
+    }
+    ops.set(enter + 1, constIdx(scopes.leave()));
+    emit(Code.LEAVE);
+  }
+
+  /**
+   * Compiles an expression that leaves its value on the stack
+   * @param postfix The expression in postfix form
+   */
+  private void expr(List<Object> postfix) {
+    expr(postfix, Code.VALUE);
+  }
+
+  /**
+   * Compiles an expression that leaves its value on the stack
+   * @param postfix The expression in postfix form
+   * @param value   The op and operands that evaluate its last fused chain
+   */
+  private void expr(List<Object> postfix, int... value) {
+    int base = depth;
+    Types.Kind[] itemKinds = types.kinds(postfix);
+    Fork fork = Fork.plan(postfix);
+    // Where the FORK of each operator's group continues, which is where it is compiled
+    Map<Integer, List<Integer>> forks = new HashMap<>();
+    for (int i = 0; i < itemKinds.length; i++) {
+      List<Integer> landings = forks.remove(i);
+      if (landings != null) {
+        for (int at : landings) {
+          land(at);
+        }
+      }
+      if (fork != null && fork.at(i) != null) {
+        for (Fork.Group group : fork.at(i)) {
+          if (!group.matrices(itemKinds))
+            continue;
+          emit(Code.FORK, constIdx(group));
+          ops.add(-1);
+          if (!forks.containsKey(group.node)) {
+            forks.put(group.node, new ArrayList<Integer>());
+          }
+          forks.get(group.node).add(ops.size() - 1);
+        }
+      }
+      Object o = postfix.get(i);
+      if (o instanceof Var) {
+        constant(o);
+      } else if (o instanceof String) {
+        int[] at = scopes.load((String) o);
+        if (at != null) {
+          emit(Code.LOAD, at[0], at[1], name((String) o));
+        } else {
+          emit(Code.LOAD_NAME, name((String) o));
+        }
+        push(1);
+      } else if (o == Tk.TRANSPOSE_OP || o instanceof ValueOp) {
+        if (depth == base) {
+          fail(String.format("%s has nothing to apply to", o));
+          push(1);
+        } else if (o instanceof ValueOp) {
+          emit(Code.APPLY, constIdx(o));
+        } else {
+          emit(Code.TRANSPOSE);
+        }
+      } else if (o instanceof Call) {
+        Call call = (Call) o;
+        for (List<Object> arg : call.args) {
+          expr(arg);
+        }
+        emit(Code.CALL, constIdx(call), call.args.size());
+        pop(call.args.size());
+        push(1);
+      } else if (o instanceof Cached) {
+        emit(Code.CACHED, constIdx(o));
+        push(1);
+      } else if (o instanceof MultChain) {
+        MultChain chain = (MultChain) o;
+        emit(Code.CHAIN, constIdx(chain));
+        pop(chain.count - 1);
+      } else if (o instanceof Tk) {
+        Tk token = (Tk) o;
+        if (depth == base) {
+          fail(String.format("%s has no numbers to operate on", token));
+          push(1);
+        } else if (depth == base + 1) {
+          emit(Code.UNOP, token.ordinal());
+        } else {
+          emit(binop(token, kind(1), kind(0)), token.ordinal());
+          pop(1);
+        }
+      }
+      kind(itemKinds[i]);
+    }
+    // The last value on the stack is the answer
+    if (depth == base + 1) {
+      emit(value);
+    } else {
+      fail("Expression evaluation failed");
+      depth = base + 1;
+    }
+  }
+
+  /**
+   * Picks the op for a binary operator
+   * @param a The kind of its first operand, or null if unknown
+   * @param b The kind of its second operand, or null if unknown
+   */
+  private static int binop(Tk token, Types.Kind a, Types.Kind b) {
+    if (a == null || b == null)
+      return Code.BINOP;
+    if (a.scalar() && b.scalar())
+      return Code.SCL_BINOP;
+    if (a == Types.Kind.BOOL && b == Types.Kind.BOOL && (token == Tk.AND_OP || token == Tk.OR_OP))
+      return Code.BOOL_BINOP;
+    return Code.BINOP;
+  }
+
+  /**
+   * Sets the kind of the value on top of the stack
+   */
+  private void kind(Types.Kind kind) {
+    while (kinds.size() < depth) {
+      kinds.add(null);
+    }
+    kinds.set(depth - 1, kind);
+  }
+
+  /**
+   * @param below How many values down the stack to look
+   * @return The kind of that value, or null if unknown
+   */
+  private Types.Kind kind(int below) {
+    int at = depth - 1 - below;
+    return (at < kinds.size()) ? kinds.get(at) : null;
+  }
+
+  /**
+   * Emits the pass counter at the top of a loop
+   * @param loop The loop
+   * @param reg  The first register of a for loop (unused for a while loop)
+   * @return Where the address after the loop goes
+   */
+  private int hot(Stmt loop, int reg) {
+    emit(Code.HOT, constIdx(new Jit.Site(loop, reg)));
+    ops.add(-1);
+    return ops.size() - 1;
+  }
+
+  /**
+   * Emits a store of the value on top of the stack into a var
+   */
+  private void store(String name) {
+    int[] at = scopes.store(name);
+    emit(Code.STORE, at[0], at[1]);
+  }
+
+  private void constant(Object value) {
+    emit(Code.CONST, constIdx(value));
+    push(1);
+  }
+
+  private void fail(String msg) {
+    emit(Code.FAIL, constIdx(msg));
+  }
+
+  /**
+   * Emits a jump whose target is filled in later by land
+   * @return Where the target goes
+   */
+  private int jump(int op) {
+    ops.add(op);
+    ops.add(-1);
+    return ops.size() - 1;
+  }
+
+  /**
+   * Points a jump emitted earlier at the next opcode
+   */
+  private void land(int at) {
+    ops.set(at, ops.size());
+  }
+
+  private void emit(int... words) {
+    for (int word : words) {
+      ops.add(word);
+    }
+  }
+
+  private void push(int n) {
+    depth += n;
+    maxStack = Math.max(maxStack, depth);
+  }
+
+  private void pop(int n) {
+    depth -= n;
+  }
+
+  private int constIdx(Object o) {
+    Integer idx = constIdx.get(o);
+    if (idx == null) {
+      idx = consts.size();
+      consts.add(o);
+      constIdx.put(o, idx);
+    }
+    return idx;
+  }
+
+  private int name(String name) {
+    int idx = names.indexOf(name);
+    if (idx < 0) {
+      idx = names.size();
+      names.add(name);
+    }
+    return idx;
+  }
+}
@@ -3,180 +3,216 @@ package parser;
 import java.util.ArrayList;
 import java.util.List;
 
+import ast.Block;
+import ast.Def;
+import ast.Expr;
+import ast.For;
+import ast.If;
+import ast.Return;
+import ast.Stmt;
+import ast.While;
 import io.Input;
 import io.Output;
 import tokens.Tk;
 import tokens.TokenReader;
-import vars.Var;
-import vars.bool.Bool;
-import vars.scl.Scl;
 
+/**
+ * Reads if, while, for, parfor and def statements along with their blocks
+ * <p>
+ * A block runs until the end that matches its opener, so blocks nest to any depth. A
+ * return line also closes the block it is in.
+ */
 abstract class ControlsReader {
   /**
-   * Executes code inside an if statement if the condition contained is true   
-   * @return The var returned (if any)
+   * Reads an if statement in the form of if {bool}: ... [else: ...] end
+   * @return The statement, or null if it is malformed
    */
-  public static Var ifStmt() {
+  public static Stmt ifStmt() {
     // IF token flagged
     // Read condition
-    Bool ifCondition = (Bool) ExprReader.expr();
-    if (ifCondition == null)
+    Expr cond = header();
+    if (cond == null)
       return null;
-    if (!ifCondition.val())
-      return Bool.Null;
-    TokenReader.nextToken();
-    // HARD check for a colon
-    if (Output.hardCheck(Tk.COLON, TokenReader.tk)) {
-      TokenReader.nextToken();
-      // HARD check for EOL
-      if (Output.hardCheck(Tk.EOL, TokenReader.tk)) {
-        List<String> stmts = collectStmts();
-        Var result = execStmts(stmts);
-        return result;
+    Block then = block("if", true);
+    if (then == null)
+      return null;
+    Block otherwise = null;
+    Interpreter in = Interpreter.current();
+    // A then block closed by a return may still be followed by an else
+    if (in.closer == Tk.RETURN) {
+      String next = Input.readLine();
+      if (next != null && next.matches("\\s*\\belse\\b\\s*:\\s*")) {
+        in.closer = Tk.ELSE;
+      } else {
+        Input.unreadLine(next);
       }
     }
-    return null;
+    if (in.closer == Tk.ELSE) {
+      otherwise = block("else", false);
+      if (otherwise == null)
+        return null;
+    }
+    return new If(cond, then, otherwise);
   }
 
   /**
-   *
-   * Executes a series of lines in a while statement while the condition is true   
-   * @return The var returned (if any)
+   * Reads a while statement in the form of while {bool}: ... end
+   * @return The statement, or null if it is malformed
    */
-  public static Var whileStmt() {
+  public static Stmt whileStmt() {
     // WHILE token flagged
-    List<Object> whileExpr = ExprReader.convertExpr(ExprReader.readExpr());
+    Expr cond = header();
+    if (cond == null)
+      return null;
+    Block body = block("while", false);
+    return (body == null) ? null : new While(cond, body);
+  }
+
+  /**
+   * Reads a statement in the form of for {scl} in {scl} -> {scl} [by {scl}]: ... end, or
+   * the same with parfor
+   * @param parallel Whether it is a parfor
+   * @return The statement, or null if it is malformed
+   */
+  public static Stmt forStmt(boolean parallel) {
+    // FOR or PARFOR token flagged
+    TokenReader.nextToken();
+    // HARD check for iterator name
+    if (!Output.hardCheck(Tk.VAR_NAME, TokenReader.tk()))
+      return null;
+    String iterName = TokenReader.tokenStr();
+    TokenReader.nextToken();
+    // HARD check for IN token
+    if (!Output.hardCheck(Tk.IN, TokenReader.tk()))
+      return null;
+    Expr start = bound();
+    if (start == null)
+      return null;
+    // HARD check for ARROW token
     TokenReader.nextToken();
-    // HARD check for colon
-    if (Output.hardCheck(Tk.COLON, TokenReader.tk)) {
+    if (!Output.hardCheck(Tk.ARROW, TokenReader.tk()))
+      return null;
+    Expr end = bound();
+    if (end == null)
+      return null;
+    // SOFT check for BY token
+    Expr step = null;
+    if (TokenReader.peekNextToken() == Tk.BY) {
       TokenReader.nextToken();
-      // HARD check for EOL
-      if (Output.hardCheck(Tk.EOL, TokenReader.tk)) {
-        // Reads lines to a list
-        List<String> stmts = collectStmts();
-        // Evaluate the while conditional
-        Bool whileCondition = (Bool) ExprReader.evaluateExpr(whileExpr);
-        // While the condition is true execute the contained lines
-        while (whileCondition.val()) {
-          Var result = execStmts(stmts);
-          if (result != Var.Null) {
-            return result;
-          }
-          else {
-            // Re-evaluate the while conditional
-            whileCondition = (Bool) ExprReader.evaluateExpr(whileExpr);
-          }
-        }
-        return Bool.Null;
-      }
+      step = bound();
+      if (step == null)
+        return null;
     }
-    return null;
+    if (!endOfHeader())
+      return null;
+    Block body = block(parallel ? "parfor" : "for", false);
+    return (body == null) ? null : new For(iterName, start, end, step, body, parallel);
   }
 
   /**
-   * Executes a statement in the form of for {scl} in {scl} -> {scl}:   
-   * @return The var returned (if any)
+   * Reads a function definition in the form of def {name}({params}): ... end
+   * @return The statement, or null if it is malformed
    */
-  public static Var forStmt() {
-    // FOR token flagged
-    // Components of for loop
-    Scl start, end, inc;
+  public static Stmt defStmt() {
+    // DEF token flagged
+    TokenReader.nextToken();
+    // HARD check for the function name
+    if (!Output.hardCheck(Tk.CALL_NAME, TokenReader.tk()))
+      return null;
+    String name = TokenReader.tokenStr();
+    List<String> params = InputReader.readDefinedParams();
+    if (params == null)
+      return null;
+    if (!endOfHeader())
+      return null;
+    Block body = block("def", false);
+    return (body == null) ? null : new Def(name, params, body);
+  }
+
+  /**
+   * Reads an expression followed by a colon that ends the line
+   * @return The expression, or null if the line is malformed
+   */
+  private static Expr header() {
+    Expr expr = ExprReader.parse();
+    if (expr == null || !endOfHeader())
+      return null;
+    return expr;
+  }
 
+  /**
+   * Checks for the colon that ends the first line of a statement with a block
+   * @return Whether the colon is there and nothing follows it
+   */
+  private static boolean endOfHeader() {
     TokenReader.nextToken();
-    // HARD check for iterator name
-    if (Output.hardCheck(Tk.VAR_NAME, TokenReader.tk)) {
-      String iterName = TokenReader.tokenStr();
+    // HARD check for a colon
+    if (Output.hardCheck(Tk.COLON, TokenReader.tk())) {
       TokenReader.nextToken();
-      // HARD check for IN token
-      if (Output.hardCheck(Tk.IN, TokenReader.tk)) {
-        start = (Scl) ExprReader.expr();
-        if (start == null) {
-          Output.expectedError(Tk.NUM_LIT, Tk.VAR_NAME);
-          return null;
-        }
-        // HARD check for ARROW token
-        TokenReader.nextToken();
-        if (Output.hardCheck(Tk.ARROW, TokenReader.tk)) {
-          end = (Scl) ExprReader.expr();
-          if (end == null) {
-            Output.expectedError(Tk.NUM_LIT, Tk.VAR_NAME);
-            return null;
-          }
-          // SOFT check for BY token
-          TokenReader.nextToken();
-          if (TokenReader.tk == Tk.BY) {
-            // Set the increment
-            inc = (Scl) ExprReader.expr();
-            if (inc == null) {
-              Output.expectedError(Tk.NUM_LIT, Tk.VAR_NAME);
-              return null;
-            }
-            TokenReader.nextToken();
-          }
-          else {
-            // Default increment of one
-            inc = Scl.ONE;
-          }
-          if (Output.hardCheck(Tk.COLON, TokenReader.tk)) {
-            List<String> stmts = collectStmts();
-            // Create the iterator
-            Scl iterator = start;
-            // Put it in the var reg so it can be accessed within code
-            Parser.setVar(iterName, iterator);
-            // Iterate while true
-            while (Scl.lesser(iterator, end) == Bool.True) {
-              execStmts(stmts);
-              iterator = Scl.add(iterator, Scl.ONE);
-              Parser.setVar(iterName, iterator);
-            }
-            return Var.Null;
-          }
-        }
-      }
+      // HARD check for EOL
+      return Output.hardCheck(Tk.EOL, TokenReader.tk());
     }
-    return null;
+    return false;
   }
 
-  private static List<String> collectStmts() {
-    // Reads lines to a list
-    List<String> stmts = new ArrayList<>();
-    String newLine = Input.readLine();
-    while (newLine != null && !newLine.matches("\\s*\\b(?:end)\\b") && !newLine.matches("\\s*\\b(?:return)\\b.*")) {
-      stmts.add(newLine);
-      newLine = Input.readLine();
-    }
-    // Look for an end statement
-    if (newLine.matches("\\s*\\b(?:return)\\b.*")) {
-      stmts.add(newLine); // Add the return statement
-    }
-    else if (newLine.matches("\\s*\\b(?:end)\\b")) {
-      ; // fine
-    }
-    else {
-      Output.customError("No end statement found after while statement");
-      return null; // ERROR
+  /**
+   * Reads one of the bounds of a for loop
+   * @return The bound, or null if it is missing or malformed
+   */
+  private static Expr bound() {
+    Expr expr = ExprReader.parse();
+    if (expr == null)
+      return null;
+    if (expr.postfix.isEmpty()) {
+      Output.expectedError(Tk.NUM_LIT, TokenReader.peekNextToken());
+      return null;
     }
-    return stmts;
+    return expr;
   }
 
-  private static Var execStmts(List<String> stmts) {
-    Parser.vars = new parser.VarContainer(Parser.vars);
-    for (String stmt : stmts) {
-      Var result = Parser.read(stmt);
-      // ERROR
-      if (result == null) {
-        return null;
+  /**
+   * Reads the lines of a block up to the end, else or return that closes it, parsing any
+   * blocks nested inside along the way
+   * @param opener    The statement that opened the block, for errors
+   * @param allowElse Whether an else can close the block
+   * @return The block, or null if a line is malformed or the block is never closed
+   */
+  private static Block block(String opener, boolean allowElse) {
+    List<Stmt> stmts = new ArrayList<>();
+    String line;
+    while ((line = Input.readLine()) != null) {
+      TokenReader.readLine(line);
+      TokenReader.nextToken();
+      if (TokenReader.tk() == Tk.END || TokenReader.tk() == Tk.ELSE) {
+        Tk ender = TokenReader.tk();
+        if (ender == Tk.ELSE) {
+          if (!allowElse) {
+            Output.customError("else without a matching if");
+            return null;
+          }
+          TokenReader.nextToken();
+          if (!Output.hardCheck(Tk.COLON, TokenReader.tk()))
+            return null;
+        }
+        TokenReader.nextToken();
+        if (!Output.hardCheck(Tk.EOL, TokenReader.tk()))
+          return null;
+        Interpreter.current().closer = ender;
+        return new Block(stmts);
       }
-      // no return value
-      else if (Parser.read(stmt) == Var.Null) {
-        continue;
+      Stmt stmt = Parser.parse(line);
+      if (stmt == null)
+        return null;
+      if (stmt != Block.EMPTY) {
+        stmts.add(stmt);
       }
-      // return value
-      else {
-        return result;
+      // A return closes the block it is in
+      if (stmt instanceof Return) {
+        Interpreter.current().closer = Tk.RETURN;
+        return new Block(stmts);
       }
     }
-    Parser.vars = Parser.vars.getParent();
-    return Var.Null;
+    Output.customError("No end statement found after %s statement", opener);
+    return null;
   }
-}
\ No newline at end of file
+}
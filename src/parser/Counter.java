@@ -0,0 +1,110 @@
+package parser;
+
+import java.math.BigDecimal;
+
+import vars.scl.Scl;
+
+/**
+ * The counter of a for loop whose start, end and step are whole numbers, kept in a long
+ * instead of a new Scl every pass
+ * <p>
+ * A Scl is only made for a pass if its var is stored. A loop whose body neither reads
+ * nor assigns the var can hold the store back until the loop stops, however it stops,
+ * as nothing can see the var before then; the var then holds what it would had it been
+ * stored every pass. A loop that runs out stores the counter that passed the end as
+ * well, so the var is left holding it, or the start if no pass ran.
+ */
+final class Counter {
+  /**
+   * Bounds are kept this many bits or under so stepping past the end can't overflow
+   */
+  private static final int BITS = 62;
+
+  private long value;
+  private final long end, step;
+  private final boolean down;
+  /**
+   * Whether the var is only stored when the loop stops
+   */
+  final boolean deferred;
+  /**
+   * The scope and slot of a store held back, and the counter it stores
+   */
+  private VarContainer scope;
+  private int slot;
+  private long held;
+
+  private Counter(long start, long end, long step, boolean deferred) {
+    this.value = start;
+    this.end = end;
+    this.step = step;
+    this.down = step < 0;
+    this.deferred = deferred;
+  }
+
+  /**
+   * Makes a counter for a loop, if its bounds are whole numbers that fit
+   * @param start    The start
+   * @param end      The end
+   * @param step     The step, which isn't 0
+   * @param deferred Whether the var can be stored only when the loop stops
+   * @return The counter, or null if the loop has to count in Scl
+   */
+  static Counter of(Scl start, Scl end, Scl step, boolean deferred) {
+    if (!fits(start) || !fits(end) || !fits(step))
+      return null;
+    return new Counter(start.decimalValue().longValue(), end.decimalValue().longValue(),
+        step.decimalValue().longValue(), deferred);
+  }
+
+  /**
+   * Only numbers written without decimal places, as a Scl counter would keep any it had
+   */
+  private static boolean fits(Scl x) {
+    BigDecimal val = x.decimalValue();
+    return val.scale() == 0 && val.unscaledValue().bitLength() <= BITS;
+  }
+
+  /**
+   * @return Whether the counter is still short of the end
+   */
+  boolean more() {
+    return down ? value > end : value < end;
+  }
+
+  void step() {
+    value += step;
+  }
+
+  /**
+   * @return The counter as the var holds it
+   */
+  Scl value() {
+    return new Scl(BigDecimal.valueOf(value));
+  }
+
+  /**
+   * Starts a pass, storing the counter in a var or holding the store back
+   * @param scope The scope of the var
+   * @param slot  Its slot
+   */
+  void set(VarContainer scope, int slot) {
+    if (deferred) {
+      this.scope = scope;
+      this.slot = slot;
+      held = value;
+    } else {
+      scope.set(slot, value());
+    }
+  }
+
+  /**
+   * Makes the store held back, if there is one
+   */
+  void store() {
+    if (scope != null) {
+      scope.set(slot, new Scl(BigDecimal.valueOf(held)));
+      scope = null;
+    }
+  }
+}
@@ -0,0 +1,294 @@
+package parser;
+
+import ast.Assign;
+import ast.Block;
+import ast.Command;
+import ast.Def;
+import ast.Expr;
+import ast.ExprStmt;
+import ast.For;
+import ast.If;
+import ast.MtxAssign;
+import ast.Return;
+import ast.Stmt;
+import ast.While;
+import io.Output;
+import tokens.Tk;
+import vars.Var;
+import vars.bool.Bool;
+import vars.mtx.DoubleMtx;
+import vars.mtx.Mtx;
+import vars.scl.Scl;
+
+/**
+ * Runs statements parsed by Parser by walking their tree, without going back to the
+ * tokens they were read from
+ * <p>
+ * The VM runs the same statements faster; this stays as the reference it is checked and
+ * timed against (set vm off).
+ */
+abstract class Executor {
+  /**
+   * A value given by a return statement, passed up through the blocks it leaves
+   */
+  private static class Returned extends Var {
+    final Var value;
+
+    Returned(Var value) {
+      this.value = value;
+    }
+  }
+
+  /**
+   * Runs a statement read at the top level
+   * @param stmt The statement
+   * @return Var.Null if successful <b>or a returned variable</b>, null on an error
+   */
+  static Var run(Stmt stmt) {
+    return returned(exec(stmt));
+  }
+
+  /**
+   * Unwraps the value of a return statement
+   * @param res What exec gave
+   * @return The value returned, or res itself if it isn't a Returned
+   */
+  static Var returned(Var res) {
+    if (res instanceof Returned) {
+      return ((Returned) res).value;
+    }
+    return res;
+  }
+
+  /**
+   * Runs a statement
+   * @param stmt The statement
+   * @return Var.Null to carry on, a Returned to leave the enclosing blocks, or null on an
+   *         error
+   */
+  static Var exec(Stmt stmt) {
+    if (stmt instanceof Assign) {
+      Assign assign = (Assign) stmt;
+      Var val = assign.inPlace
+          ? ExprReader.evaluateUpdate(assign.value.postfix, Fork.of(assign.value), Parser.getVar(assign.name))
+          : eval(assign.value);
+      if (val == null)
+        return null;
+      Parser.setVar(assign.name, val);
+      return Var.Null;
+    } else if (stmt instanceof ExprStmt) {
+      Var val = eval(((ExprStmt) stmt).expr);
+      if (val == null || !print(val))
+        return null;
+      return Var.Null;
+    } else if (stmt instanceof If) {
+      If ifStmt = (If) stmt;
+      Bool cond = condition(ifStmt.cond);
+      if (cond == null)
+        return null;
+      if (cond.val()) {
+        return block(ifStmt.then);
+      } else if (ifStmt.otherwise != null) {
+        return block(ifStmt.otherwise);
+      }
+      return Var.Null;
+    } else if (stmt instanceof While) {
+      return whileLoop((While) stmt);
+    } else if (stmt instanceof For) {
+      For loop = (For) stmt;
+      return loop.parallel ? Parfor.run(loop) : forLoop(loop);
+    } else if (stmt instanceof Block) {
+      return block((Block) stmt);
+    } else if (stmt instanceof Return) {
+      Expr value = ((Return) stmt).value;
+      if (value == null)
+        return new Returned(Var.Null);
+      Var val = eval(value);
+      return (val == null) ? null : new Returned(val);
+    } else if (stmt instanceof MtxAssign) {
+      MtxAssign assign = (MtxAssign) stmt;
+      Mtx mtx = InputReader.buildMtx(assign.rows);
+      if (mtx == null)
+        return null;
+      Parser.setVar(assign.name, mtx);
+      return Var.Null;
+    } else if (stmt instanceof Command) {
+      return CommandReader.run((Command) stmt);
+    } else if (stmt instanceof Def) {
+      return Function.define((Def) stmt);
+    }
+    Output.internalError("Cannot run %s", stmt);
+    return null;
+  }
+
+  /**
+   * Prints the value of an expression statement
+   * @param val The value
+   * @return False if it can't be printed, as a float matrix holding an infinity or NaN
+   *         can't
+   */
+  static boolean print(Var val) {
+    if (val instanceof Mtx && !DoubleMtx.finite((Mtx) val)) {
+      Output.customError("Matrix has cells that are not finite numbers; a float result overflowed or was undefined");
+      return false;
+    }
+    Output.println(val);
+    return true;
+  }
+
+  /**
+   * Runs the statements of a block in a new scope
+   * @param block The block
+   * @return Var.Null, a Returned or null, as for exec
+   */
+  private static Var block(Block block) {
+    if (block.stmts.isEmpty())
+      return Var.Null;
+    Parser.setVars(new VarContainer(Parser.getVars()));
+    try {
+      for (Stmt stmt : block.stmts) {
+        Var res = exec(stmt);
+        if (res != Var.Null)
+          return res;
+      }
+      return Var.Null;
+    } finally {
+      Parser.setVars(Parser.getVars().getParent());
+    }
+  }
+
+  /**
+   * Runs the body of a while statement while its condition is true
+   * @param loop The statement
+   * @return Var.Null, a Returned or null, as for exec
+   */
+  private static Var whileLoop(While loop) {
+    while (true) {
+      Bool cond = condition(loop.cond);
+      if (cond == null)
+        return null;
+      if (!cond.val())
+        return Var.Null;
+      Var res = block(loop.body);
+      if (res != Var.Null)
+        return res;
+    }
+  }
+
+  /**
+   * Runs the body of a for statement once for each value from its start up to its end
+   * @param loop The statement
+   * @return Var.Null, a Returned or null, as for exec
+   */
+  static Var forLoop(For loop) {
+    Scl[] bounds = bounds(loop);
+    if (bounds == null)
+      return null;
+    Scl start = bounds[0], end = bounds[1], step = bounds[2];
+    Counter counter = Counter.of(start, end, step, !Types.uses(loop.body, loop.name));
+    if (counter != null)
+      return forLoop(loop, counter);
+    // A negative step counts down to the end instead
+    boolean down = Scl.lesser(step, Scl.ZERO).val();
+    Scl iterator = start;
+    while ((down ? Scl.greater(iterator, end) : Scl.lesser(iterator, end)).val()) {
+      Parser.setVar(loop.name, iterator);
+      Var res = block(loop.body);
+      if (res != Var.Null)
+        return res;
+      iterator = Scl.add(iterator, step);
+    }
+    // The var is left holding the counter that passed the end, the start if no pass ran
+    Parser.setVar(loop.name, iterator);
+    return Var.Null;
+  }
+
+  /**
+   * Evaluates the start, end and step of a for statement
+   * @param loop The statement
+   * @return The three of them, or null if one isn't a scalar or the step is 0
+   */
+  static Scl[] bounds(For loop) {
+    Scl start = scalar(loop.start);
+    Scl end = scalar(loop.end);
+    if (start == null || end == null)
+      return null;
+    Scl step = Scl.ONE;
+    if (loop.step != null) {
+      step = scalar(loop.step);
+      if (step == null)
+        return null;
+      if (Scl.equal(step, Scl.ZERO).val()) {
+        Output.customError("A for loop can't count by 0");
+        return null;
+      }
+    }
+    return new Scl[] { start, end, step };
+  }
+
+  /**
+   * Runs a for loop that counts in a long
+   * @param loop    The loop
+   * @param counter Its counter
+   * @return Var.Null, a Returned or null, as for exec
+   */
+  private static Var forLoop(For loop, Counter counter) {
+    // The var goes where setVar would put it
+    VarContainer scope = Parser.getVars().holder(loop.name);
+    int slot = scope.intern(loop.name);
+    try {
+      while (counter.more()) {
+        counter.set(scope, slot);
+        Var res = block(loop.body);
+        if (res != Var.Null)
+          return res;
+        counter.step();
+      }
+      counter.set(scope, slot);
+      return Var.Null;
+    } finally {
+      counter.store();
+    }
+  }
+
+  /**
+   * Evaluates an expression
+   * @param expr The expression
+   * @return The value, or null on an error
+   */
+  private static Var eval(Expr expr) {
+    return ExprReader.evaluateExpr(expr.postfix, Fork.of(expr));
+  }
+
+  /**
+   * Evaluates the condition of an if or while statement
+   * @param expr The condition
+   * @return True, false, or null if it isn't a true/false value
+   */
+  private static Bool condition(Expr expr) {
+    Var val = eval(expr);
+    if (val == null)
+      return null;
+    if (!(val instanceof Bool)) {
+      Output.expectedError("True or False condition", val);
+      return null;
+    }
+    return (Bool) val;
+  }
+
+  /**
+   * Evaluates a bound of a for statement
+   * @param expr The bound
+   * @return The value, or null if it isn't a scalar
+   */
+  private static Scl scalar(Expr expr) {
+    Var val = eval(expr);
+    if (val == null)
+      return null;
+    if (!(val instanceof Scl)) {
+      Output.expectedError(Tk.NUM_LIT, val);
+      return null;
+    }
+    return (Scl) val;
+  }
+}
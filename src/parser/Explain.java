@@ -0,0 +1,49 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects notes about how an expression was evaluated while the explain command is
+ * running
+ *
+ */
+abstract class Explain {
+  /**
+   * Starts collecting notes
+   */
+  static void start() {
+    Interpreter.current().notes = new ArrayList<>();
+  }
+
+  /**
+   * Stops collecting notes   
+   * @return The notes collected since start
+   */
+  static List<String> stop() {
+    Interpreter in = Interpreter.current();
+    List<String> res = in.notes;
+    in.notes = null;
+    return res;
+  }
+
+  /**
+   * Whether notes are being collected, which they aren't from the passes of a parfor
+   * loop, as those run at once   
+   * @return True or false
+   */
+  static boolean active() {
+    return Interpreter.current().notes != null && Parfor.chunk() == null;
+  }
+
+  /**
+   * Adds a note if notes are being collected   
+   * @param format The format string
+   * @param args   The arguments
+   */
+  static void note(String format, Object... args) {
+    if (active()) {
+      Interpreter.current().notes.add(String.format(format, args));
+    }
+  }
+}
@@ -1,10 +1,12 @@
 package parser;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.LinkedList;
 import java.util.List;
 
+import ast.Expr;
 import io.Output;
 import tokens.Tk;
 import tokens.TokenReader;
@@ -19,7 +21,27 @@ abstract class ExprReader {
    * @return
    */
   public static Var expr() {
-    return evaluateExpr(convertExpr(readExpr()));
+    Expr expr = parse();
+    if (expr == null)
+      return null;
+    return evaluateExpr(expr.postfix);
+  }
+
+  /**
+   * Reads and converts an expression without evaluating it, so it can be evaluated any
+   * number of times later   
+   * @return The expression, or null if it is malformed
+   */
+  static Expr parse() {
+    // Drops the rewrites of any expression that failed to parse
+    Simplify.rewrites();
+    List<Object> infix = readExpr();
+    if (infix == null)
+      return null;
+    List<Object> postfix = convertExpr(infix);
+    if (postfix == null)
+      return null;
+    return new Expr(MultChain.optimize(Simplify.simplify(postfix)), Simplify.rewrites());
   }
 
   /**
@@ -37,18 +59,21 @@ abstract class ExprReader {
     /*
      * The expression stops reading if: - The end of line is reached - A colon is
      * encountered (if statements) - An arrow is encountered (for loops) - A by
-     * symbol is encountered (for loops) - A comma is encountered (argument lists)
+     * symbol is encountered (for loops) - A comma is encountered (argument lists) - A
+     * right bracket is encountered (indices) - An unmatched right paranthesis is
+     * encountered (the end of an argument list)
      */
-    while (nextTk != Tk.EOL && nextTk != Tk.COLON && nextTk != Tk.ARROW && nextTk != Tk.BY && nextTk != Tk.COMMA) {
+    while (nextTk != Tk.EOL && nextTk != Tk.COLON && nextTk != Tk.ARROW && nextTk != Tk.BY && nextTk != Tk.COMMA
+        && nextTk != Tk.RBRACKET && !(nextTk == Tk.RPAREN && parenCount == 0)) {
       TokenReader.nextToken();
       // If token is an "=" it is an equality operator, NOT assignment operator
-      if (TokenReader.tk == Tk.ASSIGNMENT_OP) {
+      if (TokenReader.tk() == Tk.ASSIGNMENT_OP) {
         infix.add(Tk.EQUAL_OP);
       }
       // Adds in and counts parantheses
-      else if (Tk.isParen(TokenReader.tk)) {
+      else if (Tk.isParen(TokenReader.tk())) {
         // Add 1 if (
-        if (TokenReader.tk == Tk.LPAREN) {
+        if (TokenReader.tk() == Tk.LPAREN) {
           parenCount += 1;
         }
         // Subtract 1 if )
@@ -56,18 +81,60 @@ abstract class ExprReader {
           parenCount -= 1;
         }
         // Adds paren to expression
-        infix.add(TokenReader.tk);
+        infix.add(TokenReader.tk());
+      }
+      // A - straight after an operator or ( is part of the number after it, as in A^-1,
+      // unless the number is raised to a power, as -2^2 is -(2^2)
+      else if (TokenReader.tk() == Tk.SUB_OP && !infix.isEmpty() && isPrefix(infix.get(infix.size() - 1))
+          && TokenReader.peekNextToken() == Tk.NUM_LIT) {
+        TokenReader.nextToken();
+        Scl num = new Scl(TokenReader.tokenStr());
+        if (TokenReader.peekNextToken() == Tk.EXP_OP) {
+          infix.add(Tk.NEG_OP);
+          infix.add(num);
+          nextTk = TokenReader.peekNextToken();
+          continue;
+        }
+        infix.add(Scl.neg(num));
+        // Adds a * if followed by ( or a var
+        switch (TokenReader.peekNextToken()) {
+        case LPAREN:
+        case VAR_NAME:
+        case CALL_NAME:
+          infix.add(Tk.MULT_OP);
+          break;
+        default:
+          break;
+        }
       }
       // Adds in tokens that are math operators
-      else if (Tk.isMathOp(TokenReader.tk)) {
-        infix.add(TokenReader.tk);
+      else if (Tk.isMathOp(TokenReader.tk())) {
+        infix.add(TokenReader.tk());
       }
       // Adds in tokens that are boolean operators
-      else if (Tk.isBoolOp(TokenReader.tk)) {
-        infix.add(TokenReader.tk);
+      else if (Tk.isBoolOp(TokenReader.tk())) {
+        infix.add(TokenReader.tk());
+      }
+      // Adds in transposes
+      else if (TokenReader.tk() == Tk.TRANSPOSE_OP) {
+        infix.add(TokenReader.tk());
+      }
+      // Adds in indices
+      else if (TokenReader.tk() == Tk.LBRACKET) {
+        IndexOp index = IndexOp.read();
+        if (index == null)
+          return null;
+        infix.add(index);
+      }
+      // Adds in function calls
+      else if (TokenReader.tk() == Tk.CALL_NAME) {
+        Call call = Call.read();
+        if (call == null)
+          return null;
+        infix.add(call);
       }
       // Adds in numerical literals and implicitly adds * if necessary
-      else if (TokenReader.tk == Tk.NUM_LIT) {
+      else if (TokenReader.tk() == Tk.NUM_LIT) {
         Scl num = new Scl(TokenReader.tokenStr());
         // Adds the numerical literal to expression
         infix.add(num);
@@ -75,17 +142,18 @@ abstract class ExprReader {
         switch (TokenReader.peekNextToken()) {
         case LPAREN:
         case VAR_NAME:
+        case CALL_NAME:
           infix.add(Tk.MULT_OP);
         default:
           break;
         }
       }
       // Adds in boolean literals
-      else if (TokenReader.tk == Tk.TRUE || TokenReader.tk == Tk.FALSE) {
-        infix.add(TokenReader.tk == Tk.TRUE ? Bool.True : Bool.False);
+      else if (TokenReader.tk() == Tk.TRUE || TokenReader.tk() == Tk.FALSE) {
+        infix.add(TokenReader.tk() == Tk.TRUE ? Bool.True : Bool.False);
       }
       // Implicity adds * if necesssary after a var name
-      else if (TokenReader.tk == Tk.VAR_NAME) {
+      else if (TokenReader.tk() == Tk.VAR_NAME) {
         // Adds the var's name to the infix expression
         infix.add(TokenReader.tokenStr());
         // Adds * if followed by (
@@ -98,34 +166,32 @@ abstract class ExprReader {
       }
       // Otherwise error
       else {
-        Output.expectedError("arithmetic symbol or command", TokenReader.tk);
+        Output.expectedError("arithmetic symbol or command", TokenReader.tk());
         return null;
       }
       nextTk = TokenReader.peekNextToken();
     }
-    // All parantheses matched
+    // All parantheses matched (an unmatched ) ends the expression and is left unread)
     if (parenCount == 0) {
       return infix;
     }
-    // One unmatched right paranthesis at the END
-    else if (parenCount == -1 && infix.get(infix.size() - 1) == Tk.RPAREN) {
-      // Go back a token
-      TokenReader.prevToken();
-      // Remove the extra paranthesis
-      infix.remove(infix.size() - 1);
-      return infix;
-    }
     // Unmatched parantheses
     else {
-      if (parenCount < 0) {
-        Output.customError("Need %d more ( in expression", -parenCount);
-      } else {
-        Output.customError("Need %d more ) in expression", parenCount);
-      }
+      Output.customError("Need %d more ) in expression", parenCount);
       return null;
     }
   }
 
+  /**
+   * Whether a value can't end right after this part of an expression, so a - after it
+   * can only be a negative sign   
+   * @param o The last part of the expression read
+   * @return True or false
+   */
+  private static boolean isPrefix(Object o) {
+    return o == Tk.LPAREN || (o instanceof Tk && Tk.isOp((Tk) o));
+  }
+
   /**
    * Converts an arithmetic expression from infix to postfix form   
    * @param infix The expression in infix form
@@ -139,10 +205,14 @@ abstract class ExprReader {
 
     for (Object o : infix) {
       // If the expression contains a value to be operated on
-      if (o instanceof Scl || o instanceof Mtx || o instanceof String || o instanceof Bool) {
+      if (o instanceof Scl || o instanceof Mtx || o instanceof String || o instanceof Bool || o instanceof Call) {
         // Add it to the postfix expression
         postfix.add(o);
       }
+      // Transposes and indices apply to the value right before them
+      else if (o == Tk.TRANSPOSE_OP || o instanceof IndexOp) {
+        postfix.add(o);
+      }
       // Otherwise
       else if (o instanceof Tk) {
         // Figure out which token it is
@@ -152,6 +222,11 @@ abstract class ExprReader {
         if (token == Tk.LPAREN) {
           exprStack.push(Tk.LPAREN);
         }
+        // A - sign applies to what follows it, so it pops nothing, and is read as -1 * that
+        else if (token == Tk.NEG_OP) {
+          postfix.add(Scl.neg(Scl.ONE));
+          exprStack.push(Tk.NEG_OP);
+        }
         // If it's a ) then pop operators until there's only a ( left
         else if (token == Tk.RPAREN) {
           // Pop operators until ( left
@@ -177,7 +252,8 @@ abstract class ExprReader {
             // Otherwise, pull all higher or equal priority operators off the stack and push
             // this one on
             else {
-              while (exprStack.peek() != null && token.prec(exprStack.peek()) <= 0) {
+              // Stopping at a ( so the ) that closes it can still find it
+              while (exprStack.peek() != null && Tk.isOp(exprStack.peek()) && token.prec(exprStack.peek()) <= 0) {
                 postfix.add(exprStack.pop());
               }
               exprStack.push(token);
@@ -194,6 +270,7 @@ abstract class ExprReader {
     while (!exprStack.isEmpty()) {
       postfix.add(exprStack.pop());
     }
+    Collections.replaceAll(postfix, Tk.NEG_OP, Tk.MULT_OP);
 
     // Return the postfix expression
     return postfix;
@@ -205,10 +282,44 @@ abstract class ExprReader {
    * @return The resulting scalar
    */
   static Var evaluateExpr(List<Object> postfix) {
+    return evaluateExpr(postfix, null, false, null);
+  }
+
+  /**
+   * Evaluates an expression, with the operands Fork planned evaluated at the same time
+   * when that is worth it   
+   * @param postfix The expression in postfix form
+   * @param fork    Its plan (can be null)
+   * @return The resulting value
+   */
+  static Var evaluateExpr(List<Object> postfix, Fork fork) {
+    return evaluateExpr(postfix, fork, false, null);
+  }
+
+  /**
+   * Evaluates the new value of a var that InPlace allows to be written into the matrix
+   * the var holds   
+   * @param postfix The expression in postfix form
+   * @param fork    Its plan (can be null)
+   * @param old     What the var holds now (can be null)
+   * @return The new value
+   */
+  static Var evaluateUpdate(List<Object> postfix, Fork fork, Var old) {
+    return evaluateExpr(postfix, fork, true, old);
+  }
+
+  private static Var evaluateExpr(List<Object> postfix, Fork fork, boolean update, Var old) {
     // Perform operations described in postfix
     Deque<Object> opStack = new LinkedList<>();
 
-    for (Object o : postfix) {
+    for (int i = 0; i < postfix.size(); i++) {
+      // Operands that are evaluated at the same time leave off at their operator
+      if (fork != null && fork.at(i) != null) {
+        i = fork.run(postfix, i, opStack);
+        if (i < 0)
+          return null;
+      }
+      Object o = postfix.get(i);
       if (o instanceof Var) {
         // Push if it's a variable
         opStack.push(o);
@@ -216,12 +327,58 @@ abstract class ExprReader {
         // Get the var
         Var var = Parser.getVar((String) o);
         // If it doesn't exist, return null
-        if (var == null)
+        if (var == null) {
+          Output.customError("Var %s doesn't exist", o);
           return null;
+        }
         // Push the variable to opstack if it exists
         opStack.push(var);
+      } else if (o == Tk.TRANSPOSE_OP || o instanceof ValueOp) {
+        if (opStack.isEmpty()) {
+          Output.customError("%s has nothing to apply to", o);
+          return null;
+        }
+        Object operand = Fused.value(opStack.pop());
+        Var res;
+        if (o instanceof ValueOp) {
+          res = ((ValueOp) o).apply(operand);
+        } else if (operand instanceof Mtx) {
+          res = Mtx.transpose((Mtx) operand);
+        } else if (operand instanceof Scl) {
+          res = (Scl) operand;
+        } else {
+          Output.customError("Cannot transpose %s", operand);
+          return null;
+        }
+        if (res == null)
+          return null;
+        opStack.push(res);
+      } else if (o instanceof Call) {
+        Var res = ((Call) o).evaluate();
+        if (res == null)
+          return null;
+        opStack.push(res);
+      } else if (o instanceof Cached) {
+        Var res = ((Cached) o).value();
+        if (res == null)
+          return null;
+        opStack.push(res);
+      } else if (o instanceof MultChain) {
+        MultChain chain = (MultChain) o;
+        Object[] factors = new Object[chain.count];
+        for (int k = chain.count - 1; k >= 0; k--) {
+          factors[k] = Fused.value(opStack.pop());
+        }
+        Var res = chain.apply(factors);
+        if (res == null)
+          return null;
+        opStack.push(res);
       } else if (o instanceof Tk) {
         Tk token = (Tk) o;
+        if (opStack.isEmpty()) {
+          Output.customError("%s has no numbers to operate on", token);
+          return null;
+        }
         Object b = opStack.pop();
         Object a = null;
         // There might only be one operator for negate, plus, etc;
@@ -229,143 +386,23 @@ abstract class ExprReader {
           a = opStack.pop();
         }
 
-        Object res;
-        if (a == null && b == null) {
-          Output.customError("%s has no numbers to operate on", token);
-          return null;
-        } else if (a == null && b instanceof Scl) {
-          switch (token) {
-          case ADD_OP:
-            res = b;
-            break;
-          case SUB_OP:
-            res = Scl.neg((Scl) b);
-            break;
-          default:
-            Output.customError("Invalid operator before or after scalar: %s", token);
-            return null;
-          }
-        } else if (a == null && b instanceof Mtx) {
-          switch (token) {
-          case ADD_OP:
-            res = b;
-            break;
-          case SUB_OP:
-            res = Mtx.NEG((Mtx) b);
-            break;
-          default:
-            Output.customError("Invalid operator before or after matrix: %s", token);
-            return null;
-          }
-        } else if (a instanceof Mtx && b instanceof Mtx) {
-          switch (token) {
-          case ADD_OP:
-            res = Mtx.ADD((Mtx) a, (Mtx) b);
-            if (res == null) {
-              Output.customError("Dimensions do not match in added matrices: \n%s \nand \n%s", a, b);
-              return null;
-            }
-            break;
-          case SUB_OP:
-            res = Mtx.SUB((Mtx) a, (Mtx) b);
-            if (res == null) {
-              Output.customError("Dimensions do not match in subtracted matrices: \n%s \nand \n%s", a, b);
-              return null;
-            }
-            break;
-          case MULT_OP:
-            res = Mtx.MULT((Mtx) a, (Mtx) b);
-            break;
-          case EQUAL_OP:
-            res = Mtx.EQUAL((Mtx) a, (Mtx) b);
-            break;
-          default:
-            Output.customError("Invalid operator between matrices: %s", token);
-            return null;
-          }
-        } else if (a instanceof Scl && b instanceof Mtx) {
-          switch (token) {
-
-          case MULT_OP:
-            res = Mtx.SCALE((Scl) a, (Mtx) b);
-            break;
-          default:
-            Output.customError("Invalid operator between scalar and mtx: %s", token);
-            return null;
-          }
-        } else if (a instanceof Scl && b instanceof Scl) {
-          switch (token) {
-          // Math operations
-          case EXP_OP:
-            res = Scl.exp((Scl) a, (Scl) b);
-            break;
-          case MULT_OP:
-            res = Scl.mult((Scl) a, (Scl) b);
-            break;
-          case DIV_OP:
-            res = Scl.div((Scl) a, (Scl) b);
-            break;
-          case ADD_OP:
-            res = Scl.add((Scl) a, (Scl) b);
-            break;
-          case SUB_OP:
-            res = Scl.sub((Scl) a, (Scl) b);
-            break;
-          // Boolean operations
-          case GREAT_OR_EQUAL:
-            res = Scl.great_or_equal((Scl) a, (Scl) b);
-            break;
-          case LESS_OR_EQUAL:
-            res = Scl.less_or_equal((Scl) a, (Scl) b);
-            break;
-          case GREATER_OP:
-            res = Scl.greater((Scl) a, (Scl) b);
-            break;
-          case LESSER_OP:
-            res = Scl.lesser((Scl) a, (Scl) b);
-            break;
-          case EQUAL_OP:
-            res = Scl.equal((Scl) a, (Scl) b);
-            break;
-          // Default
-          default:
-            Output.customError("Invalid token %s in expression", token);
-            return null;
-          }
-        } else if (a instanceof Bool && b instanceof Bool) {
-          switch (token) {
-          case AND_OP:
-            res = Bool.and((Bool) a, (Bool) b);
-            break;
-          case OR_OP:
-            res = Bool.or((Bool) a, (Bool) b);
-            break;
-          default:
-            Output.customError("Invalid token %s between true/false expressions", token);
-            return null;
-          }
-        } else if (a == null && b instanceof Bool) {
-          switch (token) {
-          case NOT_OP:
-            res = Bool.not((Bool) b);
-            break;
-          default:
-            Output.customError("Invalid token %s for single true/false", token);
-            return null;
-          }
-        } else {
-          Output.customError("Invalid token %s for %s and %s", token, (a == null) ? Var.Null : a,
-              (b == null) ? Var.Null : b);
-          return null;
+        // Elementwise matrix operations are chained and evaluated together later
+        Fused fused = Fused.combine(token, a, b);
+        if (fused != null) {
+          opStack.push(fused);
+          continue;
         }
-
+        Var res = applyOp(token, Fused.value(a), Fused.value(b));
+        if (res == null)
+          return null;
         opStack.push(res);
       }
     }
     // The last scalar on the stack is the answer
     if (opStack.size() == 1) {
       try {
-        Var result = (Var) opStack.peek();
+        Object top = opStack.peek();
+        Var result = (Var) (update ? InPlace.value(top, old) : Fused.value(top));
         return result;
       } catch (ClassCastException e) {
         Output.internalError("Last operator on the stack '%s' was not a var", opStack.peek());
@@ -376,4 +413,157 @@ abstract class ExprReader {
       return null;
     }
   }
-}
\ No newline at end of file
+
+  /**
+   * Applies an operator to one or two operands   
+   * @param token The operator
+   * @param a     The first operand (null if the operator is unary)
+   * @param b     The second operand
+   * @return The result, or null if the operation failed
+   */
+  static Var applyOp(Tk token, Object a, Object b) {
+    Var res;
+    if (a == null && b == null) {
+      Output.customError("%s has no numbers to operate on", token);
+      return null;
+    } else if (a == null && b instanceof Scl) {
+      switch (token) {
+      case ADD_OP:
+        res = (Var) b;
+        break;
+      case SUB_OP:
+        res = Scl.neg((Scl) b);
+        break;
+      default:
+        Output.customError("Invalid operator before or after scalar: %s", token);
+        return null;
+      }
+    } else if (a == null && b instanceof Mtx) {
+      switch (token) {
+      case ADD_OP:
+        res = (Var) b;
+        break;
+      case SUB_OP:
+        res = Mtx.NEG((Mtx) b);
+        break;
+      default:
+        Output.customError("Invalid operator before or after matrix: %s", token);
+        return null;
+      }
+    } else if (a instanceof Mtx && b instanceof Mtx) {
+      switch (token) {
+      case ADD_OP:
+        res = Mtx.ADD((Mtx) a, (Mtx) b);
+        if (res == null) {
+          Output.customError("Dimensions do not match in added matrices: \n%s \nand \n%s", a, b);
+          return null;
+        }
+        break;
+      case SUB_OP:
+        res = Mtx.SUB((Mtx) a, (Mtx) b);
+        if (res == null) {
+          Output.customError("Dimensions do not match in subtracted matrices: \n%s \nand \n%s", a, b);
+          return null;
+        }
+        break;
+      case MULT_OP:
+        res = Mtx.MULT((Mtx) a, (Mtx) b);
+        break;
+      case EQUAL_OP:
+        res = Mtx.EQUAL((Mtx) a, (Mtx) b);
+        break;
+      default:
+        Output.customError("Invalid operator between matrices: %s", token);
+        return null;
+      }
+    } else if (a instanceof Mtx && b instanceof Scl) {
+      switch (token) {
+      case EXP_OP:
+        res = Mtx.POW((Mtx) a, (Scl) b);
+        break;
+      case MULT_OP:
+        // Scaling commutes, so A*2 is 2*A
+        res = Mtx.SCALE((Scl) b, (Mtx) a);
+        break;
+      default:
+        Output.customError("Invalid operator between mtx and scalar: %s", token);
+        return null;
+      }
+    } else if (a instanceof Scl && b instanceof Mtx) {
+      switch (token) {
+
+      case MULT_OP:
+        res = Mtx.SCALE((Scl) a, (Mtx) b);
+        break;
+      default:
+        Output.customError("Invalid operator between scalar and mtx: %s", token);
+        return null;
+      }
+    } else if (a instanceof Scl && b instanceof Scl) {
+      switch (token) {
+      // Math operations
+      case EXP_OP:
+        res = Scl.exp((Scl) a, (Scl) b);
+        break;
+      case MULT_OP:
+        res = Scl.mult((Scl) a, (Scl) b);
+        break;
+      case DIV_OP:
+        res = Scl.div((Scl) a, (Scl) b);
+        break;
+      case ADD_OP:
+        res = Scl.add((Scl) a, (Scl) b);
+        break;
+      case SUB_OP:
+        res = Scl.sub((Scl) a, (Scl) b);
+        break;
+      // Boolean operations
+      case GREAT_OR_EQUAL:
+        res = Scl.great_or_equal((Scl) a, (Scl) b);
+        break;
+      case LESS_OR_EQUAL:
+        res = Scl.less_or_equal((Scl) a, (Scl) b);
+        break;
+      case GREATER_OP:
+        res = Scl.greater((Scl) a, (Scl) b);
+        break;
+      case LESSER_OP:
+        res = Scl.lesser((Scl) a, (Scl) b);
+        break;
+      case EQUAL_OP:
+        res = Scl.equal((Scl) a, (Scl) b);
+        break;
+      // Default
+      default:
+        Output.customError("Invalid token %s in expression", token);
+        return null;
+      }
+    } else if (a instanceof Bool && b instanceof Bool) {
+      switch (token) {
+      case AND_OP:
+        res = Bool.and((Bool) a, (Bool) b);
+        break;
+      case OR_OP:
+        res = Bool.or((Bool) a, (Bool) b);
+        break;
+      default:
+        Output.customError("Invalid token %s between true/false expressions", token);
+        return null;
+      }
+    } else if (a == null && b instanceof Bool) {
+      switch (token) {
+      case NOT_OP:
+        res = Bool.not((Bool) b);
+        break;
+      default:
+        Output.customError("Invalid token %s for single true/false", token);
+        return null;
+      }
+    } else {
+      Output.customError("Invalid token %s for %s and %s", token, (a == null) ? Var.Null : a,
+          (b == null) ? Var.Null : b);
+      return null;
+    }
+    return res;
+  }
+}
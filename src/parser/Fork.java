@@ -0,0 +1,534 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import ast.Expr;
+import io.Output;
+import tokens.Tk;
+import vars.Var;
+import vars.mtx.Mtx;
+import vars.scl.Scl;
+
+/**
+ * Evaluates the operands of an operator at the same time when two or more of them do
+ * heavy work, as the products in A*B + C*D do
+ * <p>
+ * An expression is planned once: the tree evaluateExpr would pop is rebuilt, and every
+ * operator with at least two operands that hold a product, power, chain or factorisation
+ * gets a Group, as long as none of its operands calls a function defined with def, reads
+ * an index or a Cached value, since only the rest are sure to read nothing but their
+ * vars. Groups nest, so A*B + C*D + E*F runs all three products at once.
+ * <p>
+ * When evaluation gets to the first operand of a group, the work each heavy operand would
+ * take is worked out from the sizes of the matrices it reads, and those that take at
+ * least the threshold run as tasks of the fork-join common pool, with their vars looked
+ * up beforehand. Gemm splits its products into tasks of the same pool, so a product in a
+ * task shares the threads there are rather than starting more. Cheap operands, and groups
+ * with fewer than two operands worth a task, are evaluated in order as usual. Nothing
+ * forks in the passes of a parfor loop, which already keep every worker busy, or while
+ * explain is collecting notes.
+ * <p>
+ * Every operand is worked out by the same code as before, so results are exactly those of
+ * evaluating in order. What a task prints is held back and printed in order, up to the
+ * first operand that fails.
+ */
+final class Fork {
+  /**
+   * Whether operands are evaluated at the same time (set fork)
+   */
+  static boolean enabled = true;
+  /**
+   * The least work, in multiplications, an operand has to take to get a task of its own
+   * (set fork_threshold)
+   */
+  static int threshold = 1 << 18;
+  /**
+   * What Group.values gives when an operand failed, once its error is printed
+   */
+  static final Var[] FAILED = {};
+  /**
+   * Whether there is more than one processor to run tasks on
+   */
+  private static final boolean SPARE = Runtime.getRuntime().availableProcessors() > 1;
+  /**
+   * The built-in functions whose work grows with the cube of their argument's size
+   */
+  private static final Set<String> FACTORING = new HashSet<>(Arrays.asList("lu", "det", "inv", "solve"));
+  private static final Fork NONE = new Fork(new Group[0][]);
+
+  /**
+   * The groups whose first operand starts at each item, outermost first
+   */
+  private final Group[][] at;
+
+  private Fork(Group[][] at) {
+    this.at = at;
+  }
+
+  /**
+   * Operands of one operator, some of which may be evaluated at the same time
+   */
+  static final class Group {
+    /**
+     * The expression the group was planned on
+     */
+    final List<Object> postfix;
+    /**
+     * Where the operator is, and where each of its operands starts
+     */
+    final int node;
+    private final int[] starts;
+    /**
+     * Which operands do heavy work, and the plan of each
+     */
+    private final boolean[] heavy;
+    private final Fork[] plans;
+
+    private Group(List<Object> postfix, int node, int[] starts, boolean[] heavy) {
+      this.postfix = postfix;
+      this.node = node;
+      this.starts = starts;
+      this.heavy = heavy;
+      this.plans = new Fork[starts.length];
+      for (int j = 0; j < starts.length; j++) {
+        plans[j] = plan(postfix.subList(starts[j], end(j)));
+      }
+    }
+
+    /**
+     * Where operand j ends (exclusive)
+     */
+    private int end(int j) {
+      return (j + 1 < starts.length) ? starts[j + 1] : node;
+    }
+
+    /**
+     * Whether two of the heavy operands might be matrices, going by the kinds Types
+     * expects, as scalars are never worth a task
+     * @param kinds The kind of the value of each item of the expression
+     */
+    boolean matrices(Types.Kind[] kinds) {
+      int count = 0;
+      for (int j = 0; j < starts.length; j++) {
+        Types.Kind kind = kinds[end(j) - 1];
+        if (heavy[j] && (kind == null || !kind.scalar())) {
+          count++;
+        }
+      }
+      return count >= 2;
+    }
+
+    /**
+     * Evaluates the operands, the heavy ones at the same time, if that is worth it
+     * @param postfix The expression, which is the one planned on or a copy of it with
+     *                its vars looked up
+     * @return The value of every operand, FAILED if one failed, or null to evaluate them
+     *         in order as usual
+     */
+    Var[] values(List<Object> postfix) {
+      if (!enabled || !SPARE || Parfor.chunk() != null || Explain.active())
+        return null;
+      Task[] parts = new Task[starts.length];
+      List<Task> started = new ArrayList<>();
+      for (int j = 0; j < starts.length; j++) {
+        if (!heavy[j])
+          continue;
+        List<Object> operand = postfix.subList(starts[j], end(j));
+        if (new Cost().of(operand) < threshold)
+          continue;
+        List<Object> bound = bind(operand);
+        // A var that doesn't exist is left for evaluating in order to report
+        if (bound == null)
+          return null;
+        parts[j] = new Task(Interpreter.current(), bound, plans[j]);
+        started.add(parts[j]);
+      }
+      if (started.size() < 2)
+        return null;
+      ForkJoinTask.invokeAll(started);
+      Interpreter in = Interpreter.current();
+      in.forks++;
+      in.tasks += started.size();
+
+      Var[] vals = new Var[starts.length];
+      for (int j = 0; j < starts.length; j++) {
+        if (parts[j] != null) {
+          Output.print(parts[j].out);
+          vals[j] = parts[j].value;
+        } else {
+          vals[j] = ExprReader.evaluateExpr(postfix.subList(starts[j], end(j)), plans[j]);
+        }
+        if (vals[j] == null)
+          return FAILED;
+      }
+      return vals;
+    }
+  }
+
+  /**
+   * A heavy operand evaluated on a thread of the pool
+   */
+  private static final class Task extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final Interpreter owner;
+    private final List<Object> postfix;
+    private final Fork plan;
+    private final StringBuilder out = new StringBuilder();
+    private Var value;
+
+    Task(Interpreter owner, List<Object> postfix, Fork plan) {
+      this.owner = owner;
+      this.postfix = postfix;
+      this.plan = plan;
+    }
+
+    @Override
+    protected void compute() {
+      // The task may run on the thread that forked it, so what it was bound to is restored
+      Interpreter caller = Interpreter.bind(owner);
+      StringBuilder outer = Output.hold(out);
+      try {
+        value = ExprReader.evaluateExpr(postfix, plan);
+      } catch (RuntimeException | StackOverflowError e) {
+        Output.internalError("%s in an operand evaluated on its own", e);
+      } finally {
+        Output.hold(outer);
+        Interpreter.bind(caller);
+      }
+    }
+  }
+
+  /**
+   * Plans an expression
+   * @param postfix The expression in postfix form
+   * @return The plan, or null if nothing in it can be evaluated at the same time
+   */
+  static Fork plan(List<Object> postfix) {
+    int n = postfix.size();
+    // The first item of the operand that ends at each item, and the operands of each
+    int[] begin = new int[n];
+    List<List<Integer>> kids = new ArrayList<>(n);
+    boolean[] heavy = new boolean[n], pure = new boolean[n];
+    Deque<Integer> stack = new ArrayDeque<>();
+    int groups = 0;
+    for (int i = 0; i < n; i++) {
+      Object o = postfix.get(i);
+      int arity;
+      if (o instanceof MultChain) {
+        arity = ((MultChain) o).count;
+      } else if (o == Tk.TRANSPOSE_OP || o instanceof ValueOp) {
+        arity = 1;
+      } else if (o instanceof Tk) {
+        // Unary only when it is the only value, as in evaluateExpr
+        arity = (stack.size() >= 2) ? 2 : 1;
+      } else {
+        arity = 0;
+      }
+      // Malformed expressions are left for evaluateExpr to report
+      if (stack.size() < arity)
+        return null;
+      List<Integer> operands = new ArrayList<>(arity);
+      for (int k = 0; k < arity; k++) {
+        operands.add(0, stack.pop());
+      }
+      kids.add(operands);
+      heavy[i] = heavy(o, arity);
+      pure[i] = pure(o);
+      begin[i] = i;
+      int heavyOperands = 0;
+      boolean allPure = true;
+      for (int kid : operands) {
+        begin[i] = Math.min(begin[i], begin[kid]);
+        heavy[i] |= heavy[kid];
+        pure[i] &= pure[kid];
+        allPure &= pure[kid];
+        heavyOperands += heavy[kid] ? 1 : 0;
+      }
+      if (heavyOperands >= 2 && allPure) {
+        groups++;
+      }
+      stack.push(i);
+    }
+    if (groups == 0)
+      return null;
+
+    // The outermost group comes first among those whose first operand starts at an item
+    Group[][] at = new Group[n][];
+    for (int i = n - 1; i >= 0; i--) {
+      List<Integer> operands = kids.get(i);
+      int heavyOperands = 0;
+      boolean allPure = true;
+      for (int kid : operands) {
+        allPure &= pure[kid];
+        heavyOperands += heavy[kid] ? 1 : 0;
+      }
+      if (heavyOperands < 2 || !allPure)
+        continue;
+      int[] starts = new int[operands.size()];
+      boolean[] heavyOperand = new boolean[operands.size()];
+      for (int j = 0; j < starts.length; j++) {
+        starts[j] = begin[operands.get(j)];
+        heavyOperand[j] = heavy[operands.get(j)];
+      }
+      Group group = new Group(postfix, i, starts, heavyOperand);
+      Group[] there = at[starts[0]];
+      if (there == null) {
+        at[starts[0]] = new Group[] { group };
+      } else {
+        there = Arrays.copyOf(there, there.length + 1);
+        there[there.length - 1] = group;
+        at[starts[0]] = there;
+      }
+    }
+    return new Fork(at);
+  }
+
+  /**
+   * The plan of an expression the Executor evaluates, made the first time it is asked for
+   * @param expr The expression
+   * @return The plan, or null if nothing in it can be evaluated at the same time
+   */
+  static Fork of(Expr expr) {
+    // The passes of a parfor loop don't fork, and the plans are only kept for the program
+    if (Parfor.chunk() != null)
+      return null;
+    Map<Expr, Fork> plans = Interpreter.current().plans;
+    Fork plan = plans.get(expr);
+    if (plan == null) {
+      plan = plan(expr.postfix);
+      plans.put(expr, (plan == null) ? NONE : plan);
+    }
+    return (plan == NONE) ? null : plan;
+  }
+
+  /**
+   * @param i An item of the expression
+   * @return The groups whose first operand starts there, outermost first, or null
+   */
+  Group[] at(int i) {
+    return at[i];
+  }
+
+  /**
+   * Evaluates the operands of the first group starting at an item that is worth it
+   * @param postfix The expression
+   * @param i       The item
+   * @param stack   The operand stack, which the values are pushed onto
+   * @return The item of the group's operator, i if no group was, or -1 on an error
+   */
+  int run(List<Object> postfix, int i, Deque<Object> stack) {
+    for (Group group : at[i]) {
+      Var[] vals = group.values(postfix);
+      if (vals == FAILED)
+        return -1;
+      if (vals != null) {
+        for (Var val : vals) {
+          stack.push(val);
+        }
+        return group.node;
+      }
+    }
+    return i;
+  }
+
+  /**
+   * Whether an item does heavy work of its own, going by what it is
+   */
+  private static boolean heavy(Object o, int arity) {
+    if (o == Tk.MULT_OP || o == Tk.EXP_OP)
+      return arity == 2;
+    if (o instanceof Call)
+      return FACTORING.contains(((Call) o).name);
+    return o instanceof MultChain || o instanceof Power;
+  }
+
+  /**
+   * Whether an item reads nothing but the vars it names, so it can be evaluated on
+   * another thread once they are looked up
+   */
+  private static boolean pure(Object o) {
+    if (o instanceof Call) {
+      Call call = (Call) o;
+      if (!call.isBuiltin())
+        return false;
+      for (List<Object> arg : call.args) {
+        for (Object item : arg) {
+          if (!pure(item))
+            return false;
+        }
+      }
+      return true;
+    }
+    return !(o instanceof IndexOp || o instanceof Cached);
+  }
+
+  /**
+   * Copies part of an expression with the vars it names looked up, in calls as well
+   * @param postfix The part
+   * @return The copy, or null if a var doesn't exist
+   */
+  private static List<Object> bind(List<Object> postfix) {
+    List<Object> bound = new ArrayList<>(postfix.size());
+    for (Object o : postfix) {
+      if (o instanceof String) {
+        o = Parser.getVar((String) o);
+        if (o == null)
+          return null;
+      } else if (o instanceof Call) {
+        List<List<Object>> args = new ArrayList<>();
+        for (List<Object> arg : ((Call) o).args) {
+          List<Object> boundArg = bind(arg);
+          if (boundArg == null)
+            return null;
+          args.add(boundArg);
+        }
+        o = ((Call) o).with(args);
+      }
+      bound.add(o);
+    }
+    return bound;
+  }
+
+  /**
+   * Works out roughly how many multiplications an expression takes, going by the sizes
+   * of the matrices it reads as if they were all dense
+   */
+  private static final class Cost {
+    /**
+     * The shape of a scalar
+     */
+    private static final long[] SCALAR = {};
+    private long work;
+
+    /**
+     * @param postfix The expression
+     * @return The work it takes, or 0 if that isn't known
+     */
+    long of(List<Object> postfix) {
+      return (shape(postfix) == null) ? 0 : work;
+    }
+
+    /**
+     * Adds up the work an expression takes
+     * @return The rows and columns of its value, SCALAR, or null if that isn't known
+     */
+    private long[] shape(List<Object> postfix) {
+      // Unknown shapes are nulls, which only a LinkedList holds
+      Deque<long[]> stack = new LinkedList<>();
+      for (Object o : postfix) {
+        if (o instanceof String) {
+          o = Parser.getVar((String) o);
+        }
+        int arity = (o instanceof MultChain) ? ((MultChain) o).count
+            : (o == Tk.TRANSPOSE_OP || o instanceof ValueOp || o instanceof Tk) ? 1 : 0;
+        if (stack.size() < arity)
+          return null;
+        long[] res;
+        if (o instanceof Mtx) {
+          res = new long[] { ((Mtx) o).rCount, ((Mtx) o).cCount };
+        } else if (o instanceof Scl) {
+          res = SCALAR;
+        } else if (o == Tk.TRANSPOSE_OP) {
+          long[] a = stack.pop();
+          res = (a == null || a == SCALAR) ? a : new long[] { a[1], a[0] };
+        } else if (o instanceof Power) {
+          long[] a = stack.pop();
+          res = a;
+          if (a != null && a != SCALAR) {
+            work += a[0] * a[0] * a[0] * (32 - Integer.numberOfLeadingZeros(Math.abs(((Power) o).n)));
+          }
+        } else if (o instanceof MultChain) {
+          long[][] factors = new long[((MultChain) o).count][];
+          for (int k = factors.length - 1; k >= 0; k--) {
+            factors[k] = stack.pop();
+          }
+          res = SCALAR;
+          for (long[] factor : factors) {
+            res = product(res, factor);
+          }
+        } else if (o instanceof Call) {
+          res = call((Call) o);
+        } else if (o instanceof Tk) {
+          long[] b = stack.pop();
+          res = stack.isEmpty() ? elementwise(b, b) : binary((Tk) o, stack.pop(), b);
+        } else {
+          res = null;
+        }
+        stack.push(res);
+      }
+      return (stack.size() == 1) ? stack.pop() : null;
+    }
+
+    private long[] binary(Tk token, long[] a, long[] b) {
+      switch (token) {
+      case MULT_OP:
+        return product(a, b);
+      case EXP_OP:
+        if (a != null && a != SCALAR) {
+          work += a[0] * a[0] * a[0];
+        }
+        return a;
+      case ADD_OP:
+      case SUB_OP:
+        return elementwise(a, b);
+      default:
+        return (a == null || b == null) ? null : SCALAR;
+      }
+    }
+
+    private long[] product(long[] a, long[] b) {
+      if (a == null || b == null)
+        return null;
+      if (a == SCALAR || b == SCALAR)
+        return elementwise(a, b);
+      work += a[0] * a[1] * b[1];
+      return new long[] { a[0], b[1] };
+    }
+
+    private long[] elementwise(long[] a, long[] b) {
+      if (a == null || b == null)
+        return null;
+      long[] res = (a == SCALAR) ? b : a;
+      if (res != SCALAR) {
+        work += res[0] * res[1];
+      }
+      return res;
+    }
+
+    /**
+     * A factorisation takes the cube of its first argument's size, and what anything else
+     * built in gives isn't worked out
+     */
+    private long[] call(Call call) {
+      if (!FACTORING.contains(call.name) || call.args.isEmpty())
+        return null;
+      long[] a = shape(call.args.get(0));
+      if (a == null || a == SCALAR)
+        return null;
+      long[] res = a;
+      for (int k = 1; k < call.args.size(); k++) {
+        res = shape(call.args.get(k));
+      }
+      work += a[0] * a[0] * a[0];
+      return call.name.equals("det") ? SCALAR : res;
+    }
+  }
+
+  /**
+   * @return How many operators had operands evaluated at the same time, in how many tasks
+   */
+  static String stats() {
+    Interpreter in = Interpreter.current();
+    return String.format("%d operators, %d tasks", in.forks, in.tasks);
+  }
+}
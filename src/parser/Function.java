@@ -0,0 +1,442 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ast.Assign;
+import ast.Block;
+import ast.Def;
+import ast.Expr;
+import ast.For;
+import ast.If;
+import ast.MtxAssign;
+import ast.Return;
+import ast.Stmt;
+import ast.While;
+import io.Output;
+import vars.Var;
+import vars.bool.Bool;
+import vars.mtx.Mtx;
+import vars.mtx.NumMode;
+import vars.scl.Scl;
+
+/**
+ * A function defined with def, called from expressions
+ * <p>
+ * Each call runs the body in a frame of its own, a scope holding the params whose parent
+ * is the global scope, so the body sees its params, its own locals and the globals, and
+ * calls can recurse. Arguments are put in the frame as they are: matrices are never
+ * copied, as no value is ever changed once something else can see it.
+ * <p>
+ * The body is compiled on the first call and the code kept for the calls after it. What
+ * it compiled to depends on which globals existed, so it is compiled again once the
+ * global scope gains a var.
+ * <p>
+ * A function is pure if its body reads and assigns nothing but its params and locals,
+ * prints nothing, runs no commands and calls only built-in or pure functions. Its value
+ * then depends on nothing but its arguments and the mode, so the values of its last
+ * memo_capacity calls are kept, by the values of their arguments, and a call with the
+ * same arguments gives the value kept instead of running the body. Keeping values costs a
+ * little on every call, so a function whose first TRIAL calls are seldom repeats stops
+ * keeping them.
+ * <p>
+ * Calls made by the chunks of a parfor loop, which run at the same time, go straight to
+ * the Executor and leave the memo and the compiled code alone.
+ */
+final class Function {
+  /**
+   * Whether the values of pure functions are kept (set memo)
+   */
+  static boolean memo = true;
+  /**
+   * The most values each function keeps (set memo_capacity)
+   */
+  static int capacity = 1024;
+  /**
+   * The deepest calls can nest, which a stack of Parser.STACK has room for
+   */
+  private static final int MAX_DEPTH = 10000;
+  /**
+   * How many calls a function keeps values for before it checks they are being reused,
+   * and the least share of them that must have been
+   */
+  private static final int TRIAL = 1024, MIN_HITS = TRIAL / 8;
+
+  /**
+   * The interpreter it was defined in, which counts its calls and definitions
+   */
+  private final Interpreter owner;
+  final Def def;
+  private final String[] params;
+  private Code code;
+  /**
+   * The version of the global scope and the generation the code and purity are for
+   */
+  private int version = -1, defined = -1;
+  private boolean pure;
+  /**
+   * Whether values are still kept, and how often they were looked up and found
+   */
+  private boolean keeping;
+  private int lookups, found;
+  private final LinkedHashMap<Key, Var> values = new LinkedHashMap<Key, Var>(16, 0.75f, true) {
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Key, Var> eldest) {
+      if (size() <= capacity)
+        return false;
+      owner.evictions++;
+      return true;
+    }
+  };
+
+  private Function(Interpreter owner, Def def) {
+    this.owner = owner;
+    this.def = def;
+    this.params = def.params.toArray(new String[0]);
+  }
+
+  /**
+   * Defines a function, replacing any of the same name
+   * @param def The definition
+   * @return Var.Null, or null if the name is taken by a built-in function
+   */
+  static Var define(Def def) {
+    if (Builtins.has(def.name)) {
+      Output.customError("%s is a built-in function", def.name);
+      return null;
+    }
+    // Counts definitions, as defining a function can change whether others are pure
+    Interpreter in = Interpreter.current();
+    in.functions.put(def.name, new Function(in, def));
+    in.generation++;
+    return Var.Null;
+  }
+
+  /**
+   * Calls the function
+   * @param args The evaluated arguments
+   * @return What the body returned, Var.Null if it returned nothing, or null on an error
+   */
+  Var call(List<Var> args) {
+    if (args.size() != params.length) {
+      Output.customError("%s takes %d arguments, not %d", def.name, params.length, args.size());
+      return null;
+    }
+    Parfor.Chunk chunk = Parfor.chunk();
+    if ((chunk == null ? owner.depth : chunk.depth) >= MAX_DEPTH) {
+      Output.customError("Calls to %s nest more than %d deep", def.name, MAX_DEPTH);
+      return null;
+    }
+    if (chunk != null) {
+      // Other chunks run at the same time, so the memo and code are left to the program
+      chunk.calls++;
+      chunk.depth++;
+      try {
+        return run(args, false);
+      } finally {
+        chunk.depth--;
+      }
+    }
+    owner.calls++;
+    stamp();
+    Key key = (memo && pure && keeping) ? new Key(args.toArray(new Var[0]), Parser.mode()) : null;
+    if (key != null) {
+      Var kept = values.get(key);
+      if (kept != null) {
+        owner.hits++;
+        found++;
+        return kept;
+      }
+      if (++lookups == TRIAL && found < MIN_HITS) {
+        keeping = false;
+        values.clear();
+      }
+    }
+    owner.depth++;
+    Var res;
+    try {
+      res = run(args, VM.enabled);
+    } finally {
+      owner.depth--;
+    }
+    if (res != null && key != null) {
+      values.put(key, res);
+    }
+    return res;
+  }
+
+  /**
+   * Runs the body in a new frame
+   * @param args The arguments
+   * @param vm   Whether to run it on the VM
+   * @return What the body returned, Var.Null if it returned nothing, or null on an error
+   */
+  private Var run(List<Var> args, boolean vm) {
+    VarContainer frame = new VarContainer(Parser.getVars().root(), params);
+    for (int i = 0; i < params.length; i++) {
+      frame.set(i, args.get(i));
+    }
+    VarContainer caller = Parser.getVars();
+    Parser.setVars(frame);
+    try {
+      if (!vm)
+        return Executor.run(def.body);
+      if (code == null)
+        code = Compiler.compile(def.body);
+      return VM.run(code);
+    } finally {
+      Parser.setVars(caller);
+    }
+  }
+
+  /**
+   * Checks the code and purity are for the globals and functions there are now, starting
+   * over if they aren't
+   */
+  private void stamp() {
+    VarContainer global = Parser.getVars().root();
+    if (version != global.version || defined != owner.generation) {
+      pure = pure(new HashSet<Function>());
+      code = null;
+      values.clear();
+      keeping = true;
+      lookups = found = 0;
+      version = global.version;
+      defined = owner.generation;
+    }
+  }
+
+  /**
+   * @return Whether the function is pure, against the globals and functions there are now
+   */
+  boolean isPure() {
+    stamp();
+    return pure;
+  }
+
+  /**
+   * Forgets the values every function has kept
+   */
+  static void clear() {
+    for (Function function : Interpreter.current().functions.values()) {
+      function.values.clear();
+    }
+  }
+
+  /**
+   * Counts calls made by the chunks of a parfor loop, once they have finished
+   * @param more How many calls they made
+   */
+  static void counted(long more) {
+    Interpreter.current().calls += more;
+  }
+
+  /**
+   * @return How many calls there were and how many were given a kept value
+   */
+  static String stats() {
+    Interpreter in = Interpreter.current();
+    return String.format("%d calls, %d memo hits, %d evictions", in.calls, in.hits, in.evictions);
+  }
+
+  // Purity
+
+  /**
+   * Checks whether the body is pure, against the globals and functions there are now
+   * @param visiting The functions being checked, which are taken to be pure so recursion
+   *                 doesn't make a function impure by itself
+   */
+  private boolean pure(Set<Function> visiting) {
+    visiting.add(this);
+    Deque<Set<String>> scopes = new ArrayDeque<>();
+    scopes.push(new HashSet<>(Arrays.asList(params)));
+    return pure(def.body, scopes, visiting);
+  }
+
+  private boolean pure(Block block, Deque<Set<String>> scopes, Set<Function> visiting) {
+    scopes.push(new HashSet<String>());
+    try {
+      for (Stmt stmt : block.stmts) {
+        if (!pure(stmt, scopes, visiting))
+          return false;
+      }
+      return true;
+    } finally {
+      scopes.pop();
+    }
+  }
+
+  private boolean pure(Stmt stmt, Deque<Set<String>> scopes, Set<Function> visiting) {
+    // The expressions are evaluated before the var is assigned or a block is run
+    for (Expr expr : InPlace.exprs(stmt)) {
+      if (!reads(expr.postfix, scopes, visiting))
+        return false;
+    }
+    if (stmt instanceof Assign) {
+      return local(((Assign) stmt).name, scopes);
+    } else if (stmt instanceof MtxAssign) {
+      return local(((MtxAssign) stmt).name, scopes);
+    } else if (stmt instanceof For && !local(((For) stmt).name, scopes)) {
+      return false;
+    } else if (stmt instanceof If || stmt instanceof While || stmt instanceof For || stmt instanceof Block) {
+      for (Block block : InPlace.blocks(stmt)) {
+        if (!pure(block, scopes, visiting))
+          return false;
+      }
+      return true;
+    }
+    // Printing, commands and definitions all reach outside the call
+    return stmt instanceof Return;
+  }
+
+  /**
+   * Whether an assignment stays inside the call, adding the var to the innermost block
+   * if it is new, as Scopes does
+   */
+  private static boolean local(String name, Deque<Set<String>> scopes) {
+    if (visible(name, scopes))
+      return true;
+    if (Parser.getVars().root().getLocalVar(name) != null)
+      return false;
+    scopes.peek().add(name);
+    return true;
+  }
+
+  private static boolean visible(String name, Deque<Set<String>> scopes) {
+    for (Set<String> scope : scopes) {
+      if (scope.contains(name))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Whether an expression reads only params and locals and calls only pure functions
+   */
+  private boolean reads(List<Object> postfix, Deque<Set<String>> scopes, Set<Function> visiting) {
+    if (postfix == null)
+      return true;
+    for (Object o : postfix) {
+      if (o instanceof String && !visible((String) o, scopes))
+        return false;
+      if (o instanceof Call) {
+        Call call = (Call) o;
+        if (!Builtins.has(call.name)) {
+          Function callee = Interpreter.current().functions.get(call.name);
+          if (callee == null || !visiting.contains(callee) && !callee.pure(visiting))
+            return false;
+        }
+        for (List<Object> arg : call.args) {
+          if (!reads(arg, scopes, visiting))
+            return false;
+        }
+      } else if (o instanceof IndexOp) {
+        for (List<Object> bound : ((IndexOp) o).bounds()) {
+          if (!reads(bound, scopes, visiting))
+            return false;
+        }
+      } else if (o instanceof Cached && !reads(((Cached) o).postfix, scopes, visiting)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Memo keys
+
+  /**
+   * The arguments of a call and the mode it was made in, equal to another key when
+   * every argument has the same value
+   * <p>
+   * A matrix is hashed by its size and a fixed sample of its cells, which is enough to
+   * tell most matrices apart without reading every cell on every call; equals compares
+   * them in full.
+   */
+  private static final class Key {
+    /**
+     * The most cells of a matrix that are hashed
+     */
+    private static final int SAMPLE = 64;
+
+    private final Var[] args;
+    private final NumMode mode;
+    private final int hash;
+
+    Key(Var[] args, NumMode mode) {
+      this.args = args;
+      this.mode = mode;
+      int h = mode.hashCode();
+      for (Var arg : args) {
+        h = 31 * h + hash(arg);
+      }
+      this.hash = h;
+    }
+
+    private static int hash(Var val) {
+      if (val instanceof Scl)
+        return ((Scl) val).decimalValue().hashCode();
+      if (val instanceof Bool)
+        return ((Bool) val).val() ? 1231 : 1237;
+      if (!(val instanceof Mtx))
+        return System.identityHashCode(val);
+      Mtx m = (Mtx) val;
+      int h = 31 * (31 * m.getClass().hashCode() + m.rCount) + m.cCount;
+      long cells = (long) m.rCount * m.cCount;
+      long stride = Math.max(1, cells / SAMPLE);
+      for (long i = 0; i < cells; i += stride) {
+        h = 31 * h + m.get((int) (i / m.cCount), (int) (i % m.cCount)).decimalValue().hashCode();
+      }
+      return h;
+    }
+
+    private static boolean same(Var a, Var b) {
+      if (a == b)
+        return true;
+      if (a.getClass() != b.getClass())
+        return false;
+      if (a instanceof Scl)
+        return ((Scl) a).decimalValue().equals(((Scl) b).decimalValue());
+      if (a instanceof Bool)
+        return ((Bool) a).val() == ((Bool) b).val();
+      if (!(a instanceof Mtx))
+        return false;
+      Mtx x = (Mtx) a, y = (Mtx) b;
+      if (x.rCount != y.rCount || x.cCount != y.cCount)
+        return false;
+      for (int r = 0; r < x.rCount; r++) {
+        for (int c = 0; c < x.cCount; c++) {
+          if (!x.get(r, c).decimalValue().equals(y.get(r, c).decimalValue()))
+            return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key))
+        return false;
+      Key other = (Key) o;
+      if (hash != other.hash || mode != other.mode || args.length != other.args.length)
+        return false;
+      for (int i = 0; i < args.length; i++) {
+        if (!same(args[i], other.args[i]))
+          return false;
+      }
+      return true;
+    }
+  }
+}
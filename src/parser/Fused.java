@@ -0,0 +1,310 @@
+package parser;
+
+import tokens.Tk;
+import vars.mtx.DoubleMtx;
+import vars.mtx.FullMtx;
+import vars.mtx.Mtx;
+import vars.scl.Scl;
+
+/**
+ * A chain of elementwise matrix operations (+, -, negation and scaling) that is
+ * evaluated in a single pass once something needs its value
+ * <p>
+ * The chain is evaluated one row at a time, so the only matrix allocated is the
+ * result, however long the chain is. Only dense matrices are fused; structured and
+ * sparse matrices go through Mtx, which keeps their structure.
+ */
+abstract class Fused {
+  /**
+   * The dimensions of the result
+   */
+  final int rCount, cCount;
+  /**
+   * Whether the result is a DoubleMtx
+   */
+  final boolean isFloat;
+
+  Fused(int rCount, int cCount, boolean isFloat) {
+    this.rCount = rCount;
+    this.cCount = cCount;
+    this.isFloat = isFloat;
+  }
+
+  /**
+   * Evaluates one row of this chain in exact arithmetic
+   * @param r   The row
+   * @param out Where to write the row
+   */
+  abstract void row(int r, Scl[] out);
+
+  /**
+   * Evaluates one row of this chain in double arithmetic
+   * @param r   The row
+   * @param out Where to write the row
+   */
+  abstract void row(int r, double[] out);
+
+  /**
+   * Attempts to fuse an operation into a chain
+   * @param token The operator
+   * @param a     The first operand (null if unary)
+   * @param b     The second operand
+   * @return The new chain, or null if the operation can't be fused
+   */
+  static Fused combine(Tk token, Object a, Object b) {
+    Fused left = leaf(a), right = leaf(b);
+    if (a == null && right != null) {
+      return (token == Tk.SUB_OP) ? new Neg(right) : null;
+    }
+    if (a instanceof Scl && right != null && token == Tk.MULT_OP) {
+      return new Scale((Scl) a, right);
+    }
+    if (b instanceof Scl && left != null && token == Tk.MULT_OP) {
+      return new Scale((Scl) b, left);
+    }
+    if (left == null || right == null || left.rCount != right.rCount || left.cCount != right.cCount) {
+      return null;
+    }
+    if (token == Tk.ADD_OP) {
+      return new Sum(left, right, false);
+    } else if (token == Tk.SUB_OP) {
+      return new Sum(left, right, true);
+    }
+    return null;
+  }
+
+  /**
+   * Evaluates an operand if it is a chain
+   * @param o The operand
+   * @return The operand, or the matrix the chain evaluates to
+   */
+  static Object value(Object o) {
+    if (o instanceof Fused) {
+      return ((Fused) o).evaluate();
+    }
+    return o;
+  }
+
+  /**
+   * Treats an operand as part of a chain
+   * @param o The operand
+   * @return The chain, or null if the operand can't be fused
+   */
+  private static Fused leaf(Object o) {
+    if (o instanceof Fused) {
+      return (Fused) o;
+    }
+    if (o instanceof FullMtx || o instanceof DoubleMtx) {
+      return new Leaf((Mtx) o);
+    }
+    return null;
+  }
+
+  /**
+   * Evaluates the whole chain into a new matrix
+   * @return The matrix
+   */
+  Mtx evaluate() {
+    if (isFloat) {
+      double[] data = new double[rCount * cCount];
+      double[] row = new double[cCount];
+      for (int r = 0; r < rCount; r++) {
+        row(r, row);
+        System.arraycopy(row, 0, data, r * cCount, cCount);
+      }
+      return new DoubleMtx(rCount, cCount, data);
+    }
+    Scl[] row = new Scl[cCount];
+    Mtx res = new FullMtx(rCount, cCount);
+    for (int r = 0; r < rCount; r++) {
+      row(r, row);
+      for (int c = 0; c < cCount; c++) {
+        res.set(r, c, row[c]);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Evaluates the whole chain into a matrix of the same dimensions and kind as the
+   * result, overwriting it
+   * <p>
+   * Each row is worked out in full before it is written, and a row of the result only
+   * reads the same row of the chain's matrices, so the matrix may be one of them.
+   * @param target The matrix
+   * @return Whether the chain could be written into it
+   */
+  boolean evaluateInto(Mtx target) {
+    if (target.rCount != rCount || target.cCount != cCount)
+      return false;
+    if (isFloat && target instanceof DoubleMtx) {
+      double[] row = new double[cCount];
+      for (int r = 0; r < rCount; r++) {
+        row(r, row);
+        ((DoubleMtx) target).setRow(r, row);
+      }
+      return true;
+    }
+    if (!isFloat && target instanceof FullMtx) {
+      Scl[] row = new Scl[cCount];
+      for (int r = 0; r < rCount; r++) {
+        row(r, row);
+        ((FullMtx) target).setRow(r, row);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Evaluates a row of an operand in double arithmetic, even if the operand itself is
+   * exact (just as Mtx promotes exact operands when the other is a DoubleMtx)
+   */
+  static void rowAsDouble(Fused f, int r, double[] out, Scl[] scratch) {
+    if (f.isFloat) {
+      f.row(r, out);
+    } else {
+      f.row(r, scratch);
+      for (int c = 0; c < out.length; c++) {
+        out[c] = scratch[c].doubleValue();
+      }
+    }
+  }
+
+  /**
+   * A matrix at the bottom of a chain
+   */
+  private static class Leaf extends Fused {
+    private final Mtx m;
+
+    Leaf(Mtx m) {
+      super(m.rCount, m.cCount, m instanceof DoubleMtx);
+      this.m = m;
+    }
+
+    @Override
+    void row(int r, Scl[] out) {
+      for (int c = 0; c < cCount; c++) {
+        out[c] = m.get(r, c);
+      }
+    }
+
+    @Override
+    void row(int r, double[] out) {
+      if (m instanceof DoubleMtx) {
+        ((DoubleMtx) m).copyRow(r, out);
+        return;
+      }
+      for (int c = 0; c < cCount; c++) {
+        out[c] = m.get(r, c).doubleValue();
+      }
+    }
+
+    @Override
+    Mtx evaluate() {
+      return m;
+    }
+  }
+
+  /**
+   * a + b or a - b
+   */
+  private static class Sum extends Fused {
+    private final Fused a, b;
+    private final boolean subtract;
+    private final Scl[] bRow, scratch;
+    private final double[] bRowD;
+
+    Sum(Fused a, Fused b, boolean subtract) {
+      super(a.rCount, a.cCount, a.isFloat || b.isFloat);
+      this.a = a;
+      this.b = b;
+      this.subtract = subtract;
+      this.bRow = new Scl[cCount];
+      this.scratch = new Scl[cCount];
+      this.bRowD = new double[cCount];
+    }
+
+    @Override
+    void row(int r, Scl[] out) {
+      a.row(r, out);
+      b.row(r, bRow);
+      for (int c = 0; c < cCount; c++) {
+        out[c] = subtract ? Scl.sub(out[c], bRow[c]) : Scl.add(out[c], bRow[c]);
+      }
+    }
+
+    @Override
+    void row(int r, double[] out) {
+      rowAsDouble(a, r, out, scratch);
+      rowAsDouble(b, r, bRowD, scratch);
+      for (int c = 0; c < cCount; c++) {
+        out[c] = subtract ? out[c] - bRowD[c] : out[c] + bRowD[c];
+      }
+    }
+  }
+
+  /**
+   * -a
+   */
+  private static class Neg extends Fused {
+    private final Fused a;
+    private final Scl[] scratch;
+
+    Neg(Fused a) {
+      super(a.rCount, a.cCount, a.isFloat);
+      this.a = a;
+      this.scratch = new Scl[cCount];
+    }
+
+    @Override
+    void row(int r, Scl[] out) {
+      a.row(r, out);
+      for (int c = 0; c < cCount; c++) {
+        out[c] = Scl.neg(out[c]);
+      }
+    }
+
+    @Override
+    void row(int r, double[] out) {
+      rowAsDouble(a, r, out, scratch);
+      for (int c = 0; c < cCount; c++) {
+        out[c] = -out[c];
+      }
+    }
+  }
+
+  /**
+   * s * a
+   */
+  private static class Scale extends Fused {
+    private final Scl s;
+    private final double sD;
+    private final Fused a;
+    private final Scl[] scratch;
+
+    Scale(Scl s, Fused a) {
+      super(a.rCount, a.cCount, a.isFloat);
+      this.s = s;
+      this.sD = s.doubleValue();
+      this.a = a;
+      this.scratch = new Scl[cCount];
+    }
+
+    @Override
+    void row(int r, Scl[] out) {
+      a.row(r, out);
+      for (int c = 0; c < cCount; c++) {
+        out[c] = Scl.mult(out[c], s);
+      }
+    }
+
+    @Override
+    void row(int r, double[] out) {
+      rowAsDouble(a, r, out, scratch);
+      for (int c = 0; c < cCount; c++) {
+        out[c] = out[c] * sD;
+      }
+    }
+  }
+}
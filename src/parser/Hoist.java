@@ -0,0 +1,450 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ast.Assign;
+import ast.Block;
+import ast.Command;
+import ast.Expr;
+import ast.ExprStmt;
+import ast.For;
+import ast.If;
+import ast.MtxAssign;
+import ast.Return;
+import ast.Stmt;
+import ast.While;
+import tokens.Tk;
+import vars.Var;
+import vars.bool.Bool;
+import vars.scl.Scl;
+
+/**
+ * Finds the subexpressions of a statement that would be evaluated over and over with the
+ * same operands and turns each into a Cached, so it is only evaluated again once one of
+ * its vars changes
+ * <p>
+ * Two kinds are picked out: subexpressions in a loop that read no var the loop assigns
+ * (loop-invariant code motion), such as inv(M)*b in a loop that only assigns x, and
+ * subexpressions that are written more than once in the statement (common subexpression
+ * elimination), which share one Cached. Loop-invariant ones are still first evaluated
+ * where they are written, so a loop that never runs them never fails on them. Only the
+ * largest such subexpressions are cached, and only ones that do some work: a lone var or
+ * constant is as cheap to load as a Cached is to check.
+ * <p>
+ * Everything this finds is checked again as it runs by Cached, so it only decides where
+ * caching is likely to pay, never whether a value is still right. The one thing it
+ * can't check is a call to a function defined with def, which may read any global or
+ * call itself, so nothing with one in it is cached.
+ */
+class Hoist {
+  /**
+   * A value or an operator applied to its operands, rebuilt from postfix
+   */
+  private static class Node {
+    final Object item;
+    final Node[] operands;
+    /**
+     * The subexpression written out, the same for every copy of it
+     */
+    final String key;
+    /**
+     * The vars the subexpression reads
+     */
+    final Set<String> names;
+    /**
+     * Whether its value depends on nothing but its vars, which isn't so once it calls a
+     * function defined with def
+     */
+    final boolean cacheable;
+
+    Node(Object item, Node[] operands, String key, Set<String> names) {
+      this.item = item;
+      this.operands = operands;
+      this.key = key;
+      this.names = names;
+      boolean cacheable = !Types.callsDefined(Collections.singletonList(item));
+      for (Node operand : operands) {
+        cacheable &= operand.cacheable;
+      }
+      this.cacheable = cacheable;
+    }
+
+    /**
+     * Whether evaluating it does more than load a value
+     */
+    boolean isWork() {
+      return !(item instanceof String || item instanceof Var || item instanceof Cached);
+    }
+  }
+
+  private static final Node[] NONE = {};
+
+  /**
+   * How many times each subexpression is written in the statement
+   */
+  private final Map<String, Integer> uses = new HashMap<>();
+  /**
+   * The one Cached for each subexpression
+   */
+  private final Map<String, Cached> cached = new HashMap<>();
+  /**
+   * Numbers for constants that have no key of their own
+   */
+  private final Map<Object, Integer> others = new IdentityHashMap<>();
+
+  private Hoist() {
+  }
+
+  /**
+   * Caches the subexpressions of a statement worth caching
+   * @param stmt The statement
+   * @return The statement with them cached, or stmt itself if there were none
+   */
+  static Stmt optimize(Stmt stmt) {
+    if (!(stmt instanceof Assign || stmt instanceof ExprStmt || stmt instanceof Return || stmt instanceof If
+        || stmt instanceof While || stmt instanceof For))
+      return stmt;
+    Hoist hoist = new Hoist();
+    hoist.count(stmt);
+    return hoist.rewrite(stmt, null);
+  }
+
+  // Counting
+
+  private void count(Stmt stmt) {
+    for (Expr expr : exprs(stmt)) {
+      Node root = tree(expr.postfix);
+      if (root != null)
+        count(root);
+    }
+    for (Block block : blocks(stmt)) {
+      for (Stmt inner : block.stmts) {
+        count(inner);
+      }
+    }
+  }
+
+  private void count(Node node) {
+    if (node.isWork() || node.item instanceof Cached) {
+      Integer n = uses.get(node.key);
+      uses.put(node.key, (n == null) ? 1 : n + 1);
+    }
+    if (node.item instanceof Cached && !cached.containsKey(node.key)) {
+      cached.put(node.key, (Cached) node.item);
+    }
+    for (Node operand : node.operands) {
+      count(operand);
+    }
+  }
+
+  // Rewriting
+
+  /**
+   * Rewrites a statement
+   * @param stmt    The statement
+   * @param changed The vars assigned by the innermost loop the statement is in, or null
+   *                if it isn't in one
+   */
+  private Stmt rewrite(Stmt stmt, Set<String> changed) {
+    if (stmt instanceof Assign) {
+      Assign assign = (Assign) stmt;
+      Expr value = rewrite(assign.value, changed);
+      return (value == assign.value) ? stmt : new Assign(assign.name, value, assign.inPlace);
+    } else if (stmt instanceof ExprStmt) {
+      ExprStmt print = (ExprStmt) stmt;
+      Expr expr = rewrite(print.expr, changed);
+      return (expr == print.expr) ? stmt : new ExprStmt(expr);
+    } else if (stmt instanceof Return) {
+      Return ret = (Return) stmt;
+      if (ret.value == null)
+        return stmt;
+      Expr value = rewrite(ret.value, changed);
+      return (value == ret.value) ? stmt : new Return(value);
+    } else if (stmt instanceof If) {
+      If ifStmt = (If) stmt;
+      Expr cond = rewrite(ifStmt.cond, changed);
+      Block then = rewrite(ifStmt.then, changed);
+      Block otherwise = (ifStmt.otherwise == null) ? null : rewrite(ifStmt.otherwise, changed);
+      if (cond == ifStmt.cond && then == ifStmt.then && otherwise == ifStmt.otherwise)
+        return stmt;
+      return new If(cond, then, otherwise);
+    } else if (stmt instanceof While) {
+      While loop = (While) stmt;
+      Set<String> assigned = new LinkedHashSet<>();
+      assigned(loop.body, assigned);
+      // The condition is evaluated every pass as well
+      Expr cond = rewrite(loop.cond, assigned);
+      Block body = rewrite(loop.body, assigned);
+      return (cond == loop.cond && body == loop.body) ? stmt : new While(cond, body);
+    } else if (stmt instanceof For) {
+      For loop = (For) stmt;
+      // The bounds are evaluated once, before the loop
+      Expr start = rewrite(loop.start, changed);
+      Expr end = rewrite(loop.end, changed);
+      Expr step = (loop.step == null) ? null : rewrite(loop.step, changed);
+      Set<String> assigned = new LinkedHashSet<>();
+      assigned.add(loop.name);
+      assigned(loop.body, assigned);
+      Block body = rewrite(loop.body, assigned);
+      if (start == loop.start && end == loop.end && step == loop.step && body == loop.body)
+        return stmt;
+      return new For(loop.name, start, end, step, body, loop.parallel);
+    } else if (stmt instanceof Block) {
+      return rewrite((Block) stmt, changed);
+    }
+    return stmt;
+  }
+
+  private Block rewrite(Block block, Set<String> changed) {
+    List<Stmt> stmts = null;
+    for (int i = 0; i < block.stmts.size(); i++) {
+      Stmt stmt = block.stmts.get(i);
+      Stmt res = rewrite(stmt, changed);
+      if (res != stmt && stmts == null) {
+        stmts = new ArrayList<>(block.stmts);
+      }
+      if (stmts != null) {
+        stmts.set(i, res);
+      }
+    }
+    return (stmts == null) ? block : new Block(stmts);
+  }
+
+  private Expr rewrite(Expr expr, Set<String> changed) {
+    Node root = tree(expr.postfix);
+    if (root == null)
+      return expr;
+    Node res = select(root, changed);
+    if (res == root)
+      return expr;
+    List<Object> postfix = new ArrayList<>();
+    emit(res, postfix);
+    return new Expr(postfix, expr.rewrites);
+  }
+
+  /**
+   * Replaces the largest subexpressions worth caching with their Cached, top down
+   */
+  private Node select(Node node, Set<String> changed) {
+    if (node.item instanceof Cached) {
+      // The same subexpression cached by an inner statement shares one Cached
+      Cached shared = cached.get(node.key);
+      return (shared == node.item) ? node : leaf(shared);
+    }
+    if (!node.isWork())
+      return node;
+    boolean invariant = changed != null && Collections.disjoint(node.names, changed);
+    Integer written = uses.get(node.key);
+    if (node.cacheable && (invariant || (written != null && written > 1))) {
+      Cached res = cached.get(node.key);
+      if (res == null) {
+        List<Object> postfix = new ArrayList<>();
+        emit(node, postfix);
+        res = new Cached(postfix, node.key, node.names.toArray(new String[0]));
+        cached.put(node.key, res);
+      }
+      return leaf(res);
+    }
+    Node[] operands = null;
+    for (int i = 0; i < node.operands.length; i++) {
+      Node res = select(node.operands[i], changed);
+      if (res != node.operands[i] && operands == null) {
+        operands = node.operands.clone();
+      }
+      if (operands != null) {
+        operands[i] = res;
+      }
+    }
+    return (operands == null) ? node : new Node(node.item, operands, node.key, node.names);
+  }
+
+  private static void emit(Node node, List<Object> out) {
+    for (Node operand : node.operands) {
+      emit(operand, out);
+    }
+    out.add(node.item);
+  }
+
+  // Trees
+
+  /**
+   * Rebuilds the tree of an expression the same way evaluateExpr pops its stack
+   * @return The root, or null if the expression is malformed
+   */
+  private Node tree(List<Object> postfix) {
+    Deque<Node> stack = new ArrayDeque<>();
+    for (Object o : postfix) {
+      Node[] operands;
+      if (o instanceof ValueOp || o == Tk.TRANSPOSE_OP) {
+        if (stack.isEmpty())
+          return null;
+        operands = new Node[] { stack.pop() };
+      } else if (o instanceof MultChain) {
+        int count = ((MultChain) o).count;
+        if (stack.size() < count)
+          return null;
+        operands = new Node[count];
+        for (int i = count - 1; i >= 0; i--) {
+          operands[i] = stack.pop();
+        }
+      } else if (o instanceof Tk) {
+        if (stack.isEmpty())
+          return null;
+        Node b = stack.pop();
+        operands = stack.isEmpty() ? new Node[] { b } : new Node[] { stack.pop(), b };
+      } else {
+        operands = NONE;
+      }
+      stack.push(node(o, operands));
+    }
+    return (stack.size() == 1) ? stack.pop() : null;
+  }
+
+  private Node leaf(Cached cached) {
+    return new Node(cached, NONE, cached.key, new LinkedHashSet<>(Arrays.asList(cached.names)));
+  }
+
+  private Node node(Object item, Node[] operands) {
+    if (item instanceof Cached)
+      return leaf((Cached) item);
+    Set<String> names = new LinkedHashSet<>();
+    StringBuilder key = new StringBuilder("(");
+    for (Node operand : operands) {
+      names.addAll(operand.names);
+      key.append(operand.key).append(' ');
+    }
+    if (item instanceof String) {
+      names.add((String) item);
+      return new Node(item, operands, (String) item, names);
+    } else if (item instanceof Scl) {
+      return new Node(item, operands, "#" + ((Scl) item).decimalValue(), names);
+    } else if (item instanceof Bool) {
+      return new Node(item, operands, "#" + item, names);
+    } else if (item instanceof Call) {
+      Call call = (Call) item;
+      key.append(call.name).append('(');
+      for (List<Object> arg : call.args) {
+        key.append(key(arg, names)).append(',');
+      }
+      key.append(')');
+    } else if (item instanceof IndexOp) {
+      key.append('[');
+      for (List<Object> bound : ((IndexOp) item).bounds()) {
+        key.append((bound == null) ? ":" : key(bound, names)).append(',');
+      }
+      key.append(']');
+    } else if (item instanceof Power) {
+      key.append('^').append(((Power) item).n);
+    } else if (item instanceof MultChain) {
+      key.append('*').append(operands.length);
+    } else if (item instanceof Tk) {
+      key.append(((Tk) item).name());
+    } else {
+      // Folded matrices and anything else are only the same as themselves
+      return new Node(item, operands, "#" + other(item), names);
+    }
+    return new Node(item, operands, key.append(')').toString(), names);
+  }
+
+  /**
+   * The key of an argument or bound, adding the vars it reads to names
+   */
+  private String key(List<Object> postfix, Set<String> names) {
+    Node root = tree(postfix);
+    if (root == null) {
+      // Left to fail as it runs, but still read its vars
+      for (Object o : postfix) {
+        if (o instanceof String)
+          names.add((String) o);
+      }
+      return "#" + other(postfix);
+    }
+    names.addAll(root.names);
+    return root.key;
+  }
+
+  private int other(Object item) {
+    Integer n = others.get(item);
+    if (n == null) {
+      n = others.size();
+      others.put(item, n);
+    }
+    return n;
+  }
+
+  // Statements
+
+  /**
+   * The expressions a statement evaluates itself, not counting its blocks
+   */
+  private static List<Expr> exprs(Stmt stmt) {
+    List<Expr> res = new ArrayList<>();
+    if (stmt instanceof Assign) {
+      res.add(((Assign) stmt).value);
+    } else if (stmt instanceof ExprStmt) {
+      res.add(((ExprStmt) stmt).expr);
+    } else if (stmt instanceof Return && ((Return) stmt).value != null) {
+      res.add(((Return) stmt).value);
+    } else if (stmt instanceof If) {
+      res.add(((If) stmt).cond);
+    } else if (stmt instanceof While) {
+      res.add(((While) stmt).cond);
+    } else if (stmt instanceof For) {
+      For loop = (For) stmt;
+      res.add(loop.start);
+      res.add(loop.end);
+      if (loop.step != null)
+        res.add(loop.step);
+    }
+    return res;
+  }
+
+  /**
+   * The blocks of a statement, including a statement that is a block
+   */
+  private static List<Block> blocks(Stmt stmt) {
+    List<Block> res = new ArrayList<>();
+    if (stmt instanceof Block) {
+      res.add((Block) stmt);
+    } else if (stmt instanceof If) {
+      res.add(((If) stmt).then);
+      if (((If) stmt).otherwise != null)
+        res.add(((If) stmt).otherwise);
+    } else if (stmt instanceof While) {
+      res.add(((While) stmt).body);
+    } else if (stmt instanceof For) {
+      res.add(((For) stmt).body);
+    }
+    return res;
+  }
+
+  /**
+   * Collects the vars a statement can assign, in any of its blocks
+   */
+  private static void assigned(Stmt stmt, Set<String> names) {
+    if (stmt instanceof Assign) {
+      names.add(((Assign) stmt).name);
+    } else if (stmt instanceof MtxAssign) {
+      names.add(((MtxAssign) stmt).name);
+    } else if (stmt instanceof For) {
+      names.add(((For) stmt).name);
+    } else if (stmt instanceof Command && ((Command) stmt).kind == Tk.LOAD) {
+      names.add(((Command) stmt).args[0]);
+    }
+    for (Block block : blocks(stmt)) {
+      for (Stmt inner : block.stmts) {
+        assigned(inner, names);
+      }
+    }
+  }
+}
@@ -0,0 +1,250 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ast.Assign;
+import ast.Block;
+import ast.Command;
+import ast.Expr;
+import ast.ExprStmt;
+import ast.For;
+import ast.If;
+import ast.MtxAssign;
+import ast.Return;
+import ast.Stmt;
+import ast.While;
+import vars.Var;
+import vars.mtx.Mtx;
+
+/**
+ * Lets updates such as P = P + B and P = 2*P in a loop write into the matrix P already
+ * holds, instead of making a new matrix every pass
+ * <p>
+ * Writing over a matrix is only safe once nothing can see its old value. plan looks for
+ * vars that the statement being run reads nowhere except in updates of themselves, as
+ * the plain operands of those updates, if at all: the old value of such a var is dead
+ * as soon as its update has been evaluated, and no other var, cached value or view can
+ * have been given it. Those updates are marked in place. As the statement runs, a matrix an
+ * update made is owned until the statement ends, and the next pass of the update writes
+ * into the matrix the var holds only if it is owned. The first pass, or any whose
+ * matrix came from elsewhere, makes a new one, since it may be seen from outside.
+ * <p>
+ * Only elementwise chains (Fused) can be written into a matrix, and only when the
+ * result is the same size and kind; anything else is evaluated as usual.
+ */
+abstract class InPlace {
+  /**
+   * Whether updates are planned in place (set in_place)
+   */
+  static boolean enabled = true;
+
+  /**
+   * Forgets the matrices owned by the last statement run, as anything may see them now
+   */
+  static void reset() {
+    Set<Mtx> owned = Interpreter.current().owned;
+    if (!owned.isEmpty()) {
+      owned.clear();
+    }
+  }
+
+  /**
+   * Marks the updates in a statement that can be made in place
+   * @param stmt The statement about to be run
+   * @return The statement with them marked, or stmt itself if there are none
+   */
+  static Stmt plan(Stmt stmt) {
+    // A statement on its own line starts out with nothing owned, so only loops benefit
+    if (!enabled || !(stmt instanceof If || stmt instanceof While || stmt instanceof For))
+      return stmt;
+    // A function can read any global and keep what it read
+    if (Types.callsDefined(stmt))
+      return stmt;
+    Map<String, Boolean> vars = new HashMap<>();
+    reads(stmt, vars);
+    vars.values().removeAll(Collections.singleton(Boolean.FALSE));
+    return vars.isEmpty() ? stmt : mark(stmt, vars.keySet());
+  }
+
+  /**
+   * Gives the value of an update, written into the matrix the var holds if it is owned
+   * @param top The value on top of the stack, which may be a fused chain
+   * @param old What the var holds now (can be null)
+   * @return The value
+   */
+  static Object value(Object top, Var old) {
+    Interpreter in = Interpreter.current();
+    Set<Mtx> owned = in.owned;
+    // The old value is dead either way
+    boolean mine = old != null && owned.remove(old);
+    if (!(top instanceof Fused))
+      return top;
+    Fused chain = (Fused) top;
+    if (mine && chain.evaluateInto((Mtx) old)) {
+      owned.add((Mtx) old);
+      in.written++;
+      return old;
+    }
+    Mtx res = chain.evaluate();
+    owned.add(res);
+    in.made++;
+    return res;
+  }
+
+  /**
+   * @return How many updates were written in place and how many made a new matrix
+   */
+  static String stats() {
+    Interpreter in = Interpreter.current();
+    return String.format("%d written in place, %d new", in.written, in.made);
+  }
+
+  // Planning
+
+  /**
+   * Finds which vars are read only as plain operands of updates of themselves
+   * @param vars True for each var assigned or read only that way, false for one read any
+   *             other way
+   */
+  private static void reads(Stmt stmt, Map<String, Boolean> vars) {
+    String target = (stmt instanceof Assign) ? ((Assign) stmt).name : null;
+    if (target != null && !vars.containsKey(target)) {
+      // A var that is only assigned is as good as one only read by its updates
+      vars.put(target, true);
+    }
+    for (Expr expr : exprs(stmt)) {
+      for (Object o : expr.postfix) {
+        if (o instanceof String) {
+          read((String) o, o.equals(target), vars);
+        } else {
+          nested(o, vars);
+        }
+      }
+    }
+    for (Block block : blocks(stmt)) {
+      for (Stmt inner : block.stmts) {
+        reads(inner, vars);
+      }
+    }
+  }
+
+  /**
+   * Counts every var read inside a call, index or cached subexpression as read some
+   * other way, as they may keep what they read
+   */
+  private static void nested(Object o, Map<String, Boolean> vars) {
+    List<List<Object>> parts = new ArrayList<>();
+    if (o instanceof Call) {
+      parts.addAll(((Call) o).args);
+    } else if (o instanceof IndexOp) {
+      parts.addAll(((IndexOp) o).bounds());
+    } else if (o instanceof Cached) {
+      for (String name : ((Cached) o).names) {
+        read(name, false, vars);
+      }
+      parts.add(((Cached) o).postfix);
+    }
+    for (List<Object> part : parts) {
+      if (part == null)
+        continue;
+      for (Object item : part) {
+        if (item instanceof String) {
+          read((String) item, false, vars);
+        } else {
+          nested(item, vars);
+        }
+      }
+    }
+  }
+
+  private static void read(String name, boolean update, Map<String, Boolean> vars) {
+    Boolean only = vars.get(name);
+    vars.put(name, update && (only == null || only));
+  }
+
+  /**
+   * Marks the updates of the given vars
+   */
+  private static Stmt mark(Stmt stmt, Set<String> vars) {
+    if (stmt instanceof Assign) {
+      Assign assign = (Assign) stmt;
+      return vars.contains(assign.name) ? new Assign(assign.name, assign.value, true) : stmt;
+    } else if (stmt instanceof If) {
+      If ifStmt = (If) stmt;
+      Block otherwise = (ifStmt.otherwise == null) ? null : mark(ifStmt.otherwise, vars);
+      return new If(ifStmt.cond, mark(ifStmt.then, vars), otherwise);
+    } else if (stmt instanceof While) {
+      While loop = (While) stmt;
+      return new While(loop.cond, mark(loop.body, vars));
+    } else if (stmt instanceof For) {
+      For loop = (For) stmt;
+      // The passes of a parfor run on other threads, which own nothing
+      if (loop.parallel)
+        return stmt;
+      return new For(loop.name, loop.start, loop.end, loop.step, mark(loop.body, vars));
+    } else if (stmt instanceof Block) {
+      return mark((Block) stmt, vars);
+    }
+    return stmt;
+  }
+
+  private static Block mark(Block block, Set<String> vars) {
+    List<Stmt> stmts = new ArrayList<>();
+    for (Stmt stmt : block.stmts) {
+      stmts.add(mark(stmt, vars));
+    }
+    return new Block(stmts);
+  }
+
+  /**
+   * Every expression a statement evaluates itself, not counting its blocks
+   */
+  static List<Expr> exprs(Stmt stmt) {
+    List<Expr> res = new ArrayList<>();
+    if (stmt instanceof Assign) {
+      res.add(((Assign) stmt).value);
+    } else if (stmt instanceof ExprStmt) {
+      res.add(((ExprStmt) stmt).expr);
+    } else if (stmt instanceof Return && ((Return) stmt).value != null) {
+      res.add(((Return) stmt).value);
+    } else if (stmt instanceof If) {
+      res.add(((If) stmt).cond);
+    } else if (stmt instanceof While) {
+      res.add(((While) stmt).cond);
+    } else if (stmt instanceof For) {
+      For loop = (For) stmt;
+      res.add(loop.start);
+      res.add(loop.end);
+      if (loop.step != null)
+        res.add(loop.step);
+    } else if (stmt instanceof Command && ((Command) stmt).expr != null) {
+      res.add(((Command) stmt).expr);
+    } else if (stmt instanceof MtxAssign) {
+      for (List<Expr> row : ((MtxAssign) stmt).rows) {
+        res.addAll(row);
+      }
+    }
+    return res;
+  }
+
+  static List<Block> blocks(Stmt stmt) {
+    List<Block> res = new ArrayList<>();
+    if (stmt instanceof Block) {
+      res.add((Block) stmt);
+    } else if (stmt instanceof If) {
+      res.add(((If) stmt).then);
+      if (((If) stmt).otherwise != null)
+        res.add(((If) stmt).otherwise);
+    } else if (stmt instanceof While) {
+      res.add(((While) stmt).body);
+    } else if (stmt instanceof For) {
+      res.add(((For) stmt).body);
+    }
+    return res;
+  }
+}
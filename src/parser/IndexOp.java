@@ -0,0 +1,177 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.Output;
+import tokens.Tk;
+import tokens.TokenReader;
+import vars.Var;
+import vars.mtx.Mtx;
+import vars.scl.Scl;
+
+/**
+ * Indexing applied to the value before it, such as A[2:4, 1], A[:, 3] or x[5]
+ * <p>
+ * Indices start at 1 and ranges include both ends. Indexing a single cell gives a
+ * scalar, anything larger gives a view sharing the matrix's storage.
+ */
+class IndexOp extends ValueOp {
+  /**
+   * One dimension of an index
+   */
+  private static class Range {
+    /**
+     * The first and last positions in postfix form (end is null for a single position,
+     * both are null for ':')
+     */
+    List<Object> start, end;
+  }
+
+  /**
+   * One range per dimension (a single range indexes a vector)
+   */
+  private final List<Range> ranges;
+
+  private IndexOp(List<Range> ranges) {
+    this.ranges = ranges;
+  }
+
+  /**
+   * Reads an index after its left bracket has been read   
+   * @return The index, or null if it is malformed
+   */
+  static IndexOp read() {
+    // LBRACKET token flagged
+    List<Range> ranges = new ArrayList<>();
+    do {
+      Range range = new Range();
+      if (TokenReader.peekNextToken() == Tk.COLON) {
+        // A lone ':' takes the whole dimension
+        TokenReader.nextToken();
+      } else {
+        range.start = readBound();
+        if (range.start == null)
+          return null;
+        if (TokenReader.peekNextToken() == Tk.COLON) {
+          TokenReader.nextToken();
+          range.end = readBound();
+          if (range.end == null)
+            return null;
+        }
+      }
+      ranges.add(range);
+      TokenReader.nextToken();
+    } while (TokenReader.tk() == Tk.COMMA && ranges.size() < 2);
+    // HARD check for RBRACKET
+    if (Output.hardCheck(Tk.RBRACKET, TokenReader.tk())) {
+      return new IndexOp(ranges);
+    }
+    return null;
+  }
+
+  /**
+   * Reads one bound of a range   
+   * @return The bound in postfix form or null
+   */
+  private static List<Object> readBound() {
+    List<Object> infix = ExprReader.readExpr();
+    if (infix == null)
+      return null;
+    if (infix.isEmpty()) {
+      Output.expectedError("index", TokenReader.peekNextToken());
+      return null;
+    }
+    return Simplify.simplify(ExprReader.convertExpr(infix));
+  }
+
+  /**
+   * @return The start and end of each range in postfix form, null where one is left out
+   */
+  List<List<Object>> bounds() {
+    List<List<Object>> res = new ArrayList<>();
+    for (Range range : ranges) {
+      res.add(range.start);
+      res.add(range.end);
+    }
+    return res;
+  }
+
+  /**
+   * Indexes a value   
+   * @param operand The value being indexed
+   * @return The cell or view, or null if the index is invalid
+   */
+  @Override
+  Var apply(Object operand) {
+    if (!(operand instanceof Mtx)) {
+      Output.customError("Only matrices can be indexed, not %s", operand);
+      return null;
+    }
+    Mtx m = (Mtx) operand;
+    int[] rows, cols;
+    if (ranges.size() == 2) {
+      rows = resolve(ranges.get(0), m.rCount, "rows");
+      cols = resolve(ranges.get(1), m.cCount, "columns");
+    } else if (m.cCount == 1) {
+      rows = resolve(ranges.get(0), m.rCount, "rows");
+      cols = new int[] { 0, 1 };
+    } else if (m.rCount == 1) {
+      rows = new int[] { 0, 1 };
+      cols = resolve(ranges.get(0), m.cCount, "columns");
+    } else {
+      Output.customError("A %dx%d matrix needs a row and a column index", m.rCount, m.cCount);
+      return null;
+    }
+    if (rows == null || cols == null)
+      return null;
+    if (rows[1] == 1 && cols[1] == 1) {
+      return m.get(rows[0], cols[0]);
+    }
+    return Mtx.slice(m, rows[0], cols[0], rows[1], cols[1]);
+  }
+
+  /**
+   * Evaluates one range against the size of its dimension   
+   * @return {first position from 0, count} or null
+   */
+  private static int[] resolve(Range range, int size, String name) {
+    if (range.start == null) {
+      return new int[] { 0, size };
+    }
+    Integer start = position(range.start, size, name);
+    if (start == null)
+      return null;
+    if (range.end == null) {
+      return new int[] { start, 1 };
+    }
+    Integer end = position(range.end, size, name);
+    if (end == null)
+      return null;
+    if (end < start) {
+      Output.customError("Index range %d:%d is empty", start + 1, end + 1);
+      return null;
+    }
+    return new int[] { start, end - start + 1 };
+  }
+
+  /**
+   * Evaluates a single position, converting it to start from 0   
+   * @return The position or null
+   */
+  private static Integer position(List<Object> bound, int size, String name) {
+    Var val = ExprReader.evaluateExpr(bound);
+    if (val == null)
+      return null;
+    if (!(val instanceof Scl) || !((Scl) val).isInt()) {
+      Output.expectedError("whole number index", val);
+      return null;
+    }
+    int pos = ((Scl) val).intValue();
+    if (pos < 1 || pos > size) {
+      Output.customError("Index %d is outside the %d %s of the matrix", pos, size, name);
+      return null;
+    }
+    return pos - 1;
+  }
+}
@@ -3,16 +3,17 @@ package parser;
 import java.util.ArrayList;
 import java.util.List;
 
+import ast.Expr;
 import io.Input;
 import io.Output;
 import tokens.Tk;
 import tokens.TokenReader;
 import vars.Var;
-import vars.mtx.FullMtx;
 import vars.mtx.Mtx;
 import vars.scl.Scl;
 
 abstract class InputReader {
+
   /**
    * Reads parameters given to a function in a function call   
    * @return A list of the parameters
@@ -21,18 +22,18 @@ abstract class InputReader {
     List<Var> params = new ArrayList<Var>();
     // Always ends the token before the next section
     TokenReader.nextToken();
-    if (Output.hardCheck(Tk.LPAREN, TokenReader.tk)) {
+    if (Output.hardCheck(Tk.LPAREN, TokenReader.tk())) {
       do {
         TokenReader.nextToken();
-        if (TokenReader.tk == Tk.RPAREN)
+        if (TokenReader.tk() == Tk.RPAREN)
           break;
         TokenReader.prevToken(); // Start the expression reader on the token before the expression
         Var var = ExprReader.expr();
         params.add(var);
         TokenReader.nextToken();
-      } while (TokenReader.tk == Tk.COMMA);
+      } while (TokenReader.tk() == Tk.COMMA);
 
-      if (Output.hardCheck(Tk.RPAREN, TokenReader.tk)) {
+      if (Output.hardCheck(Tk.RPAREN, TokenReader.tk())) {
         return params;
       }
     }
@@ -47,17 +48,17 @@ abstract class InputReader {
     List<String> paramNames = new ArrayList<String>();
     // Always ends the token before the next section
     TokenReader.nextToken();
-    if (Output.hardCheck(Tk.LPAREN, TokenReader.tk)) {
+    if (Output.hardCheck(Tk.LPAREN, TokenReader.tk())) {
       do {
         TokenReader.nextToken();
-        if (TokenReader.tk == Tk.RPAREN)
+        if (TokenReader.tk() == Tk.RPAREN)
           break;
         String name = TokenReader.tokenStr();
         paramNames.add(name);
         TokenReader.nextToken();
-      } while (TokenReader.tk == Tk.COMMA);
+      } while (TokenReader.tk() == Tk.COMMA);
 
-      if (Output.hardCheck(Tk.RPAREN, TokenReader.tk)) {
+      if (Output.hardCheck(Tk.RPAREN, TokenReader.tk())) {
         return paramNames;
       }
     }
@@ -65,73 +66,102 @@ abstract class InputReader {
   }
 
   /**
-   * Reads in a matrix via the terminal or file io   
+   * Reads the rows of a matrix via the terminal or file io, one row per line up to a
+   * blank line   
    * @param fromTerminal True if reading input from the terminal
-   * @return The matrix read in
+   * @return The cells of each row, or null if they are malformed
    */
-  public static Mtx readMtxInput(boolean fromTerminal) {
-    ArrayList<ArrayList<Scl>> mtx = new ArrayList<>();
+  public static List<List<Expr>> readMtxRows(boolean fromTerminal) {
+    List<List<Expr>> rows = new ArrayList<>();
     String lineStr;
-    Integer lineLen = null;
     do {
       // Will only print brackets if reading input from terminal
       if (fromTerminal)
         Output.print("[");
       lineStr = Input.readLine();
-      TokenReader.readLine(lineStr);
-      ArrayList<Scl> line = new ArrayList<>();
-      while (true) {
-        TokenReader.nextToken();
-        if (TokenReader.tk == Tk.EOL) {
-          break;
-        } else if (TokenReader.tk == Tk.COMMA) {
-          continue;
-        } else {
-          TokenReader.prevToken();
-          Scl s = (Scl) ExprReader.expr();
-          if (s == null)
-            return null;
-          line.add(s);
-        }
-      }
+      if (lineStr == null)
+        break;
+      List<Expr> line = readRow(lineStr);
+      if (line == null)
+        return null;
 
       if (!line.isEmpty()) {
-        if (lineLen != null && line.size() != lineLen) {
-          int dif = line.size() - lineLen;
+        if (!rows.isEmpty() && line.size() != rows.get(0).size()) {
+          int dif = line.size() - rows.get(0).size();
           // Matrix row has [number] too [few | many] parameters
           Output.customError("Matrix row has %d too %s parameters", Math.abs(dif), dif < 0 ? "few" : "many");
           return null;
         } else {
-          mtx.add(line);
+          rows.add(line);
         }
       }
 
-      if (lineLen == null)
-        lineLen = line.size();
-
     } while (!lineStr.matches("^(\\s*)$"));
 
-    if (mtx.isEmpty()) {
+    if (rows.isEmpty()) {
+      Output.expectedError("matrix rows", Tk.EOL);
       return null;
     }
+    return rows;
+  }
+
+  /**
+   * Reads the cells of one row of a matrix, or finds them in the cache if the row has
+   * been read before   
+   * @param lineStr The row
+   * @return The cells, or null if one is malformed
+   */
+  private static List<Expr> readRow(String lineStr) {
+    LineCache<List<Expr>> rowCache = Interpreter.current().rows;
+    String key = LineCache.key(lineStr);
+    List<Expr> line = rowCache.get(key);
+    if (line != null)
+      return line;
+    TokenReader.readLine(lineStr);
+    line = new ArrayList<>();
+    while (true) {
+      TokenReader.nextToken();
+      if (TokenReader.tk() == Tk.EOL) {
+        break;
+      } else if (TokenReader.tk() == Tk.COMMA) {
+        continue;
+      } else {
+        TokenReader.prevToken();
+        Expr cell = ExprReader.parse();
+        if (cell == null)
+          return null;
+        line.add(cell);
+      }
+    }
+    rowCache.put(key, line);
+    return line;
+  }
 
-    Scl[][] mtxArray = new Scl[mtx.size()][mtx.get(0).size()];
+  /**
+   * Evaluates the cells of a matrix read in by readMtxRows   
+   * @param rows The cells of each row
+   * @return The matrix, or null if a cell isn't a scalar
+   */
+  public static Mtx buildMtx(List<List<Expr>> rows) {
+    Scl[][] mtxArray = new Scl[rows.size()][rows.get(0).size()];
 
     int r = 0;
-    for (ArrayList<Scl> row : mtx) {
+    for (List<Expr> row : rows) {
       int c = 0;
-      for (Scl cell : row) {
-        try {
-          mtxArray[r][c] = cell;
-        } catch (ArrayIndexOutOfBoundsException e) {
-          Output.customError("Matrix is not rectangular");
+      for (Expr cell : row) {
+        Var s = ExprReader.evaluateExpr(cell.postfix);
+        if (s == null)
+          return null;
+        if (!(s instanceof Scl)) {
+          Output.expectedError("scalar", s);
           return null;
         }
+        mtxArray[r][c] = (Scl) s;
         c++;
       }
       r++;
     }
 
-    return new FullMtx(mtxArray);
+    return Parser.mode().build(mtxArray);
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,232 @@
+package parser;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import ast.Expr;
+import ast.Stmt;
+import io.Input;
+import io.Output;
+import tokens.Tk;
+import tokens.TokenReader;
+import vars.Var;
+import vars.mtx.Mtx;
+import vars.mtx.NumMode;
+
+/**
+ * A program being run: its vars, functions and caches, and the tokens, input and output
+ * it reads and prints through
+ * <p>
+ * The static API, Parser.read and the rest, works on the interpreter bound to the thread
+ * calling it. A thread is bound to one while it runs that interpreter's read or run, and
+ * otherwise works on a default one that reads System.in and prints to System.out, so
+ * programs that only use the static API run as they always have. Several interpreters
+ * can run at once, each on a thread of its own, but an interpreter runs on one thread at
+ * a time. It runs on the caller's stack, which should be Parser.STACK deep for calls to
+ * functions defined with def to nest as far as they can.
+ * <p>
+ * Options changed with set are shared by every interpreter, as they change how programs
+ * run rather than what they do.
+ */
+public final class Interpreter {
+  private static final ThreadLocal<Interpreter> bound = new ThreadLocal<>();
+  private static final Interpreter DEFAULT = new Interpreter(null, null);
+  /**
+   * Whether a thread has ever been bound to an interpreter, which until then every thread
+   * can tell without looking, as vars are read and written through current() on every
+   * pass of a loop. A thread that binds one sees its own write, and one that doesn't
+   * works on the default either way, so it needn't be volatile.
+   */
+  private static boolean anyBound;
+
+  // What it reads and prints through
+  private final TokenReader tokens = new TokenReader();
+  private final Input input;
+  private final PrintStream out;
+
+  // The program
+  /**
+   * The scope statements run in, when they run outside a parfor chunk (Parser.getVars)
+   */
+  VarContainer vars = new VarContainer(null);
+  /**
+   * The numeric mode new matrices are created in
+   */
+  NumMode mode = NumMode.EXACT;
+  /**
+   * The functions defined so far, by name
+   */
+  final Map<String, Function> functions = new HashMap<>();
+  /**
+   * What single-line statements and matrix rows parsed to
+   */
+  final LineCache<Stmt> lines = new LineCache<>();
+  final LineCache<List<Expr>> rows = new LineCache<>();
+
+  // Parsing
+  /**
+   * What closed the last block read, END, ELSE or RETURN (ControlsReader), and the
+   * rewrites Simplify has made since they were last taken
+   */
+  Tk closer;
+  List<String> rewrites = new ArrayList<>();
+
+  // Running
+  /**
+   * How deep calls nest and how many definitions there have been (Function)
+   */
+  int depth, generation;
+  long calls, hits, evictions;
+  /**
+   * The matrices updates made while the current statement has been running (InPlace)
+   */
+  final Set<Mtx> owned = Collections.newSetFromMap(new IdentityHashMap<Mtx, Boolean>());
+  long written, made;
+  /**
+   * The notes explain is collecting, or null (Explain)
+   */
+  List<String> notes;
+  /**
+   * The plans of the expressions the Executor has evaluated, and how many operators had
+   * operands evaluated at the same time, in how many tasks (Fork)
+   */
+  final Map<Expr, Fork> plans = new WeakHashMap<>();
+  long forks, tasks;
+  /**
+   * How many parfor loops were run, in how many chunks (Parfor)
+   */
+  long loops, chunks;
+
+  /**
+   * Makes an interpreter for a program
+   * @param in  Where it reads its statements and the lines of its blocks and matrices
+   *            from, or null for System.in
+   * @param out Where it prints to, or null for System.out
+   */
+  public Interpreter(InputStream in, PrintStream out) {
+    this.input = (in == null) ? null : new Input(in);
+    this.out = out;
+  }
+
+  /**
+   * @return The interpreter bound to this thread, or the default one
+   */
+  static Interpreter current() {
+    if (!anyBound)
+      return DEFAULT;
+    Interpreter in = bound.get();
+    return (in == null) ? DEFAULT : in;
+  }
+
+  /**
+   * Binds an interpreter to this thread for its program state alone, for threads that run
+   * part of a statement for it and neither read nor print but through Output.hold
+   * @param in The interpreter, or null to go back to the default one
+   * @return The interpreter bound before, or null
+   */
+  static Interpreter bind(Interpreter in) {
+    Interpreter before = anyBound ? bound.get() : null;
+    if (in == null || in == DEFAULT) {
+      bound.remove();
+    } else {
+      anyBound = true;
+      bound.set(in);
+    }
+    return before;
+  }
+
+  /**
+   * Reads in a line, along with the rest of any block it opens, then runs it, as
+   * Parser.read does
+   * @param line The line
+   * @return Var.Null if the run was successful <b>or a returned variable</b>, null on
+   *         an error
+   */
+  public Var read(String line) {
+    Entered entered = new Entered(this);
+    try {
+      return Parser.read(line);
+    } finally {
+      entered.leave();
+    }
+  }
+
+  /**
+   * Runs every statement of its input, stopping at the first error
+   * @return Whether every statement ran without an error
+   */
+  public boolean run() {
+    Entered entered = new Entered(this);
+    try {
+      String line;
+      while ((line = Input.readLine()) != null) {
+        if (Parser.read(line) == null)
+          return false;
+      }
+      return true;
+    } finally {
+      entered.leave();
+    }
+  }
+
+  /**
+   * Reads the next line of its input, for running its statements one at a time with read
+   * @return The line, or null once the input has run out
+   */
+  public String readLine() {
+    Entered entered = new Entered(this);
+    try {
+      return Input.readLine();
+    } finally {
+      entered.leave();
+    }
+  }
+
+  /**
+   * @param name The name of a global var
+   * @return What it holds, or null if it doesn't exist
+   */
+  public Var getVar(String name) {
+    return vars.root().getLocalVar(name);
+  }
+
+  /**
+   * @return How many cells its global vars hold, which is what it keeps in memory between
+   *         statements
+   */
+  public long cells() {
+    return vars.root().cells();
+  }
+
+  /**
+   * What a thread was bound to before it entered an interpreter, to go back to
+   */
+  private static final class Entered {
+    private final Interpreter interpreter;
+    private final TokenReader tokens;
+    private final Input input;
+    private final PrintStream out;
+
+    Entered(Interpreter in) {
+      interpreter = bind(in);
+      tokens = TokenReader.use(in.tokens);
+      input = Input.use(in.input);
+      out = Output.use(in.out);
+    }
+
+    void leave() {
+      bind(interpreter);
+      TokenReader.use(tokens);
+      Input.use(input);
+      Output.use(out);
+    }
+  }
+}
@@ -0,0 +1,853 @@
+package parser;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ast.Assign;
+import ast.Block;
+import ast.Command;
+import ast.Expr;
+import ast.ExprStmt;
+import ast.For;
+import ast.If;
+import ast.MtxAssign;
+import ast.Stmt;
+import ast.While;
+import io.Output;
+import tokens.Tk;
+import vars.Var;
+import vars.bool.Bool;
+import vars.mtx.Mtx;
+import vars.scl.Scl;
+
+/**
+ * The tier above the VM: once a loop has run jit_threshold times its body is compiled
+ * into a tree of nodes specialised to the types its variables had, which call Scl and
+ * Bool operations directly
+ * <p>
+ * Each node is its own class, so every call in the tree has a single target HotSpot can
+ * inline. A variable is checked for the type the node was built for when it is read;
+ * if the check fails the statement is run on the Executor instead, and after a few
+ * failures it stays there. Expressions have no side effects before their value is
+ * stored, so a failed check never leaves a statement half done.
+ */
+abstract class Jit {
+  /**
+   * Whether hot loops are compiled
+   */
+  static boolean enabled = true;
+  /**
+   * How many passes a loop makes before it is compiled
+   */
+  static int threshold = 1000;
+  /**
+   * How many failed type checks a statement takes before it stops being specialised
+   */
+  private static final int MAX_DEOPTS = 4;
+
+  /**
+   * Thrown when a variable doesn't have the type a node was built for
+   */
+  private static final class Deopt extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    Deopt() {
+      super(null, null, false, false);
+    }
+  }
+
+  private static final Deopt DEOPT = new Deopt();
+
+  /**
+   * A loop in VM code, counting its passes until it is compiled
+   */
+  static final class Site {
+    final Stmt loop;
+    /**
+     * The first of the VM registers a for loop keeps its counter, end, step and direction
+     * in
+     */
+    final int reg;
+    private int passes;
+    private Node compiled;
+
+    Site(Stmt loop, int reg) {
+      this.loop = loop;
+      this.reg = reg;
+    }
+
+    /**
+     * Counts a pass of the loop
+     * @return Whether the loop should now be run compiled
+     */
+    boolean hot() {
+      return enabled && ++passes >= threshold;
+    }
+
+    /**
+     * Runs the rest of the loop compiled, starting with the pass the VM was about to make
+     * @param regs The VM's registers
+     * @return Var.Null, a Returned or null, as for Executor.exec
+     */
+    Var resume(Object[] regs) {
+      if (compiled == null) {
+        compiled = new Jit.Builder(Parser.getVars()).loop(loop);
+        if (Mtx.debug)
+          Output.printf("JIT %s loop after %d passes\n", (loop instanceof For) ? "for" : "while", passes);
+      }
+      if (loop instanceof For && regs[reg] instanceof Counter) {
+        return ((ForNode) compiled).run((Counter) regs[reg]);
+      } else if (loop instanceof For) {
+        return ((ForNode) compiled).run((Scl) regs[reg], (Scl) regs[reg + 1], (Scl) regs[reg + 2],
+            regs[reg + 3] == Bool.True);
+      }
+      return compiled.exec();
+    }
+  }
+
+  // Statements
+
+  /**
+   * A compiled statement
+   */
+  private abstract static class Node {
+    /**
+     * @return Var.Null, a Returned or null, as for Executor.exec
+     */
+    abstract Var exec();
+  }
+
+  /**
+   * A statement that runs on the Executor
+   */
+  private static final class Interpreted extends Node {
+    private final Stmt stmt;
+
+    Interpreted(Stmt stmt) {
+      this.stmt = stmt;
+    }
+
+    @Override
+    Var exec() {
+      return Executor.exec(stmt);
+    }
+  }
+
+  /**
+   * A statement that evaluates one specialised expression, falling back to the Executor
+   * when a type check fails
+   */
+  private abstract static class Guarded extends Node {
+    private final Stmt stmt;
+    final Value value;
+    private int deopts;
+
+    Guarded(Stmt stmt, Value value) {
+      this.stmt = stmt;
+      this.value = value;
+    }
+
+    @Override
+    final Var exec() {
+      if (deopts < MAX_DEOPTS) {
+        Var val;
+        try {
+          val = value.eval();
+        } catch (Deopt e) {
+          deopts++;
+          if (Mtx.debug)
+            Output.printf("DEOPT %s\n", stmt.getClass().getSimpleName());
+          return Executor.exec(stmt);
+        }
+        if (val == null || !use(val))
+          return null;
+        return Var.Null;
+      }
+      return Executor.exec(stmt);
+    }
+
+    /**
+     * Does what the statement does with the value of its expression
+     * @return False on an error
+     */
+    abstract boolean use(Var val);
+  }
+
+  private static final class AssignNode extends Guarded {
+    private final int depth, slot;
+
+    AssignNode(Assign assign, Value value, int[] at) {
+      super(assign, value);
+      this.depth = at[0];
+      this.slot = at[1];
+    }
+
+    @Override
+    boolean use(Var val) {
+      Parser.getVars().up(depth).set(slot, val);
+      return true;
+    }
+  }
+
+  private static final class PrintNode extends Guarded {
+    PrintNode(ExprStmt stmt, Value value) {
+      super(stmt, value);
+    }
+
+    @Override
+    boolean use(Var val) {
+      return Executor.print(val);
+    }
+  }
+
+  /**
+   * The statements of a block, run in a new scope
+   */
+  private static final class BlockNode extends Node {
+    private final Node[] body;
+    private final String[] layout;
+
+    BlockNode(Node[] body, String[] layout) {
+      this.body = body;
+      this.layout = layout;
+    }
+
+    @Override
+    Var exec() {
+      if (body.length == 0)
+        return Var.Null;
+      Parser.setVars(new VarContainer(Parser.getVars(), layout));
+      try {
+        for (Node node : body) {
+          Var res = node.exec();
+          if (res != Var.Null)
+            return res;
+        }
+        return Var.Null;
+      } finally {
+        Parser.setVars(Parser.getVars().getParent());
+      }
+    }
+  }
+
+  /**
+   * The condition of an if or while statement
+   */
+  private static final class Cond {
+    private final Expr expr;
+    private final Value value;
+    private int deopts;
+
+    Cond(Expr expr, Value value) {
+      this.expr = expr;
+      this.value = value;
+    }
+
+    /**
+     * @return True, false, or null on an error
+     */
+    Bool test() {
+      Var val = null;
+      if (deopts < MAX_DEOPTS) {
+        try {
+          val = value.eval();
+          if (val == null)
+            return null;
+        } catch (Deopt e) {
+          deopts++;
+        }
+      }
+      if (val == null) {
+        val = ExprReader.evaluateExpr(expr.postfix);
+        if (val == null)
+          return null;
+      }
+      if (!(val instanceof Bool)) {
+        Output.expectedError("True or False condition", val);
+        return null;
+      }
+      return (Bool) val;
+    }
+  }
+
+  private static final class IfNode extends Node {
+    private final Cond cond;
+    private final Node then, otherwise;
+
+    IfNode(Cond cond, Node then, Node otherwise) {
+      this.cond = cond;
+      this.then = then;
+      this.otherwise = otherwise;
+    }
+
+    @Override
+    Var exec() {
+      Bool test = cond.test();
+      if (test == null)
+        return null;
+      if (test.val())
+        return then.exec();
+      return (otherwise == null) ? Var.Null : otherwise.exec();
+    }
+  }
+
+  private static final class WhileNode extends Node {
+    private final Cond cond;
+    private final Node body;
+
+    WhileNode(Cond cond, Node body) {
+      this.cond = cond;
+      this.body = body;
+    }
+
+    @Override
+    Var exec() {
+      while (true) {
+        Bool test = cond.test();
+        if (test == null)
+          return null;
+        if (!test.val())
+          return Var.Null;
+        Var res = body.exec();
+        if (res != Var.Null)
+          return res;
+      }
+    }
+  }
+
+  private static final class ForNode extends Node {
+    private final For loop;
+    private final int depth, slot;
+    private final Node body;
+    /**
+     * Whether the var can be stored only when the loop stops
+     */
+    private final boolean deferred;
+
+    ForNode(For loop, int[] at, Node body) {
+      this.loop = loop;
+      this.depth = at[0];
+      this.slot = at[1];
+      this.body = body;
+      this.deferred = !Types.uses(loop.body, loop.name);
+    }
+
+    @Override
+    Var exec() {
+      Var[] bounds = new Var[3];
+      Expr[] exprs = { loop.start, loop.end, loop.step };
+      for (int i = 0; i < 3; i++) {
+        if (exprs[i] == null) {
+          bounds[i] = Scl.ONE;
+          continue;
+        }
+        bounds[i] = ExprReader.evaluateExpr(exprs[i].postfix);
+        if (bounds[i] == null)
+          return null;
+        if (!(bounds[i] instanceof Scl)) {
+          Output.expectedError(Tk.NUM_LIT, bounds[i]);
+          return null;
+        }
+      }
+      Scl step = (Scl) bounds[2];
+      if (Scl.equal(step, Scl.ZERO).val()) {
+        Output.customError("A for loop can't count by 0");
+        return null;
+      }
+      Counter counter = Counter.of((Scl) bounds[0], (Scl) bounds[1], step, deferred);
+      if (counter != null)
+        return run(counter);
+      return run((Scl) bounds[0], (Scl) bounds[1], step, Scl.lesser(step, Scl.ZERO).val());
+    }
+
+    /**
+     * Runs the loop from a given whole counter
+     */
+    Var run(Counter counter) {
+      try {
+        while (counter.more()) {
+          counter.set(Parser.getVars().up(depth), slot);
+          Var res = body.exec();
+          if (res != Var.Null)
+            return res;
+          counter.step();
+        }
+        counter.set(Parser.getVars().up(depth), slot);
+        return Var.Null;
+      } finally {
+        counter.store();
+      }
+    }
+
+    /**
+     * Runs the loop from a given counter
+     */
+    Var run(Scl counter, Scl end, Scl step, boolean down) {
+      while ((down ? Scl.greater(counter, end) : Scl.lesser(counter, end)).val()) {
+        Parser.getVars().up(depth).set(slot, counter);
+        Var res = body.exec();
+        if (res != Var.Null)
+          return res;
+        counter = Scl.add(counter, step);
+      }
+      Parser.getVars().up(depth).set(slot, counter);
+      return Var.Null;
+    }
+  }
+
+  // Expressions
+
+  /**
+   * A specialised expression
+   */
+  private abstract static class Value {
+    /**
+     * Scl.class or Bool.class for the type this evaluates to, or null if unknown
+     */
+    final Class<?> type;
+
+    Value(Class<?> type) {
+      this.type = type;
+    }
+
+    /**
+     * @return The value, or null on an error
+     * @throws Deopt if a variable doesn't have the type this was built for
+     */
+    abstract Var eval();
+  }
+
+  private static final class Const extends Value {
+    private final Var val;
+
+    Const(Var val) {
+      super(val.getClass());
+      this.val = val;
+    }
+
+    @Override
+    Var eval() {
+      return val;
+    }
+  }
+
+  private static final class LoadScl extends Value {
+    private final int depth, slot;
+
+    LoadScl(int[] at) {
+      super(Scl.class);
+      this.depth = at[0];
+      this.slot = at[1];
+    }
+
+    @Override
+    Var eval() {
+      Var val = Parser.getVars().up(depth).get(slot);
+      if (!(val instanceof Scl))
+        throw DEOPT;
+      return val;
+    }
+  }
+
+  private static final class LoadBool extends Value {
+    private final int depth, slot;
+
+    LoadBool(int[] at) {
+      super(Bool.class);
+      this.depth = at[0];
+      this.slot = at[1];
+    }
+
+    @Override
+    Var eval() {
+      Var val = Parser.getVars().up(depth).get(slot);
+      if (!(val instanceof Bool))
+        throw DEOPT;
+      return val;
+    }
+  }
+
+  /**
+   * An expression that isn't specialised, evaluated as evaluateExpr would
+   */
+  private static final class Generic extends Value {
+    private final List<Object> postfix;
+    private final Fork fork;
+
+    Generic(List<Object> postfix) {
+      super(null);
+      this.postfix = postfix;
+      this.fork = Fork.plan(postfix);
+    }
+
+    @Override
+    Var eval() {
+      return ExprReader.evaluateExpr(postfix, fork);
+    }
+  }
+
+  /**
+   * A Cached scalar or true/false value
+   */
+  private static final class CachedValue extends Value {
+    private final Cached cached;
+
+    CachedValue(Cached cached, Class<?> type) {
+      super(type);
+      this.cached = cached;
+    }
+
+    @Override
+    Var eval() {
+      Var val = cached.value();
+      if (val != null && !type.isInstance(val))
+        throw DEOPT;
+      return val;
+    }
+  }
+
+  /**
+   * An operator on two scalars
+   */
+  private abstract static class SclOp extends Value {
+    private final Value a, b;
+
+    SclOp(Value a, Value b, Class<?> type) {
+      super(type);
+      this.a = a;
+      this.b = b;
+    }
+
+    @Override
+    final Var eval() {
+      Var x = a.eval();
+      if (x == null)
+        return null;
+      Var y = b.eval();
+      if (y == null)
+        return null;
+      return apply((Scl) x, (Scl) y);
+    }
+
+    abstract Var apply(Scl x, Scl y);
+  }
+
+  /**
+   * An operator on two true/false values
+   */
+  private abstract static class BoolOp extends Value {
+    private final Value a, b;
+
+    BoolOp(Value a, Value b) {
+      super(Bool.class);
+      this.a = a;
+      this.b = b;
+    }
+
+    @Override
+    final Var eval() {
+      Var x = a.eval();
+      if (x == null)
+        return null;
+      Var y = b.eval();
+      if (y == null)
+        return null;
+      return apply((Bool) x, (Bool) y);
+    }
+
+    abstract Var apply(Bool x, Bool y);
+  }
+
+  private static final class SclNeg extends Value {
+    private final Value a;
+
+    SclNeg(Value a) {
+      super(Scl.class);
+      this.a = a;
+    }
+
+    @Override
+    Var eval() {
+      Var x = a.eval();
+      return (x == null) ? null : Scl.neg((Scl) x);
+    }
+  }
+
+  private static final class SclPower extends Value {
+    private final Value a;
+    private final int n;
+
+    SclPower(Value a, int n) {
+      super(Scl.class);
+      this.a = a;
+      this.n = n;
+    }
+
+    @Override
+    Var eval() {
+      Var x = a.eval();
+      return (x == null) ? null : Power.raise((Scl) x, n);
+    }
+  }
+
+  private static final class BoolNot extends Value {
+    private final Value a;
+
+    BoolNot(Value a) {
+      super(Bool.class);
+      this.a = a;
+    }
+
+    @Override
+    Var eval() {
+      Var x = a.eval();
+      return (x == null) ? null : Bool.not((Bool) x);
+    }
+  }
+
+  /**
+   * Builds nodes for a loop, tracking the type each variable is expected to have and the
+   * slot it is in
+   */
+  private static final class Builder {
+    /**
+     * Scl.class or Bool.class for each variable whose type is known
+     */
+    private final Map<String, Class<?>> types = new HashMap<>();
+    private final Scopes scopes;
+
+    /**
+     * @param outer The scope the loop runs in
+     */
+    Builder(VarContainer outer) {
+      this.scopes = new Scopes(outer);
+    }
+
+    Node loop(Stmt loop) {
+      return stmt(loop);
+    }
+
+    private Node stmt(Stmt stmt) {
+      if (stmt instanceof Assign) {
+        Assign assign = (Assign) stmt;
+        Value value = expr(assign.value.postfix);
+        if (value.type != null) {
+          types.put(assign.name, value.type);
+        } else {
+          // Go by the type it has when it is read
+          types.remove(assign.name);
+        }
+        int[] at = scopes.store(assign.name);
+        return (value instanceof Generic) ? new Interpreted(stmt) : new AssignNode(assign, value, at);
+      } else if (stmt instanceof ExprStmt) {
+        ExprStmt print = (ExprStmt) stmt;
+        Value value = expr(print.expr.postfix);
+        return (value instanceof Generic) ? new Interpreted(stmt) : new PrintNode(print, value);
+      } else if (stmt instanceof If) {
+        If ifStmt = (If) stmt;
+        Cond cond = new Cond(ifStmt.cond, expr(ifStmt.cond.postfix));
+        Node then = block(ifStmt.then);
+        Node otherwise = (ifStmt.otherwise == null) ? null : block(ifStmt.otherwise);
+        return new IfNode(cond, then, otherwise);
+      } else if (stmt instanceof While) {
+        While loop = (While) stmt;
+        Cond cond = new Cond(loop.cond, expr(loop.cond.postfix));
+        return new WhileNode(cond, block(loop.body));
+      } else if (stmt instanceof For && ((For) stmt).parallel) {
+        types.put(((For) stmt).name, Scl.class);
+        scopes.store(((For) stmt).name);
+      } else if (stmt instanceof For) {
+        For loop = (For) stmt;
+        types.put(loop.name, Scl.class);
+        int[] at = scopes.store(loop.name);
+        return new ForNode(loop, at, block(loop.body));
+      } else if (stmt instanceof Block) {
+        return block((Block) stmt);
+      } else if (stmt instanceof MtxAssign) {
+        scopes.store(((MtxAssign) stmt).name);
+      } else if (stmt instanceof Command && ((Command) stmt).kind == Tk.LOAD) {
+        scopes.store(((Command) stmt).args[0]);
+      }
+      return new Interpreted(stmt);
+    }
+
+    private Node block(Block block) {
+      Node[] body = new Node[block.stmts.size()];
+      if (body.length == 0)
+        return new BlockNode(body, null);
+      scopes.enter();
+      for (int i = 0; i < body.length; i++) {
+        body[i] = stmt(block.stmts.get(i));
+      }
+      return new BlockNode(body, scopes.leave());
+    }
+
+    /**
+     * The type of variable a name is expected to hold: the type it was last assigned in
+     * the loop, or else the type it has now
+     */
+    private Class<?> typeOfVar(String name) {
+      if (types.containsKey(name))
+        return types.get(name);
+      Var val = Parser.getVar(name);
+      Class<?> type = (val instanceof Scl) ? Scl.class : (val instanceof Bool) ? Bool.class : null;
+      types.put(name, type);
+      return type;
+    }
+
+    /**
+     * Builds a specialised expression, or a Generic one if any part of it isn't a
+     * scalar or true/false operation
+     * @param postfix The expression in postfix form
+     */
+    private Value expr(List<Object> postfix) {
+      Deque<Value> stack = new ArrayDeque<>();
+      for (Object o : postfix) {
+        Value node = null;
+        if (o instanceof Scl || o instanceof Bool) {
+          node = new Const((Var) o);
+        } else if (o instanceof String) {
+          Class<?> type = typeOfVar((String) o);
+          int[] at = scopes.load((String) o);
+          if (at != null && type == Scl.class) {
+            node = new LoadScl(at);
+          } else if (at != null && type == Bool.class) {
+            node = new LoadBool(at);
+          }
+        } else if (o instanceof Cached) {
+          // Go by the type of the value it last had
+          Var val = ((Cached) o).last();
+          if (val instanceof Scl || val instanceof Bool) {
+            node = new CachedValue((Cached) o, val.getClass());
+          }
+        } else if (o instanceof Tk && !stack.isEmpty()) {
+          // Unary when it is the only value, as in evaluateExpr
+          Value b = stack.pop();
+          node = (stack.isEmpty()) ? unary((Tk) o, b) : binary((Tk) o, stack.pop(), b);
+        } else if (o instanceof Power && !stack.isEmpty() && stack.peek().type == Scl.class) {
+          node = new SclPower(stack.pop(), ((Power) o).n);
+        }
+        if (node == null)
+          return new Generic(postfix);
+        stack.push(node);
+      }
+      return (stack.size() == 1) ? stack.pop() : new Generic(postfix);
+    }
+
+    private static Value unary(Tk token, Value b) {
+      Class<?> type = b.type;
+      if (type == Scl.class && token == Tk.ADD_OP)
+        return b;
+      if (type == Scl.class && token == Tk.SUB_OP)
+        return new SclNeg(b);
+      if (type == Bool.class && token == Tk.NOT_OP)
+        return new BoolNot(b);
+      return null;
+    }
+
+    private static Value binary(Tk token, Value a, Value b) {
+      Class<?> type = a.type;
+      if (type != b.type)
+        return null;
+      if (type == Scl.class) {
+        switch (token) {
+        case ADD_OP:
+          return new SclOp(a, b, Scl.class) {
+            @Override
+            Var apply(Scl x, Scl y) {
+              return Scl.add(x, y);
+            }
+          };
+        case SUB_OP:
+          return new SclOp(a, b, Scl.class) {
+            @Override
+            Var apply(Scl x, Scl y) {
+              return Scl.sub(x, y);
+            }
+          };
+        case MULT_OP:
+          return new SclOp(a, b, Scl.class) {
+            @Override
+            Var apply(Scl x, Scl y) {
+              return Scl.mult(x, y);
+            }
+          };
+        case DIV_OP:
+          return new SclOp(a, b, Scl.class) {
+            @Override
+            Var apply(Scl x, Scl y) {
+              return Scl.div(x, y);
+            }
+          };
+        case EXP_OP:
+          return new SclOp(a, b, Scl.class) {
+            @Override
+            Var apply(Scl x, Scl y) {
+              return Scl.exp(x, y);
+            }
+          };
+        case LESSER_OP:
+          return new SclOp(a, b, Bool.class) {
+            @Override
+            Var apply(Scl x, Scl y) {
+              return Scl.lesser(x, y);
+            }
+          };
+        case GREATER_OP:
+          return new SclOp(a, b, Bool.class) {
+            @Override
+            Var apply(Scl x, Scl y) {
+              return Scl.greater(x, y);
+            }
+          };
+        case LESS_OR_EQUAL:
+          return new SclOp(a, b, Bool.class) {
+            @Override
+            Var apply(Scl x, Scl y) {
+              return Scl.less_or_equal(x, y);
+            }
+          };
+        case GREAT_OR_EQUAL:
+          return new SclOp(a, b, Bool.class) {
+            @Override
+            Var apply(Scl x, Scl y) {
+              return Scl.great_or_equal(x, y);
+            }
+          };
+        case EQUAL_OP:
+          return new SclOp(a, b, Bool.class) {
+            @Override
+            Var apply(Scl x, Scl y) {
+              return Scl.equal(x, y);
+            }
+          };
+        default:
+          return null;
+        }
+      } else if (type == Bool.class) {
+        switch (token) {
+        case AND_OP:
+          return new BoolOp(a, b) {
+            @Override
+            Var apply(Bool x, Bool y) {
+              return Bool.and(x, y);
+            }
+          };
+        case OR_OP:
+          return new BoolOp(a, b) {
+            @Override
+            Var apply(Bool x, Bool y) {
+              return Bool.or(x, y);
+            }
+          };
+        default:
+          return null;
+        }
+      }
+      return null;
+    }
+  }
+}
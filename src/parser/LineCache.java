@@ -0,0 +1,82 @@
+package parser;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of what lines parsed to, keyed by the line's text, which drops the
+ * line used longest ago once it is full
+ * <p>
+ * Only what a line parses to on its own is cached, so lines that go on to read more
+ * lines (the first line of a block or of a matrix) and lines with errors are parsed
+ * every time.
+ * @param <V> What a line parses to
+ */
+class LineCache<V> {
+  /**
+   * The most lines each cache holds (set cache_capacity)
+   */
+  static int capacity = 256;
+
+  private final LinkedHashMap<String, V> lines = new LinkedHashMap<>(16, 0.75f, true);
+  private long hits, misses, evictions;
+
+  /**
+   * Looks up a line
+   * @param key The line, as given by key
+   * @return What it parsed to, or null if it isn't cached
+   */
+  V get(String key) {
+    V val = lines.get(key);
+    if (val != null) {
+      hits++;
+    } else {
+      misses++;
+    }
+    return val;
+  }
+
+  /**
+   * Caches what a line parsed to, dropping the least recently used lines if the cache
+   * is full
+   * @param key The line, as given by key
+   * @param val What it parsed to
+   */
+  void put(String key, V val) {
+    lines.put(key, val);
+    trim();
+  }
+
+  /**
+   * Drops lines until the cache is within its capacity
+   */
+  void trim() {
+    Iterator<Map.Entry<String, V>> eldest = lines.entrySet().iterator();
+    while (lines.size() > capacity && eldest.hasNext()) {
+      eldest.next();
+      eldest.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * The key a line is cached under: the line without the whitespace around it, which the
+   * tokenizer skips anyway
+   * @param line The line
+   * @return The key
+   */
+  static String key(String line) {
+    int start = 0, end = line.length();
+    while (start < end && Character.isWhitespace(line.charAt(start)))
+      start++;
+    while (end > start && Character.isWhitespace(line.charAt(end - 1)))
+      end--;
+    return line.substring(start, end);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d lines, %d hits, %d misses, %d evictions", lines.size(), hits, misses, evictions);
+  }
+}
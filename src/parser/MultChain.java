@@ -0,0 +1,253 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+
+import tokens.Tk;
+import vars.Var;
+import vars.mtx.Mtx;
+import vars.scl.Scl;
+
+/**
+ * A run of three or more products, such as A*B*x, multiplied in the cheapest order
+ * <p>
+ * Postfix puts every product in left to right order, so A*B*x costs O(n^3) even though
+ * A*(B*x) costs O(n^2). optimize rewrites each run of products into its factors
+ * followed by a MultChain, which picks the order with the classic dynamic programming
+ * chain-order algorithm once the dimensions are known. Products are associative, so the
+ * result is the same in exact mode unless a cell needs more than the 34 digits scalar
+ * sums and products are rounded to.
+ */
+class MultChain {
+  /**
+   * How many factors to take off the stack
+   */
+  final int count;
+  /**
+   * What each factor is called when explaining the order
+   */
+  private final String[] labels;
+
+  private MultChain(String[] labels) {
+    this.count = labels.length;
+    this.labels = labels;
+  }
+
+  /**
+   * A value or an operator applied to its operands, rebuilt from postfix
+   */
+  private static class Node {
+    final Object item;
+    final Node a, b;
+
+    Node(Object item, Node a, Node b) {
+      this.item = item;
+      this.a = a;
+      this.b = b;
+    }
+  }
+
+  /**
+   * Rewrites every run of three or more products in an expression into a MultChain   
+   * @param postfix The expression in postfix form
+   * @return The rewritten expression
+   */
+  static List<Object> optimize(List<Object> postfix) {
+    if (postfix == null)
+      return null;
+    int products = 0;
+    for (Object o : postfix) {
+      if (o == Tk.MULT_OP)
+        products++;
+    }
+    if (products < 2)
+      return postfix;
+
+    // Rebuild the tree the same way evaluateExpr pops its stack, so operators that
+    // would have been unary stay unary
+    Deque<Node> stack = new LinkedList<>();
+    for (Object o : postfix) {
+      if (o == Tk.TRANSPOSE_OP || o instanceof ValueOp) {
+        if (stack.isEmpty())
+          return postfix;
+        stack.push(new Node(o, null, stack.pop()));
+      } else if (o instanceof Tk) {
+        if (stack.isEmpty())
+          return postfix;
+        Node b = stack.pop();
+        Node a = stack.isEmpty() ? null : stack.pop();
+        stack.push(new Node(o, a, b));
+      } else {
+        stack.push(new Node(o, null, null));
+      }
+    }
+    // Malformed expressions are left for evaluateExpr to report
+    if (stack.size() != 1)
+      return postfix;
+
+    List<Object> res = new ArrayList<>();
+    emit(stack.pop(), res);
+    return res;
+  }
+
+  /**
+   * Writes a tree back out in postfix form, replacing runs of products
+   */
+  private static void emit(Node node, List<Object> out) {
+    if (isProduct(node)) {
+      List<Node> factors = new ArrayList<>();
+      flatten(node, factors);
+      if (factors.size() > 2) {
+        String[] labels = new String[factors.size()];
+        for (int i = 0; i < labels.length; i++) {
+          Node f = factors.get(i);
+          labels[i] = (f.item instanceof String && f.a == null && f.b == null) ? (String) f.item : "#" + (i + 1);
+          emit(f, out);
+        }
+        out.add(new MultChain(labels));
+        return;
+      }
+    }
+    if (node.a != null)
+      emit(node.a, out);
+    if (node.b != null)
+      emit(node.b, out);
+    out.add(node.item);
+  }
+
+  private static boolean isProduct(Node node) {
+    return node.item == Tk.MULT_OP && node.a != null;
+  }
+
+  /**
+   * Collects the factors of nested products, left to right
+   */
+  private static void flatten(Node node, List<Node> factors) {
+    if (isProduct(node)) {
+      flatten(node.a, factors);
+      flatten(node.b, factors);
+    } else {
+      factors.add(node);
+    }
+  }
+
+  /**
+   * Multiplies the factors in the cheapest order   
+   * @param factors The evaluated factors, left to right
+   * @return The product, or null if it failed
+   */
+  Var apply(Object[] factors) {
+    // Leading scalars scale the whole product; anything else keeps the written order
+    int first = 0;
+    Scl scale = null;
+    while (first < count && factors[first] instanceof Scl) {
+      scale = (scale == null) ? (Scl) factors[first] : Scl.mult(scale, (Scl) factors[first]);
+      first++;
+    }
+    int k = count - first;
+    boolean reorder = k > 2;
+    for (int i = first; i < count && reorder; i++) {
+      reorder = factors[i] instanceof Mtx;
+      if (reorder && i > first)
+        reorder = ((Mtx) factors[i - 1]).cCount == ((Mtx) factors[i]).rCount;
+    }
+    if (!reorder) {
+      return leftToRight(factors);
+    }
+
+    Mtx[] mats = new Mtx[k];
+    long[] dims = new long[k + 1];
+    for (int i = 0; i < k; i++) {
+      mats[i] = (Mtx) factors[first + i];
+      dims[i] = mats[i].rCount;
+    }
+    dims[k] = mats[k - 1].cCount;
+
+    // cost[i][j] is the fewest scalar multiplications for mats i..j, and split[i][j]
+    // is where that product is divided
+    long[][] cost = new long[k][k];
+    int[][] split = new int[k][k];
+    for (int len = 2; len <= k; len++) {
+      for (int i = 0; i + len - 1 < k; i++) {
+        int j = i + len - 1;
+        cost[i][j] = Long.MAX_VALUE;
+        for (int s = i; s < j; s++) {
+          long c = cost[i][s] + cost[s + 1][j] + dims[i] * dims[s + 1] * dims[j + 1];
+          // On a tie the later split wins, so the left to right order is kept unless it
+          // costs more
+          if (c <= cost[i][j]) {
+            cost[i][j] = c;
+            split[i][j] = s;
+          }
+        }
+      }
+    }
+
+    if (Explain.active()) {
+      StringBuilder shapes = new StringBuilder();
+      for (int i = 0; i < k; i++) {
+        shapes.append(String.format("%s%s %dx%d", (i > 0) ? ", " : "", labels[first + i], dims[i], dims[i + 1]));
+      }
+      long naive = 0;
+      for (int i = 1; i < k; i++) {
+        naive += dims[0] * dims[i] * dims[i + 1];
+      }
+      Explain.note("chain of %d: %s", k, shapes);
+      Explain.note("  order: %s%s", (scale != null) ? scale + "*" : "", order(split, 0, k - 1, first));
+      Explain.note("  cost: %d flops (left to right: %d)", 2 * cost[0][k - 1], 2 * naive);
+    }
+
+    Mtx res = multiply(mats, split, 0, k - 1);
+    if (res != null && scale != null)
+      res = Mtx.SCALE(scale, res);
+    return res;
+  }
+
+  /**
+   * Multiplies mats i..j along the chosen splits
+   */
+  private static Mtx multiply(Mtx[] mats, int[][] split, int i, int j) {
+    if (i == j)
+      return mats[i];
+    Mtx left = multiply(mats, split, i, split[i][j]);
+    Mtx right = multiply(mats, split, split[i][j] + 1, j);
+    if (left == null || right == null)
+      return null;
+    return Mtx.MULT(left, right);
+  }
+
+  /**
+   * Writes out the chosen order with parentheses
+   */
+  private String order(int[][] split, int i, int j, int first) {
+    if (i == j)
+      return labels[first + i];
+    String left = order(split, i, split[i][j], first);
+    String right = order(split, split[i][j] + 1, j, first);
+    if (split[i][j] > i)
+      left = "(" + left + ")";
+    if (split[i][j] + 1 < j)
+      right = "(" + right + ")";
+    return left + "*" + right;
+  }
+
+  /**
+   * Multiplies the factors in the order they were written, as evaluateExpr would have
+   */
+  private static Var leftToRight(Object[] factors) {
+    Object res = factors[0];
+    for (int i = 1; i < factors.length; i++) {
+      res = ExprReader.applyOp(Tk.MULT_OP, res, factors[i]);
+      if (res == null)
+        return null;
+    }
+    return (Var) res;
+  }
+
+  @Override
+  public String toString() {
+    return "product of " + count;
+  }
+}
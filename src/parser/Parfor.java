@@ -0,0 +1,545 @@
+package parser;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import ast.Assign;
+import ast.Block;
+import ast.Command;
+import ast.Def;
+import ast.Expr;
+import ast.For;
+import ast.MtxAssign;
+import ast.Return;
+import ast.Stmt;
+import io.Output;
+import tokens.Tk;
+import vars.Var;
+import vars.mtx.Mtx;
+import vars.scl.Scl;
+
+/**
+ * Runs parfor loops, whose passes run at the same time
+ * <p>
+ * The passes are split into chunks of consecutive passes, at most one per worker, and
+ * each chunk runs on a thread of a fixed pool, in a scope of its own that holds the var,
+ * with the body compiled for it alone. A pass may assign the vars of its own blocks, but a var from
+ * outside the loop only as a reduction: x = x + e, x = x - e, x = e + x or x = x * e,
+ * where e doesn't read x and x is read nowhere else in the loop. Each chunk then works
+ * out a share of its own, the first starting from x and the rest from 0 (or 1 for a
+ * product), and once every chunk has finished x is set to the shares combined in order.
+ * Passes can read any other var from outside, as nothing changes those until the loop
+ * ends, print, and call functions that are pure. What they print is held back and
+ * printed in order once they have all run, so the loop prints what a for loop would.
+ * <p>
+ * An error stops the chunk it happens in, and the loop ends as a for loop would have at
+ * that pass: what the chunks up to it printed and added up is kept, and what the chunks
+ * after it did is dropped.
+ * <p>
+ * The shares are added up in another order than a for loop adds the passes, so exact
+ * sums and products that need more than the 34 digits scalars are rounded to, and ones
+ * in double precision, can differ from a for loop in the last digits, though not from
+ * one run to the next with the same number of workers.
+ */
+final class Parfor {
+  /**
+   * The most threads passes run on at once (set parfor_workers)
+   */
+  static int workers = Runtime.getRuntime().availableProcessors();
+  /**
+   * The most passes a loop can have, which is far more than would ever finish
+   */
+  private static final int BITS = 62;
+  private static ExecutorService pool;
+  private static int poolSize;
+
+  private Parfor() {
+  }
+
+  /**
+   * A thread of the pool, on the stack the program runs on, and the chunk it is running
+   */
+  private static final class Worker extends Thread {
+    Chunk chunk;
+
+    Worker(Runnable task) {
+      super(null, task, "parfor", Parser.STACK);
+      setDaemon(true);
+    }
+  }
+
+  /**
+   * What a chunk of passes has to itself, which the program otherwise keeps in statics
+   */
+  static final class Chunk implements Callable<Chunk> {
+    /**
+     * The interpreter running the loop, whose program the chunk reads
+     */
+    private final Interpreter owner;
+    private final For loop;
+    private final Scl start;
+    private final BigDecimal step;
+    private final long first, passes;
+    /**
+     * The scope made for the chunk, holding the var and the shares of the reductions
+     */
+    private final VarContainer scope;
+    /**
+     * The scope statements in the chunk run in (Parser.getVars)
+     */
+    VarContainer vars;
+    /**
+     * How deep calls made in the chunk nest, and how many were made
+     */
+    int depth;
+    long calls;
+    /**
+     * The copies of Cached values the chunk evaluated, as others evaluate them at once
+     */
+    private final Map<Cached, Cached> cached = new IdentityHashMap<>();
+    private final StringBuilder out = new StringBuilder();
+    private boolean failed;
+
+    Chunk(For loop, Scl start, BigDecimal step, long first, long passes, VarContainer scope) {
+      this.owner = Interpreter.current();
+      this.loop = loop;
+      this.start = start;
+      this.step = step;
+      this.first = first;
+      this.passes = passes;
+      this.scope = scope;
+      this.vars = scope;
+    }
+
+    @Override
+    public Chunk call() {
+      Worker worker = (Worker) Thread.currentThread();
+      worker.chunk = this;
+      Interpreter.bind(owner);
+      Output.hold(out);
+      try {
+        int slot = scope.intern(loop.name);
+        Code code = null;
+        for (long k = first; k < first + passes; k++) {
+          // The value a for loop would have counted to
+          BigDecimal val = start.decimalValue().add(step.multiply(BigDecimal.valueOf(k)));
+          scope.set(slot, (k == 0) ? start : new Scl(val));
+          // Compiled for the chunk's own scope once the var is in it, with hot loops of its own
+          if (code == null && VM.enabled) {
+            code = Compiler.compile(loop.body);
+          }
+          // Passes can't return, so anything but Var.Null is an error
+          if (((code != null) ? VM.run(code) : Executor.exec(loop.body)) != Var.Null) {
+            failed = true;
+            break;
+          }
+        }
+      } catch (RuntimeException | StackOverflowError e) {
+        failed = true;
+        Output.internalError("%s in a parfor pass", e);
+      } finally {
+        Output.hold(null);
+        Interpreter.bind(null);
+        worker.chunk = null;
+      }
+      return this;
+    }
+
+    /**
+     * @param name The name of a var in the chunk's scope
+     * @return What it holds once the chunk has run
+     */
+    Var get(String name) {
+      return scope.get(scope.slot(name));
+    }
+  }
+
+  /**
+   * @return The chunk this thread is running, or null if it is running the program
+   */
+  static Chunk chunk() {
+    Thread thread = Thread.currentThread();
+    return (thread instanceof Worker) ? ((Worker) thread).chunk : null;
+  }
+
+  /**
+   * Finds the copy of a Cached value this thread evaluates
+   * @param cached The Cached value
+   * @return The chunk's own copy, or cached itself outside a chunk
+   */
+  static Cached own(Cached cached) {
+    Chunk chunk = chunk();
+    if (chunk == null)
+      return cached;
+    Cached own = chunk.cached.get(cached);
+    if (own == null) {
+      own = new Cached(cached.postfix, cached.key, cached.names);
+      chunk.cached.put(cached, own);
+      chunk.cached.put(own, own);
+    }
+    return own;
+  }
+
+  /**
+   * Runs a parfor loop
+   * @param loop The loop
+   * @return Var.Null, or null on an error
+   */
+  static Var run(For loop) {
+    // A parfor inside a pass of another runs its passes in order, in the same chunk
+    if (chunk() != null)
+      return Executor.forLoop(loop);
+    Scl[] bounds = Executor.bounds(loop);
+    if (bounds == null)
+      return null;
+    Map<String, Tk> reductions = new Check(loop).reductions();
+    if (reductions == null)
+      return null;
+    BigDecimal start = bounds[0].decimalValue(), step = bounds[2].decimalValue();
+    BigDecimal count = bounds[1].decimalValue().subtract(start).divide(step, 0, RoundingMode.CEILING);
+    if (count.signum() <= 0) {
+      // As with for, the var holds the start when no pass runs
+      Parser.setVar(loop.name, bounds[0]);
+      return Var.Null;
+    }
+    if (count.toBigInteger().bitLength() > BITS) {
+      Output.customError("A parfor loop can't run %s passes", count);
+      return null;
+    }
+    long passes = count.longValue();
+
+    // Split the passes as evenly as they go
+    VarContainer outer = Parser.getVars();
+    int n = (int) Math.min(workers, passes);
+    List<Chunk> parts = new ArrayList<>();
+    long first = 0;
+    for (int i = 0; i < n; i++) {
+      long size = passes / n + ((i < passes % n) ? 1 : 0);
+      VarContainer scope = new VarContainer(outer);
+      for (Map.Entry<String, Tk> reduction : reductions.entrySet()) {
+        Var val = Parser.getVar(reduction.getKey());
+        scope.setLocalVar(reduction.getKey(), (i == 0) ? val : identity(reduction.getValue(), val));
+      }
+      parts.add(new Chunk(loop, bounds[0], step, first, size, scope));
+      first += size;
+    }
+    try {
+      pool().invokeAll(parts);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      Output.customError("A parfor loop was interrupted");
+      return null;
+    }
+    Interpreter in = Interpreter.current();
+    in.loops++;
+    in.chunks += n;
+
+    // Put together what the chunks did, in order, up to the first that failed
+    int last = 0;
+    for (Chunk part : parts) {
+      Function.counted(part.calls);
+    }
+    for (; last < n; last++) {
+      Output.print(parts.get(last).out);
+      if (parts.get(last).failed)
+        break;
+    }
+    last = Math.min(last, n - 1);
+    boolean failed = parts.get(last).failed;
+    for (Map.Entry<String, Tk> reduction : reductions.entrySet()) {
+      String name = reduction.getKey();
+      Var total = parts.get(0).get(name);
+      for (int i = 1; i <= last && total != null; i++) {
+        total = ExprReader.applyOp(reduction.getValue(), total, parts.get(i).get(name));
+      }
+      if (total == null)
+        return null;
+      Parser.setVar(name, total);
+    }
+    if (failed) {
+      Parser.setVar(loop.name, parts.get(last).get(loop.name));
+      return null;
+    }
+    // The counter that passed the end, as a for loop leaves it
+    Parser.setVar(loop.name, new Scl(start.add(step.multiply(BigDecimal.valueOf(passes)))));
+    return Var.Null;
+  }
+
+  /**
+   * The value a chunk other than the first starts a share from
+   * @param op  ADD_OP or MULT_OP
+   * @param val What the var holds before the loop
+   */
+  private static Var identity(Tk op, Var val) {
+    if (val instanceof Mtx) {
+      Mtx m = (Mtx) val;
+      return (op == Tk.ADD_OP) ? Mtx.zero(m.rCount, m.cCount) : Mtx.identity(m.cCount, m.cCount);
+    }
+    return (op == Tk.ADD_OP) ? Scl.ZERO : Scl.ONE;
+  }
+
+  /**
+   * @return The pool, made again if parfor_workers has changed
+   */
+  private static synchronized ExecutorService pool() {
+    if (pool == null || poolSize != workers) {
+      if (pool != null) {
+        pool.shutdown();
+      }
+      pool = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+          return new Worker(task);
+        }
+      });
+      poolSize = workers;
+    }
+    return pool;
+  }
+
+  /**
+   * @return How many loops were run, in how many chunks
+   */
+  static String stats() {
+    Interpreter in = Interpreter.current();
+    return String.format("%d loops, %d chunks", in.loops, in.chunks);
+  }
+
+  /**
+   * Checks that the passes of a loop can run at once, against the vars there are now
+   */
+  private static final class Check {
+    private final For loop;
+    /**
+     * The vars of the blocks being checked, innermost first
+     */
+    private final Deque<Set<String>> scopes = new ArrayDeque<>();
+    /**
+     * The vars from outside added to or multiplied, with ADD_OP or MULT_OP
+     */
+    private final Map<String, Tk> reductions = new LinkedHashMap<>();
+    /**
+     * The vars from outside read other than in their reductions
+     */
+    private final Set<String> reads = new HashSet<>();
+    /**
+     * Whether the reduction last found adds (ADD_OP) or multiplies (MULT_OP)
+     */
+    private Tk kind;
+
+    Check(For loop) {
+      this.loop = loop;
+    }
+
+    /**
+     * @return The vars from outside the passes reduce, or null if the passes can't run at
+     *         once (after printing why)
+     */
+    Map<String, Tk> reductions() {
+      Set<String> own = new HashSet<>();
+      own.add(loop.name);
+      scopes.push(own);
+      if (!block(loop.body))
+        return null;
+      for (String name : reductions.keySet()) {
+        if (reads.contains(name)) {
+          Output.customError("A parfor loop can't read %s anywhere but in the updates of it", name);
+          return null;
+        }
+      }
+      return reductions;
+    }
+
+    private boolean block(Block block) {
+      scopes.push(new HashSet<String>());
+      try {
+        for (Stmt stmt : block.stmts) {
+          if (!stmt(stmt))
+            return false;
+        }
+        return true;
+      } finally {
+        scopes.pop();
+      }
+    }
+
+    private boolean stmt(Stmt stmt) {
+      if (stmt instanceof Return) {
+        Output.customError("A parfor loop can't return");
+        return false;
+      }
+      if (stmt instanceof Command || stmt instanceof Def) {
+        Output.customError("A parfor loop can't run commands or define functions");
+        return false;
+      }
+      if (stmt instanceof Assign) {
+        Assign assign = (Assign) stmt;
+        int at = reduction(assign);
+        if (at >= 0)
+          return reduces(assign, at);
+      }
+      // The expressions are evaluated before the var is assigned or a block is run
+      for (Expr expr : InPlace.exprs(stmt)) {
+        if (!reads(expr.postfix))
+          return false;
+      }
+      if (stmt instanceof Assign && !assigns(((Assign) stmt).name)
+          || stmt instanceof MtxAssign && !assigns(((MtxAssign) stmt).name)
+          || stmt instanceof For && !assigns(((For) stmt).name))
+        return false;
+      for (Block block : InPlace.blocks(stmt)) {
+        if (!block(block))
+          return false;
+      }
+      return true;
+    }
+
+    /**
+     * Finds whether an assignment reduces a var from outside the loop: whether the var is
+     * read once in it, and what it is read into is added to or multiplied by values that
+     * don't read it, up to the value assigned
+     * @return Where in the postfix the var is read, or -1 if it isn't a reduction, with
+     *         kind set to ADD_OP or MULT_OP if it is
+     */
+    private int reduction(Assign assign) {
+      String name = assign.name;
+      if (visible(name) || Parser.getVar(name) == null)
+        return -1;
+      List<Object> postfix = assign.value.postfix;
+      // Which values on the stack were worked out from the var
+      Deque<Boolean> stack = new ArrayDeque<>();
+      kind = null;
+      int at = -1;
+      for (int i = 0; i < postfix.size(); i++) {
+        Object o = postfix.get(i);
+        int takes = 0;
+        if (o instanceof Tk && o != Tk.TRANSPOSE_OP) {
+          // Unary only when it is the only value, as in evaluateExpr
+          takes = (stack.size() > 1) ? 2 : 1;
+        } else if (o == Tk.TRANSPOSE_OP || o instanceof ValueOp) {
+          takes = 1;
+        } else if (o instanceof MultChain) {
+          takes = ((MultChain) o).count;
+        } else if (name.equals(o)) {
+          if (at >= 0)
+            return -1;
+          at = i;
+          stack.push(true);
+          continue;
+        }
+        if (stack.size() < takes)
+          return -1;
+        // The operands, first to last
+        boolean[] from = new boolean[takes];
+        for (int j = takes - 1; j >= 0; j--) {
+          from[j] = stack.pop();
+        }
+        boolean reduced = false;
+        for (int j = 0; j < takes; j++) {
+          if (!from[j])
+            continue;
+          // + either way round; -, * and products of matrices only with the var on the left
+          Tk op = (takes == 2) ? (Tk) o : (o instanceof MultChain) ? Tk.MULT_OP : null;
+          boolean fits = (op == Tk.ADD_OP) || (op == Tk.SUB_OP || op == Tk.MULT_OP) && j == 0;
+          Tk group = (op == Tk.MULT_OP) ? Tk.MULT_OP : Tk.ADD_OP;
+          if (!fits || kind != null && kind != group)
+            return -1;
+          kind = group;
+          reduced = true;
+        }
+        stack.push(reduced);
+      }
+      return (stack.size() == 1 && stack.peek() && kind != null) ? at : -1;
+    }
+
+    /**
+     * Takes in a reduction found by reduction
+     * @param assign The assignment
+     * @param at     Where the var is read in it
+     * @return Whether the rest of it passes
+     */
+    private boolean reduces(Assign assign, int at) {
+      Tk had = reductions.put(assign.name, kind);
+      if (had != null && had != kind) {
+        Output.customError("A parfor loop can't both add to and multiply %s", assign.name);
+        return false;
+      }
+      // Anything else that reads the var is caught with the other reads of it
+      List<Object> rest = new ArrayList<>(assign.value.postfix);
+      rest.remove(at);
+      return reads(rest);
+    }
+
+    /**
+     * Takes in an assignment that isn't a reduction, which only a var of the passes can
+     * have, adding the var to the innermost block if it is new
+     */
+    private boolean assigns(String name) {
+      if (visible(name))
+        return true;
+      if (Parser.getVar(name) != null) {
+        Output.customError("A parfor loop can't assign %s, which exists outside it, except by adding to "
+            + "or multiplying it", name);
+        return false;
+      }
+      scopes.peek().add(name);
+      return true;
+    }
+
+    private boolean visible(String name) {
+      for (Set<String> scope : scopes) {
+        if (scope.contains(name))
+          return true;
+      }
+      return false;
+    }
+
+    /**
+     * Notes the vars from outside an expression reads, and checks it calls only built-in
+     * or pure functions
+     */
+    private boolean reads(List<Object> postfix) {
+      if (postfix == null)
+        return true;
+      for (Object o : postfix) {
+        if (o instanceof String && !visible((String) o)) {
+          reads.add((String) o);
+        } else if (o instanceof Call) {
+          Call call = (Call) o;
+          if (!call.isBuiltin()) {
+            Function callee = Interpreter.current().functions.get(call.name);
+            if (callee != null && !callee.isPure()) {
+              Output.customError("A parfor loop can't call %s, which isn't pure", call.name);
+              return false;
+            }
+          }
+          for (List<Object> arg : call.args) {
+            if (!reads(arg))
+              return false;
+          }
+        } else if (o instanceof IndexOp) {
+          for (List<Object> bound : ((IndexOp) o).bounds()) {
+            if (!reads(bound))
+              return false;
+          }
+        } else if (o instanceof Cached && !reads(((Cached) o).postfix)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
@@ -1,11 +1,20 @@
 package parser;
 
+import ast.Block;
+import ast.Def;
+import ast.Expr;
+import ast.ExprStmt;
+import ast.For;
+import ast.If;
+import ast.MtxAssign;
+import ast.Return;
+import ast.Stmt;
+import ast.While;
 import io.Output;
-import parser.VarContainer;
 import tokens.Tk;
 import tokens.TokenReader;
 import vars.Var;
-import vars.bool.Bool;
+import vars.mtx.NumMode;
 
 /**
  * Primary parser/interpreter for the program 
@@ -14,13 +23,39 @@ import vars.bool.Bool;
  */
 public abstract class Parser {
   /**
-   * The primary parser
+   * The stack the program runs on, which calls to functions defined with def nest in
    */
-  public static Parser primary;
+  public static final long STACK = 64L << 20;
+
   /**
-   * The variable container in lieu of function scoping
+   * The numeric mode new matrices are created in
+   * @return The mode
    */
-  public static VarContainer vars = new VarContainer(null);
+  public static NumMode mode() {
+    return Interpreter.current().mode;
+  }
+
+  /**
+   * @return The scope statements on this thread run in: the program's, or the parfor
+   *         chunk's on the threads running one
+   */
+  static VarContainer getVars() {
+    Parfor.Chunk chunk = Parfor.chunk();
+    return (chunk == null) ? Interpreter.current().vars : chunk.vars;
+  }
+
+  /**
+   * Makes a scope the one statements on this thread run in
+   * @param scope The scope
+   */
+  static void setVars(VarContainer scope) {
+    Parfor.Chunk chunk = Parfor.chunk();
+    if (chunk == null) {
+      Interpreter.current().vars = scope;
+    } else {
+      chunk.vars = scope;
+    }
+  }
 
   /**
    * Attempts to get a var by name   
@@ -28,16 +63,17 @@ public abstract class Parser {
    * @return The var
    */
   public static Var getVar(String name) {
-    return vars.getLocalVar(name);
+    return getVars().getLocalVar(name);
   }
 
   /**
-   * Attempts to set a var by name and valud   
+   * Attempts to set a var by name and value, in the innermost scope that already has
+   * it or else the current one   
    * @param name The name of the var
    * @param val  The value of the var
    */
   public static void setVar(String name, Var val) {
-    vars.setLocalVar(name, val);
+    getVars().setVar(name, val);
   }
 
   /**
@@ -46,73 +82,125 @@ public abstract class Parser {
    * @return True or false
    */
   public static boolean hasVar(String name) {
-    return vars.hasLocalVar(name);
+    return getVars().hasLocalVar(name);
   }
 
   /**
-   * Reads in a new line   
+   * Reads in a new line, along with the rest of any block it opens, then runs it   
    * @param line The new line read in
-   * @return Whether the run was successful <b>or a returned variable</b>
+   * @return Var.Null if the run was successful <b>or a returned variable</b>, null on
+   *         an error
    */
   public static Var read(String line) {
+    InPlace.reset();
+    Stmt stmt = parse(line);
+    if (stmt == null)
+      return null;
+    stmt = InPlace.plan(stmt);
+    return VM.enabled ? VM.run(stmt) : Executor.run(stmt);
+  }
+
+  /**
+   * Parses a line into a statement, reading further lines through Input for the body of
+   * an if, while, for or def   
+   * @param line The first line of the statement
+   * @return The statement, or null if it is malformed
+   */
+  public static Stmt parse(String line) {
+    LineCache<Stmt> lines = Interpreter.current().lines;
+    String key = LineCache.key(line);
+    Stmt stmt = lines.get(key);
+    if (stmt != null)
+      return stmt;
+    stmt = parseLine(line);
+    if (stmt != null) {
+      stmt = Hoist.optimize(stmt);
+    }
+    // Statements that read further lines can't be cached by their first line alone
+    if (stmt != null && !(stmt instanceof If || stmt instanceof While || stmt instanceof For
+        || stmt instanceof Def || stmt instanceof MtxAssign)) {
+      lines.put(key, stmt);
+    }
+    return stmt;
+  }
+
+  /**
+   * Parses a line into a statement without looking in the cache   
+   * @param line The first line of the statement
+   * @return The statement, or null if it is malformed
+   */
+  private static Stmt parseLine(String line) {
     TokenReader.readLine(line);
     TokenReader.nextToken();
     // Blank line - does nothing
-    if (TokenReader.tk == Tk.EOL) {
-      return Bool.True;
+    if (TokenReader.tk() == Tk.EOL) {
+      return Block.EMPTY;
     }
     // Look for a control statement
-    else if (Tk.isControlTk(TokenReader.tk)) {
-      switch (TokenReader.tk) {
+    else if (Tk.isControlTk(TokenReader.tk())) {
+      switch (TokenReader.tk()) {
       case IF:
         return ControlsReader.ifStmt();
       case FOR:
-        return ControlsReader.forStmt();
+        return ControlsReader.forStmt(false);
+      case PARFOR:
+        return ControlsReader.forStmt(true);
       case WHILE:
         return ControlsReader.whileStmt();
+      case DEF:
+        return ControlsReader.defStmt();
+      default:
+        return null;
+      }
+    }
+    // Look for a command
+    else if (Tk.isCommandTk(TokenReader.tk())) {
+      switch (TokenReader.tk()) {
+      case MODE:
+        return CommandReader.mode();
+      case SET:
+        return CommandReader.set();
+      case LOAD:
+        return CommandReader.load();
+      case EXPLAIN:
+        return CommandReader.explain();
       default:
         return null;
       }
     }
-    // If an expression has a scl or mtx name
-    else if (TokenReader.tk == Tk.VAR_NAME) {
-      // Next token
-      TokenReader.nextToken();
-      // If name is followed by assignment, send to appropriate assignment
-      if (TokenReader.tk == Tk.ASSIGNMENT_OP) {
-        TokenReader.restartLine();
-        return VarReader.varAssign();
-      } else if (Tk.isExprTk(TokenReader.tk)) {
-        // If it's an expression print out the value of the expression
-        TokenReader.restartLine();
-        Output.println(ExprReader.expr());
-        return Bool.Null;
-      } else if (TokenReader.tk == Tk.EOL) {
-        // If there is no next token, print out the value of that var
-        TokenReader.prevToken();
-        return vars.printVar(TokenReader.tokenStr()) ? Bool.Null : null;
-      } else {
-        Output.expectedError("assignment or arithmetical expression", TokenReader.tk);
-        return Bool.False;
+    // The statement is a return statement
+    else if (TokenReader.tk() == Tk.RETURN) {
+      if (TokenReader.peekNextToken() == Tk.EOL) {
+        return new Return(null);
       }
+      Expr value = ExprReader.parse();
+      return (value != null && endOfStmt()) ? new Return(value) : null;
     }
-    // The statement is an expression
-    else if (Tk.isExprTk(TokenReader.tk)) {
-      // If it's an expression print out the value of the expression
+    // If name is followed by assignment, send to appropriate assignment
+    else if (TokenReader.tk() == Tk.VAR_NAME && TokenReader.peekNextToken() == Tk.ASSIGNMENT_OP) {
       TokenReader.restartLine();
-      Var result = ExprReader.expr();
-      Output.println(result);
-      return (result == null) ? Var.Null : null;
+      return VarReader.varAssign();
     }
-    // The statement is a return statement
-    else if (TokenReader.tk == Tk.RETURN) {
-      return ExprReader.expr();
+    // The statement is an expression, whose value is printed
+    else if (Tk.isExprTk(TokenReader.tk())) {
+      TokenReader.restartLine();
+      Expr expr = ExprReader.parse();
+      return (expr != null && endOfStmt()) ? new ExprStmt(expr) : null;
     }
     // Otherwise, print an error
     else {
-      Output.expectedError("arithmetic expression, command, or assignment", TokenReader.tk);
-      return Bool.False;
+      Output.expectedError("arithmetic expression, command, or assignment", TokenReader.tk());
+      return null;
     }
   }
 
-}
\ No newline at end of file
+  /**
+   * Checks that nothing is left on the line after a statement   
+   * @return Whether the line has ended
+   */
+  static boolean endOfStmt() {
+    TokenReader.nextToken();
+    return Output.hardCheck(Tk.EOL, TokenReader.tk());
+  }
+
+}
@@ -0,0 +1,56 @@
+package parser;
+
+import tokens.Tk;
+import vars.Var;
+import vars.scl.Scl;
+
+/**
+ * A small whole power, such as x^2, which Simplify puts in place of the ^ and its
+ * exponent
+ * <p>
+ * Scalars are multiplied out, which is exact and cheaper than Scl.exp's trip through
+ * double. Anything else is raised to the exponent just as ^ would have, so matrices
+ * still go through Mtx.POW and errors are the same.
+ */
+class Power extends ValueOp {
+  /**
+   * The exponent as it was written
+   */
+  final Scl exponent;
+  /**
+   * Its value
+   */
+  final int n;
+
+  Power(Scl exponent) {
+    this.exponent = exponent;
+    this.n = exponent.intValue();
+  }
+
+  @Override
+  Var apply(Object operand) {
+    if (operand instanceof Scl) {
+      return raise((Scl) operand, n);
+    }
+    return ExprReader.applyOp(Tk.EXP_OP, operand, exponent);
+  }
+
+  /**
+   * Multiplies a scalar by itself   
+   * @param x The scalar
+   * @param n How many times it is a factor
+   * @return x^n
+   */
+  static Scl raise(Scl x, int n) {
+    Scl res = x;
+    for (int i = 1; i < n; i++) {
+      res = Scl.mult(res, x);
+    }
+    return res;
+  }
+
+  @Override
+  public String toString() {
+    return "^" + exponent;
+  }
+}
@@ -0,0 +1,95 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves the variable names in a statement to the (depth, slot) they will be found at
+ * when it runs, where depth counts scopes out from the innermost one
+ * <p>
+ * A var is local to the block that first assigns it unless an enclosing scope already
+ * has it, and only assignments made directly in a block can add to that block, so which
+ * vars a block holds at each of its statements is fixed by the statements before it.
+ * Blocks are resolved in the order they run: each load and store is looked up against
+ * the blocks opened so far and then against the scopes the statement starts in, as they
+ * are when it is compiled.
+ */
+class Scopes {
+  /**
+   * The scope the statement starts in
+   */
+  private final VarContainer outer;
+  /**
+   * Names the statement assigns directly in the outer scope
+   */
+  private final Set<String> assigned = new HashSet<>();
+  /**
+   * The names each open block holds so far, innermost last
+   */
+  private final List<List<String>> blocks = new ArrayList<>();
+
+  /**
+   * @param outer The scope the statement will start running in
+   */
+  Scopes(VarContainer outer) {
+    this.outer = outer;
+  }
+
+  /**
+   * Opens a block
+   */
+  void enter() {
+    blocks.add(new ArrayList<String>());
+  }
+
+  /**
+   * Closes the innermost block
+   * @return The names of its slots, for VarContainer
+   */
+  String[] leave() {
+    return blocks.remove(blocks.size() - 1).toArray(new String[0]);
+  }
+
+  /**
+   * Finds where a var that is read will be
+   * @param name The name of the var
+   * @return Its depth and slot, or null if it won't exist
+   */
+  int[] load(String name) {
+    int open = blocks.size();
+    for (int b = open - 1; b >= 0; b--) {
+      int slot = blocks.get(b).indexOf(name);
+      if (slot >= 0)
+        return new int[] { open - 1 - b, slot };
+    }
+    int depth = open;
+    for (VarContainer scope = outer; scope != null; scope = scope.getParent()) {
+      int slot = scope.slot(name);
+      if (slot >= 0 && (scope.get(slot) != null || (scope == outer && assigned.contains(name))))
+        return new int[] { depth, slot };
+      depth++;
+    }
+    return null;
+  }
+
+  /**
+   * Finds where a var that is assigned will be, adding it to the innermost block if no
+   * scope has it yet
+   * @param name The name of the var
+   * @return Its depth and slot
+   */
+  int[] store(String name) {
+    int[] at = load(name);
+    if (at != null)
+      return at;
+    if (blocks.isEmpty()) {
+      assigned.add(name);
+      return new int[] { 0, outer.intern(name) };
+    }
+    List<String> block = blocks.get(blocks.size() - 1);
+    block.add(name);
+    return new int[] { 0, block.size() - 1 };
+  }
+}
@@ -0,0 +1,405 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+
+import tokens.Tk;
+import vars.Var;
+import vars.bool.Bool;
+import vars.mtx.IdMtx;
+import vars.mtx.Mtx;
+import vars.mtx.ZeroMtx;
+import vars.scl.Scl;
+
+/**
+ * Simplifies an expression once when it is parsed, so work that gives the same answer
+ * every time it runs is only done once
+ * <p>
+ * Operators on constants are folded with the same Scl, Bool and Mtx operations they
+ * would have run, so (2*3+1)*A becomes 7*A. id() and zero() with constant sizes are
+ * built once, which leaves products and sums with them to the IdMtx and ZeroMtx
+ * shortcuts in Mtx.MULT and Mtx.ADD instead of a call each time, and constant products
+ * and sums of identity and zero matrices are folded by those shortcuts. A whole power
+ * from 2 to 4, such as x^2, becomes a Power that multiplies scalars out. Nothing that
+ * could fail is folded; it is left to fail when it runs, as it would have.
+ * <p>
+ * The rewrites made are kept with the expression for explain.
+ */
+abstract class Simplify {
+  /**
+   * The largest power turned into products
+   */
+  private static final int MAX_POWER = 4;
+
+  /**
+   * A value or an operator applied to its operands, rebuilt from postfix
+   */
+  private static class Node {
+    final Object item;
+    final Node a, b;
+    /**
+     * How the node was written, for folded constants
+     */
+    final String text;
+
+    Node(Object item, Node a, Node b) {
+      this(item, a, b, null);
+    }
+
+    Node(Object item, Node a, Node b, String text) {
+      this.item = item;
+      this.a = a;
+      this.b = b;
+      this.text = text;
+    }
+
+    boolean isConst() {
+      return item instanceof Var;
+    }
+
+    boolean isFolded() {
+      return text != null;
+    }
+  }
+
+  /**
+   * Takes the rewrites made since this was last called
+   * @return The rewrites, described for explain
+   */
+  static List<String> rewrites() {
+    Interpreter in = Interpreter.current();
+    List<String> res = in.rewrites;
+    in.rewrites = new ArrayList<>();
+    return res;
+  }
+
+  /**
+   * Simplifies an expression
+   * @param postfix The expression in postfix form
+   * @return The simplified expression, or postfix itself if nothing changed
+   */
+  static List<Object> simplify(List<Object> postfix) {
+    if (postfix == null)
+      return null;
+    // Rebuild the tree the same way evaluateExpr pops its stack, so operators that
+    // would have been unary stay unary
+    Deque<Node> stack = new LinkedList<>();
+    for (Object o : postfix) {
+      if (o instanceof ValueOp || o == Tk.TRANSPOSE_OP) {
+        if (stack.isEmpty())
+          return postfix;
+        stack.push(new Node(o, null, stack.pop()));
+      } else if (o instanceof Tk) {
+        if (stack.isEmpty())
+          return postfix;
+        Node b = stack.pop();
+        Node a = stack.isEmpty() ? null : stack.pop();
+        stack.push(new Node(o, a, b));
+      } else {
+        stack.push(new Node(o, null, null));
+      }
+    }
+    // Malformed expressions are left for evaluateExpr to report
+    if (stack.size() != 1)
+      return postfix;
+
+    int before = Interpreter.current().rewrites.size();
+    Node root = fold(stack.pop());
+    if (root.isFolded()) {
+      note(root);
+    }
+    if (Interpreter.current().rewrites.size() == before)
+      return postfix;
+    List<Object> res = new ArrayList<>();
+    emit(root, res);
+    return res;
+  }
+
+  /**
+   * Folds a tree from the bottom up
+   */
+  private static Node fold(Node node) {
+    Node a = (node.a == null) ? null : fold(node.a);
+    Node b = (node.b == null) ? null : fold(node.b);
+    Object item = node.item;
+
+    Var folded = null;
+    if (item instanceof Call) {
+      folded = call((Call) item);
+    } else if (item == Tk.TRANSPOSE_OP && b.isConst()) {
+      folded = transpose((Var) b.item);
+    } else if (item instanceof Tk && b.isConst() && (a == null || a.isConst())) {
+      folded = apply((Tk) item, (a == null) ? null : (Var) a.item, (Var) b.item);
+    }
+    if (folded != null)
+      return new Node(folded, null, null, text(node));
+
+    // A folded operand that goes no further is a rewrite of its own
+    if (a != null && a.isFolded())
+      note(a);
+    if (b != null && b.isFolded())
+      note(b);
+
+    if (item == Tk.EXP_OP && a != null && isSmallPower(b)) {
+      Power power = new Power((Scl) b.item);
+      Interpreter.current().rewrites.add(String.format("rewrote %s as %s", text(node), product(text(a, Tk.MULT_OP, false), power.n)));
+      return new Node(power, null, a);
+    }
+    return new Node(item, a, b);
+  }
+
+  /**
+   * Builds id() or zero() with constant sizes
+   * @return The matrix, or null if the call isn't one or might fail
+   */
+  private static Var call(Call call) {
+    if (!(call.name.equals("id") || call.name.equals("zero")) || call.args.isEmpty() || call.args.size() > 2)
+      return null;
+    int[] sizes = new int[2];
+    for (int i = 0; i < call.args.size(); i++) {
+      List<Object> arg = call.args.get(i);
+      if (arg.size() != 1 || !(arg.get(0) instanceof Scl))
+        return null;
+      Scl size = (Scl) arg.get(0);
+      if (!size.isInt() || size.intValue() <= 0)
+        return null;
+      sizes[i] = size.intValue();
+    }
+    int rows = sizes[0], cols = (call.args.size() > 1) ? sizes[1] : rows;
+    return call.name.equals("id") ? Mtx.identity(rows, cols) : Mtx.zero(rows, cols);
+  }
+
+  /**
+   * Transposes a constant
+   * @return The transpose, or null if it would fail
+   */
+  private static Var transpose(Var val) {
+    if (val instanceof Scl)
+      return val;
+    if (isIdOrZero(val))
+      return Mtx.transpose((Mtx) val);
+    return null;
+  }
+
+  /**
+   * Applies an operator to constants with the operation applyOp would use
+   * @param a The first operand (null if the operator is unary)
+   * @return The result, or null if the operation would fail or its result can't be kept
+   *         as a constant
+   */
+  private static Var apply(Tk token, Var a, Var b) {
+    if (a == null && b instanceof Scl) {
+      switch (token) {
+      case ADD_OP:
+        return b;
+      case SUB_OP:
+        return Scl.neg((Scl) b);
+      default:
+        return null;
+      }
+    } else if (a == null && b instanceof Bool) {
+      return (token == Tk.NOT_OP) ? Bool.not((Bool) b) : null;
+    } else if (a instanceof Scl && b instanceof Scl) {
+      Scl x = (Scl) a, y = (Scl) b;
+      switch (token) {
+      case ADD_OP:
+        return Scl.add(x, y);
+      case SUB_OP:
+        return Scl.sub(x, y);
+      case MULT_OP:
+        return Scl.mult(x, y);
+      case DIV_OP:
+        return (y.decimalValue().signum() == 0) ? null : Scl.div(x, y);
+      case EXP_OP:
+        if (y.isInt() && y.intValue() >= 2 && y.intValue() <= MAX_POWER)
+          return Power.raise(x, y.intValue());
+        // Scl.exp can't make a scalar out of NaN or infinity
+        double pow = Math.pow(x.doubleValue(), y.doubleValue());
+        return (Double.isNaN(pow) || Double.isInfinite(pow)) ? null : Scl.exp(x, y);
+      case GREAT_OR_EQUAL:
+        return Scl.great_or_equal(x, y);
+      case LESS_OR_EQUAL:
+        return Scl.less_or_equal(x, y);
+      case GREATER_OP:
+        return Scl.greater(x, y);
+      case LESSER_OP:
+        return Scl.lesser(x, y);
+      case EQUAL_OP:
+        return Scl.equal(x, y);
+      default:
+        return null;
+      }
+    } else if (a instanceof Bool && b instanceof Bool) {
+      switch (token) {
+      case AND_OP:
+        return Bool.and((Bool) a, (Bool) b);
+      case OR_OP:
+        return Bool.or((Bool) a, (Bool) b);
+      default:
+        return null;
+      }
+    } else if (isIdOrZero(a) && isIdOrZero(b)) {
+      Mtx x = (Mtx) a, y = (Mtx) b;
+      Var res = null;
+      if (token == Tk.MULT_OP && x.cCount == y.rCount) {
+        res = Mtx.MULT(x, y);
+      } else if (token == Tk.ADD_OP && x.rCount == y.rCount && x.cCount == y.cCount) {
+        res = Mtx.ADD(x, y);
+      }
+      return isIdOrZero(res) ? res : null;
+    }
+    return null;
+  }
+
+  /**
+   * Whether a value is an identity or zero matrix, which are never changed once built and
+   * so can be shared as constants
+   */
+  private static boolean isIdOrZero(Var val) {
+    return val instanceof IdMtx || val instanceof ZeroMtx;
+  }
+
+  /**
+   * Whether an exponent is a whole number Power handles
+   */
+  private static boolean isSmallPower(Node exponent) {
+    if (!(exponent.item instanceof Scl))
+      return false;
+    Scl n = (Scl) exponent.item;
+    return n.isInt() && n.intValue() >= 2 && n.intValue() <= MAX_POWER;
+  }
+
+  private static void note(Node node) {
+    Interpreter.current().rewrites.add(String.format("folded %s to %s", node.text, describe((Var) node.item)));
+  }
+
+  private static String describe(Var val) {
+    if (val instanceof Mtx) {
+      Mtx m = (Mtx) val;
+      return String.format("a %dx%d %s matrix", m.rCount, m.cCount, (val instanceof IdMtx) ? "identity" : "zero");
+    }
+    return val.toString();
+  }
+
+  /**
+   * Writes a tree back out in postfix form
+   */
+  private static void emit(Node node, List<Object> out) {
+    if (node.a != null)
+      emit(node.a, out);
+    if (node.b != null)
+      emit(node.b, out);
+    out.add(node.item);
+  }
+
+  /**
+   * Writes a tree out as it would have been typed, for describing rewrites
+   */
+  private static String text(Node node) {
+    if (node.text != null)
+      return node.text;
+    Object item = node.item;
+    if (item == Tk.TRANSPOSE_OP)
+      return text(node.b, Tk.TRANSPOSE_OP, false) + "'";
+    if (item instanceof Power)
+      return text(node.b, Tk.EXP_OP, false) + item;
+    if (item instanceof ValueOp)
+      return text(node.b, Tk.TRANSPOSE_OP, false) + "[...]";
+    if (item instanceof Tk) {
+      Tk token = (Tk) item;
+      if (node.a == null)
+        return symbol(token) + text(node.b, token, true);
+      return text(node.a, token, false) + symbol(token) + text(node.b, token, true);
+    }
+    if (item instanceof Call) {
+      Call call = (Call) item;
+      StringBuilder args = new StringBuilder();
+      for (List<Object> arg : call.args) {
+        args.append((args.length() > 0) ? ", " : "").append(text(arg));
+      }
+      return call.name + "(" + args + ")";
+    }
+    return item.toString();
+  }
+
+  /**
+   * Writes an operand out, in parentheses if its operator binds less tightly than the
+   * one applied to it
+   * @param parent The operator applied to it
+   * @param right  Whether it is the right operand, which needs parentheses for an
+   *               operator of the same precedence too
+   */
+  private static String text(Node node, Tk parent, boolean right) {
+    String text = text(node);
+    if (node.text == null && node.item instanceof Tk && node.a != null) {
+      int prec = parent.prec((Tk) node.item);
+      if (prec > 0 || (right && prec == 0))
+        return "(" + text + ")";
+    }
+    return text;
+  }
+
+  /**
+   * Writes an expression in postfix form out as it would have been typed
+   */
+  private static String text(List<Object> postfix) {
+    Deque<Node> stack = new LinkedList<>();
+    for (Object o : postfix) {
+      if ((o instanceof ValueOp || o == Tk.TRANSPOSE_OP) && !stack.isEmpty()) {
+        stack.push(new Node(o, null, stack.pop()));
+      } else if (o instanceof Tk && !stack.isEmpty()) {
+        Node b = stack.pop();
+        stack.push(new Node(o, stack.isEmpty() ? null : stack.pop(), b));
+      } else {
+        stack.push(new Node(o, null, null));
+      }
+    }
+    return (stack.size() == 1) ? text(stack.pop()) : "...";
+  }
+
+  /**
+   * A factor multiplied by itself
+   */
+  private static String product(String factor, int n) {
+    StringBuilder res = new StringBuilder(factor);
+    for (int i = 1; i < n; i++) {
+      res.append('*').append(factor);
+    }
+    return res.toString();
+  }
+
+  private static String symbol(Tk token) {
+    switch (token) {
+    case EXP_OP:
+      return "^";
+    case MULT_OP:
+      return "*";
+    case DIV_OP:
+      return "/";
+    case ADD_OP:
+      return "+";
+    case SUB_OP:
+      return "-";
+    case LESS_OR_EQUAL:
+      return "<=";
+    case GREAT_OR_EQUAL:
+      return ">=";
+    case GREATER_OP:
+      return ">";
+    case LESSER_OP:
+      return "<";
+    case EQUAL_OP:
+      return "=";
+    case AND_OP:
+      return "&&";
+    case OR_OP:
+      return "||";
+    case NOT_OP:
+      return "!";
+    default:
+      return token.name();
+    }
+  }
+}
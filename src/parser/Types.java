@@ -0,0 +1,436 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ast.Assign;
+import ast.Block;
+import ast.Command;
+import ast.Def;
+import ast.Expr;
+import ast.For;
+import ast.MtxAssign;
+import ast.Stmt;
+import tokens.Tk;
+import vars.Var;
+import vars.bool.Bool;
+import vars.mtx.Mtx;
+import vars.scl.Scl;
+
+/**
+ * Works out what kind of value each var of a statement holds, and so what kind each
+ * operator in it is applied to, before the statement runs
+ * <p>
+ * The kind of a var is the join of the value it has now and everything the statement
+ * assigns it, wherever that is, so it holds for every read of the var in the statement.
+ * Scalars with no decimal places are told apart from other scalars, as +, - and * keep
+ * them whole and a for loop that counts from a whole start by a whole step only ever
+ * holds whole numbers.
+ * <p>
+ * Kinds are only ever used to pick which operations Compiler emits. The specialised
+ * operations still check what they are given, and fall back to the general ones if it
+ * isn't what was expected, so a kind that is wrong is slower but never wrong.
+ */
+final class Types {
+  /**
+   * What a value is known to be
+   */
+  enum Kind {
+    /**
+     * A scalar with no decimal places
+     */
+    INT,
+    SCL,
+    BOOL,
+    MTX,
+    /**
+     * Could be any of them, or an error
+     */
+    ANY;
+
+    boolean scalar() {
+      return this == INT || this == SCL;
+    }
+
+    /**
+     * @return The kind of a var that can hold this or other
+     */
+    Kind join(Kind other) {
+      if (other == null || other == this)
+        return this;
+      return (scalar() && other.scalar()) ? SCL : ANY;
+    }
+  }
+
+  /**
+   * The kind of each var the statement reads or assigns
+   */
+  private final Map<String, Kind> vars = new HashMap<>();
+
+  private Types() {
+  }
+
+  /**
+   * Works out the kinds of the vars of a statement
+   * @param stmt The statement about to be run
+   * @return Its kinds
+   */
+  static Types of(Stmt stmt) {
+    Types types = new Types();
+    List<Stmt> assigns = new ArrayList<>();
+    assigns(stmt, assigns);
+    // Joins only go up, and each var can only go up twice
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Stmt assign : assigns) {
+        changed |= types.assign(assign);
+      }
+    }
+    return types;
+  }
+
+  /**
+   * @param name The name of a var
+   * @return What the var holds while the statement runs
+   */
+  Kind var(String name) {
+    Kind kind = vars.get(name);
+    if (kind == null) {
+      kind = of(Parser.getVar(name));
+      vars.put(name, kind);
+    }
+    return kind;
+  }
+
+  /**
+   * Gives the kind of the value each item of an expression leaves on top of the stack
+   * @param postfix The expression in postfix form
+   * @return A kind per item, ANY where the expression would fail and null where it
+   *         reads a var that has no value yet
+   */
+  Kind[] kinds(List<Object> postfix) {
+    Kind[] res = new Kind[postfix.size()];
+    eval(postfix, res);
+    return res;
+  }
+
+  /**
+   * @param postfix An expression in postfix form
+   * @return The kind of its value, or null if it reads a var that has no value yet
+   */
+  Kind value(List<Object> postfix) {
+    return eval(postfix, new Kind[postfix.size()]);
+  }
+
+  /**
+   * Runs through an expression with kinds in place of values
+   * @param res Filled in with the kind on top of the stack after each item
+   * @return The kind of the value, ANY if the expression would fail
+   */
+  private Kind eval(List<Object> postfix, Kind[] res) {
+    List<Kind> stack = new ArrayList<>();
+    for (int i = 0; i < res.length; i++) {
+      Object o = postfix.get(i);
+      Kind kind;
+      if (o instanceof Var) {
+        kind = of((Var) o);
+      } else if (o instanceof String) {
+        kind = var((String) o);
+      } else if (o instanceof Call) {
+        kind = call((Call) o);
+      } else if (o instanceof Cached) {
+        kind = value(((Cached) o).postfix);
+      } else if (stack.isEmpty()) {
+        // Nothing to apply it to, which fails
+        kind = Kind.ANY;
+      } else if (o == Tk.TRANSPOSE_OP || o instanceof Power) {
+        Kind operand = pop(stack);
+        kind = (operand == null || operand.scalar() || operand == Kind.MTX) ? operand : Kind.ANY;
+      } else if (o instanceof MultChain) {
+        kind = chain(stack, ((MultChain) o).count);
+      } else if (o instanceof Tk) {
+        Kind b = pop(stack);
+        // Unary when it is the only value, as in evaluateExpr
+        kind = stack.isEmpty() ? unary((Tk) o, b) : binary((Tk) o, pop(stack), b);
+      } else {
+        pop(stack);
+        kind = Kind.ANY;
+      }
+      stack.add(kind);
+      res[i] = kind;
+    }
+    return (stack.size() == 1) ? stack.get(0) : Kind.ANY;
+  }
+
+  /**
+   * @param token The operator
+   * @param b     The kind of its only operand
+   * @return The kind of its value
+   */
+  static Kind unary(Tk token, Kind b) {
+    if (b == null)
+      return null;
+    if ((token == Tk.ADD_OP || token == Tk.SUB_OP) && (b.scalar() || b == Kind.MTX))
+      return b;
+    if (token == Tk.NOT_OP && b == Kind.BOOL)
+      return Kind.BOOL;
+    return Kind.ANY;
+  }
+
+  /**
+   * Follows applyOp
+   * @param token The operator
+   * @param a     The kind of its first operand
+   * @param b     The kind of its second operand
+   * @return The kind of its value
+   */
+  static Kind binary(Tk token, Kind a, Kind b) {
+    if (a == null || b == null)
+      return null;
+    if (a.scalar() && b.scalar()) {
+      switch (token) {
+      case ADD_OP:
+      case SUB_OP:
+      case MULT_OP:
+        return (a == Kind.INT && b == Kind.INT) ? Kind.INT : Kind.SCL;
+      case DIV_OP:
+      case EXP_OP:
+        return Kind.SCL;
+      case GREAT_OR_EQUAL:
+      case LESS_OR_EQUAL:
+      case GREATER_OP:
+      case LESSER_OP:
+      case EQUAL_OP:
+        return Kind.BOOL;
+      default:
+        return Kind.ANY;
+      }
+    } else if (a == Kind.BOOL && b == Kind.BOOL) {
+      return (token == Tk.AND_OP || token == Tk.OR_OP) ? Kind.BOOL : Kind.ANY;
+    } else if (a == Kind.MTX && b == Kind.MTX) {
+      if (token == Tk.ADD_OP || token == Tk.SUB_OP || token == Tk.MULT_OP)
+        return Kind.MTX;
+      return (token == Tk.EQUAL_OP) ? Kind.BOOL : Kind.ANY;
+    } else if (a == Kind.MTX && b.scalar()) {
+      return (token == Tk.EXP_OP || token == Tk.MULT_OP) ? Kind.MTX : Kind.ANY;
+    } else if (a.scalar() && b == Kind.MTX) {
+      return (token == Tk.MULT_OP) ? Kind.MTX : Kind.ANY;
+    }
+    return Kind.ANY;
+  }
+
+  /**
+   * @param val A value, or null for a var that doesn't exist
+   * @return Its kind, or null for none
+   */
+  static Kind of(Var val) {
+    if (val instanceof Scl)
+      return whole((Scl) val) ? Kind.INT : Kind.SCL;
+    if (val instanceof Bool)
+      return Kind.BOOL;
+    if (val instanceof Mtx)
+      return Kind.MTX;
+    return (val == null) ? null : Kind.ANY;
+  }
+
+  /**
+   * @return Whether a scalar has no decimal places, which +, - and * keep
+   */
+  static boolean whole(Scl x) {
+    return x.decimalValue().scale() <= 0;
+  }
+
+  /**
+   * Whether anything in a block reads or assigns a var
+   * <p>
+   * Commands, definitions and calls to functions defined with def count as reading every
+   * var, as they refer to vars in ways expressions don't show.
+   * @param block The block
+   * @param name  The name of the var
+   */
+  static boolean uses(Block block, String name) {
+    for (Stmt stmt : block.stmts) {
+      if (stmt instanceof Command || stmt instanceof Def)
+        return true;
+      if (stmt instanceof Assign && ((Assign) stmt).name.equals(name)
+          || stmt instanceof MtxAssign && ((MtxAssign) stmt).name.equals(name)
+          || stmt instanceof For && ((For) stmt).name.equals(name))
+        return true;
+      for (Expr expr : InPlace.exprs(stmt)) {
+        if (reads(expr.postfix, name))
+          return true;
+      }
+      for (Block inner : InPlace.blocks(stmt)) {
+        if (uses(inner, name))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether a statement calls a function defined with def anywhere in it
+   */
+  static boolean callsDefined(Stmt stmt) {
+    for (Expr expr : InPlace.exprs(stmt)) {
+      if (callsDefined(expr.postfix))
+        return true;
+    }
+    for (Block block : InPlace.blocks(stmt)) {
+      for (Stmt inner : block.stmts) {
+        if (callsDefined(inner))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Whether an expression calls a function defined with def anywhere in it
+   */
+  static boolean callsDefined(List<Object> postfix) {
+    if (postfix == null)
+      return false;
+    for (Object o : postfix) {
+      if (o instanceof Call) {
+        if (!((Call) o).isBuiltin())
+          return true;
+        for (List<Object> arg : ((Call) o).args) {
+          if (callsDefined(arg))
+            return true;
+        }
+      } else if (o instanceof IndexOp) {
+        for (List<Object> bound : ((IndexOp) o).bounds()) {
+          if (callsDefined(bound))
+            return true;
+        }
+      } else if (o instanceof Cached && callsDefined(((Cached) o).postfix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean reads(List<Object> postfix, String name) {
+    if (postfix == null)
+      return false;
+    for (Object o : postfix) {
+      if (name.equals(o))
+        return true;
+      if (o instanceof Call) {
+        if (!((Call) o).isBuiltin())
+          return true;
+        for (List<Object> arg : ((Call) o).args) {
+          if (reads(arg, name))
+            return true;
+        }
+      } else if (o instanceof IndexOp) {
+        for (List<Object> bound : ((IndexOp) o).bounds()) {
+          if (reads(bound, name))
+            return true;
+        }
+      } else if (o instanceof Cached && reads(((Cached) o).postfix, name)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Inference
+
+  /**
+   * Joins what an assignment gives its var into the kind of the var
+   * @return Whether the kind changed
+   */
+  private boolean assign(Stmt stmt) {
+    String name;
+    Kind kind;
+    if (stmt instanceof Assign) {
+      name = ((Assign) stmt).name;
+      kind = value(((Assign) stmt).value.postfix);
+    } else if (stmt instanceof For) {
+      For loop = (For) stmt;
+      name = loop.name;
+      // start + k*step for some k
+      Kind start = value(loop.start.postfix);
+      Kind step = (loop.step == null) ? Kind.INT : value(loop.step.postfix);
+      kind = (start == Kind.INT && step == Kind.INT) ? Kind.INT : Kind.SCL;
+    } else if (stmt instanceof MtxAssign) {
+      name = ((MtxAssign) stmt).name;
+      kind = Kind.MTX;
+    } else {
+      name = ((Command) stmt).args[0];
+      kind = Kind.MTX;
+    }
+    if (kind == null)
+      return false;
+    Kind old = var(name);
+    Kind joined = kind.join(old);
+    if (joined == old)
+      return false;
+    vars.put(name, joined);
+    return true;
+  }
+
+  /**
+   * Finds every statement that assigns a var
+   */
+  private static void assigns(Stmt stmt, List<Stmt> res) {
+    if (stmt instanceof Assign || stmt instanceof For || stmt instanceof MtxAssign
+        || stmt instanceof Command && ((Command) stmt).kind == Tk.LOAD) {
+      res.add(stmt);
+    }
+    for (Block block : InPlace.blocks(stmt)) {
+      for (Stmt inner : block.stmts) {
+        assigns(inner, res);
+      }
+    }
+  }
+
+  private static Kind call(Call call) {
+    switch (call.name) {
+    case "det":
+      return Kind.SCL;
+    case "id":
+    case "zero":
+    case "diag":
+    case "triu":
+    case "tril":
+    case "band":
+    case "perm":
+    case "lu":
+    case "inv":
+    case "solve":
+      return Kind.MTX;
+    default:
+      return Kind.ANY;
+    }
+  }
+
+  /**
+   * The product of the top count values
+   */
+  private static Kind chain(List<Kind> stack, int count) {
+    Kind res = Kind.INT;
+    boolean known = true;
+    for (int i = 0; i < count; i++) {
+      Kind factor = stack.isEmpty() ? Kind.ANY : pop(stack);
+      if (factor == null) {
+        known = false;
+      } else if (i == 0) {
+        res = factor;
+      } else if (factor != res) {
+        // Scalars in a chain of matrices are left to MultChain
+        res = (factor.scalar() && res.scalar()) ? Kind.SCL : Kind.ANY;
+      }
+    }
+    return known ? res : null;
+  }
+
+  private static Kind pop(List<Kind> stack) {
+    return stack.remove(stack.size() - 1);
+  }
+}
@@ -0,0 +1,389 @@
+package parser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ast.Command;
+import ast.Def;
+import ast.For;
+import io.Output;
+import tokens.Tk;
+import vars.Var;
+import vars.bool.Bool;
+import vars.mtx.Mtx;
+import vars.scl.Scl;
+
+/**
+ * Runs Code made by Compiler
+ * <p>
+ * Operators go through the same Fused and applyOp calls as evaluateExpr, so results
+ * match the tree-walking Executor exactly; what changes is that nothing is looked up or
+ * decided per operator beyond a switch on the opcode. Operators Types expects scalars or
+ * true/false values for call Scl and Bool directly once the operands are checked.
+ */
+abstract class VM {
+  /**
+   * Whether statements run on the VM (true) or on the tree-walking Executor (false)
+   */
+  static boolean enabled = true;
+
+  private static final Tk[] TOKENS = Tk.values();
+
+  /**
+   * Runs a statement read at the top level
+   * @param stmt The statement
+   * @return Var.Null if successful <b>or a returned variable</b>, null on an error
+   */
+  static Var run(ast.Stmt stmt) {
+    return run(Compiler.compile(stmt));
+  }
+
+  /**
+   * Runs compiled code, leaving the scope as it found it however the code stops
+   * @param code The code
+   * @return Var.Null if successful <b>or a returned variable</b>, null on an error
+   */
+  static Var run(Code code) {
+    VarContainer scope = Parser.getVars();
+    Object[] regs = new Object[code.regCount];
+    try {
+      return exec(code, regs);
+    } finally {
+      // Loops stopped by a return or an error still store the counters they held back
+      for (Object reg : regs) {
+        if (reg instanceof Counter)
+          ((Counter) reg).store();
+      }
+      Parser.setVars(scope);
+    }
+  }
+
+  private static Var exec(Code code, Object[] regs) {
+    final int[] ops = code.ops;
+    final Object[] consts = code.consts;
+    final String[] names = code.names;
+    final Object[] stack = new Object[code.maxStack];
+    int sp = 0, pc = 0;
+    while (pc < ops.length) {
+      switch (ops[pc++]) {
+      case Code.CONST:
+        stack[sp++] = consts[ops[pc++]];
+        break;
+      case Code.LOAD: {
+        Var var = Parser.getVars().up(ops[pc]).get(ops[pc + 1]);
+        if (var == null) {
+          Output.customError("Var %s doesn't exist", names[ops[pc + 2]]);
+          return null;
+        }
+        stack[sp++] = var;
+        pc += 3;
+        break;
+      }
+      case Code.LOAD_NAME: {
+        String name = names[ops[pc++]];
+        Var var = Parser.getVar(name);
+        if (var == null) {
+          Output.customError("Var %s doesn't exist", name);
+          return null;
+        }
+        stack[sp++] = var;
+        break;
+      }
+      case Code.STORE:
+        Parser.getVars().up(ops[pc]).set(ops[pc + 1], (Var) stack[--sp]);
+        pc += 2;
+        break;
+      case Code.BOOL_BINOP: {
+        Tk token = TOKENS[ops[pc++]];
+        Object a = stack[sp - 2], b = stack[sp - 1];
+        Object res = (a instanceof Bool && b instanceof Bool)
+            ? ((token == Tk.AND_OP) ? Bool.and((Bool) a, (Bool) b) : Bool.or((Bool) a, (Bool) b))
+            : binop(token, a, b);
+        if (res == null)
+          return null;
+        stack[--sp - 1] = res;
+        break;
+      }
+      case Code.SCL_BINOP: {
+        Tk token = TOKENS[ops[pc++]];
+        Object a = stack[sp - 2], b = stack[sp - 1];
+        Object res = (a instanceof Scl && b instanceof Scl) ? scalar(token, (Scl) a, (Scl) b) : binop(token, a, b);
+        if (res == null)
+          return null;
+        stack[--sp - 1] = res;
+        break;
+      }
+      case Code.BINOP: {
+        Object res = binop(TOKENS[ops[pc++]], stack[sp - 2], stack[sp - 1]);
+        if (res == null)
+          return null;
+        stack[--sp - 1] = res;
+        break;
+      }
+      case Code.UNOP: {
+        Tk token = TOKENS[ops[pc++]];
+        Object b = stack[--sp];
+        Object res = Fused.combine(token, null, b);
+        if (res == null) {
+          res = ExprReader.applyOp(token, null, Fused.value(b));
+          if (res == null)
+            return null;
+        }
+        stack[sp++] = res;
+        break;
+      }
+      case Code.FORK: {
+        Fork.Group group = (Fork.Group) consts[ops[pc]];
+        Var[] vals = group.values(group.postfix);
+        if (vals == Fork.FAILED)
+          return null;
+        if (vals == null) {
+          pc += 2;
+          break;
+        }
+        for (Var val : vals) {
+          stack[sp++] = val;
+        }
+        pc = ops[pc + 1];
+        break;
+      }
+      case Code.TRANSPOSE: {
+        Object operand = Fused.value(stack[sp - 1]);
+        Var res;
+        if (operand instanceof Mtx) {
+          res = Mtx.transpose((Mtx) operand);
+        } else if (operand instanceof Scl) {
+          res = (Scl) operand;
+        } else {
+          Output.customError("Cannot transpose %s", operand);
+          return null;
+        }
+        stack[sp - 1] = res;
+        break;
+      }
+      case Code.APPLY: {
+        Var res = ((ValueOp) consts[ops[pc++]]).apply(Fused.value(stack[sp - 1]));
+        if (res == null)
+          return null;
+        stack[sp - 1] = res;
+        break;
+      }
+      case Code.CALL: {
+        Call call = (Call) consts[ops[pc++]];
+        int argc = ops[pc++];
+        List<Var> args = new ArrayList<>(argc);
+        for (int i = sp - argc; i < sp; i++) {
+          args.add((Var) stack[i]);
+        }
+        sp -= argc;
+        Var res = call.call(args);
+        if (res == null)
+          return null;
+        stack[sp++] = res;
+        break;
+      }
+      case Code.CACHED: {
+        Var res = ((Cached) consts[ops[pc++]]).value();
+        if (res == null)
+          return null;
+        stack[sp++] = res;
+        break;
+      }
+      case Code.CHAIN: {
+        MultChain chain = (MultChain) consts[ops[pc++]];
+        Object[] factors = new Object[chain.count];
+        sp -= chain.count;
+        for (int i = 0; i < chain.count; i++) {
+          factors[i] = Fused.value(stack[sp + i]);
+        }
+        Var res = chain.apply(factors);
+        if (res == null)
+          return null;
+        stack[sp++] = res;
+        break;
+      }
+      case Code.MTX: {
+        int rCount = ops[pc++], cCount = ops[pc++];
+        Scl[][] cells = new Scl[rCount][cCount];
+        sp -= rCount * cCount;
+        for (int r = 0; r < rCount; r++) {
+          for (int c = 0; c < cCount; c++) {
+            Object cell = stack[sp + r * cCount + c];
+            if (!(cell instanceof Scl)) {
+              Output.expectedError("scalar", cell);
+              return null;
+            }
+            cells[r][c] = (Scl) cell;
+          }
+        }
+        stack[sp++] = Parser.mode().build(cells);
+        break;
+      }
+      case Code.VALUE:
+        stack[sp - 1] = Fused.value(stack[sp - 1]);
+        break;
+      case Code.UPDATE: {
+        VarContainer scope = Parser.getVars().up(ops[pc++]);
+        stack[sp - 1] = InPlace.value(stack[sp - 1], scope.get(ops[pc++]));
+        break;
+      }
+      case Code.PRINT:
+        if (!Executor.print((Var) stack[--sp]))
+          return null;
+        break;
+      case Code.JUMP:
+        pc = ops[pc];
+        break;
+      case Code.JUMP_FALSE: {
+        Object cond = stack[--sp];
+        if (!(cond instanceof Bool)) {
+          Output.expectedError("True or False condition", cond);
+          return null;
+        }
+        pc = ((Bool) cond).val() ? pc + 1 : ops[pc];
+        break;
+      }
+      case Code.ENTER:
+        Parser.setVars(new VarContainer(Parser.getVars(), (String[]) consts[ops[pc++]]));
+        break;
+      case Code.LEAVE:
+        Parser.setVars(Parser.getVars().getParent());
+        break;
+      case Code.RETURN:
+        return (Var) stack[--sp];
+      case Code.FOR_PREP: {
+        int reg = ops[pc++];
+        boolean deferred = ops[pc++] == 1;
+        sp -= 3;
+        for (int i = 0; i < 3; i++) {
+          if (!(stack[sp + i] instanceof Scl)) {
+            Output.expectedError(Tk.NUM_LIT, stack[sp + i]);
+            return null;
+          }
+          regs[reg + i] = stack[sp + i];
+        }
+        Scl step = (Scl) regs[reg + 2];
+        if (Scl.equal(step, Scl.ZERO).val()) {
+          Output.customError("A for loop can't count by 0");
+          return null;
+        }
+        Counter counter = Counter.of((Scl) regs[reg], (Scl) regs[reg + 1], step, deferred);
+        if (counter != null) {
+          regs[reg] = counter;
+          break;
+        }
+        // A negative step counts down to the end instead
+        regs[reg + 3] = Scl.lesser(step, Scl.ZERO);
+        break;
+      }
+      case Code.FOR_TEST: {
+        int reg = ops[pc++];
+        if (regs[reg] instanceof Counter) {
+          Counter counter = (Counter) regs[reg];
+          if (counter.more()) {
+            counter.set(Parser.getVars().up(ops[pc]), ops[pc + 1]);
+            pc += 3;
+          } else {
+            counter.set(Parser.getVars().up(ops[pc]), ops[pc + 1]);
+            counter.store();
+            pc = ops[pc + 2];
+          }
+          break;
+        }
+        Scl counter = (Scl) regs[reg], end = (Scl) regs[reg + 1];
+        boolean more = (regs[reg + 3] == Bool.True) ? Scl.greater(counter, end).val()
+            : Scl.lesser(counter, end).val();
+        // Once it passes the end the counter is stored too, and the loop left
+        Parser.getVars().up(ops[pc]).set(ops[pc + 1], counter);
+        pc = more ? pc + 3 : ops[pc + 2];
+        break;
+      }
+      case Code.FOR_STEP: {
+        int reg = ops[pc++];
+        if (regs[reg] instanceof Counter) {
+          ((Counter) regs[reg]).step();
+        } else {
+          regs[reg] = Scl.add((Scl) regs[reg], (Scl) regs[reg + 2]);
+        }
+        pc = ops[pc];
+        break;
+      }
+      case Code.RUN: {
+        Object o = consts[ops[pc++]];
+        if (o instanceof Def) {
+          if (Function.define((Def) o) == null)
+            return null;
+        } else if (o instanceof For) {
+          if (Parfor.run((For) o) == null)
+            return null;
+        } else if (CommandReader.run((Command) o) == null) {
+          return null;
+        }
+        break;
+      }
+      case Code.HOT: {
+        Jit.Site site = (Jit.Site) consts[ops[pc++]];
+        if (!site.hot()) {
+          pc++;
+          break;
+        }
+        Var res = site.resume(regs);
+        if (res == null)
+          return null;
+        if (res != Var.Null)
+          return Executor.returned(res);
+        pc = ops[pc];
+        break;
+      }
+      case Code.FAIL:
+        Output.customError("%s", consts[ops[pc++]]);
+        return null;
+      default:
+        Output.internalError("Unknown opcode %d at %d", ops[pc - 1], pc - 1);
+        return null;
+      }
+    }
+    return Var.Null;
+  }
+
+  /**
+   * Applies an operator to any two operands, fusing it into a chain if it can be, as
+   * BOOL_BINOP and SCL_BINOP do when their operands aren't what Types expected
+   * @return The result, or null on an error
+   */
+  private static Object binop(Tk token, Object a, Object b) {
+    Object res = Fused.combine(token, a, b);
+    return (res != null) ? res : ExprReader.applyOp(token, Fused.value(a), Fused.value(b));
+  }
+
+  /**
+   * Applies an operator to two scalars, as applyOp would
+   * @return The result, or null on an error
+   */
+  private static Var scalar(Tk token, Scl a, Scl b) {
+    switch (token) {
+    case ADD_OP:
+      return Scl.add(a, b);
+    case SUB_OP:
+      return Scl.sub(a, b);
+    case MULT_OP:
+      return Scl.mult(a, b);
+    case DIV_OP:
+      return Scl.div(a, b);
+    case EXP_OP:
+      return Scl.exp(a, b);
+    case GREAT_OR_EQUAL:
+      return Scl.great_or_equal(a, b);
+    case LESS_OR_EQUAL:
+      return Scl.less_or_equal(a, b);
+    case GREATER_OP:
+      return Scl.greater(a, b);
+    case LESSER_OP:
+      return Scl.lesser(a, b);
+    case EQUAL_OP:
+      return Scl.equal(a, b);
+    default:
+      return ExprReader.applyOp(token, a, b);
+    }
+  }
+}
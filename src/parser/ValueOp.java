@@ -0,0 +1,16 @@
+package parser;
+
+import vars.Var;
+
+/**
+ * An operation written after the value it applies to, such as an index, which replaces
+ * the value on top of the stack with its result
+ */
+abstract class ValueOp {
+  /**
+   * Applies the operation   
+   * @param operand The value it applies to
+   * @return The result, or null if the operation failed
+   */
+  abstract Var apply(Object operand);
+}
@@ -1,21 +1,53 @@
 package parser;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 import io.Output;
 import vars.Var;
+import vars.mtx.Mtx;
 
 /**
  * @author Seth Gillett
  * A substitute for a function and scoped variables
+ * <p>
+ * Vars are kept in slots of a plain array, so code whose names were resolved by Scopes
+ * reads one with an array index. A slot holding null is a var that doesn't exist (yet).
  */
 public class VarContainer {
-  private Map<String, Var> vars;
+  /**
+   * Scopes with more vars than this look names up through a map instead of a scan
+   */
+  private static final int INDEXED = 8;
+  private static final String[] NO_NAMES = {};
+  private static final Var[] NO_VARS = {};
+
+  private String[] names;
+  private Var[] vals;
+  private int size;
+  private Map<String, Integer> index;
   private VarContainer parent;
+  /**
+   * Counts the names added and the vars that came to exist, so code compiled against
+   * this scope can tell when a name might now resolve differently
+   */
+  int version;
 
   public VarContainer(VarContainer parent) {
-    this.vars = new HashMap<>();
+    // The arrays are only grown once a var is set, as most block scopes never get one
+    this(parent, NO_NAMES);
+  }
+
+  /**
+   * Makes a scope with a slot for each name a block was resolved to hold
+   * @param parent The enclosing scope
+   * @param layout The names of the slots, which is shared and never written to
+   */
+  VarContainer(VarContainer parent, String[] layout) {
+    this.names = layout;
+    this.vals = (layout.length == 0) ? NO_VARS : new Var[layout.length];
+    this.size = layout.length;
     this.parent = parent;
   }
 
@@ -31,21 +63,45 @@ public class VarContainer {
   }
 
   public Var getLocalVar(String name) {
-    if (vars.containsKey(name)) {
-      return vars.get(name);
-    }
-    else {
-      if (this.parent != null) {
-        return parent.getLocalVar(name);
-      }
-      else {
-        return null;
+    for (VarContainer scope = this; scope != null; scope = scope.parent) {
+      int slot = scope.slot(name);
+      if (slot >= 0 && scope.vals[slot] != null) {
+        return scope.vals[slot];
       }
     }
+    return null;
   }
-  
+
   public void setLocalVar(String name, Var val) {
-    vars.put(name, val);
+    // Interned first, as interning may grow vals
+    int slot = intern(name);
+    if (vals[slot] == null)
+      version++;
+    vals[slot] = val;
+  }
+
+  /**
+   * Sets a var in the innermost scope that already has it, or in this one if none do
+   * @param name The name of the var
+   * @param val  The value of the var
+   */
+  public void setVar(String name, Var val) {
+    holder(name).setLocalVar(name, val);
+  }
+
+  /**
+   * Finds the scope setVar would put a var in
+   * @param name The name of the var
+   * @return The innermost scope that already has it, or this one if none do
+   */
+  VarContainer holder(String name) {
+    for (VarContainer scope = this; scope != null; scope = scope.parent) {
+      int slot = scope.slot(name);
+      if (slot >= 0 && scope.vals[slot] != null) {
+        return scope;
+      }
+    }
+    return this;
   }
 
   public boolean hasLocalVar(String name) {
@@ -55,4 +111,106 @@ public class VarContainer {
   public VarContainer getParent() {
     return this.parent;
   }
-}
\ No newline at end of file
+
+  /**
+   * Finds the slot of a name in this scope alone
+   * @param name The name
+   * @return The slot, or -1 if this scope has none for it
+   */
+  int slot(String name) {
+    if (index != null) {
+      Integer slot = index.get(name);
+      return (slot == null) ? -1 : slot;
+    }
+    for (int i = 0; i < size; i++) {
+      if (names[i].equals(name))
+        return i;
+    }
+    return -1;
+  }
+
+  /**
+   * Finds the slot of a name in this scope, adding an empty one if there is none
+   * @param name The name
+   * @return The slot
+   */
+  int intern(String name) {
+    int slot = slot(name);
+    if (slot >= 0)
+      return slot;
+    if (size == names.length) {
+      // Copying also keeps a shared layout from being written to
+      int grown = Math.max(4, size * 2);
+      names = Arrays.copyOf(names, grown);
+      vals = Arrays.copyOf(vals, grown);
+    }
+    names[size] = name;
+    version++;
+    if (index != null) {
+      index.put(name, size);
+    } else if (size >= INDEXED) {
+      index = new HashMap<>();
+      for (int i = 0; i <= size; i++) {
+        index.put(names[i], i);
+      }
+    }
+    return size++;
+  }
+
+  /**
+   * @param depth How many scopes out to go
+   * @return The scope that many scopes out from this one
+   */
+  VarContainer up(int depth) {
+    VarContainer scope = this;
+    for (int i = 0; i < depth; i++) {
+      scope = scope.parent;
+    }
+    return scope;
+  }
+
+  /**
+   * @param slot A slot of this scope
+   * @return The var in it, or null if it doesn't exist
+   */
+  Var get(int slot) {
+    return vals[slot];
+  }
+
+  /**
+   * @param slot A slot of this scope
+   * @param val  The value to put in it
+   */
+  void set(int slot, Var val) {
+    if (vals[slot] == null)
+      version++;
+    vals[slot] = val;
+  }
+
+  /**
+   * @return The global scope, which every other scope is inside
+   */
+  VarContainer root() {
+    VarContainer scope = this;
+    while (scope.parent != null) {
+      scope = scope.parent;
+    }
+    return scope;
+  }
+
+  /**
+   * @return How many cells the vars in this scope hold, counting a scalar or boolean as
+   *         one
+   */
+  long cells() {
+    long cells = 0;
+    for (int i = 0; i < size; i++) {
+      if (vals[i] instanceof Mtx) {
+        cells += (long) ((Mtx) vals[i]).rCount * ((Mtx) vals[i]).cCount;
+      } else if (vals[i] != null) {
+        cells++;
+      }
+    }
+    return cells;
+  }
+}
@@ -1,34 +1,34 @@
 package parser;
 
+import java.util.List;
+
+import ast.Assign;
+import ast.Expr;
+import ast.MtxAssign;
+import ast.Stmt;
 import tokens.Tk;
 import tokens.TokenReader;
-import vars.Var;
 
 abstract class VarReader {
   /**
-   * Creates a new var and assigns a value to it   
-   * @return Whether the assignment was successful
+   * Reads an assignment of an expression, or of a matrix typed in on the following lines   
+   * @return The assignment, or null if it is malformed
    */
-  public static Var varAssign() {
+  public static Stmt varAssign() {
     // a
     TokenReader.nextToken();
     String varName = TokenReader.tokenStr();
     // =
     TokenReader.nextToken();
     // cmd?
-    TokenReader.nextToken();
-    Var var = null;
-    if (TokenReader.tk == Tk.EOL) {
-      var = InputReader.readMtxInput(true);
-    } else {
-      TokenReader.prevToken();
-      var = ExprReader.expr();
+    if (TokenReader.peekNextToken() == Tk.EOL) {
+      List<List<Expr>> rows = InputReader.readMtxRows(true);
+      return (rows == null) ? null : new MtxAssign(varName, rows);
     }
-    if (var == null)
+    Expr value = ExprReader.parse();
+    if (value == null || !Parser.endOfStmt())
       return null;
-
-    Parser.setVar(varName, var);
-    return var;
+    return new Assign(varName, value);
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,81 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends statements to a server's session, from the terminal as at the prompt or from a
+ * script file, and prints what comes back
+ * Usage: Client [-p port] [script]
+ */
+public class Client {
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    int port = 7007;
+    String script = null;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-p") && i + 1 < args.length) {
+        port = Integer.parseInt(args[++i]);
+      } else {
+        script = args[i];
+      }
+    }
+    final boolean prompt = script == null;
+    InputStream in = prompt ? System.in : new FileInputStream(script);
+
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+      final BufferedReader replies = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      Thread printer = new Thread(() -> print(replies, prompt), "replies");
+      printer.start();
+
+      PrintWriter to = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+      BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+      String line;
+      while (printer.isAlive() && (line = lines.readLine()) != null) {
+        to.print(line + "\n");
+        to.flush();
+      }
+      to.print("exit\n");
+      to.flush();
+      printer.join();
+    }
+  }
+
+  /**
+   * Prints replies until the session closes, with a prompt after each status line when
+   * reading from the terminal
+   */
+  private static void print(BufferedReader replies, boolean prompt) {
+    try {
+      String line;
+      while ((line = replies.readLine()) != null) {
+        if (!line.startsWith("# ")) {
+          System.out.println(line);
+          continue;
+        }
+        String status = line.substring(2);
+        if (status.equals("bye"))
+          return;
+        if (status.startsWith("evicted") || status.equals("busy")) {
+          System.out.println("Session " + status);
+          return;
+        }
+        if (prompt) {
+          System.out.print(">>> ");
+          System.out.flush();
+        }
+      }
+    } catch (IOException e) {
+      System.out.println("Connection lost: " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import parser.Parser;
+
+/**
+ * Serves sessions to clients on this machine, each running its statements in an
+ * interpreter of its own, so one warm process serves many users
+ * <p>
+ * The server listens on a port of the loopback address only. Each session runs on a
+ * thread of its own with the stack the program runs on, reading its statements from the
+ * connection as the prompt reads them from the terminal (see Session for the replies). A
+ * session that has waited longer than the idle limit for a statement is closed, and once
+ * there are as many sessions as allowed a new one closes whichever has waited longest,
+ * or is turned away with "# busy" if every session is running a statement.
+ * <p>
+ * Sessions are logged to standard error as they open and close, with what they used.
+ * Options changed with set are shared by every session.
+ * Usage: Server [-p port] [-idle seconds] [-max sessions]
+ */
+public final class Server implements Closeable {
+  private final ServerSocket listener;
+  private final long idleLimit;
+  private final int max;
+  /**
+   * The open sessions, by id
+   */
+  private final Map<Integer, Session> sessions = new ConcurrentSkipListMap<>();
+  private final ScheduledExecutorService reaper;
+  private int opened;
+
+  /**
+   * Starts listening
+   * @param port        The port, or 0 for any free one
+   * @param idleSeconds How long a session may wait for a statement before it is closed
+   * @param max         The most sessions open at once
+   * @throws IOException If the port can't be listened on
+   */
+  public Server(int port, int idleSeconds, int max) throws IOException {
+    this.listener = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    this.idleLimit = TimeUnit.SECONDS.toNanos(idleSeconds);
+    this.max = max;
+    this.reaper = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = new Thread(task, "reaper");
+      thread.setDaemon(true);
+      return thread;
+    });
+    reaper.scheduleWithFixedDelay(this::reap, 1, 1, TimeUnit.SECONDS);
+  }
+
+  public static void main(String[] args) throws IOException {
+    int port = 7007, idle = 600, max = 64;
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+      case "-p":
+        port = Integer.parseInt(args[i + 1]);
+        break;
+      case "-idle":
+        idle = Integer.parseInt(args[i + 1]);
+        break;
+      case "-max":
+        max = Integer.parseInt(args[i + 1]);
+        break;
+      default:
+        System.err.println("Usage: Server [-p port] [-idle seconds] [-max sessions]");
+        return;
+      }
+    }
+    Server server = new Server(port, idle, max);
+    System.out.printf("Listening on %s:%d%n", InetAddress.getLoopbackAddress().getHostAddress(), server.port());
+    server.serve();
+  }
+
+  /**
+   * @return The port it listens on
+   */
+  public int port() {
+    return listener.getLocalPort();
+  }
+
+  /**
+   * Accepts connections until the server is closed
+   */
+  public void serve() {
+    while (!listener.isClosed()) {
+      Socket socket;
+      try {
+        socket = listener.accept();
+      } catch (SocketException e) {
+        // Closed
+        break;
+      } catch (IOException e) {
+        System.err.println("Cannot accept a connection: " + e.getMessage());
+        continue;
+      }
+      open(socket);
+    }
+  }
+
+  /**
+   * Accepts connections on a thread of its own
+   */
+  public void start() {
+    Thread thread = new Thread(this::serve, "server");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Starts a session for a connection, if there is room for one
+   */
+  private void open(Socket socket) {
+    if (sessions.size() >= max && !evictIdlest()) {
+      refuse(socket);
+      return;
+    }
+    Session session;
+    try {
+      socket.setTcpNoDelay(true);
+      session = new Session(++opened, this, socket);
+    } catch (IOException e) {
+      System.err.println("Cannot open a session: " + e.getMessage());
+      return;
+    }
+    sessions.put(session.id, session);
+    System.err.printf("session %d opened from %s%n", session.id, socket.getRemoteSocketAddress());
+    new Thread(null, session, "session " + session.id, Parser.STACK).start();
+  }
+
+  private static void refuse(Socket socket) {
+    try {
+      OutputStream out = socket.getOutputStream();
+      out.write("# busy\n".getBytes(StandardCharsets.UTF_8));
+      out.flush();
+      socket.close();
+    } catch (IOException e) {
+      // Gone already
+    }
+  }
+
+  /**
+   * Closes the session that has waited longest for a statement, to make room for another
+   * @return Whether one was closed, which none is if every session is running
+   */
+  private boolean evictIdlest() {
+    Session idlest = null;
+    long longest = 0;
+    for (Session session : sessions.values()) {
+      long idle = session.idle();
+      if (idle > longest) {
+        idlest = session;
+        longest = idle;
+      }
+    }
+    return idlest != null && idlest.evict("for a new session");
+  }
+
+  /**
+   * Closes the sessions that have waited longer than the idle limit
+   */
+  private void reap() {
+    for (Session session : sessions.values()) {
+      if (session.idle() > idleLimit) {
+        session.evict("idle");
+      }
+    }
+  }
+
+  /**
+   * Forgets a session once it has closed
+   */
+  void closed(Session session) {
+    sessions.remove(session.id);
+    System.err.printf("%s, closed%n", session);
+  }
+
+  /**
+   * @return The open sessions, in the order they were opened
+   */
+  List<Session> sessions() {
+    return new ArrayList<>(sessions.values());
+  }
+
+  /**
+   * Stops listening and closes every session
+   */
+  @Override
+  public void close() throws IOException {
+    reaper.shutdownNow();
+    listener.close();
+    for (Session session : sessions.values()) {
+      session.close();
+    }
+  }
+}
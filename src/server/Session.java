@@ -0,0 +1,245 @@
+package server;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+
+import com.sun.management.ThreadMXBean;
+
+import parser.Interpreter;
+import vars.Var;
+
+/**
+ * A connection to the server, running its statements in an interpreter of its own
+ * <p>
+ * Each statement sent, along with the lines of any block or matrix it opens, is answered
+ * with what it printed followed by a status line starting with "# ": "# ok" or "# error".
+ * A line starting with # is a command to the session instead: #stats gives its own
+ * accounting and #sessions that of every session. exit or quit closes it with "# bye".
+ * <p>
+ * The CPU time and the bytes allocated by the session's thread are counted for each
+ * statement, along with the cells its vars hold afterwards. Work a statement hands to
+ * other threads, as large products and parfor loops do, isn't counted.
+ */
+final class Session implements Runnable {
+  private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  final int id;
+  private final Server server;
+  private final Socket socket;
+  private final Replies replies;
+  private final PrintStream out;
+  private final Interpreter interpreter;
+  /**
+   * What it has used so far, which other sessions read for #sessions
+   */
+  private volatile long statements, cpu, allocated, cells;
+  private volatile long lastActive = System.nanoTime();
+  /**
+   * Whether a statement is running, and whether it has been closed
+   */
+  private boolean running, closed;
+  /**
+   * Why it was evicted, or null
+   */
+  private String evicted;
+
+  Session(int id, Server server, Socket socket) throws IOException {
+    this.id = id;
+    this.server = server;
+    this.socket = socket;
+    this.replies = new Replies(new BufferedOutputStream(socket.getOutputStream()));
+    this.out = printer(replies);
+    this.interpreter = new Interpreter(socket.getInputStream(), out);
+  }
+
+  private static PrintStream printer(OutputStream to) {
+    try {
+      return new PrintStream(to, false, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void run() {
+    reply("session " + id);
+    String line;
+    while ((line = interpreter.readLine()) != null) {
+      String cmd = line.trim();
+      if (cmd.equals("exit") || cmd.equals("quit")) {
+        reply("bye");
+        break;
+      }
+      if (!begin())
+        break;
+      try {
+        boolean ok = cmd.startsWith("#") ? command(cmd) : statement(line);
+        reply(ok ? "ok" : "error");
+      } finally {
+        end();
+      }
+    }
+    String reason;
+    synchronized (this) {
+      reason = evicted;
+    }
+    if (reason != null) {
+      reply("evicted " + reason);
+    }
+    close();
+    server.closed(this);
+  }
+
+  /**
+   * Runs a statement, counting what it used
+   * @param line Its first line
+   * @return Whether it ran without an error
+   */
+  private boolean statement(String line) {
+    long thread = Thread.currentThread().getId();
+    long cpuBefore = THREADS.getCurrentThreadCpuTime();
+    long allocatedBefore = THREADS.getThreadAllocatedBytes(thread);
+    Var res;
+    try {
+      res = interpreter.read(line);
+    } catch (RuntimeException | StackOverflowError e) {
+      out.printf("ERROR: %s\n", e);
+      res = null;
+    }
+    statements++;
+    cpu += THREADS.getCurrentThreadCpuTime() - cpuBefore;
+    allocated += THREADS.getThreadAllocatedBytes(thread) - allocatedBefore;
+    cells = interpreter.cells();
+    return res != null;
+  }
+
+  /**
+   * Runs a command to the session
+   * @param cmd The command, starting with #
+   * @return Whether it was known
+   */
+  private boolean command(String cmd) {
+    switch (cmd) {
+    case "#stats":
+      out.println(this);
+      return true;
+    case "#sessions":
+      for (Session session : server.sessions()) {
+        out.println(session);
+      }
+      return true;
+    default:
+      out.printf("ERROR: Unknown command %s\n", cmd);
+      return false;
+    }
+  }
+
+  /**
+   * Marks a statement as running, so it isn't evicted while it runs
+   * @return False if the session has been closed
+   */
+  private synchronized boolean begin() {
+    if (closed)
+      return false;
+    running = true;
+    lastActive = System.nanoTime();
+    return true;
+  }
+
+  private synchronized void end() {
+    running = false;
+    lastActive = System.nanoTime();
+  }
+
+  /**
+   * @return How long it has waited for a statement in nanoseconds, 0 while one is
+   *         running or once it is closing
+   */
+  synchronized long idle() {
+    return (running || closed) ? 0 : System.nanoTime() - lastActive;
+  }
+
+  /**
+   * Closes the session if it isn't running a statement, telling the client why
+   * <p>
+   * Only the read the session waits in is ended here, and its own thread sends the
+   * client "# evicted reason" and closes the connection. The server's threads call this,
+   * and a write to a client that isn't reading could block them.
+   * @param reason Why
+   * @return Whether it was closed
+   */
+  synchronized boolean evict(String reason) {
+    if (running || closed)
+      return false;
+    closed = true;
+    evicted = reason;
+    try {
+      socket.shutdownInput();
+    } catch (IOException e) {
+      close();
+    }
+    return true;
+  }
+
+  synchronized void close() {
+    closed = true;
+    try {
+      socket.close();
+    } catch (IOException e) {
+      // Closed either way
+    }
+  }
+
+  /**
+   * Sends what was printed, then a status line, on a line of its own
+   */
+  private void reply(String status) {
+    if (!replies.atLineStart()) {
+      out.print('\n');
+    }
+    out.print("# " + status + "\n");
+    out.flush();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("session %d: %d statements, %.1f ms cpu, %.1f MB allocated, %d cells held, idle %d s",
+        id, statements, cpu / 1e6, allocated / 1e6, cells, idle() / 1000000000L);
+  }
+
+  /**
+   * The stream replies are written to, which notes whether the last thing written ended
+   * a line
+   */
+  private static final class Replies extends FilterOutputStream {
+    private int last = '\n';
+
+    Replies(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      last = b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      if (len > 0) {
+        last = b[off + len - 1];
+      }
+    }
+
+    boolean atLineStart() {
+      return last == '\n';
+    }
+  }
+}
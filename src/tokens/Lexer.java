@@ -0,0 +1,252 @@
+package tokens;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the token at a position in a line by looking at its characters directly, in one
+ * pass and without any regex matching
+ * <p>
+ * It gives exactly the tokens the patterns in Tk would, taking each in Tk's order, so
+ * quirks such as 2x being an error (there is no word boundary between 2 and x) are kept.
+ * The pattern matcher is kept as nextByRegex so the two can be compared.
+ */
+public abstract class Lexer {
+
+  /**
+   * Finds the token starting at a position
+   * @param line  The line
+   * @param start Where the token starts (past any whitespace)
+   * @return The token, with end set to where it stops
+   */
+  public static ReadToken next(String line, int start) {
+    int len = line.length();
+    if (start == len)
+      return token(Tk.EOL, line, start, start);
+    char c = line.charAt(start);
+    char next = (start + 1 < len) ? line.charAt(start + 1) : 0;
+    switch (c) {
+    case '(':
+      return token(Tk.LPAREN, line, start, start + 1);
+    case ')':
+      return token(Tk.RPAREN, line, start, start + 1);
+    case '=':
+      return token(Tk.ASSIGNMENT_OP, line, start, start + 1);
+    case '[':
+      return token(Tk.LBRACKET, line, start, start + 1);
+    case ']':
+      return token(Tk.RBRACKET, line, start, start + 1);
+    case ',':
+      return token(Tk.COMMA, line, start, start + 1);
+    case ':':
+      return token(Tk.COLON, line, start, start + 1);
+    case '\'':
+      return token(Tk.TRANSPOSE_OP, line, start, start + 1);
+    case '^':
+      return token(Tk.EXP_OP, line, start, start + 1);
+    case '*':
+      return token(Tk.MULT_OP, line, start, start + 1);
+    case '/':
+      return token(Tk.DIV_OP, line, start, start + 1);
+    case '+':
+      return token(Tk.ADD_OP, line, start, start + 1);
+    case '!':
+      return token(Tk.NOT_OP, line, start, start + 1);
+    case '-':
+      return (next == '>') ? token(Tk.ARROW, line, start, start + 2) : token(Tk.SUB_OP, line, start, start + 1);
+    case '<':
+      return (next == '=') ? token(Tk.LESS_OR_EQUAL, line, start, start + 2)
+          : token(Tk.LESSER_OP, line, start, start + 1);
+    case '>':
+      return (next == '=') ? token(Tk.GREAT_OR_EQUAL, line, start, start + 2)
+          : token(Tk.GREATER_OP, line, start, start + 1);
+    case '&':
+      return (next == '&') ? token(Tk.AND_OP, line, start, start + 2) : error(line, start);
+    case '|':
+      return (next == '|') ? token(Tk.OR_OP, line, start, start + 2) : error(line, start);
+    default:
+      if (isDigit(c) || c == '.')
+        return number(line, start);
+      if (isWordStart(c))
+        return word(line, start);
+      return error(line, start);
+    }
+  }
+
+  /**
+   * A number: digits, an optional fraction, and an optional exponent
+   */
+  private static ReadToken number(String line, int start) {
+    int len = line.length();
+    int end = start;
+    while (end < len && isDigit(line.charAt(end)))
+      end++;
+    if (end + 1 < len && line.charAt(end) == '.' && isDigit(line.charAt(end + 1))) {
+      end += 2;
+      while (end < len && isDigit(line.charAt(end)))
+        end++;
+    } else if (end == start) {
+      // A '.' without a digit after it
+      return error(line, start);
+    }
+    if (end < len && (line.charAt(end) == 'e' || line.charAt(end) == 'E')) {
+      int exp = end + 1;
+      if (exp < len && (line.charAt(exp) == '+' || line.charAt(exp) == '-'))
+        exp++;
+      if (exp < len && isDigit(line.charAt(exp))) {
+        while (exp < len && isDigit(line.charAt(exp)))
+          exp++;
+        end = exp;
+      }
+    }
+    return token(Tk.NUM_LIT, line, start, end);
+  }
+
+  /**
+   * A keyword, True or False, or the name of a function or variable
+   */
+  private static ReadToken word(String line, int start) {
+    int len = line.length();
+    // Every word pattern starts and ends at a word boundary
+    if (start > 0 && isWord(line.charAt(start - 1)))
+      return error(line, start);
+    int end = start + 1;
+    while (end < len && isWordPart(line.charAt(end)))
+      end++;
+    if (end < len && isWord(line.charAt(end)))
+      return error(line, start);
+    Tk keyword = keyword(line, start, end);
+    if (keyword != null)
+      return token(keyword, line, start, end);
+    if (end < len && line.charAt(end) == '(')
+      return token(Tk.CALL_NAME, line, start, end);
+    return token(Tk.VAR_NAME, line, start, end);
+  }
+
+  /**
+   * The keyword a word is, if any
+   */
+  private static Tk keyword(String line, int start, int end) {
+    switch (line.substring(start, end)) {
+    case "if":
+      return Tk.IF;
+    case "for":
+      return Tk.FOR;
+    case "parfor":
+      return Tk.PARFOR;
+    case "in":
+      return Tk.IN;
+    case "by":
+      return Tk.BY;
+    case "while":
+      return Tk.WHILE;
+    case "def":
+      return Tk.DEF;
+    case "return":
+      return Tk.RETURN;
+    case "else":
+      return Tk.ELSE;
+    case "end":
+      return Tk.END;
+    case "mode":
+      return Tk.MODE;
+    case "set":
+      return Tk.SET;
+    case "load":
+      return Tk.LOAD;
+    case "explain":
+      return Tk.EXPLAIN;
+    case "True":
+      return Tk.TRUE;
+    case "False":
+      return Tk.FALSE;
+    default:
+      return null;
+    }
+  }
+
+  /**
+   * An error token, which runs up to the next space or parenthesis
+   */
+  private static ReadToken error(String line, int start) {
+    int end = start;
+    while (end < line.length() && line.charAt(end) != ' ' && line.charAt(end) != '(' && line.charAt(end) != ')') {
+      end++;
+    }
+    return token(Tk.ERROR, line, start, end);
+  }
+
+  private static ReadToken token(Tk tk, String line, int start, int end) {
+    ReadToken token = (tk == Tk.EOL) ? new ReadToken(tk) : new ReadToken(tk, line.substring(start, end));
+    token.end = end;
+    return token;
+  }
+
+  /**
+   * A digit as \d matches it
+   */
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  /**
+   * A character that can start a name
+   */
+  private static boolean isWordStart(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+  }
+
+  /**
+   * A character as \w matches it
+   */
+  private static boolean isWordPart(char c) {
+    return isWordStart(c) || isDigit(c);
+  }
+
+  /**
+   * A character on the word side of a \b boundary, which unlike \w includes any letter
+   * or digit
+   */
+  private static boolean isWord(char c) {
+    return c == '_' || Character.isLetterOrDigit(c);
+  }
+
+  /**
+   * Finds the token starting at a position the way TokenReader used to, trying each
+   * token's pattern in Tk's order
+   * @param line  The line
+   * @param start Where the token starts (past any whitespace)
+   * @return The token, with end set to where it stops
+   */
+  public static ReadToken nextByRegex(String line, int start) {
+    if (start == line.length())
+      return token(Tk.EOL, line, start, start);
+    for (Tk token : Tk.values()) {
+      // Finds the next occurrence of a token
+      int[] idx = token.find(line, start);
+      // Only accepts the match if it was found at the current line index
+      if (idx != null && idx[0] == start) {
+        return token(token, line, idx[0], idx[1]);
+      }
+    }
+    return error(line, start);
+  }
+
+  /**
+   * Splits a whole line into tokens, skipping whitespace as TokenReader does
+   * @param line     The line
+   * @param useRegex Whether to use nextByRegex instead of next
+   * @return The tokens, ending with EOL
+   */
+  public static List<ReadToken> tokenize(String line, boolean useRegex) {
+    List<ReadToken> tokens = new ArrayList<>();
+    int idx = TokenReader.skipWhitespace(line, 0);
+    while (true) {
+      ReadToken token = useRegex ? nextByRegex(line, idx) : next(line, idx);
+      tokens.add(token);
+      if (token.token == Tk.EOL)
+        return tokens;
+      idx = TokenReader.skipWhitespace(line, token.end);
+    }
+  }
+}
@@ -9,6 +9,10 @@ public class ReadToken {
    * The string of the token (can be null)
    */
   private String tokenStr;
+  /**
+   * Where in the line the token stops
+   */
+  int end;
 
   public ReadToken(Tk token) {
     this.token = token;
@@ -17,7 +21,7 @@ public class ReadToken {
   public ReadToken(Tk token, String tokenStr) {
     this(token);
     // Tokens with custom naming
-    if (token == Tk.ERROR || token == Tk.VAR_NAME || token == Tk.NUM_LIT) {
+    if (token == Tk.ERROR || token == Tk.VAR_NAME || token == Tk.CALL_NAME || token == Tk.NUM_LIT) {
       this.tokenStr = tokenStr;
     }
   }
@@ -15,17 +15,23 @@ public enum Tk implements Comparable<Tk> {
   LPAREN(1, "\\("), RPAREN(1, "\\)"), ASSIGNMENT_OP(1, "="), LBRACKET(1, "\\["), RBRACKET(1, "\\]"), COMMA(1, "\\,"),
   ARROW(1, "\\-\\>"), COLON(1, "\\:"),
   // PRIORITY 1: Keywords
-  IF(1, "\\b(?:if)\\b"), FOR(1, "\\b(?:for)\\b"), IN(1, "\\b(?:in)\\b"), BY(1, "\\b(?:by)\\b"),
-  WHILE(1, "\\b(?:while)\\b"), DEF(1, "\\b(?:def)\\b"), RETURN(1, "\\b(?:return)\\b"),
-  // PRIORITY 10-15: Math operators
-  EXP_OP(10, "\\^"), MULT_OP(11, "\\*"), DIV_OP(12, "\\/"), ADD_OP(13, "\\+"), SUB_OP(14, "\\-"),
+  IF(1, "\\b(?:if)\\b"), FOR(1, "\\b(?:for)\\b"), PARFOR(1, "\\b(?:parfor)\\b"), IN(1, "\\b(?:in)\\b"), BY(1, "\\b(?:by)\\b"),
+  WHILE(1, "\\b(?:while)\\b"), DEF(1, "\\b(?:def)\\b"), RETURN(1, "\\b(?:return)\\b"), ELSE(1, "\\b(?:else)\\b"),
+  END(1, "\\b(?:end)\\b"),
+  // PRIORITY 1: Commands
+  MODE(1, "\\b(?:mode)\\b"), SET(1, "\\b(?:set)\\b"), LOAD(1, "\\b(?:load)\\b"),
+  EXPLAIN(1, "\\b(?:explain)\\b"),
+  // PRIORITY 10-15: Math operators, with a - sign on the base of a power (NEG_OP, never read
+  // on its own) between ^ and *
+  TRANSPOSE_OP(10, "\\'"), EXP_OP(10, "\\^"), NEG_OP(11, null), MULT_OP(12, "\\*"), DIV_OP(13, "\\/"),
+  ADD_OP(14, "\\+"), SUB_OP(15, "\\-"),
   // PRIORITY 16: Boolean operators
   LESS_OR_EQUAL(16, "\\<\\="), GREAT_OR_EQUAL(16, "\\>\\="), GREATER_OP(17, "\\>"), LESSER_OP(17, "\\<"),
   EQUAL_OP(17, null), AND_OP(18, "\\&\\&"), OR_OP(19, "\\|\\|"), NOT_OP(20, "\\!"),
   // PRIORITY 30+: Literals
   TRUE(30, "\\b(?:True)\\b"), FALSE(30, "\\b(?:False)\\b"),
   // PRIORITY 50+: User defined symbols
-  VAR_NAME(50, "\\b(?:[A-Za-z_]\\w*\\b)(?!\\()"), NUM_LIT(51, "(?:\\d+)?(?:\\.?\\d+)(?:[Ee][+-]?\\d+)?");
+  CALL_NAME(50, "\\b[A-Za-z_]\\w*(?=\\()"), VAR_NAME(50, "\\b(?:[A-Za-z_]\\w*\\b)(?!\\()"), NUM_LIT(51, "(?:\\d+)?(?:\\.?\\d+)(?:[Ee][+-]?\\d+)?");
 
   /**
    * The order of priority for tokens
@@ -84,7 +90,7 @@ public enum Tk implements Comparable<Tk> {
   }
 
   public static boolean isOp(Tk tk) {
-    return (isMathOp(tk) || isBoolOp(tk));
+    return (isMathOp(tk) || isBoolOp(tk) || tk == Tk.NEG_OP);
   }
 
   public static boolean isParen(Tk tk) {
@@ -92,11 +98,16 @@ public enum Tk implements Comparable<Tk> {
   }
 
   public static boolean isExprTk(Tk tk) {
-    return (isMathOp(tk) || isBoolOp(tk) || isParen(tk) || tk == Tk.NUM_LIT || tk == Tk.VAR_NAME);
+    return (isMathOp(tk) || isBoolOp(tk) || isParen(tk) || tk == Tk.NUM_LIT || tk == Tk.VAR_NAME
+        || tk == Tk.TRANSPOSE_OP || tk == Tk.LBRACKET || tk == Tk.CALL_NAME);
   }
 
   public static boolean isControlTk(Tk tk) {
-    return (tk == Tk.IF || tk == Tk.WHILE || tk == Tk.FOR || tk == Tk.DEF);
+    return (tk == Tk.IF || tk == Tk.WHILE || tk == Tk.FOR || tk == Tk.PARFOR || tk == Tk.DEF);
+  }
+
+  public static boolean isCommandTk(Tk tk) {
+    return (tk == Tk.MODE || tk == Tk.SET || tk == Tk.LOAD || tk == Tk.EXPLAIN);
   }
 
   /**
@@ -125,12 +136,18 @@ public enum Tk implements Comparable<Tk> {
       return "ERROR";
     case EXP_OP:
       return "^ operator";
+    case NEG_OP:
+      return "- sign";
+    case TRANSPOSE_OP:
+      return "' (transpose) operator";
     case LBRACKET:
       return "left bracket";
     case LPAREN:
       return "left parantheses";
     case VAR_NAME:
       return "variable name";
+    case CALL_NAME:
+      return "function name";
     case MULT_OP:
       return "* operator";
     case NUM_LIT:
@@ -149,6 +166,8 @@ public enum Tk implements Comparable<Tk> {
       return "= operator";
     case FOR:
       return "'for' command";
+    case PARFOR:
+      return "'parfor' command";
     case GREATER_OP:
       return "> operator";
     case GREAT_OR_EQUAL:
@@ -175,6 +194,18 @@ public enum Tk implements Comparable<Tk> {
       return "'def' command";
     case RETURN:
       return "return";
+    case ELSE:
+      return "'else'";
+    case END:
+      return "'end'";
+    case MODE:
+      return "'mode' command";
+    case SET:
+      return "'set' command";
+    case LOAD:
+      return "'load' command";
+    case EXPLAIN:
+      return "'explain' command";
     default:
       return null;
     }
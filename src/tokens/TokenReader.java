@@ -2,44 +2,80 @@ package tokens;
 
 import java.util.ArrayList;
 
-public abstract class TokenReader {
+/**
+ * Reads the tokens of a line for the parser
+ * <p>
+ * Each interpreter has its own reader, which its thread reads through while it runs (see
+ * use); threads that haven't been given one share none, and each get their own.
+ */
+public final class TokenReader {
+  /**
+   * The reader this thread reads through
+   */
+  private static final ThreadLocal<TokenReader> bound = ThreadLocal.withInitial(TokenReader::new);
+
   /**
    * The current token
    */
-  public static Tk tk;
+  private Tk tk;
   /**
    * Where in the list of tokens are we
    */
-  private static int tkHstIdx;
+  private int tkHstIdx;
   /**
    * The current line the parser is interpreting
    */
-  private static String currentLine;
+  private String currentLine;
   /**
    * The current index in the line being parsed
    */
-  private static int lineIdx;
+  private int lineIdx;
   /**
    * The history of tokens that have been read
    */
-  static ArrayList<ReadToken> tkHst = new ArrayList<>();
+  private final ArrayList<ReadToken> tkHst = new ArrayList<>();
+
+  /**
+   * Makes this thread read through a reader   
+   * @param reader The reader
+   * @return The reader this thread read through before
+   */
+  public static TokenReader use(TokenReader reader) {
+    TokenReader before = bound.get();
+    bound.set(reader);
+    return before;
+  }
+
+  /**
+   * @return The current token
+   */
+  public static Tk tk() {
+    return bound.get().tk;
+  }
 
   /**
    * Reads in a new line from the parser   
    * @param input The input line
    */
   public static void readLine(String input) {
-    currentLine = input;
-    lineIdx = 0;
-    tkHstIdx = 0;
-    tk = null;
-    tkHst.clear();
+    TokenReader r = bound.get();
+    r.currentLine = input;
+    r.lineIdx = 0;
+    r.tkHstIdx = 0;
+    r.tk = null;
+    r.tkHst.clear();
+    // Skips indentation
+    r.advanceWhitespace();
   }
 
   /**
    * Attempts to find the next token closest to the current line index
    */
   public static void nextToken() {
+    bound.get().next();
+  }
+
+  private void next() {
     if (tk != null && tk == Tk.EOL) {
       // Clears the current line from memory
       currentLine = null;
@@ -64,9 +100,10 @@ public abstract class TokenReader {
    * @return The next token
    */
   public static Tk peekNextToken() {
-    nextToken();
-    Tk next = tk;
-    prevToken();
+    TokenReader r = bound.get();
+    r.next();
+    Tk next = r.tk;
+    r.prev();
     return next;
   }
 
@@ -74,6 +111,10 @@ public abstract class TokenReader {
    * Moves the current token BACK
    */
   public static void prevToken() {
+    bound.get().prev();
+  }
+
+  private void prev() {
     // At least 2 tokens present
     if (tkHstIdx >= 2) {
       // Token history is 1 ahead of current token
@@ -92,50 +133,20 @@ public abstract class TokenReader {
    * Restarts the reader at the beginning of the line
    */
   public static void restartLine() {
-    tk = null;
-    tkHstIdx = 0;
+    TokenReader r = bound.get();
+    r.tk = null;
+    r.tkHstIdx = 0;
   }
 
   /**
-   * Attempts to match the next token closest to the current line index
+   * Reads the token at the current line index
    */
-  private static void matchNextToken() {
-    if (lineIdx == currentLine.length()) {
-      // Add EOL token to history
-      tkHst.add(new ReadToken(Tk.EOL));
-      // Return
-      return;
-    }
-
-    boolean found = false;
-    for (Tk token : Tk.values()) {
-
-      // Finds the next occurrence of a token
-      int[] idx = token.find(currentLine, lineIdx);
-
-      // Only accepts the match if it was found at the current line index
-      if (idx != null && idx[0] == lineIdx) {
-        // Get the token string
-        String tokenStr = currentLine.substring(idx[0], idx[1]);
-        // Add token to history
-        tkHst.add(new ReadToken(token, tokenStr));
-        // Moves the line index forward
-        lineIdx = idx[1];
-        // Mark that we found a token
-        found = true;
-        // Return
-        break;
-      } else {
-        continue;
-      }
-    }
-    if (found == false) {
-      // Attempts to read the error causing token
-      String errorToken = currentLine.substring(lineIdx, endOfErrorToken());
-      // Adds the error token to the history
-      tkHst.add(new ReadToken(Tk.ERROR, errorToken));
-      return;
-    }
+  private void matchNextToken() {
+    ReadToken token = Lexer.next(currentLine, lineIdx);
+    // Add token to history
+    tkHst.add(token);
+    // Moves the line index forward
+    lineIdx = token.end;
   }
 
   /**
@@ -143,28 +154,39 @@ public abstract class TokenReader {
    * @return The string of the current token
    */
   public static String tokenStr() {
-    return tkHst.get(tkHstIdx - 1).tokenStr();
+    TokenReader r = bound.get();
+    return r.tkHst.get(r.tkHstIdx - 1).tokenStr();
+  }
+
+  /**
+   * Consumes the rest of the current line as raw text, for arguments such as file
+   * paths that aren't made of tokens   
+   * @return The rest of the line without surrounding whitespace
+   */
+  public static String restOfLine() {
+    TokenReader r = bound.get();
+    String rest = r.currentLine.substring(r.lineIdx).trim();
+    r.lineIdx = r.currentLine.length();
+    return rest;
   }
 
   /**
    * Advances past whitespace in the current line
    */
-  private static void advanceWhitespace() {
-    while (lineIdx < currentLine.length() && currentLine.charAt(lineIdx) == ' ') {
-      lineIdx++;
-    }
+  private void advanceWhitespace() {
+    lineIdx = skipWhitespace(currentLine, lineIdx);
   }
 
   /**
-   * Attempts to find the end of an error causing token   
-   * @return The ending index of the error causing token
+   * Finds the end of any whitespace at a position in a line
+   * @param line The line
+   * @param idx  The position
+   * @return The first position from idx that isn't whitespace
    */
-  private static int endOfErrorToken() {
-    int errorEndIdx = lineIdx;
-    while (errorEndIdx < currentLine.length() && currentLine.charAt(errorEndIdx) != ' '
-        && currentLine.charAt(errorEndIdx) != '(' && currentLine.charAt(errorEndIdx) != ')') {
-      errorEndIdx++;
+  static int skipWhitespace(String line, int idx) {
+    while (idx < line.length() && Character.isWhitespace(line.charAt(idx))) {
+      idx++;
     }
-    return errorEndIdx;
+    return idx;
   }
 }
@@ -0,0 +1,58 @@
+package vars.mtx;
+
+import java.util.Arrays;
+
+import vars.scl.Scl;
+
+/**
+ * A square matrix that is zero outside a band of diagonals, storing only the band
+ *
+ */
+public class BandMtx extends StructMtx {
+  /**
+   * The lower and upper bandwidths
+   */
+  private final int kl, ku;
+  /**
+   * The band, row after row, kl + ku + 1 cells per row (cells that would fall outside
+   * the matrix are never used)
+   */
+  private final Scl[] cells;
+
+  /**
+   * Instantiates a banded matrix of zeros
+   * @param n  The size
+   * @param kl The number of diagonals below the main diagonal
+   * @param ku The number of diagonals above the main diagonal
+   */
+  public BandMtx(int n, int kl, int ku) {
+    super(n);
+    this.kl = kl;
+    this.ku = ku;
+    this.cells = new Scl[n * (kl + ku + 1)];
+    Arrays.fill(cells, Scl.ZERO);
+  }
+
+  @Override
+  public int lower() {
+    return kl;
+  }
+
+  @Override
+  public int upper() {
+    return ku;
+  }
+
+  @Override
+  public Scl get(int row, int col) {
+    if (!boundsCheck(row, col)) {
+      return null;
+    }
+    return inBand(row, col) ? cells[row * (kl + ku + 1) + (col - row + kl)] : Scl.ZERO;
+  }
+
+  @Override
+  void setInBand(int row, int col, Scl s) {
+    cells[row * (kl + ku + 1) + (col - row + kl)] = s;
+  }
+}
@@ -0,0 +1,85 @@
+package vars.mtx;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of the double arrays used as temporaries, kept in buckets by length
+ * <p>
+ * A loop multiplies matrices of the same sizes pass after pass, so the tiles Gemm packs
+ * its operands into and works in are the same lengths every time. Taking them from here
+ * and giving them back once the product is done reuses them instead of leaving them to
+ * the garbage collector. Arrays are zeroed when taken, like new ones. Only arrays whose
+ * use has ended can be given back, never one a matrix still holds.
+ */
+public abstract class Buffers {
+  /**
+   * The most doubles the pool holds across all its buckets (set pool_capacity)
+   */
+  public static int capacity = 1 << 22;
+
+  private static final Map<Integer, ArrayDeque<double[]>> free = new HashMap<>();
+  private static long held, reused, allocated;
+
+  /**
+   * Takes a zeroed array from the pool, or makes one if the pool has none that long
+   * @param length The length
+   * @return The array
+   */
+  static double[] take(int length) {
+    double[] buf = null;
+    synchronized (free) {
+      ArrayDeque<double[]> bucket = free.get(length);
+      if (bucket != null && !bucket.isEmpty()) {
+        buf = bucket.pop();
+        held -= length;
+        reused++;
+      } else {
+        allocated++;
+      }
+    }
+    if (buf == null)
+      return new double[length];
+    Arrays.fill(buf, 0);
+    return buf;
+  }
+
+  /**
+   * Gives an array back to the pool, which drops it if the pool is full
+   * @param buf The array, which mustn't be used again
+   */
+  static void give(double[] buf) {
+    synchronized (free) {
+      if (held + buf.length > capacity)
+        return;
+      ArrayDeque<double[]> bucket = free.get(buf.length);
+      if (bucket == null) {
+        bucket = new ArrayDeque<>();
+        free.put(buf.length, bucket);
+      }
+      bucket.push(buf);
+      held += buf.length;
+    }
+  }
+
+  /**
+   * Empties the pool
+   */
+  public static void clear() {
+    synchronized (free) {
+      free.clear();
+      held = 0;
+    }
+  }
+
+  /**
+   * @return How much the pool holds and how often it was used
+   */
+  public static String stats() {
+    synchronized (free) {
+      return String.format("%d doubles held, %d reused, %d allocated", held, reused, allocated);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+package vars.mtx;
+
+import java.util.Arrays;
+
+import vars.scl.Scl;
+
+/**
+ * A square matrix that is zero outside its diagonal, storing only the diagonal
+ *
+ */
+public class DiagMtx extends StructMtx {
+  /**
+   * The diagonal
+   */
+  private final Scl[] diag;
+
+  /**
+   * Instantiates a diagonal matrix of zeros
+   * @param n The size
+   */
+  public DiagMtx(int n) {
+    super(n);
+    this.diag = new Scl[n];
+    Arrays.fill(diag, Scl.ZERO);
+  }
+
+  /**
+   * Instantiates a diagonal matrix from its diagonal
+   * @param diag The diagonal (not copied)
+   */
+  public DiagMtx(Scl[] diag) {
+    super(diag.length);
+    this.diag = diag;
+  }
+
+  @Override
+  public int lower() {
+    return 0;
+  }
+
+  @Override
+  public int upper() {
+    return 0;
+  }
+
+  @Override
+  public Scl get(int row, int col) {
+    if (!boundsCheck(row, col)) {
+      return null;
+    }
+    return (row == col) ? diag[row] : Scl.ZERO;
+  }
+
+  @Override
+  void setInBand(int row, int col, Scl s) {
+    diag[row] = s;
+  }
+}
@@ -0,0 +1,266 @@
+package vars.mtx;
+
+import vars.scl.Scl;
+
+/**
+ * A dense matrix stored as a flat row-major array of doubles
+ *
+ */
+public class DoubleMtx extends Mtx {
+  /**
+   * The cells of the matrix, row after row
+   */
+  final double[] data;
+
+  /**
+   * Instantiates a new matrix of zeros
+   * @param rCount # of rows
+   * @param cCount # of cols
+   */
+  public DoubleMtx(int rCount, int cCount) {
+    this(rCount, cCount, new double[rCount * cCount]);
+  }
+
+  /**
+   * Instantiates a new matrix from rows of scalars
+   * @param rows The rows
+   */
+  public DoubleMtx(Scl[][] rows) {
+    this(rows.length, rows[0].length);
+    for (int r = 0; r < rCount; r++) {
+      for (int c = 0; c < cCount; c++) {
+        data[r * cCount + c] = rows[r][c].doubleValue();
+      }
+    }
+  }
+
+  /**
+   * Instantiates a new double matrix as a copy of an existing matrix
+   * @param other The other matrix
+   */
+  public DoubleMtx(Mtx other) {
+    this(other.rCount, other.cCount);
+    // Cells already stored as doubles are copied as they are, infinities and NaN included
+    Layout l = layout(other);
+    for (int r = 0; r < rCount; r++) {
+      for (int c = 0; c < cCount; c++) {
+        data[r * cCount + c] = (l != null) ? l.data[l.offset + r * l.rowStride + c * l.colStride]
+            : other.get(r, c).doubleValue();
+      }
+    }
+  }
+
+  /**
+   * Wraps an existing row-major array without copying it
+   * @param rCount # of rows
+   * @param cCount # of cols
+   * @param data   The cells
+   */
+  public DoubleMtx(int rCount, int cCount, double[] data) {
+    super(rCount, cCount);
+    this.data = data;
+  }
+
+  /**
+   * Returns the matrix itself if it is already a double matrix, otherwise a double
+   * copy of it
+   * @param m The matrix
+   * @return The double matrix
+   */
+  static DoubleMtx of(Mtx m) {
+    if (m instanceof DoubleMtx) {
+      return (DoubleMtx) m;
+    }
+    return new DoubleMtx(m);
+  }
+
+  /**
+   * Where a double-backed matrix (or a view of one) keeps its cells: cell (r, c) is
+   * data[offset + r * rowStride + c * colStride]
+   */
+  static final class Layout {
+    final double[] data;
+    final int offset, rowStride, colStride;
+
+    Layout(double[] data, int offset, int rowStride, int colStride) {
+      this.data = data;
+      this.offset = offset;
+      this.rowStride = rowStride;
+      this.colStride = colStride;
+    }
+  }
+
+  /**
+   * Finds the layout of a matrix, looking through transposes and blocks
+   * @param m The matrix
+   * @return The layout, or null if the matrix isn't stored as doubles
+   */
+  static Layout layout(Mtx m) {
+    if (m instanceof DoubleMtx) {
+      return new Layout(((DoubleMtx) m).data, 0, m.cCount, 1);
+    } else if (m instanceof TransMtx) {
+      Layout p = layout(((TransMtx) m).parent);
+      return (p == null) ? null : new Layout(p.data, p.offset, p.colStride, p.rowStride);
+    } else if (m instanceof SubMtx) {
+      SubMtx sub = (SubMtx) m;
+      Layout p = layout(sub.parent);
+      return (p == null) ? null
+          : new Layout(p.data, p.offset + sub.rOffset * p.rowStride + sub.cOffset * p.colStride, p.rowStride,
+              p.colStride);
+    }
+    return null;
+  }
+
+  /**
+   * Whether every cell of a matrix is a finite number, which those of a double-backed one
+   * aren't once a float result overflows or is undefined
+   * @param m The matrix
+   * @return True if it holds no infinity or NaN
+   */
+  public static boolean finite(Mtx m) {
+    Layout l = layout(m);
+    if (l == null)
+      return true;
+    for (int r = 0; r < m.rCount; r++) {
+      for (int c = 0; c < m.cCount; c++) {
+        if (!Double.isFinite(l.data[l.offset + r * l.rowStride + c * l.colStride]))
+          return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Finds the layout of a matrix, copying it into doubles if it isn't stored as doubles
+   * @param m The matrix
+   * @return The layout
+   */
+  static Layout layoutOrCopy(Mtx m) {
+    Layout layout = layout(m);
+    return (layout != null) ? layout : layout(new DoubleMtx(m));
+  }
+
+  @Override
+  public boolean isFloat() {
+    return true;
+  }
+
+  @Override
+  public Scl get(int row, int col) {
+    if (boundsCheck(row, col)) {
+      return Scl.of(data[row * cCount + col]);
+    }
+    return null;
+  }
+
+  @Override
+  public Mtx set(int row, int col, Scl s) {
+    if (boundsCheck(row, col)) {
+      data[row * cCount + col] = s.doubleValue();
+      factors = null;
+      return this;
+    }
+    return null;
+  }
+
+  /**
+   * Copies one row of the matrix into an array
+   * @param row The row
+   * @param out The array (at least cCount long)
+   */
+  public void copyRow(int row, double[] out) {
+    System.arraycopy(data, row * cCount, out, 0, cCount);
+  }
+
+  /**
+   * Overwrites one row of the matrix
+   * @param row The row
+   * @param in  The new cells (at least cCount long)
+   */
+  public void setRow(int row, double[] in) {
+    System.arraycopy(in, 0, data, row * cCount, cCount);
+    factors = null;
+  }
+
+  /**
+   * Adds two double matrices of the same dimensions
+   * @param a The first matrix
+   * @param b The second matrix
+   * @return The sum
+   */
+  static DoubleMtx add(DoubleMtx a, DoubleMtx b) {
+    double[] res = new double[a.data.length];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = a.data[i] + b.data[i];
+    }
+    return new DoubleMtx(a.rCount, a.cCount, res);
+  }
+
+  /**
+   * Subtracts two double matrices of the same dimensions
+   * @param a The first matrix
+   * @param b The second matrix
+   * @return a - b
+   */
+  static DoubleMtx sub(DoubleMtx a, DoubleMtx b) {
+    double[] res = new double[a.data.length];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = a.data[i] - b.data[i];
+    }
+    return new DoubleMtx(a.rCount, a.cCount, res);
+  }
+
+  /**
+   * Scales a double matrix
+   * @param s The scale factor
+   * @param m The matrix
+   * @return The scaled matrix
+   */
+  static DoubleMtx scale(double s, DoubleMtx m) {
+    double[] res = new double[m.data.length];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = m.data[i] * s;
+    }
+    return new DoubleMtx(m.rCount, m.cCount, res);
+  }
+
+  /**
+   * Negates a double matrix
+   * @param m The matrix
+   * @return The negated matrix
+   */
+  static DoubleMtx neg(DoubleMtx m) {
+    double[] res = new double[m.data.length];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = -m.data[i];
+    }
+    return new DoubleMtx(m.rCount, m.cCount, res);
+  }
+
+  /**
+   * Multiplies two matrices whose inner dimensions match in double precision, reading
+   * transposes and blocks of double matrices in place
+   * @param a Matrix A
+   * @param b Matrix B
+   * @return a * b
+   */
+  static DoubleMtx mult(Mtx a, Mtx b) {
+    int n = a.rCount, m = a.cCount, p = b.cCount;
+    Layout la = layoutOrCopy(a), lb = layoutOrCopy(b);
+    double[] ad = la.data, bd = lb.data;
+    double[] res = new double[n * p];
+    // i-k-j order walks both b and the result along their rows
+    for (int i = 0; i < n; i++) {
+      for (int k = 0; k < m; k++) {
+        double aik = ad[la.offset + i * la.rowStride + k * la.colStride];
+        if (aik == 0.0)
+          continue;
+        int bk = lb.offset + k * lb.rowStride;
+        for (int j = 0; j < p; j++) {
+          res[i * p + j] += aik * bd[bk + j * lb.colStride];
+        }
+      }
+    }
+    return new DoubleMtx(n, p, res);
+  }
+}
@@ -34,6 +34,16 @@ public class FullMtx extends Mtx {
     }
   }
 
+  /**
+   * Overwrites one row of the matrix   
+   * @param row The row
+   * @param in  The new cells (at least cCount long)
+   */
+  public void setRow(int row, Scl[] in) {
+    System.arraycopy(in, 0, rows[row], 0, cCount);
+    factors = null;
+  }
+
   @Override
   public Scl get(int row, int col) {
     if (boundsCheck(row, col)) {
@@ -46,6 +56,7 @@ public class FullMtx extends Mtx {
   public Mtx set(int row, int col, Scl s) {
     if (boundsCheck(row, col)) {
       this.rows[row][col] = s;
+      factors = null;
       return this;
     }
     return null;
@@ -0,0 +1,252 @@
+package vars.mtx;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import io.Output;
+import vars.scl.Scl;
+
+/**
+ * Cache-blocked, fork-join parallel matrix multiplication
+ * <p>
+ * Both operands are packed into square tiles padded with zeros, then every tile of the
+ * result is computed as an independent task. Each cell still sums its products in
+ * increasing order, so exact results are identical to the naive loop.
+ */
+public abstract class Gemm {
+  /**
+   * Products with fewer than threshold^3 multiplications use the naive loop
+   */
+  public static int threshold = 64;
+  /**
+   * The side length of a tile, a multiple of 4 as the float kernel works on four rows at
+   * a time (set rounds it up)
+   */
+  public static int tile = 64;
+
+  /**
+   * Whether a product is large enough to be worth blocking
+   * @param a Matrix A
+   * @param b Matrix B
+   * @return True or false
+   */
+  static boolean useBlocked(Mtx a, Mtx b) {
+    // In doubles, as the cube of a threshold of 2097152 or more overflows a long
+    double work = (double) a.rCount * a.cCount * b.cCount;
+    return work >= (double) threshold * threshold * threshold;
+  }
+
+  /**
+   * Prints which multiplication path was taken
+   * @param path The name of the path
+   * @param a    Matrix A
+   * @param b    Matrix B
+   */
+  static void report(String path, Mtx a, Mtx b) {
+    Output.printf("MULT %dx%d * %dx%d: %s\n", a.rCount, a.cCount, b.rCount, b.cCount, path);
+  }
+
+  /**
+   * Multiplies two matrices whose inner dimensions match using the blocked kernel
+   * @param a Matrix A
+   * @param b Matrix B
+   * @param report Whether to print the path taken
+   * @return a * b
+   */
+  static Mtx mult(Mtx a, Mtx b, boolean report) {
+    // Read once, so the packing and the kernel agree on it if set changes it meanwhile
+    int t = tile;
+    String tiles = String.format("%dx%d tiles, %d threads", t, t, ForkJoinPool.commonPool().getParallelism());
+    if (Mtx.isFloat(a, b)) {
+      if (report)
+        report("blocked parallel (float, " + tiles + ")", a, b);
+      return multDouble(a, b, t);
+    }
+    if (report)
+      report("blocked parallel (exact, " + tiles + ")", a, b);
+    return multExact(a, b, t);
+  }
+
+  /**
+   * Blocked multiplication on doubles
+   */
+  private static DoubleMtx multDouble(Mtx a, Mtx b, final int t) {
+    final int n = a.rCount, p = b.cCount;
+    final int rowTiles = tiles(a.rCount, t), innerTiles = tiles(a.cCount, t), colTiles = tiles(b.cCount, t);
+    final double[][] aBlocks = packDouble(a, t, rowTiles, innerTiles);
+    final double[][] bBlocks = packDouble(b, t, innerTiles, colTiles);
+    final double[] res = new double[n * p];
+
+    TileKernel kernel = new TileKernel() {
+      @Override
+      public void compute(int tileIdx) {
+        int ib = tileIdx / colTiles, jb = tileIdx % colTiles;
+        double[] c = Buffers.take(t * t);
+        for (int kb = 0; kb < innerTiles; kb++) {
+          double[] aBlock = aBlocks[ib * innerTiles + kb];
+          double[] bBlock = bBlocks[kb * colTiles + jb];
+          // Four rows at a time so each element of b is loaded once per four updates
+          for (int i = 0; i < t; i += 4) {
+            int r0 = i * t, r1 = r0 + t, r2 = r1 + t, r3 = r2 + t;
+            for (int k = 0; k < t; k++) {
+              double a0 = aBlock[r0 + k], a1 = aBlock[r1 + k], a2 = aBlock[r2 + k], a3 = aBlock[r3 + k];
+              int bk = k * t;
+              for (int j = 0; j < t; j++) {
+                double bkj = bBlock[bk + j];
+                c[r0 + j] += a0 * bkj;
+                c[r1 + j] += a1 * bkj;
+                c[r2 + j] += a2 * bkj;
+                c[r3 + j] += a3 * bkj;
+              }
+            }
+          }
+        }
+        // Copy the tile into the result, dropping the padding
+        int rows = Math.min(t, n - ib * t), cols = Math.min(t, p - jb * t);
+        for (int i = 0; i < rows; i++) {
+          System.arraycopy(c, i * t, res, (ib * t + i) * p + jb * t, cols);
+        }
+        Buffers.give(c);
+      }
+    };
+    ForkJoinPool.commonPool().invoke(new TileTask(kernel, 0, rowTiles * colTiles));
+    // The packed tiles are only temporaries, so the next product can reuse them
+    for (double[] block : aBlocks) {
+      Buffers.give(block);
+    }
+    for (double[] block : bBlocks) {
+      Buffers.give(block);
+    }
+    return new DoubleMtx(n, p, res);
+  }
+
+  /**
+   * Blocked multiplication on arbitrary precision scalars
+   */
+  private static FullMtx multExact(Mtx a, Mtx b, final int t) {
+    final int n = a.rCount, p = b.cCount;
+    final int rowTiles = tiles(a.rCount, t), innerTiles = tiles(a.cCount, t), colTiles = tiles(b.cCount, t);
+    final Scl[][] aBlocks = packExact(a, t, rowTiles, innerTiles);
+    final Scl[][] bBlocks = packExact(b, t, innerTiles, colTiles);
+    final FullMtx res = new FullMtx(n, p);
+
+    TileKernel kernel = new TileKernel() {
+      @Override
+      public void compute(int tileIdx) {
+        int ib = tileIdx / colTiles, jb = tileIdx % colTiles;
+        Scl[] c = new Scl[t * t];
+        Arrays.fill(c, Scl.ZERO);
+        for (int kb = 0; kb < innerTiles; kb++) {
+          Scl[] aBlock = aBlocks[ib * innerTiles + kb];
+          Scl[] bBlock = bBlocks[kb * colTiles + jb];
+          for (int i = 0; i < t; i++) {
+            for (int k = 0; k < t; k++) {
+              Scl aik = aBlock[i * t + k];
+              if (aik == Scl.ZERO)
+                continue;
+              for (int j = 0; j < t; j++) {
+                c[i * t + j] = Scl.add(c[i * t + j], Scl.mult(aik, bBlock[k * t + j]));
+              }
+            }
+          }
+        }
+        // Copy the tile into the result, dropping the padding
+        int rows = Math.min(t, n - ib * t), cols = Math.min(t, p - jb * t);
+        for (int i = 0; i < rows; i++) {
+          for (int j = 0; j < cols; j++) {
+            res.set(ib * t + i, jb * t + j, c[i * t + j]);
+          }
+        }
+      }
+    };
+    ForkJoinPool.commonPool().invoke(new TileTask(kernel, 0, rowTiles * colTiles));
+    return res;
+  }
+
+  /**
+   * The number of tiles needed to cover a dimension
+   */
+  private static int tiles(int len, int t) {
+    return (len + t - 1) / t;
+  }
+
+  /**
+   * Packs a matrix into zero padded row-major tiles of doubles
+   * @param m        The matrix
+   * @param t        The side length of a tile
+   * @param rowTiles # of tile rows
+   * @param colTiles # of tile cols
+   * @return The tiles, row after row
+   */
+  private static double[][] packDouble(Mtx m, int t, int rowTiles, int colTiles) {
+    double[][] blocks = new double[rowTiles * colTiles][];
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = Buffers.take(t * t);
+    }
+    // Transposes and blocks of double matrices are read in place
+    DoubleMtx.Layout src = DoubleMtx.layout(m);
+    for (int r = 0; r < m.rCount; r++) {
+      for (int c = 0; c < m.cCount; c++) {
+        double val = (src != null) ? src.data[src.offset + r * src.rowStride + c * src.colStride]
+            : m.get(r, c).doubleValue();
+        blocks[(r / t) * colTiles + c / t][(r % t) * t + c % t] = val;
+      }
+    }
+    return blocks;
+  }
+
+  /**
+   * Packs a matrix into zero padded row-major tiles of scalars
+   * @param m        The matrix
+   * @param t        The side length of a tile
+   * @param rowTiles # of tile rows
+   * @param colTiles # of tile cols
+   * @return The tiles, row after row
+   */
+  private static Scl[][] packExact(Mtx m, int t, int rowTiles, int colTiles) {
+    Scl[][] blocks = new Scl[rowTiles * colTiles][t * t];
+    for (Scl[] block : blocks) {
+      Arrays.fill(block, Scl.ZERO);
+    }
+    for (int r = 0; r < m.rCount; r++) {
+      for (int c = 0; c < m.cCount; c++) {
+        blocks[(r / t) * colTiles + c / t][(r % t) * t + c % t] = m.get(r, c);
+      }
+    }
+    return blocks;
+  }
+
+  /**
+   * Computes a single tile of a product
+   */
+  interface TileKernel {
+    void compute(int tileIdx);
+  }
+
+  /**
+   * Splits a range of tiles in half until single tiles remain
+   */
+  static class TileTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+    private final TileKernel kernel;
+    private final int lo, hi;
+
+    TileTask(TileKernel kernel, int lo, int hi) {
+      this.kernel = kernel;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo <= 1) {
+        if (hi > lo)
+          kernel.compute(lo);
+        return;
+      }
+      int mid = (lo + hi) >>> 1;
+      invokeAll(new TileTask(kernel, lo, mid), new TileTask(kernel, mid, hi));
+    }
+  }
+}
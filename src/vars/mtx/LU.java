@@ -0,0 +1,430 @@
+package vars.mtx;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+
+import io.Output;
+import vars.scl.Scl;
+
+/**
+ * The LU factorisation P*A = L*U of a square matrix, where L is lower triangular with
+ * ones on its diagonal and U is upper triangular
+ * <p>
+ * Double matrices are factorised in place with partial pivoting (the largest pivot in
+ * each column, to limit rounding), a panel of columns at a time so that most of the
+ * work is one large update of the trailing matrix. Exact matrices use fraction-free
+ * (Bareiss) elimination, which only ever divides exactly, so the determinant is exact
+ * and each entry of L and U is rounded at most once; any nonzero pivot will do, so the
+ * first one found is used.
+ * <p>
+ * A factorisation is cached on the matrix it came from, and dropped when that matrix
+ * is changed. Threads may share one, so what is worked out lazily is published whole.
+ */
+public class LU {
+  /**
+   * The number of columns factorised together before updating the trailing matrix
+   */
+  static final int PANEL = 32;
+  /**
+   * The precision of quotients that don't terminate
+   */
+  private static final MathContext CONTEXT = MathContext.DECIMAL128;
+
+  /**
+   * The size of the matrix
+   */
+  final int n;
+  /**
+   * Row i of P*A is row piv[i] of A
+   */
+  final int[] piv;
+  /**
+   * Whether P swaps an odd number of rows
+   */
+  private final boolean oddSwaps;
+  /**
+   * Whether the matrix is singular
+   */
+  private final boolean singular;
+  /**
+   * Double factorisations: L below the diagonal and U on and above it, row-major
+   */
+  private final double[] lu;
+  /**
+   * Exact factorisations: the fraction-free elimination of the matrix times 10^scale
+   * (which makes every cell a whole number), row-major, from which L and U are worked
+   * out when first needed
+   */
+  private final BigInteger[] bareiss;
+  private final int scale;
+  private volatile BigDecimal[] exactLU;
+
+  private LU(int n, int[] piv, boolean oddSwaps, boolean singular, double[] lu, BigInteger[] bareiss, int scale) {
+    this.n = n;
+    this.piv = piv;
+    this.oddSwaps = oddSwaps;
+    this.singular = singular;
+    this.lu = lu;
+    this.bareiss = bareiss;
+    this.scale = scale;
+  }
+
+  /**
+   * Factorises a square matrix, reusing the factorisation cached on it if there is one
+   * @param m       The matrix
+   * @param inFloat Whether to factorise in double precision
+   * @return The factorisation, or null if the matrix isn't square
+   */
+  static LU of(Mtx m, boolean inFloat) {
+    if (m.rCount != m.cCount) {
+      Output.customError("Cannot factorise a %dx%d matrix; it must be square", m.rCount, m.cCount);
+      return null;
+    }
+    LU cached = m.factors;
+    if (cached != null && cached.isFloat() == inFloat) {
+      return cached;
+    }
+    LU res = inFloat ? factorDouble(m) : factorExact(m);
+    // Views can change underneath us through their parent, so only cache on owners
+    if (!(m instanceof TransMtx || m instanceof SubMtx)) {
+      m.factors = res;
+    }
+    return res;
+  }
+
+  /**
+   * Whether this is a double precision factorisation
+   * @return True or false
+   */
+  boolean isFloat() {
+    return lu != null;
+  }
+
+  /**
+   * Whether the factorised matrix is singular
+   * @return True or false
+   */
+  boolean isSingular() {
+    return singular;
+  }
+
+  /**
+   * Blocked LU with partial pivoting
+   */
+  private static LU factorDouble(Mtx m) {
+    int n = m.rCount;
+    double[] a = new DoubleMtx(m).data;
+    int[] piv = identity(n);
+    boolean odd = false, singular = false;
+
+    for (int k0 = 0; k0 < n; k0 += PANEL) {
+      int k1 = Math.min(n, k0 + PANEL);
+      // Factorise the panel of columns k0..k1-1, swapping whole rows as we go
+      for (int k = k0; k < k1; k++) {
+        int p = k;
+        for (int i = k + 1; i < n; i++) {
+          if (Math.abs(a[i * n + k]) > Math.abs(a[p * n + k]))
+            p = i;
+        }
+        if (p != k) {
+          swapRows(a, n, k, p);
+          swap(piv, k, p);
+          odd = !odd;
+        }
+        double pivot = a[k * n + k];
+        if (pivot == 0.0) {
+          singular = true;
+          continue;
+        }
+        for (int i = k + 1; i < n; i++) {
+          double l = a[i * n + k] /= pivot;
+          if (l == 0.0)
+            continue;
+          for (int j = k + 1; j < k1; j++) {
+            a[i * n + j] -= l * a[k * n + j];
+          }
+        }
+      }
+      // The panel's rows of U to the right: U12 = L11^-1 * A12
+      for (int k = k0; k < k1; k++) {
+        for (int i = k + 1; i < k1; i++) {
+          double l = a[i * n + k];
+          if (l == 0.0)
+            continue;
+          for (int j = k1; j < n; j++) {
+            a[i * n + j] -= l * a[k * n + j];
+          }
+        }
+      }
+      // The trailing matrix: A22 -= L21 * U12
+      for (int i = k1; i < n; i++) {
+        for (int k = k0; k < k1; k++) {
+          double l = a[i * n + k];
+          if (l == 0.0)
+            continue;
+          for (int j = k1; j < n; j++) {
+            a[i * n + j] -= l * a[k * n + j];
+          }
+        }
+      }
+    }
+    return new LU(n, piv, odd, singular, a, null, 0);
+  }
+
+  /**
+   * Fraction-free elimination, taking the first nonzero pivot in each column
+   */
+  private static LU factorExact(Mtx m) {
+    int n = m.rCount;
+    // Shift every cell by the most decimal places any cell has, so the elimination
+    // runs on whole numbers (L is unchanged and U is scaled by the same power of ten)
+    BigDecimal[] cells = new BigDecimal[n * n];
+    int scale = 0;
+    for (int r = 0; r < n; r++) {
+      for (int c = 0; c < n; c++) {
+        cells[r * n + c] = m.get(r, c).decimalValue();
+        scale = Math.max(scale, cells[r * n + c].scale());
+      }
+    }
+    BigInteger[] a = new BigInteger[n * n];
+    for (int i = 0; i < a.length; i++) {
+      a[i] = cells[i].movePointRight(scale).toBigIntegerExact();
+    }
+    int[] piv = identity(n);
+    boolean odd = false;
+    BigInteger prev = BigInteger.ONE;
+
+    for (int k = 0; k < n; k++) {
+      int p = k;
+      while (p < n && a[p * n + k].signum() == 0)
+        p++;
+      if (p == n) {
+        // Every later minor is zero, so there is nothing left to eliminate
+        return new LU(n, piv, odd, true, null, a, scale);
+      }
+      if (p != k) {
+        swapRows(a, n, k, p);
+        swap(piv, k, p);
+        odd = !odd;
+      }
+      BigInteger pivot = a[k * n + k];
+      for (int i = k + 1; i < n; i++) {
+        BigInteger aik = a[i * n + k];
+        for (int j = k + 1; j < n; j++) {
+          // Sylvester's identity guarantees this division is exact
+          a[i * n + j] = a[i * n + j].multiply(pivot).subtract(aik.multiply(a[k * n + j])).divide(prev);
+        }
+        // a[i][k] is kept to work out L later
+      }
+      prev = pivot;
+    }
+    return new LU(n, piv, odd, false, null, a, scale);
+  }
+
+  /**
+   * Works out L and U from the fraction-free elimination: after step k, row k holds
+   * U's row scaled by the previous pivot, and column k below it holds L's column scaled
+   * by the current pivot
+   */
+  private BigDecimal[] exactLU() {
+    if (exactLU == null) {
+      BigDecimal[] res = new BigDecimal[n * n];
+      BigDecimal prev = BigDecimal.ONE;
+      for (int k = 0; k < n; k++) {
+        BigDecimal pivot = new BigDecimal(bareiss[k * n + k]);
+        for (int j = k; j < n; j++) {
+          res[k * n + j] = quotient(new BigDecimal(bareiss[k * n + j]), prev.scaleByPowerOfTen(scale));
+        }
+        for (int i = k + 1; i < n; i++) {
+          res[i * n + k] = quotient(new BigDecimal(bareiss[i * n + k]), pivot);
+        }
+        prev = pivot;
+      }
+      exactLU = res;
+    }
+    return exactLU;
+  }
+
+  /**
+   * The determinant of the factorised matrix
+   * @return The determinant, or null if it overflowed in floats
+   */
+  Scl det() {
+    if (singular)
+      return Scl.ZERO;
+    if (lu != null) {
+      double det = oddSwaps ? -1.0 : 1.0;
+      for (int k = 0; k < n; k++) {
+        det *= lu[k * n + k];
+      }
+      return Scl.of(det);
+    }
+    // The last fraction-free pivot is the determinant, up to the row swaps
+    BigDecimal det = tidy(new BigDecimal(bareiss[n * n - 1], scale * n));
+    return new Scl(oddSwaps ? det.negate() : det);
+  }
+
+  /**
+   * The factors packed into one matrix, L below the diagonal and U on and above it
+   * @return The packed factors, or null if the matrix is singular
+   */
+  Mtx packed() {
+    if (singular) {
+      Output.customError("Cannot factorise; the matrix is singular");
+      return null;
+    }
+    if (lu != null) {
+      return new DoubleMtx(n, n, lu.clone());
+    }
+    BigDecimal[] f = exactLU();
+    FullMtx res = new FullMtx(n, n);
+    for (int r = 0; r < n; r++) {
+      for (int c = 0; c < n; c++) {
+        res.set(r, c, new Scl(f[r * n + c]));
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Solves a * x = b for every column of b
+   * @param b The right hand sides
+   * @return x, or null if the matrix is singular or b has the wrong number of rows
+   */
+  Mtx solve(Mtx b) {
+    if (b.rCount != n) {
+      Output.customError("Cannot solve; the matrix has %d rows but the right hand side has %d", n, b.rCount);
+      return null;
+    }
+    if (singular) {
+      Output.customError("Cannot solve; the matrix is singular");
+      return null;
+    }
+    int p = b.cCount;
+    if (lu != null) {
+      double[] x = new double[n * p];
+      DoubleMtx.Layout lb = DoubleMtx.layoutOrCopy(b);
+      for (int i = 0; i < n; i++) {
+        for (int c = 0; c < p; c++) {
+          x[i * p + c] = lb.data[lb.offset + piv[i] * lb.rowStride + c * lb.colStride];
+        }
+      }
+      // Forward substitution with L, then back substitution with U, a row at a time
+      for (int i = 0; i < n; i++) {
+        for (int k = 0; k < i; k++) {
+          double l = lu[i * n + k];
+          if (l == 0.0)
+            continue;
+          for (int c = 0; c < p; c++) {
+            x[i * p + c] -= l * x[k * p + c];
+          }
+        }
+      }
+      for (int i = n - 1; i >= 0; i--) {
+        for (int k = i + 1; k < n; k++) {
+          double u = lu[i * n + k];
+          if (u == 0.0)
+            continue;
+          for (int c = 0; c < p; c++) {
+            x[i * p + c] -= u * x[k * p + c];
+          }
+        }
+        double d = lu[i * n + i];
+        for (int c = 0; c < p; c++) {
+          x[i * p + c] /= d;
+        }
+      }
+      return new DoubleMtx(n, p, x);
+    }
+
+    BigDecimal[] f = exactLU();
+    BigDecimal[] x = new BigDecimal[n * p];
+    for (int i = 0; i < n; i++) {
+      for (int c = 0; c < p; c++) {
+        x[i * p + c] = b.get(piv[i], c).decimalValue();
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      for (int k = 0; k < i; k++) {
+        BigDecimal l = f[i * n + k];
+        if (l.signum() == 0)
+          continue;
+        for (int c = 0; c < p; c++) {
+          x[i * p + c] = x[i * p + c].subtract(l.multiply(x[k * p + c]), CONTEXT);
+        }
+      }
+    }
+    for (int i = n - 1; i >= 0; i--) {
+      for (int k = i + 1; k < n; k++) {
+        BigDecimal u = f[i * n + k];
+        if (u.signum() == 0)
+          continue;
+        for (int c = 0; c < p; c++) {
+          x[i * p + c] = x[i * p + c].subtract(u.multiply(x[k * p + c]), CONTEXT);
+        }
+      }
+      for (int c = 0; c < p; c++) {
+        x[i * p + c] = quotient(x[i * p + c], f[i * n + i]);
+      }
+    }
+    FullMtx res = new FullMtx(n, p);
+    for (int i = 0; i < n; i++) {
+      for (int c = 0; c < p; c++) {
+        res.set(i, c, new Scl(x[i * p + c]));
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Divides exactly if the quotient terminates, otherwise to 34 digits
+   */
+  static BigDecimal quotient(BigDecimal a, BigDecimal b) {
+    BigDecimal q;
+    try {
+      q = a.divide(b);
+    } catch (ArithmeticException e) {
+      q = a.divide(b, CONTEXT);
+    }
+    return tidy(q);
+  }
+
+  /**
+   * Drops trailing zeros after the decimal point, keeping whole numbers whole
+   */
+  private static BigDecimal tidy(BigDecimal d) {
+    d = d.stripTrailingZeros();
+    return (d.scale() < 0) ? d.setScale(0) : d;
+  }
+
+  private static int[] identity(int n) {
+    int[] res = new int[n];
+    for (int i = 0; i < n; i++) {
+      res[i] = i;
+    }
+    return res;
+  }
+
+  private static void swap(int[] a, int i, int j) {
+    int t = a[i];
+    a[i] = a[j];
+    a[j] = t;
+  }
+
+  private static void swapRows(double[] a, int n, int i, int j) {
+    for (int c = 0; c < n; c++) {
+      double t = a[i * n + c];
+      a[i * n + c] = a[j * n + c];
+      a[j * n + c] = t;
+    }
+  }
+
+  private static void swapRows(Object[] a, int n, int i, int j) {
+    for (int c = 0; c < n; c++) {
+      Object t = a[i * n + c];
+      a[i * n + c] = a[j * n + c];
+      a[j * n + c] = t;
+    }
+  }
+}
@@ -1,12 +1,36 @@
 package vars.mtx;
 
+import java.math.BigDecimal;
+
 import io.Output;
 import vars.Var;
 import vars.bool.Bool;
 import vars.scl.Scl;
 
+/**
+ * Base class of all matrices
+ * <p>
+ * Operations between a DoubleMtx and any other dense matrix produce a DoubleMtx, the
+ * same way Java promotes long arithmetic to double. IdMtx and ZeroMtx have no
+ * representation of their own and keep their shortcuts in either mode. A SparseMtx
+ * stays sparse when combined with another SparseMtx or scaled, and otherwise gives a
+ * dense result in the representation of its dense operand.
+ * <p>
+ * Structured matrices (DiagMtx, TriMtx, BandMtx) keep their structure through sums,
+ * products and scaling with each other, and PermMtx products only shuffle rows or
+ * columns. Mixed with a dense matrix they give a dense result, computed over the band.
+ */
 public abstract class Mtx extends Var {
 	public int rCount, cCount;
+	/**
+	 * Whether matrix operations report which algorithm they used
+	 */
+	public static boolean debug = false;
+	/**
+	 * The LU factorisation of this matrix, kept until the matrix is changed; volatile, as
+	 * the chunks of a parfor loop may factorise a matrix they all read at once
+	 */
+	volatile LU factors;
 	/**
 	 * Gets a scalar in the matrix
 	 * @param row The row
@@ -41,6 +65,31 @@ public abstract class Mtx extends Var {
 	protected boolean boundsCheck(int row, int col) {
 		return (row >= 0 && row < rCount && col >= 0 && col < cCount);
 	}
+	/**
+	 * Whether an operation between two matrices should be done in double precision
+	 * @param a The first matrix
+	 * @param b The second matrix
+	 * @return True if either matrix is a DoubleMtx
+	 */
+	protected static boolean isFloat(Mtx a, Mtx b) {
+		return a.isFloat() || b.isFloat();
+	}
+	/**
+	 * Whether this matrix stores its cells as doubles (views answer for the matrix they look into)
+	 * @return True or false
+	 */
+	public boolean isFloat() {
+		return false;
+	}
+	/**
+	 * Whether an operation between two matrices should use the sparse kernels
+	 * @param a The first matrix
+	 * @param b The second matrix
+	 * @return True if either matrix is a SparseMtx
+	 */
+	protected static boolean isSparse(Mtx a, Mtx b) {
+		return a instanceof SparseMtx || b instanceof SparseMtx;
+	}
 	/**
 	 * Returns the identity matrix with specified dimensions
 	 * @param rows # of rows
@@ -59,6 +108,56 @@ public abstract class Mtx extends Var {
 	public static Mtx zero(int rows, int cols) {
 		return new ZeroMtx(rows, cols);
 	}
+	/**
+	 * Returns the transpose of a matrix without copying it
+	 * @param m The matrix
+	 * @return The transpose
+	 */
+	public static Mtx transpose(Mtx m) {
+		if (m instanceof IdMtx)
+			return new IdMtx(m.cCount, m.rCount);
+		if (m instanceof ZeroMtx)
+			return new ZeroMtx(m.cCount, m.rCount);
+		if (m instanceof TransMtx)
+			return ((TransMtx) m).parent;
+		if (m instanceof SparseMtx)
+			return ((SparseMtx) m).transpose();
+		if (m instanceof DiagMtx)
+			return m;
+		if (m instanceof PermMtx)
+			return ((PermMtx) m).inverse();
+		if (m instanceof StructMtx) {
+			// Copying the band is no more than O(n * bandwidth) and keeps the structure
+			final Mtx t = m;
+			return StructMtx.build(m.rCount, ((StructMtx) m).upper(), ((StructMtx) m).lower(), new StructMtx.CellFn() {
+				@Override
+				public Scl cell(int row, int col) {
+					return t.get(col, row);
+				}
+			});
+		}
+		return new TransMtx(m);
+	}
+	/**
+	 * Returns a rectangular block of a matrix without copying it
+	 * @param m The matrix
+	 * @param row The first row of the block
+	 * @param col The first column of the block
+	 * @param rows # of rows in the block
+	 * @param cols # of cols in the block
+	 * @return The block
+	 */
+	public static Mtx slice(Mtx m, int row, int col, int rows, int cols) {
+		if (row == 0 && col == 0 && rows == m.rCount && cols == m.cCount)
+			return m;
+		if (m instanceof ZeroMtx)
+			return new ZeroMtx(rows, cols);
+		if (m instanceof SubMtx) {
+			SubMtx sub = (SubMtx) m;
+			return new SubMtx(sub.parent, sub.rOffset + row, sub.cOffset + col, rows, cols);
+		}
+		return new SubMtx(m, row, col, rows, cols);
+	}
 	/**
 	 * Scales a matrix by a scalar
 	 * @param s The scalar
@@ -66,6 +165,12 @@ public abstract class Mtx extends Var {
 	 * @return The scaled matrix
 	 */
 	public static Mtx SCALE(Scl s, Mtx m) {
+		if (m instanceof DoubleMtx)
+			return DoubleMtx.scale(s.doubleValue(), (DoubleMtx) m);
+		if (m instanceof SparseMtx)
+			return ((SparseMtx) m).scale(s);
+		if (m instanceof StructMtx)
+			return StructMtx.scale(s, (StructMtx) m);
 		Mtx res = new FullMtx(m.rCount, m.cCount);
 		for (int r=0; r<m.rCount; r++) {
 			for (int c=0; c<m.cCount; c++) {
@@ -81,6 +186,16 @@ public abstract class Mtx extends Var {
 	 * @return Result
 	 */
 	public static Mtx MULT(Mtx a, Mtx b) {
+		return MULT(a, b, debug);
+	}
+	/**
+	 * Multiplies two matrices, optionally reporting which algorithm was used
+	 * @param a Matrix A
+	 * @param b Matrix B
+	 * @param report Whether to print the algorithm
+	 * @return Result
+	 */
+	static Mtx MULT(Mtx a, Mtx b, boolean report) {
 		if (a.cCount != b.rCount) {
 			Output.customError("Cannot multiply matrices; column count and row count do not match");
 			return null;
@@ -91,6 +206,37 @@ public abstract class Mtx extends Var {
 			return a;
 		if (a instanceof ZeroMtx || b instanceof ZeroMtx)
 			return new ZeroMtx(a.rCount, b.cCount);
+		if (a instanceof PermMtx || b instanceof PermMtx) {
+			if (report)
+				Gemm.report("permutation", a, b);
+			if (!(b instanceof PermMtx))
+				return PermMtx.permuteRows((PermMtx) a, b);
+			if (!(a instanceof PermMtx))
+				return PermMtx.permuteCols(a, (PermMtx) b);
+			return PermMtx.mult((PermMtx) a, (PermMtx) b);
+		}
+		if (a instanceof StructMtx || b instanceof StructMtx) {
+			if (report)
+				Gemm.report("banded", a, b);
+			if (!(b instanceof StructMtx))
+				return StructMtx.multLeft((StructMtx) a, b);
+			if (!(a instanceof StructMtx))
+				return StructMtx.multRight(a, (StructMtx) b);
+			return StructMtx.mult((StructMtx) a, (StructMtx) b);
+		}
+		if (isSparse(a, b)) {
+			if (report)
+				Gemm.report("sparse", a, b);
+			return SparseMtx.mult(a, b);
+		}
+		if (!isFloat(a, b) && Strassen.applies(a, b))
+			return Strassen.mult(a, b, report);
+		if (Gemm.useBlocked(a, b))
+			return Gemm.mult(a, b, report);
+		if (report)
+			Gemm.report("naive", a, b);
+		if (isFloat(a, b))
+			return DoubleMtx.mult(a, b);
 		
 		Mtx res = new FullMtx(a.rCount, b.cCount);
 		
@@ -124,6 +270,12 @@ public abstract class Mtx extends Var {
 		}
 		
 		if (a.rCount == b.rCount && a.cCount == b.cCount) {
+			if (a instanceof StructMtx && b instanceof StructMtx)
+				return StructMtx.add((StructMtx) a, (StructMtx) b, false);
+			if (isSparse(a, b))
+				return SparseMtx.add(a, b, false);
+			if (isFloat(a, b))
+				return DoubleMtx.add(DoubleMtx.of(a), DoubleMtx.of(b));
 			Mtx res = new FullMtx(a.rCount, a.cCount);
 			for (int r=0; r<a.rCount; r++) {
 				for (int c=0; c<a.cCount; c++) {
@@ -146,13 +298,19 @@ public abstract class Mtx extends Var {
 	 */
 	public static Mtx SUB(Mtx a, Mtx b) {
 		if (a instanceof ZeroMtx) {
-			return b;
+			return NEG(b);
 		}
 		if (b instanceof ZeroMtx) {
 			return a;
 		}
 		
 		if (a.rCount == b.rCount && a.cCount == b.cCount) {
+			if (a instanceof StructMtx && b instanceof StructMtx)
+				return StructMtx.add((StructMtx) a, (StructMtx) b, true);
+			if (isSparse(a, b))
+				return SparseMtx.add(a, b, true);
+			if (isFloat(a, b))
+				return DoubleMtx.sub(DoubleMtx.of(a), DoubleMtx.of(b));
 			Mtx res = new FullMtx(a.rCount, a.cCount);
 			for (int r=0; r<a.rCount; r++) {
 				for (int c=0; c<a.cCount; c++) {
@@ -176,6 +334,12 @@ public abstract class Mtx extends Var {
 		if (a instanceof ZeroMtx) {
 			return a;
 		}
+		if (a instanceof DoubleMtx)
+			return DoubleMtx.neg((DoubleMtx) a);
+		if (a instanceof SparseMtx)
+			return ((SparseMtx) a).neg();
+		if (a instanceof StructMtx)
+			return StructMtx.neg((StructMtx) a);
 		Mtx res = new FullMtx(a.rCount, a.cCount);
 		for (int r=0; r<a.rCount; r++) {
 			for (int c=0; c<a.cCount; c++) {
@@ -185,6 +349,132 @@ public abstract class Mtx extends Var {
 		return res;
 	}
 	
+	/**
+	 * Factorises a square matrix into P*A = L*U
+	 * @param a The matrix
+	 * @return L (below the diagonal, with an implied diagonal of ones) and U (on and above it) packed into one matrix, with rows in pivot order
+	 */
+	public static Mtx LU(Mtx a) {
+		LU lu = LU.of(a, a.isFloat());
+		return (lu == null) ? null : lu.packed();
+	}
+	/**
+	 * Finds the determinant of a square matrix
+	 * @param a The matrix
+	 * @return The determinant
+	 */
+	public static Scl DET(Mtx a) {
+		if (a.rCount != a.cCount) {
+			Output.customError("Cannot find the determinant of a %dx%d matrix; it must be square", a.rCount, a.cCount);
+			return null;
+		}
+		if (a instanceof IdMtx)
+			return Scl.ONE;
+		if (a instanceof ZeroMtx)
+			return Scl.ZERO;
+		if (a instanceof PermMtx)
+			return ((PermMtx) a).isOdd() ? Scl.neg(Scl.ONE) : Scl.ONE;
+		if (a instanceof DiagMtx || a instanceof TriMtx) {
+			// The product of the diagonal
+			Scl det = Scl.ONE;
+			for (int i=0; i<a.rCount; i++) {
+				det = Scl.mult(det, a.get(i, i));
+			}
+			return det;
+		}
+		LU lu = LU.of(a, a.isFloat());
+		return (lu == null) ? null : lu.det();
+	}
+	/**
+	 * Inverts a square matrix
+	 * @param a The matrix
+	 * @return The inverse, or null if the matrix is singular
+	 */
+	public static Mtx INV(Mtx a) {
+		if (a instanceof IdMtx && a.rCount == a.cCount)
+			return a;
+		if (a instanceof PermMtx)
+			return ((PermMtx) a).inverse();
+		return SOLVE(a, new IdMtx(a.rCount, a.rCount));
+	}
+	/**
+	 * Solves a*x = b, reusing a's factorisation across calls
+	 * @param a The matrix
+	 * @param b The right hand side (one column per system)
+	 * @return x, or null if a is singular or the dimensions do not match
+	 */
+	public static Mtx SOLVE(Mtx a, Mtx b) {
+		if (a instanceof PermMtx && a.rCount == b.rCount)
+			return MULT(((PermMtx) a).inverse(), b, false);
+		LU lu = LU.of(a, isFloat(a, b));
+		return (lu == null) ? null : lu.solve(b);
+	}
+	
+	/**
+	 * Raises a square matrix to a whole power by repeated squaring, inverting it first
+	 * if the power is negative
+	 * @param a The matrix
+	 * @param s The power
+	 * @return The result, or null if the power isn't whole or the matrix is singular
+	 */
+	public static Mtx POW(Mtx a, Scl s) {
+		if (a.rCount != a.cCount) {
+			Output.customError("Cannot raise a %dx%d matrix to a power; it must be square", a.rCount, a.cCount);
+			return null;
+		}
+		if (!s.isInt()) {
+			Output.customError("Matrix powers must be whole numbers, got %s", s);
+			return null;
+		}
+		long e = s.intValue();
+		if (e == 0)
+			return new IdMtx(a.rCount, a.cCount);
+		if (a instanceof IdMtx)
+			return a;
+		if (a instanceof ZeroMtx) {
+			if (e < 0) {
+				Output.customError("Cannot raise a zero matrix to a negative power");
+				return null;
+			}
+			return a;
+		}
+		if (a instanceof DiagMtx)
+			return powDiag((DiagMtx) a, e);
+		if (e < 0) {
+			a = INV(a);
+			if (a == null)
+				return null;
+			e = -e;
+		}
+		// Square the base once per bit of e, multiplying in the bits that are set
+		Mtx res = null;
+		Mtx base = a;
+		while (true) {
+			if ((e & 1) == 1)
+				res = (res == null) ? base : MULT(res, base);
+			e >>= 1;
+			if (e == 0)
+				return res;
+			base = MULT(base, base);
+		}
+	}
+	/**
+	 * Raises each cell of a diagonal matrix to a power
+	 */
+	private static Mtx powDiag(DiagMtx a, long e) {
+		Scl[] d = new Scl[a.rCount];
+		for (int i=0; i<d.length; i++) {
+			BigDecimal x = a.get(i, i).decimalValue();
+			if (e < 0 && x.signum() == 0) {
+				Output.customError("Cannot raise a singular matrix to a negative power");
+				return null;
+			}
+			BigDecimal p = x.pow((int) Math.abs(e));
+			d[i] = new Scl((e < 0) ? LU.quotient(BigDecimal.ONE, p) : p);
+		}
+		return new DiagMtx(d);
+	}
+	
 	/**
 	 * Checks if two matrices are equal
 	 * @param a The first matrix
@@ -0,0 +1,49 @@
+package vars.mtx;
+
+import vars.scl.Scl;
+
+/**
+ * The numeric mode of a session, which decides how new matrices are stored
+ *
+ */
+public enum NumMode {
+  /**
+   * Arbitrary precision cells (FullMtx)
+   */
+  EXACT,
+  /**
+   * Primitive double cells (DoubleMtx)
+   */
+  FLOAT;
+
+  /**
+   * Builds a matrix in this mode's representation
+   * @param rows The rows of the matrix
+   * @return The matrix
+   */
+  public Mtx build(Scl[][] rows) {
+    if (this == FLOAT) {
+      return new DoubleMtx(rows);
+    }
+    return new FullMtx(rows);
+  }
+
+  /**
+   * Finds a mode by name
+   * @param name "exact" or "float"
+   * @return The mode or null
+   */
+  public static NumMode named(String name) {
+    for (NumMode mode : values()) {
+      if (mode.toString().equals(name)) {
+        return mode;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return name().toLowerCase();
+  }
+}
@@ -0,0 +1,132 @@
+package vars.mtx;
+
+import vars.scl.Scl;
+
+/**
+ * A permutation matrix, storing which column holds the one in each row
+ * <p>
+ * Multiplying by a permutation on the left shuffles rows and on the right shuffles
+ * columns, without any arithmetic.
+ */
+public class PermMtx extends Mtx {
+  /**
+   * Row r has its one in column perm[r], so row r of P*A is row perm[r] of A
+   */
+  final int[] perm;
+
+  /**
+   * Instantiates a permutation matrix
+   * @param perm The column of the one in each row (not copied)
+   */
+  public PermMtx(int[] perm) {
+    super(perm.length, perm.length);
+    this.perm = perm;
+  }
+
+  @Override
+  public Scl get(int row, int col) {
+    if (!boundsCheck(row, col)) {
+      return null;
+    }
+    return (perm[row] == col) ? Scl.ONE : Scl.ZERO;
+  }
+
+  @Override
+  public Mtx set(int row, int col, Scl s) {
+    if (!boundsCheck(row, col)) {
+      return null;
+    }
+    if (Scl.equal(s, get(row, col)).val()) {
+      return this;
+    }
+    return new FullMtx(this).set(row, col, s);
+  }
+
+  /**
+   * Whether this permutation is made of an odd number of swaps
+   * @return True or false
+   */
+  boolean isOdd() {
+    // Each cycle of length k takes k - 1 swaps
+    boolean[] seen = new boolean[perm.length];
+    boolean odd = false;
+    for (int start = 0; start < perm.length; start++) {
+      for (int i = perm[start]; !seen[start] && i != start; i = perm[i]) {
+        seen[i] = true;
+        odd = !odd;
+      }
+      seen[start] = true;
+    }
+    return odd;
+  }
+
+  /**
+   * The inverse (and transpose) of this permutation
+   * @return The inverse
+   */
+  PermMtx inverse() {
+    int[] inv = new int[perm.length];
+    for (int r = 0; r < perm.length; r++) {
+      inv[perm[r]] = r;
+    }
+    return new PermMtx(inv);
+  }
+
+  /**
+   * Multiplies two permutations
+   * @param a The first permutation
+   * @param b The second permutation
+   * @return a * b
+   */
+  static PermMtx mult(PermMtx a, PermMtx b) {
+    int[] res = new int[a.perm.length];
+    for (int r = 0; r < res.length; r++) {
+      res[r] = b.perm[a.perm[r]];
+    }
+    return new PermMtx(res);
+  }
+
+  /**
+   * Shuffles the rows of a matrix
+   * @param p The permutation
+   * @param m The matrix
+   * @return p * m in the representation of m
+   */
+  static Mtx permuteRows(PermMtx p, Mtx m) {
+    DoubleMtx.Layout src = DoubleMtx.layout(m);
+    if (src != null) {
+      double[] res = new double[m.rCount * m.cCount];
+      for (int r = 0; r < m.rCount; r++) {
+        int from = src.offset + p.perm[r] * src.rowStride;
+        for (int c = 0; c < m.cCount; c++) {
+          res[r * m.cCount + c] = src.data[from + c * src.colStride];
+        }
+      }
+      return new DoubleMtx(m.rCount, m.cCount, res);
+    }
+    FullMtx res = new FullMtx(m.rCount, m.cCount);
+    for (int r = 0; r < m.rCount; r++) {
+      for (int c = 0; c < m.cCount; c++) {
+        res.set(r, c, m.get(p.perm[r], c));
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Shuffles the columns of a matrix
+   * @param m The matrix
+   * @param p The permutation
+   * @return m * p in the representation of m
+   */
+  static Mtx permuteCols(Mtx m, PermMtx p) {
+    // Column perm[k] of m * p is column k of m
+    Mtx res = m.isFloat() ? new DoubleMtx(m.rCount, m.cCount) : new FullMtx(m.rCount, m.cCount);
+    for (int r = 0; r < m.rCount; r++) {
+      for (int k = 0; k < m.cCount; k++) {
+        res.set(r, p.perm[k], m.get(r, k));
+      }
+    }
+    return res;
+  }
+}
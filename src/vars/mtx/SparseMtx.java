@@ -0,0 +1,473 @@
+package vars.mtx;
+
+import java.util.Arrays;
+
+import vars.scl.Scl;
+
+/**
+ * A sparse matrix in compressed sparse row (CSR) form, with a compressed sparse
+ * column (CSC) view built on first use
+ *
+ */
+public class SparseMtx extends Mtx {
+  /**
+   * Where each row starts in colIdx and vals (rCount + 1 entries)
+   */
+  private int[] rowPtr;
+  /**
+   * The column of each stored value, ascending within a row
+   */
+  private int[] colIdx;
+  /**
+   * The stored values
+   */
+  private Scl[] vals;
+  /**
+   * The CSC view: where each column starts, the row of each value, and the values
+   */
+  private int[] colPtr, rowIdx;
+  private Scl[] colVals;
+
+  /**
+   * Wraps existing CSR arrays without copying them
+   * @param rCount # of rows
+   * @param cCount # of cols
+   * @param rowPtr Where each row starts
+   * @param colIdx The column of each value, ascending within a row
+   * @param vals   The values
+   */
+  public SparseMtx(int rCount, int cCount, int[] rowPtr, int[] colIdx, Scl[] vals) {
+    super(rCount, cCount);
+    this.rowPtr = rowPtr;
+    this.colIdx = colIdx;
+    this.vals = vals;
+  }
+
+  /**
+   * Builds a matrix from unordered (row, col, value) triplets, adding duplicates together
+   * @param rCount # of rows
+   * @param cCount # of cols
+   * @param rows   The row of each triplet
+   * @param cols   The col of each triplet
+   * @param values The value of each triplet
+   * @param count  How many triplets are used
+   * @return The matrix
+   */
+  public static SparseMtx fromTriplets(int rCount, int cCount, int[] rows, int[] cols, Scl[] values, int count) {
+    // Counting sort the triplets by row
+    int[] rowPtr = new int[rCount + 1];
+    for (int i = 0; i < count; i++) {
+      rowPtr[rows[i] + 1]++;
+    }
+    for (int r = 0; r < rCount; r++) {
+      rowPtr[r + 1] += rowPtr[r];
+    }
+    int[] next = Arrays.copyOf(rowPtr, rCount);
+    int[] colIdx = new int[count];
+    Scl[] vals = new Scl[count];
+    for (int i = 0; i < count; i++) {
+      int dest = next[rows[i]]++;
+      colIdx[dest] = cols[i];
+      vals[dest] = values[i];
+    }
+    // Sort each row by column and merge duplicates
+    int[] outPtr = new int[rCount + 1];
+    int out = 0;
+    for (int r = 0; r < rCount; r++) {
+      int start = rowPtr[r], end = rowPtr[r + 1];
+      sortRow(colIdx, vals, start, end);
+      for (int i = start; i < end; i++) {
+        if (out > outPtr[r] && colIdx[out - 1] == colIdx[i]) {
+          vals[out - 1] = Scl.add(vals[out - 1], vals[i]);
+        } else {
+          colIdx[out] = colIdx[i];
+          vals[out] = vals[i];
+          out++;
+        }
+      }
+      outPtr[r + 1] = out;
+    }
+    return new SparseMtx(rCount, cCount, outPtr, Arrays.copyOf(colIdx, out), Arrays.copyOf(vals, out));
+  }
+
+  /**
+   * Builds a sparse copy of any matrix, keeping only its nonzero cells
+   * @param m The matrix
+   * @return The sparse matrix
+   */
+  public static SparseMtx of(Mtx m) {
+    if (m instanceof SparseMtx) {
+      return (SparseMtx) m;
+    }
+    Builder builder = new Builder(m.rCount, m.cCount);
+    for (int r = 0; r < m.rCount; r++) {
+      for (int c = 0; c < m.cCount; c++) {
+        builder.add(c, m.get(r, c));
+      }
+      builder.endRow();
+    }
+    return builder.build();
+  }
+
+  /**
+   * The number of stored values
+   * @return The count
+   */
+  public int nnz() {
+    return rowPtr[rCount];
+  }
+
+  @Override
+  public Scl get(int row, int col) {
+    if (!boundsCheck(row, col)) {
+      return null;
+    }
+    int idx = Arrays.binarySearch(colIdx, rowPtr[row], rowPtr[row + 1], col);
+    return (idx >= 0) ? vals[idx] : Scl.ZERO;
+  }
+
+  @Override
+  public Mtx set(int row, int col, Scl s) {
+    if (!boundsCheck(row, col)) {
+      return null;
+    }
+    int idx = Arrays.binarySearch(colIdx, rowPtr[row], rowPtr[row + 1], col);
+    if (idx >= 0) {
+      vals[idx] = s;
+    } else {
+      // Insert a new value, shifting everything after it along by one
+      int at = -idx - 1;
+      int nnz = nnz();
+      int[] newCols = new int[nnz + 1];
+      Scl[] newVals = new Scl[nnz + 1];
+      System.arraycopy(colIdx, 0, newCols, 0, at);
+      System.arraycopy(vals, 0, newVals, 0, at);
+      newCols[at] = col;
+      newVals[at] = s;
+      System.arraycopy(colIdx, at, newCols, at + 1, nnz - at);
+      System.arraycopy(vals, at, newVals, at + 1, nnz - at);
+      for (int r = row + 1; r <= rCount; r++) {
+        rowPtr[r]++;
+      }
+      colIdx = newCols;
+      vals = newVals;
+    }
+    colPtr = null;
+    factors = null;
+    return this;
+  }
+
+  /**
+   * Builds the CSC view of this matrix if it doesn't exist yet
+   */
+  private synchronized void buildCsc() {
+    if (colPtr != null) {
+      return;
+    }
+    int nnz = nnz();
+    int[] ptr = new int[cCount + 1];
+    for (int i = 0; i < nnz; i++) {
+      ptr[colIdx[i] + 1]++;
+    }
+    for (int c = 0; c < cCount; c++) {
+      ptr[c + 1] += ptr[c];
+    }
+    int[] next = Arrays.copyOf(ptr, cCount);
+    int[] rows = new int[nnz];
+    Scl[] cVals = new Scl[nnz];
+    // Walking rows in order leaves each column sorted by row
+    for (int r = 0; r < rCount; r++) {
+      for (int i = rowPtr[r]; i < rowPtr[r + 1]; i++) {
+        int dest = next[colIdx[i]]++;
+        rows[dest] = r;
+        cVals[dest] = vals[i];
+      }
+    }
+    rowIdx = rows;
+    colVals = cVals;
+    colPtr = ptr;
+  }
+
+  /**
+   * The transpose of this matrix, a copy of the CSC view, as set changes a matrix's
+   * arrays in place
+   * @return The transpose
+   */
+  SparseMtx transpose() {
+    buildCsc();
+    return new SparseMtx(cCount, rCount, colPtr.clone(), rowIdx.clone(), colVals.clone());
+  }
+
+  /**
+   * Multiplies two matrices where at least one is sparse
+   * @param a Matrix A
+   * @param b Matrix B
+   * @return a * b
+   */
+  static Mtx mult(Mtx a, Mtx b) {
+    if (a instanceof SparseMtx && b instanceof SparseMtx) {
+      return multSparse((SparseMtx) a, (SparseMtx) b);
+    } else if (a instanceof SparseMtx) {
+      return multDense((SparseMtx) a, b);
+    } else {
+      return denseMult(a, (SparseMtx) b);
+    }
+  }
+
+  /**
+   * Sparse * sparse using Gustavson's row by row algorithm
+   */
+  private static SparseMtx multSparse(SparseMtx a, SparseMtx b) {
+    Scl[] acc = new Scl[b.cCount];
+    int[] touched = new int[b.cCount];
+    Builder builder = new Builder(a.rCount, b.cCount);
+    for (int r = 0; r < a.rCount; r++) {
+      int count = 0;
+      for (int i = a.rowPtr[r]; i < a.rowPtr[r + 1]; i++) {
+        Scl aik = a.vals[i];
+        int k = a.colIdx[i];
+        for (int j = b.rowPtr[k]; j < b.rowPtr[k + 1]; j++) {
+          int c = b.colIdx[j];
+          if (acc[c] == null) {
+            acc[c] = Scl.ZERO;
+            touched[count++] = c;
+          }
+          acc[c] = Scl.add(acc[c], Scl.mult(aik, b.vals[j]));
+        }
+      }
+      Arrays.sort(touched, 0, count);
+      for (int i = 0; i < count; i++) {
+        builder.add(touched[i], acc[touched[i]]);
+        acc[touched[i]] = null;
+      }
+      builder.endRow();
+    }
+    return builder.build();
+  }
+
+  /**
+   * Sparse * dense, visiting only the stored values of a
+   */
+  private static Mtx multDense(SparseMtx a, Mtx b) {
+    int p = b.cCount;
+    if (b.isFloat()) {
+      // Transposes and blocks of double matrices are read in place
+      DoubleMtx.Layout l = DoubleMtx.layoutOrCopy(b);
+      double[] res = new double[a.rCount * p];
+      for (int r = 0; r < a.rCount; r++) {
+        for (int i = a.rowPtr[r]; i < a.rowPtr[r + 1]; i++) {
+          double aik = a.vals[i].doubleValue();
+          int row = l.offset + a.colIdx[i] * l.rowStride;
+          for (int c = 0; c < p; c++) {
+            res[r * p + c] += aik * l.data[row + c * l.colStride];
+          }
+        }
+      }
+      return new DoubleMtx(a.rCount, p, res);
+    }
+    FullMtx res = new FullMtx(a.rCount, p);
+    for (int r = 0; r < a.rCount; r++) {
+      for (int c = 0; c < p; c++) {
+        Scl sum = Scl.ZERO;
+        for (int i = a.rowPtr[r]; i < a.rowPtr[r + 1]; i++) {
+          sum = Scl.add(sum, Scl.mult(a.vals[i], b.get(a.colIdx[i], c)));
+        }
+        res.set(r, c, sum);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Dense * sparse, walking the columns of b through its CSC view
+   */
+  private static Mtx denseMult(Mtx a, SparseMtx b) {
+    b.buildCsc();
+    int n = a.rCount, p = b.cCount;
+    if (a.isFloat()) {
+      // Transposes and blocks of double matrices are read in place
+      DoubleMtx.Layout l = DoubleMtx.layoutOrCopy(a);
+      double[] res = new double[n * p];
+      for (int c = 0; c < p; c++) {
+        for (int i = b.colPtr[c]; i < b.colPtr[c + 1]; i++) {
+          double bkc = b.colVals[i].doubleValue();
+          int col = l.offset + b.rowIdx[i] * l.colStride;
+          for (int r = 0; r < n; r++) {
+            res[r * p + c] += l.data[col + r * l.rowStride] * bkc;
+          }
+        }
+      }
+      return new DoubleMtx(n, p, res);
+    }
+    FullMtx res = new FullMtx(n, p);
+    for (int r = 0; r < n; r++) {
+      for (int c = 0; c < p; c++) {
+        Scl sum = Scl.ZERO;
+        for (int i = b.colPtr[c]; i < b.colPtr[c + 1]; i++) {
+          sum = Scl.add(sum, Scl.mult(a.get(r, b.rowIdx[i]), b.colVals[i]));
+        }
+        res.set(r, c, sum);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Adds or subtracts two matrices of the same dimensions where at least one is sparse
+   * @param a        The first matrix
+   * @param b        The second matrix
+   * @param subtract True for a - b
+   * @return The sum or difference
+   */
+  static Mtx add(Mtx a, Mtx b, boolean subtract) {
+    if (a instanceof SparseMtx && b instanceof SparseMtx) {
+      return addSparse((SparseMtx) a, (SparseMtx) b, subtract);
+    }
+    // The dense operand decides the representation of the result
+    Mtx dense = (a instanceof SparseMtx) ? b : a;
+    Mtx res = dense.isFloat() ? new DoubleMtx(dense) : new FullMtx(dense);
+    if (a instanceof SparseMtx) {
+      // res = b, so negate it first when subtracting
+      if (subtract) {
+        res = Mtx.NEG(res);
+      }
+      ((SparseMtx) a).addTo(res, false);
+    } else {
+      ((SparseMtx) b).addTo(res, subtract);
+    }
+    return res;
+  }
+
+  /**
+   * Adds (or subtracts) the stored values of this matrix into a dense matrix in place
+   */
+  private void addTo(Mtx res, boolean subtract) {
+    for (int r = 0; r < rCount; r++) {
+      for (int i = rowPtr[r]; i < rowPtr[r + 1]; i++) {
+        int c = colIdx[i];
+        Scl cur = res.get(r, c);
+        res.set(r, c, subtract ? Scl.sub(cur, vals[i]) : Scl.add(cur, vals[i]));
+      }
+    }
+  }
+
+  /**
+   * Sparse +/- sparse by merging each pair of rows
+   */
+  private static SparseMtx addSparse(SparseMtx a, SparseMtx b, boolean subtract) {
+    Builder builder = new Builder(a.rCount, a.cCount);
+    for (int r = 0; r < a.rCount; r++) {
+      int i = a.rowPtr[r], j = b.rowPtr[r];
+      int iEnd = a.rowPtr[r + 1], jEnd = b.rowPtr[r + 1];
+      while (i < iEnd || j < jEnd) {
+        int ac = (i < iEnd) ? a.colIdx[i] : Integer.MAX_VALUE;
+        int bc = (j < jEnd) ? b.colIdx[j] : Integer.MAX_VALUE;
+        if (ac == bc) {
+          builder.add(ac, subtract ? Scl.sub(a.vals[i++], b.vals[j++]) : Scl.add(a.vals[i++], b.vals[j++]));
+        } else if (ac < bc) {
+          builder.add(ac, a.vals[i++]);
+        } else {
+          builder.add(bc, subtract ? Scl.neg(b.vals[j++]) : b.vals[j++]);
+        }
+      }
+      builder.endRow();
+    }
+    return builder.build();
+  }
+
+  /**
+   * Scales the stored values of this matrix
+   * @param s The scalar
+   * @return The scaled matrix
+   */
+  SparseMtx scale(Scl s) {
+    Scl[] res = new Scl[nnz()];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = Scl.mult(vals[i], s);
+    }
+    return new SparseMtx(rCount, cCount, rowPtr.clone(), colIdx.clone(), res);
+  }
+
+  /**
+   * Negates the stored values of this matrix
+   * @return The negated matrix
+   */
+  SparseMtx neg() {
+    Scl[] res = new Scl[nnz()];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = Scl.neg(vals[i]);
+    }
+    return new SparseMtx(rCount, cCount, rowPtr.clone(), colIdx.clone(), res);
+  }
+
+  @Override
+  public String toString() {
+    // Printing every zero of a big sparse matrix helps nobody
+    if ((long) rCount * cCount > 400) {
+      return String.format("[%dx%d sparse matrix, %d nonzeros]", rCount, cCount, nnz());
+    }
+    return super.toString();
+  }
+
+  /**
+   * Sorts the values of one row by column (rows from files are usually nearly sorted)
+   */
+  private static void sortRow(int[] cols, Scl[] vals, int start, int end) {
+    for (int i = start + 1; i < end; i++) {
+      int c = cols[i];
+      Scl v = vals[i];
+      int j = i - 1;
+      while (j >= start && cols[j] > c) {
+        cols[j + 1] = cols[j];
+        vals[j + 1] = vals[j];
+        j--;
+      }
+      cols[j + 1] = c;
+      vals[j + 1] = v;
+    }
+  }
+
+  /**
+   * Builds a CSR matrix row by row, dropping zeros
+   */
+  static class Builder {
+    private final int rCount, cCount;
+    private final int[] rowPtr;
+    private int[] colIdx = new int[16];
+    private Scl[] vals = new Scl[16];
+    private int row = 0, count = 0;
+
+    Builder(int rCount, int cCount) {
+      this.rCount = rCount;
+      this.cCount = cCount;
+      this.rowPtr = new int[rCount + 1];
+    }
+
+    /**
+     * Adds a value to the current row; columns must ascend
+     */
+    void add(int col, Scl val) {
+      if (Scl.equal(val, Scl.ZERO).val()) {
+        return;
+      }
+      if (count == colIdx.length) {
+        colIdx = Arrays.copyOf(colIdx, count * 2);
+        vals = Arrays.copyOf(vals, count * 2);
+      }
+      colIdx[count] = col;
+      vals[count] = val;
+      count++;
+    }
+
+    /**
+     * Finishes the current row
+     */
+    void endRow() {
+      rowPtr[++row] = count;
+    }
+
+    SparseMtx build() {
+      return new SparseMtx(rCount, cCount, rowPtr, Arrays.copyOf(colIdx, count), Arrays.copyOf(vals, count));
+    }
+  }
+}
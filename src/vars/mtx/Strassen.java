@@ -0,0 +1,188 @@
+package vars.mtx;
+
+import java.util.Arrays;
+
+import vars.scl.Scl;
+
+/**
+ * Strassen-Winograd multiplication for large square matrices of exact scalars
+ * <p>
+ * Each level of recursion trades one of eight block products for fifteen block
+ * additions, which pays off when a scalar multiply costs much more than an add.
+ * Matrices are padded with zeros to a leaf size times a power of two, and every leaf
+ * goes back through Mtx.MULT so zero and identity blocks keep their shortcuts.
+ */
+public abstract class Strassen {
+  /**
+   * Square products larger than this are split recursively
+   */
+  public static int crossover = 128;
+
+  /**
+   * Whether a product should use Strassen-Winograd
+   * @param a Matrix A
+   * @param b Matrix B
+   * @return True if both are the same square size and above the crossover
+   */
+  static boolean applies(Mtx a, Mtx b) {
+    int n = a.rCount;
+    return n > crossover && a.cCount == n && b.rCount == n && b.cCount == n;
+  }
+
+  /**
+   * Multiplies two square matrices of the same size
+   * @param a Matrix A
+   * @param b Matrix B
+   * @param report Whether to print the algorithm used
+   * @return a * b
+   */
+  static Mtx mult(Mtx a, Mtx b, boolean report) {
+    int n = a.rCount;
+    // Halve until the blocks fit under the crossover, then pad to leaf * 2^levels
+    int levels = 0;
+    int leaf = n;
+    while (leaf > crossover) {
+      leaf = (leaf + 1) / 2;
+      levels++;
+    }
+    int size = leaf << levels;
+    if (report)
+      Gemm.report(String.format("strassen-winograd (%d levels, %dx%d leaves)", levels, leaf, leaf), a, b);
+
+    Scl[] res = mult(pad(a, size), pad(b, size), size);
+
+    FullMtx out = new FullMtx(n, n);
+    for (int r = 0; r < n; r++) {
+      for (int c = 0; c < n; c++) {
+        out.set(r, c, res[r * size + c]);
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Recursively multiplies two row-major square blocks
+   * @param a    Block A
+   * @param b    Block B
+   * @param size The side length of both blocks
+   * @return a * b
+   */
+  private static Scl[] mult(Scl[] a, Scl[] b, int size) {
+    if (size <= crossover || size % 2 != 0) {
+      return leaf(a, b, size);
+    }
+    int h = size / 2;
+    Scl[] a11 = quad(a, size, 0, 0), a12 = quad(a, size, 0, h);
+    Scl[] a21 = quad(a, size, h, 0), a22 = quad(a, size, h, h);
+    Scl[] b11 = quad(b, size, 0, 0), b12 = quad(b, size, 0, h);
+    Scl[] b21 = quad(b, size, h, 0), b22 = quad(b, size, h, h);
+
+    // Winograd's form: 7 products and 15 additions
+    Scl[] s1 = add(a21, a22), s2 = sub(s1, a11), s3 = sub(a11, a21), s4 = sub(a12, s2);
+    Scl[] t1 = sub(b12, b11), t2 = sub(b22, t1), t3 = sub(b22, b12), t4 = sub(t2, b21);
+
+    Scl[] p1 = mult(a11, b11, h), p2 = mult(a12, b21, h), p3 = mult(s4, b22, h);
+    Scl[] p4 = mult(a22, t4, h), p5 = mult(s1, t1, h), p6 = mult(s2, t2, h), p7 = mult(s3, t3, h);
+
+    Scl[] u2 = add(p1, p6), u3 = add(u2, p7), u4 = add(u2, p5);
+    Scl[] c11 = add(p1, p2), c12 = add(u4, p3), c21 = sub(u3, p4), c22 = add(u3, p5);
+
+    Scl[] res = new Scl[size * size];
+    place(res, size, c11, 0, 0);
+    place(res, size, c12, 0, h);
+    place(res, size, c21, h, 0);
+    place(res, size, c22, h, h);
+    return res;
+  }
+
+  /**
+   * Multiplies two leaf blocks through Mtx.MULT, letting all-zero blocks (from
+   * padding) and identity blocks take its shortcuts
+   */
+  private static Scl[] leaf(Scl[] a, Scl[] b, int size) {
+    Mtx res = Mtx.MULT(wrap(a, size), wrap(b, size), false);
+    Scl[] out = new Scl[size * size];
+    for (int r = 0; r < size; r++) {
+      for (int c = 0; c < size; c++) {
+        out[r * size + c] = res.get(r, c);
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Wraps a block as the most specific matrix type that describes it
+   */
+  private static Mtx wrap(Scl[] block, int size) {
+    boolean zero = true, identity = true;
+    for (int r = 0; r < size && (zero || identity); r++) {
+      for (int c = 0; c < size; c++) {
+        Scl s = block[r * size + c];
+        boolean isZero = Scl.equal(s, Scl.ZERO).val();
+        zero &= isZero;
+        identity &= (r == c) ? Scl.equal(s, Scl.ONE).val() : isZero;
+      }
+    }
+    if (zero)
+      return Mtx.zero(size, size);
+    if (identity)
+      return Mtx.identity(size, size);
+    Scl[][] rows = new Scl[size][size];
+    for (int r = 0; r < size; r++) {
+      System.arraycopy(block, r * size, rows[r], 0, size);
+    }
+    return new FullMtx(rows);
+  }
+
+  /**
+   * Copies a matrix into a zero padded row-major square block
+   */
+  private static Scl[] pad(Mtx m, int size) {
+    Scl[] block = new Scl[size * size];
+    Arrays.fill(block, Scl.ZERO);
+    for (int r = 0; r < m.rCount; r++) {
+      for (int c = 0; c < m.cCount; c++) {
+        block[r * size + c] = m.get(r, c);
+      }
+    }
+    return block;
+  }
+
+  /**
+   * Copies out one quadrant of a block
+   */
+  private static Scl[] quad(Scl[] m, int size, int row, int col) {
+    int h = size / 2;
+    Scl[] q = new Scl[h * h];
+    for (int r = 0; r < h; r++) {
+      System.arraycopy(m, (row + r) * size + col, q, r * h, h);
+    }
+    return q;
+  }
+
+  /**
+   * Copies a quadrant back into a block
+   */
+  private static void place(Scl[] m, int size, Scl[] q, int row, int col) {
+    int h = size / 2;
+    for (int r = 0; r < h; r++) {
+      System.arraycopy(q, r * h, m, (row + r) * size + col, h);
+    }
+  }
+
+  private static Scl[] add(Scl[] a, Scl[] b) {
+    Scl[] res = new Scl[a.length];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = Scl.add(a[i], b[i]);
+    }
+    return res;
+  }
+
+  private static Scl[] sub(Scl[] a, Scl[] b) {
+    Scl[] res = new Scl[a.length];
+    for (int i = 0; i < res.length; i++) {
+      res[i] = Scl.sub(a[i], b[i]);
+    }
+    return res;
+  }
+}
@@ -0,0 +1,267 @@
+package vars.mtx;
+
+import vars.scl.Scl;
+
+/**
+ * A square matrix whose nonzero cells all lie within a band around the diagonal:
+ * cell (r, c) can only be nonzero if -lower() <= c - r <= upper()
+ * <p>
+ * Diagonal, triangular and banded matrices are all described this way, which lets one
+ * set of kernels keep their structure: sums and products of banded matrices are
+ * banded, and the result is stored as the most specific type that fits its band.
+ */
+public abstract class StructMtx extends Mtx {
+
+  StructMtx(int n) {
+    super(n, n);
+  }
+
+  /**
+   * The number of nonzero diagonals below the main diagonal
+   * @return The lower bandwidth
+   */
+  public abstract int lower();
+
+  /**
+   * The number of nonzero diagonals above the main diagonal
+   * @return The upper bandwidth
+   */
+  public abstract int upper();
+
+  /**
+   * Stores a cell that lies inside the band
+   * @param row The row
+   * @param col The column
+   * @param s   The scalar
+   */
+  abstract void setInBand(int row, int col, Scl s);
+
+  /**
+   * Whether a cell lies inside the band
+   * @param row The row
+   * @param col The column
+   * @return True or false
+   */
+  boolean inBand(int row, int col) {
+    return col - row >= -lower() && col - row <= upper();
+  }
+
+  @Override
+  public Mtx set(int row, int col, Scl s) {
+    if (!boundsCheck(row, col)) {
+      return null;
+    }
+    if (inBand(row, col)) {
+      setInBand(row, col, s);
+      factors = null;
+      return this;
+    }
+    if (Scl.equal(s, Scl.ZERO).val()) {
+      return this;
+    }
+    // The write breaks the structure, so continue as a full matrix
+    return new FullMtx(this).set(row, col, s);
+  }
+
+  /**
+   * Computes a single cell of a structured result
+   */
+  interface CellFn {
+    Scl cell(int row, int col);
+  }
+
+  /**
+   * Creates the most specific matrix for a band and fills the band from a function
+   * @param n  The size
+   * @param kl The lower bandwidth
+   * @param ku The upper bandwidth
+   * @param fn Computes each cell inside the band
+   * @return The matrix
+   */
+  static Mtx build(int n, int kl, int ku, CellFn fn) {
+    kl = Math.min(kl, n - 1);
+    ku = Math.min(ku, n - 1);
+    Mtx res;
+    if (kl == 0 && ku == 0) {
+      res = new DiagMtx(n);
+    } else if (kl == 0 && ku == n - 1) {
+      res = new TriMtx(n, true);
+    } else if (ku == 0 && kl == n - 1) {
+      res = new TriMtx(n, false);
+    } else if (kl == n - 1 && ku == n - 1) {
+      res = new FullMtx(n, n);
+      // FullMtx starts out empty rather than zero
+      for (int r = 0; r < n; r++) {
+        for (int c = 0; c < n; c++) {
+          res.set(r, c, fn.cell(r, c));
+        }
+      }
+      return res;
+    } else {
+      res = new BandMtx(n, kl, ku);
+    }
+    StructMtx band = (StructMtx) res;
+    for (int r = 0; r < n; r++) {
+      for (int c = Math.max(0, r - kl); c <= Math.min(n - 1, r + ku); c++) {
+        band.setInBand(r, c, fn.cell(r, c));
+      }
+    }
+    return band;
+  }
+
+  /**
+   * Copies the band of any square matrix, dropping everything outside it
+   * @param m  The matrix
+   * @param kl The lower bandwidth
+   * @param ku The upper bandwidth
+   * @return The structured matrix
+   */
+  public static Mtx of(final Mtx m, int kl, int ku) {
+    return build(m.rCount, kl, ku, new CellFn() {
+      @Override
+      public Scl cell(int row, int col) {
+        return m.get(row, col);
+      }
+    });
+  }
+
+  /**
+   * Adds or subtracts two structured matrices of the same size
+   * @param a        The first matrix
+   * @param b        The second matrix
+   * @param subtract True for a - b
+   * @return The result, banded by the wider of the two bands
+   */
+  static Mtx add(final StructMtx a, final StructMtx b, final boolean subtract) {
+    return build(a.rCount, Math.max(a.lower(), b.lower()), Math.max(a.upper(), b.upper()), new CellFn() {
+      @Override
+      public Scl cell(int row, int col) {
+        return subtract ? Scl.sub(a.get(row, col), b.get(row, col)) : Scl.add(a.get(row, col), b.get(row, col));
+      }
+    });
+  }
+
+  /**
+   * Multiplies two structured matrices of the same size, only summing over the
+   * overlap of the two bands
+   * @param a Matrix A
+   * @param b Matrix B
+   * @return a * b, banded by the sums of the bandwidths
+   */
+  static Mtx mult(final StructMtx a, final StructMtx b) {
+    final int n = a.rCount;
+    return build(n, a.lower() + b.lower(), a.upper() + b.upper(), new CellFn() {
+      @Override
+      public Scl cell(int row, int col) {
+        Scl sum = Scl.ZERO;
+        int lo = Math.max(0, Math.max(row - a.lower(), col - b.upper()));
+        int hi = Math.min(n - 1, Math.min(row + a.upper(), col + b.lower()));
+        for (int k = lo; k <= hi; k++) {
+          sum = Scl.add(sum, Scl.mult(a.get(row, k), b.get(k, col)));
+        }
+        return sum;
+      }
+    });
+  }
+
+  /**
+   * Multiplies a structured matrix by any other matrix, only summing over the band
+   * @param a Matrix A (structured)
+   * @param b Matrix B
+   * @return a * b in the representation of b
+   */
+  static Mtx multLeft(StructMtx a, Mtx b) {
+    int n = a.rCount, p = b.cCount;
+    if (b.isFloat()) {
+      DoubleMtx.Layout lb = DoubleMtx.layoutOrCopy(b);
+      double[] res = new double[n * p];
+      for (int r = 0; r < n; r++) {
+        for (int k = Math.max(0, r - a.lower()); k <= Math.min(n - 1, r + a.upper()); k++) {
+          double ark = a.get(r, k).doubleValue();
+          int bk = lb.offset + k * lb.rowStride;
+          for (int c = 0; c < p; c++) {
+            res[r * p + c] += ark * lb.data[bk + c * lb.colStride];
+          }
+        }
+      }
+      return new DoubleMtx(n, p, res);
+    }
+    Mtx res = new FullMtx(n, p);
+    for (int r = 0; r < n; r++) {
+      int lo = Math.max(0, r - a.lower()), hi = Math.min(n - 1, r + a.upper());
+      for (int c = 0; c < p; c++) {
+        Scl sum = Scl.ZERO;
+        for (int k = lo; k <= hi; k++) {
+          sum = Scl.add(sum, Scl.mult(a.get(r, k), b.get(k, c)));
+        }
+        res.set(r, c, sum);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Multiplies any matrix by a structured matrix, only summing over the band
+   * @param a Matrix A
+   * @param b Matrix B (structured)
+   * @return a * b in the representation of a
+   */
+  static Mtx multRight(Mtx a, StructMtx b) {
+    int n = a.rCount, p = b.cCount;
+    if (a.isFloat()) {
+      DoubleMtx.Layout la = DoubleMtx.layoutOrCopy(a);
+      double[] res = new double[n * p];
+      for (int k = 0; k < p; k++) {
+        // Row k of b only reaches columns k - lower through k + upper
+        for (int c = Math.max(0, k - b.lower()); c <= Math.min(p - 1, k + b.upper()); c++) {
+          double bkc = b.get(k, c).doubleValue();
+          for (int r = 0; r < n; r++) {
+            res[r * p + c] += la.data[la.offset + r * la.rowStride + k * la.colStride] * bkc;
+          }
+        }
+      }
+      return new DoubleMtx(n, p, res);
+    }
+    Mtx res = new FullMtx(n, p);
+    for (int c = 0; c < p; c++) {
+      int lo = Math.max(0, c - b.upper()), hi = Math.min(p - 1, c + b.lower());
+      for (int r = 0; r < n; r++) {
+        Scl sum = Scl.ZERO;
+        for (int k = lo; k <= hi; k++) {
+          sum = Scl.add(sum, Scl.mult(a.get(r, k), b.get(k, c)));
+        }
+        res.set(r, c, sum);
+      }
+    }
+    return res;
+  }
+
+  /**
+   * Scales the band of a structured matrix
+   * @param s The scalar
+   * @param m The matrix
+   * @return The scaled matrix, with the same structure
+   */
+  static Mtx scale(final Scl s, final StructMtx m) {
+    return build(m.rCount, m.lower(), m.upper(), new CellFn() {
+      @Override
+      public Scl cell(int row, int col) {
+        return Scl.mult(m.get(row, col), s);
+      }
+    });
+  }
+
+  /**
+   * Negates the band of a structured matrix
+   * @param m The matrix
+   * @return The negated matrix, with the same structure
+   */
+  static Mtx neg(final StructMtx m) {
+    return build(m.rCount, m.lower(), m.upper(), new CellFn() {
+      @Override
+      public Scl cell(int row, int col) {
+        return Scl.neg(m.get(row, col));
+      }
+    });
+  }
+}
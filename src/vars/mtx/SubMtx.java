@@ -0,0 +1,49 @@
+package vars.mtx;
+
+import vars.scl.Scl;
+
+/**
+ * A rectangular block of a matrix (including single rows and columns), sharing the
+ * storage of the original
+ *
+ */
+public class SubMtx extends Mtx {
+  /**
+   * The matrix the block is taken from
+   */
+  final Mtx parent;
+  /**
+   * Where the block starts in the parent
+   */
+  final int rOffset, cOffset;
+
+  SubMtx(Mtx parent, int rOffset, int cOffset, int rCount, int cCount) {
+    super(rCount, cCount);
+    this.parent = parent;
+    this.rOffset = rOffset;
+    this.cOffset = cOffset;
+  }
+
+  @Override
+  public Scl get(int row, int col) {
+    if (boundsCheck(row, col)) {
+      return parent.get(rOffset + row, cOffset + col);
+    }
+    return null;
+  }
+
+  @Override
+  public Mtx set(int row, int col, Scl s) {
+    if (boundsCheck(row, col)) {
+      Mtx res = parent.set(rOffset + row, cOffset + col, s);
+      // Structured parents hand back a new matrix when a write breaks their structure
+      return (res == parent) ? this : new SubMtx(res, rOffset, cOffset, rCount, cCount);
+    }
+    return null;
+  }
+
+  @Override
+  public boolean isFloat() {
+    return parent.isFloat();
+  }
+}
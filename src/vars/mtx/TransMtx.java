@@ -0,0 +1,42 @@
+package vars.mtx;
+
+import vars.scl.Scl;
+
+/**
+ * The transpose of a matrix, sharing the storage of the original
+ *
+ */
+public class TransMtx extends Mtx {
+  /**
+   * The matrix being transposed
+   */
+  final Mtx parent;
+
+  TransMtx(Mtx parent) {
+    super(parent.cCount, parent.rCount);
+    this.parent = parent;
+  }
+
+  @Override
+  public Scl get(int row, int col) {
+    if (boundsCheck(row, col)) {
+      return parent.get(col, row);
+    }
+    return null;
+  }
+
+  @Override
+  public Mtx set(int row, int col, Scl s) {
+    if (boundsCheck(row, col)) {
+      Mtx res = parent.set(col, row, s);
+      // Structured parents hand back a new matrix when a write breaks their structure
+      return (res == parent) ? this : new TransMtx(res);
+    }
+    return null;
+  }
+
+  @Override
+  public boolean isFloat() {
+    return parent.isFloat();
+  }
+}
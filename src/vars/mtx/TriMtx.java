@@ -0,0 +1,68 @@
+package vars.mtx;
+
+import java.util.Arrays;
+
+import vars.scl.Scl;
+
+/**
+ * A square matrix that is zero below (upper triangular) or above (lower triangular)
+ * its diagonal, storing only its triangle
+ *
+ */
+public class TriMtx extends StructMtx {
+  /**
+   * Whether the stored triangle is above the diagonal
+   */
+  public final boolean isUpper;
+  /**
+   * The triangle, row after row
+   */
+  private final Scl[] cells;
+
+  /**
+   * Instantiates a triangular matrix of zeros
+   * @param n       The size
+   * @param isUpper True for upper triangular, false for lower
+   */
+  public TriMtx(int n, boolean isUpper) {
+    super(n);
+    this.isUpper = isUpper;
+    this.cells = new Scl[n * (n + 1) / 2];
+    Arrays.fill(cells, Scl.ZERO);
+  }
+
+  @Override
+  public int lower() {
+    return isUpper ? 0 : rCount - 1;
+  }
+
+  @Override
+  public int upper() {
+    return isUpper ? rCount - 1 : 0;
+  }
+
+  /**
+   * Where a cell inside the triangle is stored
+   */
+  private int index(int row, int col) {
+    if (isUpper) {
+      // Rows above have n, n-1, ... cells
+      return row * rCount - row * (row - 1) / 2 + (col - row);
+    }
+    // Rows above have 1, 2, ... cells
+    return row * (row + 1) / 2 + col;
+  }
+
+  @Override
+  public Scl get(int row, int col) {
+    if (!boundsCheck(row, col)) {
+      return null;
+    }
+    return inBand(row, col) ? cells[index(row, col)] : Scl.ZERO;
+  }
+
+  @Override
+  void setInBand(int row, int col, Scl s) {
+    cells[index(row, col)] = s;
+  }
+}
@@ -33,6 +33,12 @@ public class Scl extends Var {
    */
   public static Scl TEN = new Scl(BigDecimal.TEN);
 
+  /**
+   * The digits sums, differences and products are rounded to, the same 34 the
+   * factorisations round to, so values stay bounded in loops that feed them back
+   */
+  private static final MathContext CONTEXT = MathContext.DECIMAL128;
+
   /**
    * Returns the result of a + b   
    * @param a The 1st scalar
@@ -46,7 +52,7 @@ public class Scl extends Var {
     if (b == Scl.ZERO)
       return a;
     // Returns a new scalar representing the result with preserved decimal places
-    return new Scl(a.val.add(b.val, maxPrecision(a, b)));
+    return new Scl(a.val.add(b.val, CONTEXT));
   }
 
   /**
@@ -58,11 +64,11 @@ public class Scl extends Var {
   public static Scl sub(Scl a, Scl b) {
     // Optimized cases:
     if (a == Scl.ZERO)
-      return b;
+      return neg(b);
     if (b == Scl.ZERO)
       return a;
     // Returns a new scalar representing the result with preserved decimal places
-    return new Scl(a.val.subtract(b.val, maxPrecision(a, b)));
+    return new Scl(a.val.subtract(b.val, CONTEXT));
   }
 
   /**
@@ -75,7 +81,7 @@ public class Scl extends Var {
     if (a == Scl.ZERO)
       return a;
     // Returns a new scalar representing the result with preserved decimal places
-    return new Scl(a.val.negate(maxPrecision(a, a)));
+    return new Scl(a.val.negate(CONTEXT));
   }
 
   /**
@@ -98,8 +104,8 @@ public class Scl extends Var {
       return new Scl(b.val.scaleByPowerOfTen(1));
     if (b == Scl.TEN)
       return new Scl(a.val.scaleByPowerOfTen(1));
-    // Returns a new scalar representing the result with preserved decimal places
-    return new Scl(a.val.multiply(b.val, maxPrecision(a, b)));
+    // Returns a new scalar representing the result to 34 significant digits
+    return new Scl(a.val.multiply(b.val, CONTEXT));
   }
 
   /**
@@ -112,7 +118,7 @@ public class Scl extends Var {
     // Optimized cases:
     if (a == Scl.ZERO)
       return Scl.ZERO;
-    if (b == Scl.ZERO) {
+    if (b == Scl.ZERO || b.val.signum() == 0) {
       Output.customError("Cannot divide by 0"); 
       return null;
     }
@@ -132,7 +138,7 @@ public class Scl extends Var {
    * Returns the result of a ^ b (WILL ONLY HAVE DOUBLE PRECISION)
    * @param a The 1st scalar
    * @param b The 2nd scalar
-   * @return The resulting scalar
+   * @return The resulting scalar, or null if it isn't a finite number
    */
   public static Scl exp(Scl a, Scl b) {
     // Optimized cases:
@@ -140,8 +146,13 @@ public class Scl extends Var {
       return Scl.ZERO;
     if (b == Scl.ZERO && a != Scl.ZERO)
       return Scl.ONE;
+    double pow = Math.pow(a.val.doubleValue(), b.val.doubleValue());
+    if (!Double.isFinite(pow)) {
+      Output.customError("%s ^ %s is not a finite number", a, b);
+      return null;
+    }
     // Returns a new scalar representing the result with preserved decimal places
-    return new Scl(Math.pow(a.val.doubleValue(), b.val.doubleValue()), maxPrecisionPlus(a, b).getPrecision());
+    return new Scl(pow, maxPrecisionPlus(a, b).getPrecision());
   }
 
   public static Bool great_or_equal(Scl a, Scl b) {
@@ -172,6 +183,28 @@ public class Scl extends Var {
     this.val = new BigDecimal(val);
   }
 
+  /**
+   * Creates a new scalar from a double, keeping only the digits the double needs   
+   * @param val The double value
+   */
+  public Scl(double val) {
+    this.val = BigDecimal.valueOf(val);
+  }
+
+  /**
+   * Creates a new scalar from a double if it is a finite number, which a float result
+   * that overflowed or was undefined isn't   
+   * @param val The double value
+   * @return The scalar, or null if the value is infinite or NaN
+   */
+  public static Scl of(double val) {
+    if (!Double.isFinite(val)) {
+      Output.customError("%s is not a finite number; a float result overflowed or was undefined", val);
+      return null;
+    }
+    return new Scl(val);
+  }
+
   /**
    * Creates a new scalar from a double and precision
    * @param val The double value
@@ -185,7 +218,7 @@ public class Scl extends Var {
    * Creates a scalar from a BigDecimal
    * @param val The BigDecimal
    */
-  private Scl(BigDecimal val) {
+  public Scl(BigDecimal val) {
     this.val = val;
   }
 
@@ -214,6 +247,43 @@ public class Scl extends Var {
     }
   }
 
+  /**
+   * Whether this scalar is a whole number that fits in an int   
+   * @return True or false
+   */
+  public boolean isInt() {
+    try {
+      this.val.intValueExact();
+      return true;
+    } catch (ArithmeticException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns the value of this scalar as an int (check isInt first)   
+   * @return The int value
+   */
+  public int intValue() {
+    return this.val.intValue();
+  }
+
+  /**
+   * Returns the exact value of this scalar   
+   * @return The BigDecimal value
+   */
+  public BigDecimal decimalValue() {
+    return this.val;
+  }
+
+  /**
+   * Returns the value of this scalar as a double (may lose precision)   
+   * @return The double value
+   */
+  public double doubleValue() {
+    return this.val.doubleValue();
+  }
+
   @Override
   public String toString() {
     return this.val.toPlainString();